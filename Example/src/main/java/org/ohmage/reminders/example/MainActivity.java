@@ -13,6 +13,7 @@ import org.ohmage.reminders.notif.NotifSurveyAdaptor;
 import org.ohmage.reminders.ui.TriggerListActivity;
 
 import java.util.Arrays;
+import java.util.Collections;
 
 
 public class MainActivity extends ActionBarActivity {
@@ -29,8 +30,18 @@ public class MainActivity extends ActionBarActivity {
             public void onClick(View v) {
                 Intent intent = new Intent(getBaseContext(), TriggerListActivity.class);
                 startActivity(intent);
-                String[] active = TriggerFramework.getActiveSurveys(getBaseContext(), null);
-                Log.d(TAG, "active surveys:" + Arrays.toString(active));
+                TriggerFramework.getActiveSurveysAsync(getBaseContext(), null,
+                        new TriggerFramework.Callback<String[]>() {
+                            @Override
+                            public void onResult(String[] active) {
+                                Log.d(TAG, "active surveys:" + Arrays.toString(active));
+                            }
+
+                            @Override
+                            public void onError(Throwable error) {
+                                Log.e(TAG, "Failed to get the active surveys", error);
+                            }
+                        });
             }
         });
 
@@ -60,7 +71,8 @@ public class MainActivity extends ActionBarActivity {
             @Override
             public void onClick(View v) {
                 Log.d(TAG, "Survey #0 set as taken");
-                TriggerFramework.notifySurveyTaken(getBaseContext(), "0");
+                TriggerFramework.notifySurveysTakenAsync(getBaseContext(),
+                        Collections.singletonList("0"), null);
             }
         });
 
@@ -1,81 +1,158 @@
 package org.ohmage.reminders.example;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
-import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.ohmage.reminders.base.ReminderContract.Reminders;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
+/**
+ * A reminders provider backed by a SQLite database. It starts out with four fake surveys and is
+ * used to measure how the library's writes behave against a real database.
+ */
 public class ReminderProvider extends ContentProvider {
     private static final String TAG = ReminderProvider.class.getSimpleName();
 
+    private static final String DATABASE_NAME = "reminders.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_REMINDERS = "reminders";
+
+    private static final int FAKE_SURVEY_COUNT = 4;
+
+    private DatabaseHelper mDbHelper;
+
     public ReminderProvider() {
     }
 
     @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Implement this to handle requests to delete one or more rows.
-        throw new UnsupportedOperationException("Not yet implemented");
+    public boolean onCreate() {
+        mDbHelper = new DatabaseHelper(getContext());
+        return true;
     }
 
     @Override
     public String getType(Uri uri) {
-        // TODO: Implement this to handle requests for the MIME type of the data
-        // at the given URI.
-        throw new UnsupportedOperationException("Not yet implemented");
+        return "vnd.android.cursor.dir/vnd.ohmage.reminder";
     }
 
     @Override
-    public Uri insert(Uri uri, ContentValues values) {
-        // TODO: Implement this to handle requests to insert a new row.
-        throw new UnsupportedOperationException("Not yet implemented");
+    public Cursor query(Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(TABLE_REMINDERS, projection,
+                selection, selectionArgs, null, null, sortOrder);
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return cursor;
     }
 
     @Override
-    public boolean onCreate() {
-        // TODO: Implement this to initialize your content provider on startup.
-        return false;
+    public Uri insert(Uri uri, ContentValues values) {
+        long id = mDbHelper.getWritableDatabase().insert(TABLE_REMINDERS, null, values);
+        if (id == -1) {
+            return null;
+        }
+
+        getContext().getContentResolver().notifyChange(uri, null);
+        return Uri.withAppendedPath(uri, values.getAsString(Reminders._ID));
     }
 
     @Override
-    public Cursor query(Uri uri, String[] projection, String selection,
-                        String[] selectionArgs, String sortOrder) {
-        MatrixCursor cursor = new MatrixCursor(projection);
-
-        List<String> selectionList = null;
-        if (selectionArgs != null)
-            selectionList = Arrays.asList(selectionArgs);
-
-        // Add four fake surveys
-        for (int i = 0; i < 4; i++) {
-            if (selectionList == null || selectionList.contains(String.valueOf(i))) {
-                cursor.newRow()
-                        .add(Reminders.REMINDER_NAME, "Reminder #" + i)
-                        .add(Reminders._ID, String.valueOf(i));
-            }
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        int count = mDbHelper.getWritableDatabase().delete(TABLE_REMINDERS, selection,
+                selectionArgs);
+        if (count > 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
         }
-        return cursor;
+        return count;
     }
 
     @Override
     public int update(Uri uri, ContentValues values, String selection,
                       String[] selectionArgs) {
-        long time = values.getAsLong(Reminders.REMINDER_PENDING_TIME);
-        String timezone = values.getAsString(Reminders.REMINDER_PENDING_TIMEZONE);
-        String t = DateTimeFormat.fullTime().withZone(DateTimeZone.forID(timezone)).print(time);
-        if(time == Reminders.NOT_PENDING) {
-            Log.d(TAG, "The surveys: " + Arrays.toString(selectionArgs) + "are no longer pending");
-        } else {
-            Log.d(TAG, "The surveys: " + Arrays.toString(selectionArgs) + "are pending at " + t);
+        long start = SystemClock.elapsedRealtime();
+        int count = mDbHelper.getWritableDatabase().update(TABLE_REMINDERS, values, selection,
+                selectionArgs);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        if (values.containsKey(Reminders.REMINDER_PENDING_TIME)) {
+            long time = values.getAsLong(Reminders.REMINDER_PENDING_TIME);
+            if (time == Reminders.NOT_PENDING) {
+                Log.d(TAG, count + " surveys are no longer pending (" + elapsed + "ms): "
+                        + Arrays.toString(selectionArgs));
+            } else {
+                String timezone = values.getAsString(Reminders.REMINDER_PENDING_TIMEZONE);
+                String t = DateTimeFormat.fullTime().withZone(DateTimeZone.forID(timezone)).print(time);
+                Log.d(TAG, count + " surveys are pending at " + t + " (" + elapsed + "ms): "
+                        + Arrays.toString(selectionArgs));
+            }
+        }
+
+        if (count > 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return count;
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Apply the whole batch in one transaction
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+            Log.d(TAG, "Applied " + operations.size() + " operations in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        public DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_REMINDERS + " ("
+                    + Reminders._ID + " TEXT PRIMARY KEY, "
+                    + Reminders.REMINDER_NAME + " TEXT, "
+                    + Reminders.REMINDER_GROUP + " TEXT, "
+                    + Reminders.REMINDER_PENDING_TIME + " INTEGER DEFAULT " + Reminders.NOT_PENDING + ", "
+                    + Reminders.REMINDER_PENDING_TIMEZONE + " TEXT)");
+
+            // Add four fake surveys
+            for (int i = 0; i < FAKE_SURVEY_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put(Reminders._ID, String.valueOf(i));
+                values.put(Reminders.REMINDER_NAME, "Reminder #" + i);
+                db.insert(TABLE_REMINDERS, null, values);
+            }
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_REMINDERS);
+            onCreate(db);
         }
-        return selectionArgs.length;
     }
 }
@@ -0,0 +1,59 @@
+package org.ohmage.reminders.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ohmage.reminders.core.ActiveSurveyRules;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Computation of all the active surveys over all the triggers, as done
+ * by NotifSurveyAdaptor (getAllActiveSurveys()) on each refresh of the
+ * notification.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActiveSurveyBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int triggers;
+
+    private ActiveSurveyRules mRules;
+    private List<Fixtures.Trigger> mTriggers;
+    private long mNow;
+
+    @Setup
+    public void setUp() {
+        Fixtures.MemoryStateStore store = new Fixtures.MemoryStateStore();
+        mNow = Fixtures.monday();
+        mTriggers = Fixtures.triggers(new Random(Fixtures.SEED), triggers, mNow, store);
+        mRules = new ActiveSurveyRules(store);
+    }
+
+    @Benchmark
+    public Set<String> allActiveSurveys() {
+        HashSet<String> actSurveys = new HashSet<String>();
+        for (Fixtures.Trigger trig : mTriggers) {
+            actSurveys.addAll(mRules.getActiveSurveys(trig.trigTS, trig.durationMS,
+                    trig.suppressMS, trig.surveys, mNow));
+        }
+        return actSurveys;
+    }
+}
@@ -0,0 +1,85 @@
+package org.ohmage.reminders.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ohmage.reminders.base.TriggerActionDesc;
+import org.ohmage.reminders.types.time.TimeTrigDesc;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Parsing and serialization of the descriptors, which happens each
+ * time a trigger row is read or written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DescriptorBenchmark {
+
+    private TimeTrigDesc mTimeDesc;
+    private String mTimeDescStr;
+    private TimeTrigDesc mRandomTimeDesc;
+    private String mRandomTimeDescStr;
+    private TriggerActionDesc mActionDesc;
+    private String mActionDescStr;
+
+    @Setup
+    public void setUp() {
+        Random rand = new Random(Fixtures.SEED);
+
+        do {
+            mTimeDesc = Fixtures.timeTrigDesc(rand);
+        } while (mTimeDesc.isRandomized());
+        mTimeDescStr = mTimeDesc.toString();
+
+        do {
+            mRandomTimeDesc = Fixtures.timeTrigDesc(rand);
+        } while (!mRandomTimeDesc.isRandomized());
+        mRandomTimeDescStr = mRandomTimeDesc.toString();
+
+        mActionDesc = Fixtures.actionDesc(rand);
+        mActionDescStr = mActionDesc.toString();
+    }
+
+    @Benchmark
+    public boolean timeTrigLoadString() {
+        return new TimeTrigDesc().loadString(mTimeDescStr);
+    }
+
+    @Benchmark
+    public String timeTrigToString() {
+        return mTimeDesc.toString();
+    }
+
+    @Benchmark
+    public boolean randomTimeTrigLoadString() {
+        return new TimeTrigDesc().loadString(mRandomTimeDescStr);
+    }
+
+    @Benchmark
+    public String randomTimeTrigToString() {
+        return mRandomTimeDesc.toString();
+    }
+
+    @Benchmark
+    public boolean actionLoadString() {
+        return new TriggerActionDesc().loadString(mActionDescStr);
+    }
+
+    @Benchmark
+    public String actionToString() {
+        return mActionDesc.toString();
+    }
+}
@@ -0,0 +1,162 @@
+package org.ohmage.reminders.bench;
+
+import org.ohmage.reminders.base.TriggerActionDesc;
+import org.ohmage.reminders.core.Clock;
+import org.ohmage.reminders.core.PlaceMatcher.Place;
+import org.ohmage.reminders.core.TriggerStateStore;
+import org.ohmage.reminders.types.time.TimeTrigDesc;
+import org.ohmage.reminders.utils.SimpleTime;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Synthetic fixtures for the benchmarks. The generators are seeded so
+ * that every run of a benchmark works on the same data.
+ *
+ * The shapes follow what is seen in deployed campaigns: a handful of
+ * surveys per trigger, reminders between 7am and 10pm mostly on week
+ * days, one in four randomized within a range of one to three hours,
+ * and places of 50 to 250m scattered over a city.
+ */
+public class Fixtures {
+
+    public static final long SEED = 42;
+
+    //Los Angeles, where the places are scattered around
+    private static final double CITY_LAT = 34.0522;
+    private static final double CITY_LONG = -118.2437;
+    //About 20km in each direction
+    private static final double CITY_SPAN = 0.2;
+
+    /* A clock which always reads the same time */
+    public static class FixedClock extends Clock {
+        private final long mTime;
+
+        public FixedClock(long time) {
+            mTime = time;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return mTime;
+        }
+    }
+
+    /* A trigger state store kept in memory */
+    public static class MemoryStateStore implements TriggerStateStore {
+        public final HashMap<Integer, Long> triggerTimes = new HashMap<Integer, Long>();
+        public final HashMap<String, Long> takenTimes = new HashMap<String, Long>();
+        public final HashMap<String, Long> ignoredTimes = new HashMap<String, Long>();
+
+        @Override
+        public long getTriggerTimeStamp(int trigId) {
+            return get(triggerTimes, trigId);
+        }
+
+        @Override
+        public long getSurveyTakenTime(String survey) {
+            return get(takenTimes, survey);
+        }
+
+        @Override
+        public long getSurveyIgnoredTime(String survey) {
+            return get(ignoredTimes, survey);
+        }
+
+        private static <K> long get(HashMap<K, Long> times, K key) {
+            Long time = times.get(key);
+            return time == null ? INVALID_TIMESTAMP : time;
+        }
+    }
+
+    /* A trigger as the active survey computation sees it */
+    public static class Trigger {
+        public long trigTS;
+        public long durationMS;
+        public long suppressMS;
+        public String[] surveys;
+    }
+
+    /*
+     * A monday at noon in the default time zone
+     */
+    public static long monday() {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(2014, Calendar.JUNE, 2, 12, 0, 0);
+        return cal.getTimeInMillis();
+    }
+
+    public static TimeTrigDesc timeTrigDesc(Random rand) {
+        TimeTrigDesc desc = new TimeTrigDesc();
+
+        int hour = 7 + rand.nextInt(13);
+        if (rand.nextInt(4) == 0) {
+            desc.setRandomized(true);
+            desc.setRangeEnabled(true);
+            desc.setRangeStart(new SimpleTime(hour, 0));
+            desc.setRangeEnd(new SimpleTime(hour + 1 + rand.nextInt(3), 0));
+        } else {
+            desc.setTriggerTime(new SimpleTime(hour, 15 * rand.nextInt(4)));
+        }
+
+        //Week days, and the weekend for one in three triggers
+        boolean weekend = rand.nextInt(3) == 0;
+        desc.setRepeatStatus(TimeTrigDesc.getDayOfWeekString(Calendar.SATURDAY), weekend);
+        desc.setRepeatStatus(TimeTrigDesc.getDayOfWeekString(Calendar.SUNDAY), weekend);
+
+        return desc;
+    }
+
+    public static String[] surveys(Random rand, int campaignSurveys) {
+        int count = 1 + rand.nextInt(4);
+        String[] surveys = new String[count];
+        for (int i = 0; i < count; i++) {
+            surveys[i] = "survey_" + rand.nextInt(campaignSurveys);
+        }
+        return surveys;
+    }
+
+    public static TriggerActionDesc actionDesc(Random rand) {
+        TriggerActionDesc desc = new TriggerActionDesc();
+        desc.setSurveys(surveys(rand, 20));
+        return desc;
+    }
+
+    public static List<Place> places(Random rand, int count) {
+        ArrayList<Place> places = new ArrayList<Place>(count);
+        for (int i = 0; i < count; i++) {
+            double lat = CITY_LAT + (rand.nextDouble() - 0.5) * CITY_SPAN;
+            double lng = CITY_LONG + (rand.nextDouble() - 0.5) * CITY_SPAN;
+            places.add(new Place((int) (lat * 1E6), (int) (lng * 1E6), i,
+                    50 + rand.nextInt(200)));
+        }
+        return places;
+    }
+
+    /*
+     * Triggers which went off within the last day, with the
+     * surveys of about a third of them taken since.
+     */
+    public static List<Trigger> triggers(Random rand, int count, long now,
+                                         MemoryStateStore store) {
+        ArrayList<Trigger> trigs = new ArrayList<Trigger>(count);
+        for (int i = 0; i < count; i++) {
+            Trigger trig = new Trigger();
+            trig.trigTS = now - rand.nextInt(24 * 60) * 60000L;
+            trig.durationMS = (30 + rand.nextInt(12) * 30) * 60000L;
+            trig.suppressMS = 30 * 60000L;
+            trig.surveys = surveys(rand, count);
+            trigs.add(trig);
+
+            if (rand.nextInt(3) == 0) {
+                store.takenTimes.put(trig.surveys[0], trig.trigTS + 60000L);
+            }
+        }
+        return trigs;
+    }
+}
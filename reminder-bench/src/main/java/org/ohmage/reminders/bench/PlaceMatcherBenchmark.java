@@ -0,0 +1,65 @@
+package org.ohmage.reminders.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ohmage.reminders.core.DistanceCalculator;
+import org.ohmage.reminders.core.PlaceMatcher;
+import org.ohmage.reminders.core.PlaceMatcher.Place;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Lookup of the place a location sample falls into, as done by
+ * LocTrigService (getLocCategory()) for every accurate sample.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaceMatcherBenchmark {
+
+    //Same margin as LocTrigService
+    private static final float ACCURACY_MARGIN = 20;
+    //Typical accuracy of the samples which are not discarded
+    private static final float ACCURACY = 10;
+
+    @Param({"10", "100", "1000"})
+    public int places;
+
+    private List<Place> mPlaces;
+    private PlaceMatcher mMatcher;
+    private Place mLastPlace;
+
+    @Setup
+    public void setUp() {
+        mPlaces = Fixtures.places(new Random(Fixtures.SEED), places);
+        mMatcher = new PlaceMatcher(DistanceCalculator.HAVERSINE, ACCURACY_MARGIN);
+        mLastPlace = mPlaces.get(mPlaces.size() - 1);
+    }
+
+    /* The sample falls into no place, all the places are looked at */
+    @Benchmark
+    public int outsideAllPlaces() {
+        return mMatcher.getCategory(mPlaces, 0, 0, ACCURACY);
+    }
+
+    /* The sample falls into the last place looked at */
+    @Benchmark
+    public int insideLastPlace() {
+        return mMatcher.getCategory(mPlaces, mLastPlace.latitude, mLastPlace.longitude,
+                ACCURACY);
+    }
+}
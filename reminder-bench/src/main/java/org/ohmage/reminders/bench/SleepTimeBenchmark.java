@@ -0,0 +1,60 @@
+package org.ohmage.reminders.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ohmage.reminders.core.SleepTimeCalculator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Update of the GPS duty cycle interval, as done by LocTrigService
+ * (getUpdatedSleepTime()) at the end of each sampling cycle. The
+ * inputs follow a trace of a user alternating between being idle,
+ * walking and driving while getting closer to and further from
+ * a place.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SleepTimeBenchmark {
+
+    private static final int TRACE_LENGTH = 1024;
+
+    private final SleepTimeCalculator mCalc = new SleepTimeCalculator();
+    private final float[] mProximity = new float[TRACE_LENGTH];
+    private final float[] mSpeed = new float[TRACE_LENGTH];
+    private int mStep = 0;
+
+    @Setup
+    public void setUp() {
+        Random rand = new Random(Fixtures.SEED);
+        float[] speeds = {0, 0, 1.4F, 13.4F};
+
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            mSpeed[i] = speeds[(i / 16) % speeds.length];
+            mProximity[i] = rand.nextInt(10) == 0
+                    ? SleepTimeCalculator.NO_PROXIMITY : rand.nextInt(5000);
+        }
+    }
+
+    @Benchmark
+    public long update() {
+        int i = mStep;
+        mStep = (i + 1) % TRACE_LENGTH;
+
+        return mCalc.update(mProximity[i], mSpeed[i],
+                mSpeed[(i + TRACE_LENGTH - 1) % TRACE_LENGTH]);
+    }
+}
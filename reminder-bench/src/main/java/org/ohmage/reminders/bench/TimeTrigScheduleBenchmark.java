@@ -0,0 +1,82 @@
+package org.ohmage.reminders.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ohmage.reminders.core.TimeTrigSchedule;
+import org.ohmage.reminders.types.time.TimeTrigDesc;
+import org.ohmage.reminders.utils.SimpleTime;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Computation of the next time a time trigger goes off, as done by
+ * TimeTrigService each time an alarm is set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeTrigScheduleBenchmark {
+
+    private static final int TRIG_ID = 1;
+
+    private TimeTrigSchedule mSchedule;
+    private TimeTrigDesc mLaterToday;
+    private TimeTrigDesc mRandomLaterToday;
+    private TimeTrigDesc mNextWeek;
+
+    @Setup
+    public void setUp() {
+        Fixtures.MemoryStateStore store = new Fixtures.MemoryStateStore();
+        mSchedule = new TimeTrigSchedule(new Fixtures.FixedClock(Fixtures.monday()), store,
+                new Random(Fixtures.SEED));
+
+        //Goes off later today
+        mLaterToday = new TimeTrigDesc();
+        mLaterToday.setTriggerTime(new SimpleTime(18, 30));
+
+        //Goes off at a random time later today
+        mRandomLaterToday = new TimeTrigDesc();
+        mRandomLaterToday.setRandomized(true);
+        mRandomLaterToday.setRangeEnabled(true);
+        mRandomLaterToday.setRangeStart(new SimpleTime(11, 0));
+        mRandomLaterToday.setRangeEnd(new SimpleTime(14, 0));
+
+        //Only repeats on mondays and has already gone off today,
+        //so all the days of the week are looked at
+        mNextWeek = new TimeTrigDesc();
+        mNextWeek.setTriggerTime(new SimpleTime(9, 0));
+        for (String day : mNextWeek.getRepeat().keySet()) {
+            mNextWeek.setRepeatStatus(day, false);
+        }
+        mNextWeek.setRepeatStatus(TimeTrigDesc.getDayOfWeekString(Calendar.MONDAY), true);
+        store.triggerTimes.put(TRIG_ID, Fixtures.monday() - 3 * 3600000L);
+    }
+
+    @Benchmark
+    public long laterToday() {
+        return mSchedule.getNextFireTime(0, mLaterToday);
+    }
+
+    @Benchmark
+    public long randomLaterToday() {
+        return mSchedule.getNextFireTime(0, mRandomLaterToday);
+    }
+
+    @Benchmark
+    public long nextWeek() {
+        return mSchedule.getNextFireTime(TRIG_ID, mNextWeek);
+    }
+}
@@ -0,0 +1,100 @@
+package org.ohmage.reminders.sim;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * The aggregate statistics of a simulation run
+ */
+public class SimStats {
+
+    public int triggers;
+    public int campaigns;
+    public int days;
+
+    //Triggers going off
+    public long fires;
+    //Fires for which all the surveys were suppressed
+    public long suppressedFires;
+    //Fires at a local time other than the one set (DST gaps)
+    public long offScheduleFires;
+    //Fires on a local day the trigger had already gone off on
+    public long duplicateFires;
+    //Fires whose alarm went off while the device was off
+    public long lostFires;
+
+    public long repeatsDelivered;
+    //Repeat reminders of triggers whose surveys were all taken
+    public long repeatsSkipped;
+    public long lostRepeats;
+
+    public long expiries;
+    //Expiries with surveys which were not taken
+    public long missedExpiries;
+    public long missedSurveys;
+    public long lostExpiries;
+
+    public long surveysTaken;
+    public long lostTakes;
+
+    //Requests to refresh the notification
+    public long notifRefreshes;
+    //Changes of the set of surveys shown in the notification
+    public long notifChanges;
+
+    public int zoneChanges;
+    public int reboots;
+
+    public int minFiresPerTrigger;
+    public int maxFiresPerTrigger;
+
+    public long events;
+    public long runTimeMS;
+
+    public JSONObject toJSON() {
+        JSONObject jStats = new JSONObject();
+
+        try {
+            jStats.put("triggers", triggers);
+            jStats.put("campaigns", campaigns);
+            jStats.put("days", days);
+            jStats.put("fires", fires);
+            jStats.put("suppressed_fires", suppressedFires);
+            jStats.put("off_schedule_fires", offScheduleFires);
+            jStats.put("duplicate_fires", duplicateFires);
+            jStats.put("lost_fires", lostFires);
+            jStats.put("repeats_delivered", repeatsDelivered);
+            jStats.put("repeats_skipped", repeatsSkipped);
+            jStats.put("lost_repeats", lostRepeats);
+            jStats.put("expiries", expiries);
+            jStats.put("missed_expiries", missedExpiries);
+            jStats.put("missed_surveys", missedSurveys);
+            jStats.put("lost_expiries", lostExpiries);
+            jStats.put("surveys_taken", surveysTaken);
+            jStats.put("lost_takes", lostTakes);
+            jStats.put("notif_refreshes", notifRefreshes);
+            jStats.put("notif_changes", notifChanges);
+            jStats.put("zone_changes", zoneChanges);
+            jStats.put("reboots", reboots);
+            jStats.put("min_fires_per_trigger", minFiresPerTrigger);
+            jStats.put("max_fires_per_trigger", maxFiresPerTrigger);
+            jStats.put("avg_fires_per_trigger",
+                    triggers == 0 ? 0 : (double) fires / triggers);
+            jStats.put("events", events);
+            jStats.put("run_time_ms", runTimeMS);
+        } catch (JSONException e) {
+            return null;
+        }
+
+        return jStats;
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return toJSON().toString(2);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
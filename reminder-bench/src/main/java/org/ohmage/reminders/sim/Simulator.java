@@ -0,0 +1,631 @@
+package org.ohmage.reminders.sim;
+
+import org.ohmage.reminders.bench.Fixtures;
+import org.ohmage.reminders.core.ActiveSurveyRules;
+import org.ohmage.reminders.core.TimeTrigSchedule;
+import org.ohmage.reminders.core.TriggerStateStore;
+import org.ohmage.reminders.types.time.TimeTrigDesc;
+import org.ohmage.reminders.utils.SimpleTime;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+
+/*
+ * Simulates time triggers over a long period in compressed time.
+ *
+ * The simulation is driven by a virtual clock and a queue of events. The
+ * next fire time of each trigger is computed by TimeTrigSchedule and the
+ * active surveys by ActiveSurveyRules, the same code the library runs. Around
+ * them, the simulator plays the part of the library and of the user:
+ *
+ *     - When a trigger goes off, the repeat reminders and the expiration
+ *       of its notification are scheduled, as well as the next fire.
+ *     - The user of each campaign takes the surveys of a fired trigger with
+ *       a given probability, after a random delay.
+ *     - When the time zone changes all the triggers are reset, as done by
+ *       TriggerTimeReceiver.
+ *     - While the device is off, the alarms which go off are lost. At boot
+ *       all the triggers are reset, as done by TriggerInit. The repeat
+ *       reminders and expirations which are due after the boot are kept,
+ *       as restored by Notifier.restorePastNotificationStates().
+ *
+ * The time zone the simulation starts in goes through its DST switches.
+ *
+ * Usage: Simulator [--triggers N] [--campaigns N] [--days N] [--seed N]
+ *                  [--zone ID] [--trips N] [--reboots N] [--timelines N]
+ *                  [--out DIR]
+ *
+ * The aggregate statistics are written to DIR/summary.json and the
+ * timelines of the first triggers (--timelines) to DIR/timelines.csv.
+ */
+public class Simulator {
+
+    private static final long MINUTE = 60000L;
+    private static final long DAY = 24 * 60 * MINUTE;
+
+    //Zones travelled to on the trips
+    private static final String[] TRIP_ZONES = {
+            "America/New_York", "Europe/London", "Asia/Tokyo", "Pacific/Honolulu"};
+
+    private static final int[] DURATIONS = {30, 60, 120, 240}; //minutes
+    private static final int[] SUPPRESSIONS = {15, 30, 60}; //minutes
+    private static final Integer[] REPEATS = {5, 10, 15, 30}; //minutes
+    //Average delay of the user before taking a survey
+    private static final long TAKE_DELAY_MEAN = 15 * MINUTE;
+
+    /* Event types */
+    private static final int EV_FIRE = 0;
+    private static final int EV_REPEAT = 1;
+    private static final int EV_TAKE = 2;
+    private static final int EV_EXPIRE = 3;
+    private static final int EV_ZONE = 4;
+    private static final int EV_SHUTDOWN = 5;
+    private static final int EV_BOOT = 6;
+
+    /* Options of a simulation run */
+    public static class Options {
+        public int triggers = 5000;
+        public int campaigns = 200;
+        public int days = 365;
+        public long seed = Fixtures.SEED;
+        public String zone = "America/Los_Angeles";
+        public int trips = 4;
+        public int reboots = 12;
+        public int timelines = 20;
+        public File out = new File("build/reports/sim");
+    }
+
+    private static class Event implements Comparable<Event> {
+        long time;
+        int type;
+        SimTrigger trig;
+        //Generation of the alarm (fires) or the notification
+        //(repeats, expirations) the event belongs to
+        int gen;
+        String survey;
+        TimeZone zone;
+        long bootTime;
+        long seq;
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+        }
+    }
+
+    private static class SimTrigger {
+        int id;
+        int campaign;
+        TimeTrigDesc desc;
+        String[] surveys;
+        long durationMS;
+        long suppressMS;
+        List<Integer> repeats;
+
+        //Bumped whenever the alarm of the trigger is reset
+        int alarmGen;
+        //Bumped whenever the trigger goes off
+        int notifGen;
+        long trigTS = TriggerStateStore.INVALID_TIMESTAMP;
+        Set<String> active = new HashSet<String>();
+        int fires;
+        int lastFireDay = -1;
+        List<String> timeline;
+    }
+
+    private final Options mOpts;
+    private final Random mRand;
+    private final VirtualClock mClock;
+    private final Fixtures.MemoryStateStore mStore = new Fixtures.MemoryStateStore();
+    private final TimeTrigSchedule mSchedule;
+    private final ActiveSurveyRules mRules;
+
+    private final PriorityQueue<Event> mEvents = new PriorityQueue<Event>();
+    private long mSeq = 0;
+
+    private final ArrayList<SimTrigger> mTriggers = new ArrayList<SimTrigger>();
+    //Triggers of each survey
+    private final HashMap<String, List<SimTrigger>> mSurveyTriggers =
+            new HashMap<String, List<SimTrigger>>();
+    private double[] mCompliance;
+
+    //Number of active triggers each survey is shown for
+    private final HashMap<String, Integer> mShown = new HashMap<String, Integer>();
+
+    //The device is off until this time
+    private long mOffUntil = 0;
+
+    private final SimStats mStats = new SimStats();
+
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
+
+    public Simulator(Options opts) {
+        mOpts = opts;
+        mRand = new Random(opts.seed);
+
+        TimeZone zone = TimeZone.getTimeZone(opts.zone);
+        Calendar start = Calendar.getInstance(zone);
+        start.clear();
+        start.set(2014, Calendar.JANUARY, 1);
+
+        mClock = new VirtualClock(start.getTimeInMillis(), zone);
+        mSchedule = new TimeTrigSchedule(mClock, mStore, mRand);
+        mRules = new ActiveSurveyRules(mStore);
+    }
+
+    public SimStats run() {
+        long runStart = System.currentTimeMillis();
+        long start = mClock.currentTimeMillis();
+        long end = start + mOpts.days * DAY;
+
+        createTriggers();
+        scheduleTrips(start, end);
+        scheduleReboots(start, end);
+
+        for (SimTrigger trig : mTriggers) {
+            scheduleFire(trig);
+        }
+
+        while (!mEvents.isEmpty() && mEvents.peek().time < end) {
+            Event ev = mEvents.poll();
+            mClock.setTime(ev.time);
+            mStats.events++;
+
+            if (ev.time < mOffUntil && ev.type != EV_BOOT) {
+                dropEvent(ev);
+                continue;
+            }
+
+            switch (ev.type) {
+                case EV_FIRE:
+                    handleFire(ev);
+                    break;
+                case EV_REPEAT:
+                    handleRepeat(ev);
+                    break;
+                case EV_TAKE:
+                    handleTake(ev);
+                    break;
+                case EV_EXPIRE:
+                    handleExpire(ev);
+                    break;
+                case EV_ZONE:
+                    mClock.setTimeZone(ev.zone);
+                    mStats.zoneChanges++;
+                    resetAllTriggers("zone " + ev.zone.getID());
+                    break;
+                case EV_SHUTDOWN:
+                    mOffUntil = Math.max(mOffUntil, ev.bootTime);
+                    break;
+                case EV_BOOT:
+                    if (ev.time < mOffUntil) {
+                        //Shut down again before booting
+                        break;
+                    }
+                    mOffUntil = 0;
+                    mStats.reboots++;
+                    resetAllTriggers("boot");
+                    break;
+            }
+        }
+
+        mStats.triggers = mTriggers.size();
+        mStats.campaigns = mOpts.campaigns;
+        mStats.days = mOpts.days;
+        mStats.minFiresPerTrigger = Integer.MAX_VALUE;
+        for (SimTrigger trig : mTriggers) {
+            mStats.minFiresPerTrigger = Math.min(mStats.minFiresPerTrigger, trig.fires);
+            mStats.maxFiresPerTrigger = Math.max(mStats.maxFiresPerTrigger, trig.fires);
+        }
+        if (mTriggers.isEmpty()) {
+            mStats.minFiresPerTrigger = 0;
+        }
+
+        mStats.runTimeMS = System.currentTimeMillis() - runStart;
+        return mStats;
+    }
+
+    private void createTriggers() {
+        mCompliance = new double[mOpts.campaigns];
+        for (int c = 0; c < mOpts.campaigns; c++) {
+            mCompliance[c] = 0.3 + 0.6 * mRand.nextDouble();
+        }
+
+        for (int i = 0; i < mOpts.triggers; i++) {
+            SimTrigger trig = new SimTrigger();
+            trig.id = i;
+            trig.campaign = i % mOpts.campaigns;
+            trig.desc = Fixtures.timeTrigDesc(mRand);
+
+            //Surveys are unique to their campaign
+            String[] surveys = Fixtures.surveys(mRand, 10);
+            for (int s = 0; s < surveys.length; s++) {
+                surveys[s] = "c" + trig.campaign + "_" + surveys[s];
+            }
+            trig.surveys = new HashSet<String>(Arrays.asList(surveys))
+                    .toArray(new String[0]);
+
+            int duration = DURATIONS[mRand.nextInt(DURATIONS.length)];
+            trig.durationMS = duration * MINUTE;
+            trig.suppressMS = SUPPRESSIONS[mRand.nextInt(SUPPRESSIONS.length)] * MINUTE;
+            trig.repeats = new ArrayList<Integer>();
+            for (Integer repeat : REPEATS) {
+                if (repeat < duration && mRand.nextBoolean()) {
+                    trig.repeats.add(repeat);
+                }
+            }
+
+            if (i < mOpts.timelines) {
+                trig.timeline = new ArrayList<String>();
+            }
+
+            mTriggers.add(trig);
+            for (String survey : trig.surveys) {
+                List<SimTrigger> trigs = mSurveyTriggers.get(survey);
+                if (trigs == null) {
+                    trigs = new ArrayList<SimTrigger>();
+                    mSurveyTriggers.put(survey, trigs);
+                }
+                trigs.add(trig);
+            }
+        }
+    }
+
+    /*
+     * Trips of 3 to 14 days to other time zones
+     */
+    private void scheduleTrips(long start, long end) {
+        TimeZone home = mClock.getTimeZone();
+
+        for (int i = 0; i < mOpts.trips; i++) {
+            long leave = start + (long) (mRand.nextDouble() * (end - start));
+            long back = leave + (3 + mRand.nextInt(12)) * DAY;
+
+            Event ev = newEvent(leave, EV_ZONE, null);
+            ev.zone = TimeZone.getTimeZone(TRIP_ZONES[mRand.nextInt(TRIP_ZONES.length)]);
+            mEvents.add(ev);
+
+            ev = newEvent(back, EV_ZONE, null);
+            ev.zone = home;
+            mEvents.add(ev);
+        }
+    }
+
+    /*
+     * Reboots with 5 minutes to 2 hours of down time
+     */
+    private void scheduleReboots(long start, long end) {
+        for (int i = 0; i < mOpts.reboots; i++) {
+            long shutdown = start + (long) (mRand.nextDouble() * (end - start));
+            long boot = shutdown + (5 + mRand.nextInt(116)) * MINUTE;
+
+            Event ev = newEvent(shutdown, EV_SHUTDOWN, null);
+            ev.bootTime = boot;
+            mEvents.add(ev);
+            mEvents.add(newEvent(boot, EV_BOOT, null));
+        }
+    }
+
+    private Event newEvent(long time, int type, SimTrigger trig) {
+        Event ev = new Event();
+        ev.time = time;
+        ev.type = type;
+        ev.trig = trig;
+        ev.seq = mSeq++;
+        return ev;
+    }
+
+    private void scheduleFire(SimTrigger trig) {
+        long time = mSchedule.getNextFireTime(trig.id, trig.desc);
+        if (time == TimeTrigSchedule.NO_TIME) {
+            record(trig, "no_time", "");
+            return;
+        }
+
+        Event ev = newEvent(time, EV_FIRE, trig);
+        ev.gen = trig.alarmGen;
+        mEvents.add(ev);
+    }
+
+    private void resetAllTriggers(String reason) {
+        for (SimTrigger trig : mTriggers) {
+            trig.alarmGen++;
+            record(trig, "reset", reason);
+            scheduleFire(trig);
+        }
+    }
+
+    private void dropEvent(Event ev) {
+        switch (ev.type) {
+            case EV_FIRE:
+                if (ev.gen == ev.trig.alarmGen) {
+                    mStats.lostFires++;
+                    record(ev.trig, "lost_fire", "");
+                }
+                break;
+            case EV_REPEAT:
+                if (ev.gen == ev.trig.notifGen) {
+                    mStats.lostRepeats++;
+                }
+                break;
+            case EV_TAKE:
+                mStats.lostTakes++;
+                break;
+            case EV_EXPIRE:
+                if (ev.gen == ev.trig.notifGen) {
+                    mStats.lostExpiries++;
+                }
+                break;
+            case EV_ZONE:
+                mClock.setTimeZone(ev.zone);
+                mStats.zoneChanges++;
+                break;
+            case EV_SHUTDOWN:
+                mOffUntil = Math.max(mOffUntil, ev.bootTime);
+                break;
+        }
+    }
+
+    private void handleFire(Event ev) {
+        SimTrigger trig = ev.trig;
+        if (ev.gen != trig.alarmGen) {
+            //The alarm was reset since
+            return;
+        }
+
+        long now = ev.time;
+        mStats.fires++;
+        trig.fires++;
+
+        //Check the local time against the descriptor
+        Calendar cal = mClock.now();
+        int day = cal.get(Calendar.YEAR) * 1000 + cal.get(Calendar.DAY_OF_YEAR);
+        if (day == trig.lastFireDay) {
+            mStats.duplicateFires++;
+        }
+        trig.lastFireDay = day;
+
+        SimpleTime local = new SimpleTime(cal.get(Calendar.HOUR_OF_DAY),
+                cal.get(Calendar.MINUTE));
+        boolean onSchedule = trig.desc.isRandomized()
+                ? !local.isBefore(trig.desc.getRangeStart()) && !local.isAfter(trig.desc.getRangeEnd())
+                : local.equals(trig.desc.getTriggerTime());
+        if (!onSchedule) {
+            mStats.offScheduleFires++;
+        }
+
+        //The notification of the previous fire is replaced
+        trig.notifGen++;
+        trig.trigTS = now;
+        mStore.triggerTimes.put(trig.id, now);
+        updateActive(trig, now);
+        refreshNotification();
+
+        if (trig.active.isEmpty()) {
+            mStats.suppressedFires++;
+        }
+
+        record(trig, "fire", (onSchedule ? "" : "off_schedule ") + trig.active);
+
+        for (int repeat : trig.repeats) {
+            Event rep = newEvent(now + repeat * MINUTE, EV_REPEAT, trig);
+            rep.gen = trig.notifGen;
+            mEvents.add(rep);
+        }
+
+        Event exp = newEvent(now + trig.durationMS, EV_EXPIRE, trig);
+        exp.gen = trig.notifGen;
+        mEvents.add(exp);
+
+        //The user of the campaign takes the surveys
+        for (String survey : trig.active) {
+            if (mRand.nextDouble() < mCompliance[trig.campaign]) {
+                long delay = (long) (-Math.log(1 - mRand.nextDouble()) * TAKE_DELAY_MEAN);
+                if (delay < trig.durationMS) {
+                    Event take = newEvent(now + delay, EV_TAKE, trig);
+                    take.survey = survey;
+                    mEvents.add(take);
+                }
+            }
+        }
+
+        //Set the alarm for the next time, as TimeTrigService does
+        scheduleFire(trig);
+    }
+
+    private void handleRepeat(Event ev) {
+        SimTrigger trig = ev.trig;
+        if (ev.gen != trig.notifGen) {
+            return;
+        }
+
+        updateActive(trig, ev.time);
+        refreshNotification();
+
+        if (trig.active.isEmpty()) {
+            mStats.repeatsSkipped++;
+        } else {
+            mStats.repeatsDelivered++;
+            record(trig, "repeat", trig.active.toString());
+        }
+    }
+
+    private void handleTake(Event ev) {
+        mStats.surveysTaken++;
+        mStore.takenTimes.put(ev.survey, ev.time);
+        record(ev.trig, "take", ev.survey);
+
+        //Taking a survey affects the triggers it is active for
+        for (SimTrigger trig : mSurveyTriggers.get(ev.survey)) {
+            if (trig.active.contains(ev.survey)) {
+                updateActive(trig, ev.time);
+            }
+        }
+        refreshNotification();
+    }
+
+    private void handleExpire(Event ev) {
+        SimTrigger trig = ev.trig;
+        if (ev.gen != trig.notifGen) {
+            return;
+        }
+
+        mStats.expiries++;
+
+        //Same check as NotifSurveyAdaptor.handleExpiredTrigger()
+        int untaken = 0;
+        for (String survey : trig.surveys) {
+            if (!mRules.isSurveyTakenOrIgnored(survey, trig.trigTS)) {
+                untaken++;
+            }
+        }
+
+        if (untaken > 0) {
+            mStats.missedExpiries++;
+            mStats.missedSurveys += untaken;
+        }
+
+        updateActive(trig, ev.time);
+        refreshNotification();
+        record(trig, "expire", untaken + " untaken");
+    }
+
+    /*
+     * Recompute the active surveys of a trigger and keep track of
+     * the changes of the surveys shown in the notification.
+     */
+    private void updateActive(SimTrigger trig, long now) {
+        Set<String> active = mRules.getActiveSurveys(trig.trigTS, trig.durationMS,
+                trig.suppressMS, trig.surveys, now);
+
+        for (String survey : trig.active) {
+            if (!active.contains(survey)) {
+                int count = mShown.get(survey) - 1;
+                if (count == 0) {
+                    mShown.remove(survey);
+                    mStats.notifChanges++;
+                } else {
+                    mShown.put(survey, count);
+                }
+            }
+        }
+
+        for (String survey : active) {
+            if (!trig.active.contains(survey)) {
+                Integer count = mShown.get(survey);
+                if (count == null) {
+                    mShown.put(survey, 1);
+                    mStats.notifChanges++;
+                } else {
+                    mShown.put(survey, count + 1);
+                }
+            }
+        }
+
+        trig.active = active;
+    }
+
+    private void refreshNotification() {
+        mStats.notifRefreshes++;
+    }
+
+    private void record(SimTrigger trig, String event, String detail) {
+        if (trig.timeline == null) {
+            return;
+        }
+
+        mTimeFormat.setTimeZone(mClock.getTimeZone());
+
+        trig.timeline.add(trig.id + "," + trig.campaign + ","
+                + mTimeFormat.format(mClock.currentTimeMillis()) + "," + event + ",\""
+                + detail + "\"");
+    }
+
+    public void writeTimelines(File file) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.println("trigger,campaign,time,event,detail");
+            for (SimTrigger trig : mTriggers) {
+                if (trig.timeline == null) {
+                    continue;
+                }
+
+                out.println(trig.id + "," + trig.campaign + ",,descriptor,\""
+                        + trig.desc.toString().replace("\"", "'") + "\"");
+                for (String line : trig.timeline) {
+                    out.println(line);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Options parseArgs(String[] args) {
+        Options opts = new Options();
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String key = args[i];
+            String val = args[i + 1];
+
+            if (key.equals("--triggers")) {
+                opts.triggers = Integer.parseInt(val);
+            } else if (key.equals("--campaigns")) {
+                opts.campaigns = Integer.parseInt(val);
+            } else if (key.equals("--days")) {
+                opts.days = Integer.parseInt(val);
+            } else if (key.equals("--seed")) {
+                opts.seed = Long.parseLong(val);
+            } else if (key.equals("--zone")) {
+                opts.zone = val;
+            } else if (key.equals("--trips")) {
+                opts.trips = Integer.parseInt(val);
+            } else if (key.equals("--reboots")) {
+                opts.reboots = Integer.parseInt(val);
+            } else if (key.equals("--timelines")) {
+                opts.timelines = Integer.parseInt(val);
+            } else if (key.equals("--out")) {
+                opts.out = new File(val);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + key);
+            }
+        }
+
+        return opts;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options opts = parseArgs(args);
+
+        Simulator sim = new Simulator(opts);
+        SimStats stats = sim.run();
+
+        opts.out.mkdirs();
+        sim.writeTimelines(new File(opts.out, "timelines.csv"));
+
+        FileWriter summary = new FileWriter(new File(opts.out, "summary.json"));
+        try {
+            summary.write(stats.toString());
+        } finally {
+            summary.close();
+        }
+
+        System.out.println(stats.toString());
+    }
+}
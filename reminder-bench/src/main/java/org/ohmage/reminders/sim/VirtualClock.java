@@ -0,0 +1,37 @@
+package org.ohmage.reminders.sim;
+
+import org.ohmage.reminders.core.Clock;
+
+import java.util.TimeZone;
+
+/*
+ * A clock whose time and time zone are set by the simulation
+ */
+public class VirtualClock extends Clock {
+
+    private long mTime;
+    private TimeZone mTimeZone;
+
+    public VirtualClock(long time, TimeZone timeZone) {
+        mTime = time;
+        mTimeZone = timeZone;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return mTime;
+    }
+
+    public void setTime(long time) {
+        mTime = time;
+    }
+
+    @Override
+    public TimeZone getTimeZone() {
+        return mTimeZone;
+    }
+
+    public void setTimeZone(TimeZone timeZone) {
+        mTimeZone = timeZone;
+    }
+}
@@ -18,6 +18,7 @@ package org.ohmage.reminders.base;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.ohmage.reminders.core.Metrics;
 
 import java.util.LinkedHashSet;
 
@@ -61,6 +62,7 @@ public class TriggerActionDesc {
     public boolean loadString(String desc) {
 
         initialize();
+        Metrics.increment(Metrics.DESC_PARSE_ACTION);
 
         if (desc == null) {
             return false;
@@ -0,0 +1,76 @@
+package org.ohmage.reminders.core;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * The rules which decide the surveys of a trigger that are active.
+ *
+ * A trigger is active if it has not expired (the notification duration
+ * has not been reached) after going off the last time.
+ *
+ * All surveys associated with an active trigger are active
+ *     - EXCEPT those which have already been taken or ignored by the
+ *       user within the suppression window.
+ */
+public class ActiveSurveyRules {
+
+    private final TriggerStateStore mStore;
+
+    public ActiveSurveyRules(TriggerStateStore store) {
+        mStore = store;
+    }
+
+    /*
+     * Check if a trigger which went off at the given time has
+     * expired. A trigger which has not gone off, or which goes off
+     * in the future, is treated as expired.
+     */
+    public static boolean isExpired(long trigTS, long durationMS, long now) {
+        if (trigTS == TriggerStateStore.INVALID_TIMESTAMP || trigTS > now) {
+            return true;
+        }
+
+        return now - trigTS >= durationMS;
+    }
+
+    /*
+     * Check if a survey has been taken or ignored by the user
+     * since a given time.
+     */
+    public boolean isSurveyTakenOrIgnored(String survey, long since) {
+        return isAfter(mStore.getSurveyTakenTime(survey), since)
+                || isAfter(mStore.getSurveyIgnoredTime(survey), since);
+    }
+
+    private static boolean isAfter(long timeStamp, long since) {
+        return timeStamp != TriggerStateStore.INVALID_TIMESTAMP && timeStamp > since;
+    }
+
+    /*
+     * Get the surveys of a trigger which are active at the given time
+     */
+    public Set<String> getActiveSurveys(long trigTS, long durationMS, long suppressMS,
+                                        String[] surveys, long now) {
+
+        HashSet<String> actSurveys = new HashSet<String>();
+
+        if (isExpired(trigTS, durationMS, now)) {
+            return actSurveys;
+        }
+
+        for (String survey : surveys) {
+
+            //Has the survey been taken in within the
+            //suppression window?
+            if (isSurveyTakenOrIgnored(survey, now - suppressMS)) {
+                continue;
+            }
+
+            //Add the active survey to the set
+            actSurveys.add(survey);
+        }
+
+        return actSurveys;
+    }
+}
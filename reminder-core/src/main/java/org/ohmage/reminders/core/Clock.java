@@ -0,0 +1,53 @@
+package org.ohmage.reminders.core;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/*
+ * Source of the current time for the scheduling logic. The logic never
+ * reads the system clock directly so that it can be driven by a virtual
+ * clock in tests, benchmarks and simulations.
+ */
+public abstract class Clock {
+
+    /* The clock of the system */
+    public static final Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /*
+     * Get the current time in milliseconds since the epoch
+     */
+    public abstract long currentTimeMillis();
+
+    /*
+     * Get the time zone the local time is computed in
+     */
+    public TimeZone getTimeZone() {
+        return TimeZone.getDefault();
+    }
+
+    /*
+     * Get a calendar in the time zone of the clock set to the current time
+     */
+    public Calendar now() {
+        Calendar cal = Calendar.getInstance(getTimeZone());
+        cal.setTimeInMillis(currentTimeMillis());
+        return cal;
+    }
+
+    /*
+     * Check if a time stamp falls on the current day
+     */
+    public boolean isToday(long timeStamp) {
+        Calendar now = now();
+        Calendar then = Calendar.getInstance(getTimeZone());
+        then.setTimeInMillis(timeStamp);
+
+        return now.get(Calendar.YEAR) == then.get(Calendar.YEAR)
+                && now.get(Calendar.DAY_OF_YEAR) == then.get(Calendar.DAY_OF_YEAR);
+    }
+}
@@ -0,0 +1,33 @@
+package org.ohmage.reminders.core;
+
+/*
+ * Computes the distance between two coordinates. On Android the
+ * platform implementation is used, elsewhere the haversine formula.
+ */
+public interface DistanceCalculator {
+
+    /*
+     * Get the distance in meters between two coordinates
+     * given in degrees
+     */
+    float distanceBetween(double startLat, double startLong,
+                          double endLat, double endLong);
+
+    /* Great circle distance on a spherical earth */
+    DistanceCalculator HAVERSINE = new DistanceCalculator() {
+        private static final double EARTH_RADIUS = 6371009; //m
+
+        @Override
+        public float distanceBetween(double startLat, double startLong,
+                                     double endLat, double endLong) {
+            double dLat = Math.toRadians(endLat - startLat);
+            double dLong = Math.toRadians(endLong - startLong);
+
+            double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                    + Math.cos(Math.toRadians(startLat)) * Math.cos(Math.toRadians(endLat))
+                    * Math.sin(dLong / 2) * Math.sin(dLong / 2);
+
+            return (float) (EARTH_RADIUS * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a)));
+        }
+    };
+}
@@ -0,0 +1,210 @@
+package org.ohmage.reminders.core;
+
+import java.util.Arrays;
+
+/*
+ * Histogram of non-negative values, typically latencies, in the manner of
+ * HdrHistogram. The values are counted in buckets whose width grows with
+ * the magnitude of the value: with a precision of b bits, values below 2^b
+ * are counted exactly and larger values fall in one of 2^(b-1) buckets per
+ * power of two. The relative error of a recorded value is thus at most
+ * 2^(1-b), and the memory used does not depend on the number of values
+ * recorded.
+ *
+ * Values above the highest trackable value are counted as that value.
+ */
+public class Histogram {
+
+    //Precision and range of the histograms of the metrics
+    private static final int DEFAULT_PRECISION_BITS = 6;
+    //About 12 days in microseconds
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private final int mPrecisionBits;
+    private final long mMaxValue;
+
+    private final long[] mCounts;
+    private long mCount = 0;
+    private long mTotal = 0;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax = 0;
+
+    public Histogram() {
+        this(DEFAULT_PRECISION_BITS, MAX_VALUE);
+    }
+
+    /*
+     * Create a histogram with the given precision, between 2 and 16 bits,
+     * tracking values up to maxValue
+     */
+    public Histogram(int precisionBits, long maxValue) {
+        if (precisionBits < 2 || precisionBits > 16 || maxValue < 1) {
+            throw new IllegalArgumentException("Invalid precision or range");
+        }
+
+        mPrecisionBits = precisionBits;
+        mMaxValue = maxValue;
+        mCounts = new long[indexOf(maxValue) + 1];
+    }
+
+    /*
+     * Count a value. Negative values are counted as 0.
+     */
+    public synchronized void record(long value) {
+        value = Math.min(Math.max(value, 0), mMaxValue);
+
+        mCounts[indexOf(value)]++;
+        mCount++;
+        mTotal += value;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /*
+     * Get the lowest value recorded, 0 if there is none
+     */
+    public synchronized long getMin() {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    /*
+     * Get the highest value recorded, 0 if there is none
+     */
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    public synchronized long getMean() {
+        return mCount == 0 ? 0 : mTotal / mCount;
+    }
+
+    /*
+     * Get the value below which the given percentage of the recorded
+     * values fall, e.g. 99.0 for the 99th percentile. The value is the
+     * highest value of the bucket it falls in, so it is never below the
+     * actual percentile.
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100.0 * mCount);
+        rank = Math.max(rank, 1);
+
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), mMax);
+            }
+        }
+
+        return mMax;
+    }
+
+    /*
+     * Get a copy of this histogram and clear this one, atomically with
+     * respect to record()
+     */
+    public synchronized Histogram getSnapshotAndReset() {
+        Histogram copy = new Histogram(mPrecisionBits, mMaxValue);
+        System.arraycopy(mCounts, 0, copy.mCounts, 0, mCounts.length);
+        copy.mCount = mCount;
+        copy.mTotal = mTotal;
+        copy.mMin = mMin;
+        copy.mMax = mMax;
+
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mTotal = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+
+        return copy;
+    }
+
+    /*
+     * Encode the histogram as a compact string, to be stored and
+     * decoded with decode(). Only the buckets with a count are listed.
+     */
+    public synchronized String encode() {
+        StringBuilder encoded = new StringBuilder();
+        encoded.append(mPrecisionBits).append(' ').append(mMaxValue).append(' ')
+                .append(mTotal).append(' ').append(getMin()).append(' ').append(mMax);
+
+        for (int i = 0; i < mCounts.length; i++) {
+            if (mCounts[i] != 0) {
+                encoded.append(' ').append(i).append(':').append(mCounts[i]);
+            }
+        }
+
+        return encoded.toString();
+    }
+
+    /*
+     * Decode a histogram encoded with encode(). Returns null if the
+     * string is not a valid histogram.
+     */
+    public static Histogram decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+
+        try {
+            String[] fields = encoded.trim().split(" ");
+            if (fields.length < 5) {
+                return null;
+            }
+
+            Histogram h = new Histogram(Integer.parseInt(fields[0]), Long.parseLong(fields[1]));
+            h.mTotal = Long.parseLong(fields[2]);
+            h.mMin = Long.parseLong(fields[3]);
+            h.mMax = Long.parseLong(fields[4]);
+
+            for (int i = 5; i < fields.length; i++) {
+                int sep = fields[i].indexOf(':');
+                int index = Integer.parseInt(fields[i].substring(0, sep));
+                long count = Long.parseLong(fields[i].substring(sep + 1));
+
+                h.mCounts[index] = count;
+                h.mCount += count;
+            }
+
+            if (h.mCount == 0) {
+                h.mMin = Long.MAX_VALUE;
+            }
+            return h;
+        } catch (RuntimeException e) {
+            //Malformed number or bucket out of range
+            return null;
+        }
+    }
+
+    private int indexOf(long value) {
+        int subBuckets = 1 << mPrecisionBits;
+        if (value < subBuckets) {
+            return (int) value;
+        }
+
+        //Keep the mPrecisionBits most significant bits of the value
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (mPrecisionBits - 1);
+        return shift * (subBuckets / 2) + (int) (value >>> shift);
+    }
+
+    private long highestValueOf(int index) {
+        int subBuckets = 1 << mPrecisionBits;
+        if (index < subBuckets) {
+            return index;
+        }
+
+        int half = subBuckets / 2;
+        int shift = index / half - 1;
+        long lowest = (long) (index % half + half) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,201 @@
+package org.ohmage.reminders.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Registry of the metrics of the trigger framework. There are three kinds
+ * of metrics, each identified by its name:
+ *
+ * - counters, which only go up, e.g. the number of descriptions parsed
+ * - gauges, whose value is read from a callback when a report is made,
+ *   e.g. the number of tasks queued on the engine
+ * - histograms, which count the distribution of a value, e.g. the time
+ *   taken by database operations
+ *
+ * A metric is created the first time it is used. Recording a value is
+ * cheap and never blocks on the sinks; the registered sinks are handed a
+ * snapshot of all the metrics whenever report() is called.
+ */
+public class Metrics {
+
+    //Delay between the scheduled and the actual time a trigger goes off
+    public static final String FIRE_LATENCY = "trigger.fire_latency_ms";
+
+    //Time taken by the operations on the trigger databases
+    public static final String TRIGGER_DB_READ = "triggerdb.read_us";
+    public static final String TRIGGER_DB_WRITE = "triggerdb.write_us";
+    public static final String LOC_TRIG_DB_READ = "loctrigdb.read_us";
+    public static final String LOC_TRIG_DB_WRITE = "loctrigdb.write_us";
+
+    //Number of descriptions parsed, by type of description
+    public static final String DESC_PARSE_TIME = "desc.parse.time";
+    public static final String DESC_PARSE_LOCATION = "desc.parse.location";
+    public static final String DESC_PARSE_ACTION = "desc.parse.action";
+    public static final String DESC_PARSE_NOTIF = "desc.parse.notif";
+    public static final String DESC_PARSE_RUNTIME = "desc.parse.runtime";
+
+    //Refreshes of the notification
+    public static final String NOTIF_REFRESH_REQUESTED = "notif.refresh.requested";
+    public static final String NOTIF_REFRESH_COALESCED = "notif.refresh.coalesced";
+    public static final String NOTIF_REFRESH_SKIPPED = "notif.refresh.skipped";
+    public static final String NOTIF_REFRESH_POSTED = "notif.refresh.posted";
+
+    //Duty cycles of the location sampling
+    public static final String GPS_STARTS = "loctrig.gps.starts";
+    public static final String GPS_ON_TIME = "loctrig.gps.on_ms";
+    public static final String LOC_WAKE_LOCK_HOLD = "loctrig.wake_lock.hold_ms";
+
+    //Time taken by the upgrades of the schemas of the databases
+    public static final String DB_MIGRATION = "db.migration_ms";
+
+    //Time taken by the export and the restore of the snapshots of the state
+    public static final String SNAPSHOT_EXPORT = "snapshot.export_ms";
+    public static final String SNAPSHOT_RESTORE = "snapshot.restore_ms";
+
+    //Time taken by the search of the triggers, to index the triggers not
+    //indexed yet and to run the query
+    public static final String SEARCH_INDEX = "search.index_ms";
+    public static final String SEARCH_QUERY = "search.query_ms";
+
+    //Time taken by the updates of the reminders provider of the host
+    public static final String PROVIDER_UPDATE_LATENCY = "provider.update_ms";
+
+    //Trigger engine
+    public static final String ENGINE_QUEUE_DEPTH = "engine.queue_depth";
+    public static final String ENGINE_MAX_QUEUE_DEPTH = "engine.max_queue_depth";
+    public static final String ENGINE_TASKS = "engine.tasks";
+    public static final String ENGINE_TASK_WAIT = "engine.task.wait_ms";
+    public static final String ENGINE_TASK_RUN = "engine.task.run_ms";
+
+    /* Source of the value of a gauge */
+    public interface Gauge {
+        long getValue();
+    }
+
+    private static final Map<String, long[]> sCounters = new TreeMap<String, long[]>();
+    private static final Map<String, Gauge> sGauges = new TreeMap<String, Gauge>();
+    private static final Map<String, Histogram> sHistograms = new TreeMap<String, Histogram>();
+    private static final List<MetricsSink> sSinks = new ArrayList<MetricsSink>();
+
+    //Time of the previous report
+    private static long sLastReport = System.currentTimeMillis();
+
+    /*
+     * Add one to a counter
+     */
+    public static void increment(String counter) {
+        increment(counter, 1);
+    }
+
+    public static synchronized void increment(String counter, long delta) {
+        long[] value = sCounters.get(counter);
+        if (value == null) {
+            value = new long[1];
+            sCounters.put(counter, value);
+        }
+        value[0] += delta;
+    }
+
+    /*
+     * Register the source of a gauge, replacing the previous one if any
+     */
+    public static synchronized void registerGauge(String gauge, Gauge source) {
+        sGauges.put(gauge, source);
+    }
+
+    /*
+     * Record a value in a histogram
+     */
+    public static void record(String histogram, long value) {
+        getHistogram(histogram).record(value);
+    }
+
+    /*
+     * Start timing an operation, to be passed to stopTimer()
+     */
+    public static long startTimer() {
+        return System.nanoTime();
+    }
+
+    /*
+     * Record the time elapsed since startTimer() in microseconds
+     */
+    public static void stopTimer(String histogram, long start) {
+        record(histogram, (System.nanoTime() - start) / 1000);
+    }
+
+    private static synchronized Histogram getHistogram(String histogram) {
+        Histogram h = sHistograms.get(histogram);
+        if (h == null) {
+            h = new Histogram();
+            sHistograms.put(histogram, h);
+        }
+        return h;
+    }
+
+    public static synchronized void addSink(MetricsSink sink) {
+        if (!sSinks.contains(sink)) {
+            sSinks.add(sink);
+        }
+    }
+
+    public static synchronized void removeSink(MetricsSink sink) {
+        sSinks.remove(sink);
+    }
+
+    public static synchronized List<MetricsSink> getSinks() {
+        return new ArrayList<MetricsSink>(sSinks);
+    }
+
+    /*
+     * Take a snapshot of all the metrics and start a new interval for the
+     * histograms. Gauges are read outside of the lock of the registry.
+     */
+    public static MetricsSnapshot snapshot() {
+        LinkedHashMap<String, Long> counters = new LinkedHashMap<String, Long>();
+        LinkedHashMap<String, Gauge> gaugeSources;
+        LinkedHashMap<String, Histogram> histograms = new LinkedHashMap<String, Histogram>();
+        long start;
+        long end = System.currentTimeMillis();
+
+        synchronized (Metrics.class) {
+            for (Map.Entry<String, long[]> entry : sCounters.entrySet()) {
+                counters.put(entry.getKey(), entry.getValue()[0]);
+            }
+            for (Map.Entry<String, Histogram> entry : sHistograms.entrySet()) {
+                histograms.put(entry.getKey(), entry.getValue().getSnapshotAndReset());
+            }
+            gaugeSources = new LinkedHashMap<String, Gauge>(sGauges);
+
+            start = sLastReport;
+            sLastReport = end;
+        }
+
+        LinkedHashMap<String, Long> gauges = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Gauge> entry : gaugeSources.entrySet()) {
+            gauges.put(entry.getKey(), entry.getValue().getValue());
+        }
+
+        return new MetricsSnapshot(start, end, counters, gauges, histograms);
+    }
+
+    /*
+     * Take a snapshot and hand it to all the sinks. Does nothing if there
+     * are no sinks, so that the histograms keep accumulating.
+     */
+    public static void report() {
+        List<MetricsSink> sinks = getSinks();
+        if (sinks.isEmpty()) {
+            return;
+        }
+
+        MetricsSnapshot snapshot = snapshot();
+        for (MetricsSink sink : sinks) {
+            sink.report(snapshot);
+        }
+    }
+}
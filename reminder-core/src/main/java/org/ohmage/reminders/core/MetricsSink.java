@@ -0,0 +1,10 @@
+package org.ohmage.reminders.core;
+
+/*
+ * Receives the periodic reports of the metrics. Reports are delivered one
+ * at a time on a background thread, a sink must not block for long.
+ */
+public interface MetricsSink {
+
+    void report(MetricsSnapshot snapshot);
+}
@@ -0,0 +1,72 @@
+package org.ohmage.reminders.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Map;
+
+/*
+ * The values of all the metrics at the time of a report. Counters are
+ * totals since the process started, histograms only hold the values
+ * recorded since the previous report.
+ */
+public class MetricsSnapshot {
+
+    //Percentiles included in the JSON form of the histograms
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_KEYS = {"p50", "p90", "p99", "p999"};
+
+    public final long startTime;
+    public final long endTime;
+    public final Map<String, Long> counters;
+    public final Map<String, Long> gauges;
+    public final Map<String, Histogram> histograms;
+
+    public MetricsSnapshot(long startTime, long endTime, Map<String, Long> counters,
+                           Map<String, Long> gauges, Map<String, Histogram> histograms) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    /*
+     * Get the snapshot as a single JSON object
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("start", startTime);
+            json.put("end", endTime);
+            json.put("counters", new JSONObject(counters));
+            json.put("gauges", new JSONObject(gauges));
+
+            JSONObject jHistograms = new JSONObject();
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                Histogram h = entry.getValue();
+
+                JSONObject jHist = new JSONObject();
+                jHist.put("count", h.getCount());
+                jHist.put("min", h.getMin());
+                jHist.put("mean", h.getMean());
+                jHist.put("max", h.getMax());
+                for (int i = 0; i < PERCENTILES.length; i++) {
+                    jHist.put(PERCENTILE_KEYS[i], h.getValueAtPercentile(PERCENTILES[i]));
+                }
+                jHistograms.put(entry.getKey(), jHist);
+            }
+            json.put("histograms", jHistograms);
+        } catch (JSONException e) {
+            //Only thrown for non-finite numbers, which are not used here
+            throw new IllegalStateException(e);
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return toJSON().toString();
+    }
+}
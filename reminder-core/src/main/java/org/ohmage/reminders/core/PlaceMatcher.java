@@ -0,0 +1,59 @@
+package org.ohmage.reminders.core;
+
+import java.util.Collection;
+
+/*
+ * Finds the place (category) a location falls into. A location belongs
+ * to a place if the whole circle of its accuracy falls inside the circle
+ * of the place, extended by an error margin.
+ */
+public class PlaceMatcher {
+
+    /* Category returned when the location falls into no place */
+    public static final int NO_CATEGORY = -1;
+
+    /* A place being watched */
+    public static class Place {
+        public final double latitude;
+        public final double longitude;
+        public final float radius;
+        public final int categoryId;
+
+        public Place(int latE6, int longE6, int categoryId, float radius) {
+            this.latitude = latE6 / 1E6;
+            this.longitude = longE6 / 1E6;
+            this.categoryId = categoryId;
+            this.radius = radius;
+        }
+    }
+
+    private final DistanceCalculator mDistance;
+    private final float mAccuracyMargin;
+
+    public PlaceMatcher(DistanceCalculator distance, float accuracyMargin) {
+        mDistance = distance;
+        mAccuracyMargin = accuracyMargin;
+    }
+
+    /*
+     * Get the category of the first place the location falls into,
+     * or NO_CATEGORY if there is none.
+     */
+    public int getCategory(Collection<Place> places, double latitude, double longitude,
+                           float accuracy) {
+        for (Place place : places) {
+
+            float dist = mDistance.distanceBetween(latitude, longitude,
+                    place.latitude, place.longitude);
+
+            //Check if the given location (including its accuracy)
+            //completely falls inside an existing location (with an
+            //error threshold)
+            if ((dist + accuracy) <= (place.radius + mAccuracyMargin)) {
+                return place.categoryId;
+            }
+        }
+
+        return NO_CATEGORY;
+    }
+}
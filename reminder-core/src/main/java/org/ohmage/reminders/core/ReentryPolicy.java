@@ -0,0 +1,68 @@
+package org.ohmage.reminders.core;
+
+import org.ohmage.reminders.utils.SimpleTime;
+
+import java.util.Calendar;
+
+/*
+ * Decides whether a location trigger goes off when the user
+ * enters its place.
+ *
+ * A trigger with a time range goes off once a day, the first time the
+ * place is entered within the range. A trigger without a range goes off
+ * whenever the place is entered, unless the user left the place less
+ * than the minimum re-entry interval ago.
+ */
+public class ReentryPolicy {
+
+    /* Value of the place time stamp when the place has not been visited */
+    public static final long TIME_STAMP_INVALID = -1;
+
+    private final Clock mClock;
+
+    public ReentryPolicy(Clock clock) {
+        mClock = clock;
+    }
+
+    /*
+     * Check if a trigger with a time range should go off now
+     */
+    public boolean shouldTriggerInRange(SimpleTime start, SimpleTime end,
+                                        boolean triggeredToday) {
+        if (triggeredToday) {
+            return false;
+        }
+
+        Calendar cal = mClock.now();
+        SimpleTime now = new SimpleTime(cal.get(Calendar.HOUR_OF_DAY),
+                cal.get(Calendar.MINUTE));
+
+        if (now.isBefore(start)) {
+            return false;
+        }
+
+        if (now.isAfter(end)) {
+            return false;
+        } else if (now.equals(end) && cal.get(Calendar.SECOND) > 0) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * Check if a trigger without a time range should go off now, given
+     * the time the user was last seen in the place and the minimum
+     * re-entry interval of the trigger in minutes.
+     */
+    public boolean shouldTriggerOnEntry(long placePrevTS, int minReentryMins) {
+        if (placePrevTS == TIME_STAMP_INVALID) {
+            return true;
+        }
+
+        long elapsed = mClock.currentTimeMillis() - placePrevTS;
+        long minReentry = minReentryMins * 60 * 1000L;
+
+        return elapsed > minReentry;
+    }
+}
@@ -0,0 +1,127 @@
+package org.ohmage.reminders.core;
+
+/*
+ * Running statistics of how the user responds to the surveys of a trigger
+ * or to a survey across triggers. Each survey activated by a trigger ends
+ * in one of three outcomes:
+ *
+ * - taken, after some time, the response time
+ * - ignored, when the user dismisses it
+ * - expired, when the trigger expires before the user acts on it
+ *
+ * The outcomes are counted and the response times are kept in a histogram
+ * with a resolution of about 12%, so the stats take constant space however
+ * long the history is, and can be updated one outcome at a time.
+ */
+public class ResponseStats {
+
+    //Response times are tracked in seconds, up to about 12 days
+    private static final int PRECISION_BITS = 4;
+    private static final long MAX_RESPONSE_TIME = (1L << 20) - 1;
+
+    private long mTaken = 0;
+    private long mIgnored = 0;
+    private long mExpired = 0;
+    private Histogram mResponseTimes = new Histogram(PRECISION_BITS, MAX_RESPONSE_TIME);
+
+    public ResponseStats() {
+    }
+
+    public ResponseStats(long taken, long ignored, long expired, String responseTimes) {
+        mTaken = taken;
+        mIgnored = ignored;
+        mExpired = expired;
+
+        Histogram h = Histogram.decode(responseTimes);
+        if (h != null) {
+            mResponseTimes = h;
+        }
+    }
+
+    /*
+     * Count a survey taken the given number of milliseconds after it was
+     * activated. A negative time means it is not known, only the outcome
+     * is counted then.
+     */
+    public void onTaken(long responseTimeMS) {
+        mTaken++;
+        if (responseTimeMS >= 0) {
+            mResponseTimes.record(responseTimeMS / 1000);
+        }
+    }
+
+    public void onIgnored() {
+        mIgnored++;
+    }
+
+    public void onExpired() {
+        mExpired++;
+    }
+
+    public long getTakenCount() {
+        return mTaken;
+    }
+
+    public long getIgnoredCount() {
+        return mIgnored;
+    }
+
+    public long getExpiredCount() {
+        return mExpired;
+    }
+
+    /*
+     * Get the total number of outcomes counted
+     */
+    public long getCount() {
+        return mTaken + mIgnored + mExpired;
+    }
+
+    /*
+     * Get the fraction of the outcomes where the survey was taken,
+     * 0 if there is none
+     */
+    public double getResponseRate() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) mTaken / count;
+    }
+
+    /*
+     * Get the fraction of the outcomes where the survey was ignored,
+     * 0 if there is none
+     */
+    public double getIgnoreRate() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) mIgnored / count;
+    }
+
+    /*
+     * Get the response time in milliseconds below which the given
+     * percentage of the surveys taken were taken, e.g. 50.0 for the
+     * median. 0 if no response time is known.
+     */
+    public long getResponseTimeAtPercentile(double percentile) {
+        return mResponseTimes.getValueAtPercentile(percentile) * 1000;
+    }
+
+    /*
+     * Get the mean response time in milliseconds
+     */
+    public long getMeanResponseTime() {
+        return mResponseTimes.getMean() * 1000;
+    }
+
+    /*
+     * Get the response times in a form which can be passed back to the
+     * constructor
+     */
+    public String encodeResponseTimes() {
+        return mResponseTimes.encode();
+    }
+
+    @Override
+    public String toString() {
+        return "taken: " + mTaken + ", ignored: " + mIgnored + ", expired: " + mExpired
+                + ", median response: " + getResponseTimeAtPercentile(50) / 1000 + "s";
+    }
+}
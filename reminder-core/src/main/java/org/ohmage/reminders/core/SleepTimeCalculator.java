@@ -0,0 +1,93 @@
+package org.ohmage.reminders.core;
+
+/*
+ * Calculates the time to sleep between two location sampling duty
+ * cycles, based on the current speed of the user and the distance to
+ * the closest place being watched.
+ */
+public class SleepTimeCalculator {
+
+    //The maximum value of GPS duty cycle interval
+    public static final long MAX_SLEEP_TIME = 360000; //6 mins
+    //The minimum value of GPS duty cycle interval
+    public static final long MIN_SLEEP_TIME = 30000; //30sec
+    //The actual sleep time is calculated based on the speed.
+    //The distance (the maximum of which is given above) is calculated
+    //from the proximity. The proximity is divided by this value get
+    //the distance value which should be divided by the speed to get the
+    //sleep time.
+    public static final float SLEEP_DIST_FACTOR = 10;
+
+    //Value of the proximity when there is no place to watch
+    public static final float NO_PROXIMITY = -1;
+
+    //Current sleep time before the next duty cycle
+    private long mCurrSleepTime = 0;
+    //Current value of the proximity distance
+    private float mCurrProxDist = 0;
+
+    /* Get the current sleep time */
+    public long getSleepTime() {
+        return mCurrSleepTime;
+    }
+
+    /* Reset the current sleep time */
+    public void reset() {
+        mCurrSleepTime = Math.min(MIN_SLEEP_TIME, mCurrSleepTime);
+    }
+
+    /* Calculate the new sleep time based on the current speed
+     * and the distance to the closest category.
+     */
+    public long update(float proximityDist, float currSpeed, float prevSpeed) {
+        long sTime = mCurrSleepTime;
+        float sleepDist = 0;
+
+        //Based on the proximity, calculate the distance (sleepDist)
+        //which should be covered before the next sampling
+        if (proximityDist != NO_PROXIMITY) {
+            //sampleDist is a proportional to the proximity
+            sleepDist = proximityDist / SLEEP_DIST_FACTOR;
+
+            //If the user has covered half the proximity distance
+            //reset the sleep time. This will help when the speed
+            //cannot be measured and thus the sample time increases
+            //even though the user moves close to a location.
+            if (proximityDist <= mCurrProxDist / 2 && currSpeed == 0) {
+                sTime = Math.min(MIN_SLEEP_TIME, sTime);
+            }
+
+            mCurrProxDist = proximityDist;
+        }
+
+        //Check if the user is idle
+        if (currSpeed == 0) {
+            //if the phone is idle now and was moving before,
+            //reset the sleep time.
+            if (prevSpeed != 0) {
+                sTime = MIN_SLEEP_TIME;
+            } else {
+                //Double interval when the phone maintains
+                //the idle status
+                sTime *= 2;
+                if (sTime == 0) {
+                    sTime = MIN_SLEEP_TIME;
+                }
+            }
+        }
+
+        //If the speed is non-zero, calculate the sleep time based on it
+        else if (sleepDist != 0) {
+            float roundSpeed = (float) Math.ceil(currSpeed);
+            sTime = (long) ((sleepDist / roundSpeed) * 1000);
+        } else {
+            sTime = MAX_SLEEP_TIME;
+        }
+
+        //Bound the sleep time
+        sTime = Math.min(MAX_SLEEP_TIME, sTime);
+
+        mCurrSleepTime = sTime;
+        return sTime;
+    }
+}
@@ -0,0 +1,138 @@
+package org.ohmage.reminders.core;
+
+import org.ohmage.reminders.types.time.TimeTrigDesc;
+import org.ohmage.reminders.utils.SimpleTime;
+
+import java.util.Calendar;
+import java.util.Random;
+
+/*
+ * Computes the next time a time trigger should go off.
+ *
+ * A trigger goes off at most once a day, on the days it repeats on.
+ * A trigger with a fixed time goes off at that time, a randomized trigger
+ * goes off at a random minute within its range (both ends inclusive).
+ */
+public class TimeTrigSchedule {
+
+    /* Value returned when the trigger has no upcoming time */
+    public static final long NO_TIME = -1;
+
+    private final Clock mClock;
+    private final TriggerStateStore mStore;
+    private final Random mRandom;
+
+    public TimeTrigSchedule(Clock clock, TriggerStateStore store, Random random) {
+        mClock = clock;
+        mStore = store;
+        mRandom = random;
+    }
+
+    /*
+     * Check if the trigger has already gone off today
+     */
+    public boolean hasTriggeredToday(int trigId) {
+        long trigTS = mStore.getTriggerTimeStamp(trigId);
+
+        return trigTS != TriggerStateStore.INVALID_TIMESTAMP && mClock.isToday(trigTS);
+    }
+
+    /*
+     * Get the next time the trigger should go off, looking up to
+     * a week ahead. Returns NO_TIME if there is none.
+     */
+    public long getNextFireTime(int trigId, TimeTrigDesc trigDesc) {
+
+        for (int i = 0; i <= 7; i++) {
+
+            Calendar target = getTriggerTimeForDay(trigId, trigDesc, i);
+            if (target != null) {
+                return target.getTimeInMillis();
+            }
+        }
+
+        return NO_TIME;
+    }
+
+    private Calendar getTriggerTimeForToday(int trigId, TimeTrigDesc trigDesc) {
+
+        if (hasTriggeredToday(trigId)) {
+            return null;
+        }
+
+        Calendar now = mClock.now();
+
+        Calendar target = mClock.now();
+        target.set(Calendar.SECOND, 0);
+        target.set(Calendar.MILLISECOND, 0);
+
+        if (!trigDesc.isRandomized()) {
+            target.set(Calendar.HOUR_OF_DAY, trigDesc.getTriggerTime().getHour());
+            target.set(Calendar.MINUTE, trigDesc.getTriggerTime().getMinute());
+
+            if (now.before(target)) {
+                return target;
+            }
+        } else { //if randomized, check if there is any more time left in the interval
+            SimpleTime tCurr = new SimpleTime(now.get(Calendar.HOUR_OF_DAY),
+                    now.get(Calendar.MINUTE));
+            SimpleTime tStart = trigDesc.getRangeStart();
+            SimpleTime tEnd = trigDesc.getRangeEnd();
+
+            if (tCurr.isBefore(tEnd)) {
+
+                int diff;
+                if (tCurr.isAfter(tStart)) {
+                    diff = tCurr.differenceInMinutes(tEnd);
+                    target.set(Calendar.HOUR_OF_DAY, tCurr.getHour());
+                    target.set(Calendar.MINUTE, tCurr.getMinute());
+                } else {
+                    diff = tStart.differenceInMinutes(tEnd);
+                    target.set(Calendar.HOUR_OF_DAY, tStart.getHour());
+                    target.set(Calendar.MINUTE, tStart.getMinute());
+                }
+
+                //Generate a random number (both ranges inclusive)
+                target.add(Calendar.MINUTE, mRandom.nextInt(diff + 1));
+                return target;
+            }
+        }
+
+        return null;
+    }
+
+    private Calendar getTriggerTimeForDay(int trigId, TimeTrigDesc trigDesc,
+                                          int dayOffset) {
+
+        Calendar target = mClock.now();
+        target.add(Calendar.DAY_OF_YEAR, dayOffset);
+
+        String dayStr = TimeTrigDesc.getDayOfWeekString(
+                target.get(Calendar.DAY_OF_WEEK));
+
+        if (!trigDesc.doesRepeatOnDay(dayStr)) {
+            return null;
+        }
+
+        if (dayOffset == 0) {
+            return getTriggerTimeForToday(trigId, trigDesc);
+        }
+
+        target.set(Calendar.SECOND, 0);
+        target.set(Calendar.MILLISECOND, 0);
+        if (!trigDesc.isRandomized()) {
+            target.set(Calendar.HOUR_OF_DAY, trigDesc.getTriggerTime().getHour());
+            target.set(Calendar.MINUTE, trigDesc.getTriggerTime().getMinute());
+        } else {
+            target.set(Calendar.HOUR_OF_DAY, trigDesc.getRangeStart().getHour());
+            target.set(Calendar.MINUTE, trigDesc.getRangeStart().getMinute());
+
+            int diff = trigDesc.getRangeStart()
+                    .differenceInMinutes(trigDesc.getRangeEnd());
+            //Generate a random number (both ranges inclusive)
+            target.add(Calendar.MINUTE, mRandom.nextInt(diff + 1));
+        }
+
+        return target;
+    }
+}
@@ -0,0 +1,27 @@
+package org.ohmage.reminders.core;
+
+/*
+ * Read access to the persisted state the scheduling logic depends on.
+ * On Android this is backed by the trigger database and the shared
+ * preferences of the notifier.
+ */
+public interface TriggerStateStore {
+
+    /* Value returned when there is no time stamp */
+    long INVALID_TIMESTAMP = -1;
+
+    /*
+     * Get the time the trigger went off the last time
+     */
+    long getTriggerTimeStamp(int trigId);
+
+    /*
+     * Get the time the survey was taken the last time
+     */
+    long getSurveyTakenTime(String survey);
+
+    /*
+     * Get the time the survey was ignored the last time
+     */
+    long getSurveyIgnoredTime(String survey);
+}
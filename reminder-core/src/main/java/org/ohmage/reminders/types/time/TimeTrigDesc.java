@@ -15,8 +15,6 @@
  ******************************************************************************/
 package org.ohmage.reminders.types.time;
 
-import android.text.format.DateUtils;
-
 import com.google.gson.JsonArray;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
@@ -28,9 +26,11 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.reminders.base.TrigDesc;
+import org.ohmage.reminders.core.Metrics;
 import org.ohmage.reminders.utils.SimpleTime;
 
 import java.lang.reflect.Type;
+import java.text.DateFormatSymbols;
 import java.util.Calendar;
 import java.util.LinkedHashMap;
 
@@ -81,13 +81,18 @@ public class TimeTrigDesc implements TrigDesc {
         mRepeatList.put(getDayOfWeekString(Calendar.SATURDAY), repeatStatus);
     }
 
+    /*
+     * Get the full name of a day of the week given its Calendar
+     * constant. Uses the same locale data as Android's DateUtils.
+     */
     public static String getDayOfWeekString(int dayOfWeek) {
-        return DateUtils.getDayOfWeekString(dayOfWeek, DateUtils.LENGTH_LONG);
+        return new DateFormatSymbols().getWeekdays()[dayOfWeek];
     }
 
     public boolean loadString(String desc) {
 
         initialize(false);
+        Metrics.increment(Metrics.DESC_PARSE_TIME);
 
         if (desc == null) {
             return false;
@@ -316,6 +321,7 @@ public class TimeTrigDesc implements TrigDesc {
             TimeTrigDesc desc = new TimeTrigDesc();
 
             desc.initialize(false);
+            Metrics.increment(Metrics.DESC_PARSE_TIME);
 
             String time = jDesc.get(KEY_TIME).getAsString();
             if (time.equalsIgnoreCase(VAL_RANDOM)) {
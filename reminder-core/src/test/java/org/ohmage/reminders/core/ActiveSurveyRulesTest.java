@@ -0,0 +1,85 @@
+package org.ohmage.reminders.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveSurveyRulesTest {
+
+    private static final long NOW = FixedClock.timeOf(2014, 7, 2, 10, 0);
+    private static final long MINUTE = 60 * 1000;
+    private static final long DURATION = 60 * MINUTE;
+    private static final long SUPPRESS = 30 * MINUTE;
+    private static final String[] SURVEYS = {"mood", "sleep", "diet"};
+
+    private final MemoryStateStore mStore = new MemoryStateStore();
+    private final ActiveSurveyRules mRules = new ActiveSurveyRules(mStore);
+
+    private static HashSet<String> set(String... surveys) {
+        return new HashSet<String>(Arrays.asList(surveys));
+    }
+
+    @Test
+    public void notFiredIsExpired() {
+        assertTrue(ActiveSurveyRules.isExpired(TriggerStateStore.INVALID_TIMESTAMP,
+                DURATION, NOW));
+    }
+
+    @Test
+    public void firedInTheFutureIsExpired() {
+        assertTrue(ActiveSurveyRules.isExpired(NOW + MINUTE, DURATION, NOW));
+    }
+
+    @Test
+    public void expiresAtTheEndOfTheDuration() {
+        assertFalse(ActiveSurveyRules.isExpired(NOW, DURATION, NOW));
+        assertFalse(ActiveSurveyRules.isExpired(NOW - DURATION + 1, DURATION, NOW));
+        assertTrue(ActiveSurveyRules.isExpired(NOW - DURATION, DURATION, NOW));
+    }
+
+    @Test
+    public void allSurveysOfAnActiveTriggerAreActive() {
+        assertEquals(set(SURVEYS),
+                mRules.getActiveSurveys(NOW - MINUTE, DURATION, SUPPRESS, SURVEYS, NOW));
+    }
+
+    @Test
+    public void noSurveyOfAnExpiredTriggerIsActive() {
+        assertTrue(mRules.getActiveSurveys(NOW - DURATION, DURATION, SUPPRESS, SURVEYS, NOW)
+                .isEmpty());
+    }
+
+    @Test
+    public void surveysTakenInTheSuppressionWindowAreLeftOut() {
+        mStore.takenTimes.put("mood", NOW - SUPPRESS + MINUTE);
+        mStore.ignoredTimes.put("sleep", NOW - MINUTE);
+
+        assertEquals(set("diet"),
+                mRules.getActiveSurveys(NOW - MINUTE, DURATION, SUPPRESS, SURVEYS, NOW));
+    }
+
+    @Test
+    public void surveysTakenBeforeTheSuppressionWindowAreActive() {
+        mStore.takenTimes.put("mood", NOW - SUPPRESS);
+        mStore.ignoredTimes.put("sleep", NOW - SUPPRESS - MINUTE);
+
+        assertEquals(set(SURVEYS),
+                mRules.getActiveSurveys(NOW - MINUTE, DURATION, SUPPRESS, SURVEYS, NOW));
+    }
+
+    @Test
+    public void takenOrIgnoredSince() {
+        mStore.takenTimes.put("mood", NOW);
+        mStore.ignoredTimes.put("sleep", NOW);
+
+        assertTrue(mRules.isSurveyTakenOrIgnored("mood", NOW - 1));
+        assertTrue(mRules.isSurveyTakenOrIgnored("sleep", NOW - 1));
+        assertFalse(mRules.isSurveyTakenOrIgnored("mood", NOW));
+        assertFalse(mRules.isSurveyTakenOrIgnored("diet", 0));
+    }
+}
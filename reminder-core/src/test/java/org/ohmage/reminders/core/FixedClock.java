@@ -0,0 +1,49 @@
+package org.ohmage.reminders.core;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/*
+ * A clock in UTC which reads the time it is set to
+ */
+class FixedClock extends Clock {
+
+    static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private long mTime;
+
+    FixedClock(long time) {
+        mTime = time;
+    }
+
+    /*
+     * Create a clock set to the given local time
+     */
+    static FixedClock at(int year, int month, int day, int hour, int minute) {
+        return new FixedClock(timeOf(year, month, day, hour, minute));
+    }
+
+    /*
+     * Get the time of a local time in UTC, with the month starting at 1
+     */
+    static long timeOf(int year, int month, int day, int hour, int minute) {
+        Calendar cal = Calendar.getInstance(UTC);
+        cal.clear();
+        cal.set(year, month - 1, day, hour, minute);
+        return cal.getTimeInMillis();
+    }
+
+    void set(long time) {
+        mTime = time;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return mTime;
+    }
+
+    @Override
+    public TimeZone getTimeZone() {
+        return UTC;
+    }
+}
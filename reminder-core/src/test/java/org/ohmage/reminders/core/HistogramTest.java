@@ -0,0 +1,144 @@
+package org.ohmage.reminders.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        Histogram h = new Histogram();
+
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getMean());
+        assertEquals(0, h.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram h = new Histogram(6, Histogram.MAX_VALUE);
+        for (int i = 1; i <= 60; i++) {
+            h.record(i);
+        }
+
+        assertEquals(60, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(60, h.getMax());
+        assertEquals(30, h.getMean());
+        assertEquals(30, h.getValueAtPercentile(50));
+        assertEquals(54, h.getValueAtPercentile(90));
+        assertEquals(60, h.getValueAtPercentile(100));
+        assertEquals(1, h.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void largeValuesAreWithinThePrecision() {
+        int bits = 6;
+        Random random = new Random(42);
+
+        for (int i = 0; i < 1000; i++) {
+            long value = (long) (Math.exp(random.nextDouble() * 25));
+            Histogram single = new Histogram(bits, Histogram.MAX_VALUE);
+            single.record(value);
+            single.record(Histogram.MAX_VALUE);
+
+            //Never below the value, and at most 2^(1-b) above it
+            long reported = single.getValueAtPercentile(50);
+            assertTrue(value + " reported as " + reported, reported >= value);
+            assertTrue(value + " reported as " + reported,
+                    reported - value <= value / (1 << (bits - 1)));
+        }
+    }
+
+    @Test
+    public void valuesAreClamped() {
+        Histogram h = new Histogram(4, 1000);
+        h.record(-5);
+        h.record(5000);
+
+        assertEquals(0, h.getMin());
+        assertEquals(1000, h.getMax());
+        assertEquals(1000, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void encodeDecodeRoundTrip() {
+        Histogram h = new Histogram();
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            h.record((long) (Math.exp(random.nextDouble() * 20)));
+        }
+
+        Histogram decoded = Histogram.decode(h.encode());
+
+        assertNotNull(decoded);
+        assertEquals(h.encode(), decoded.encode());
+        assertEquals(h.getCount(), decoded.getCount());
+        assertEquals(h.getMin(), decoded.getMin());
+        assertEquals(h.getMax(), decoded.getMax());
+        assertEquals(h.getMean(), decoded.getMean());
+        for (double p : new double[]{0, 50, 90, 99, 99.9, 100}) {
+            assertEquals(h.getValueAtPercentile(p), decoded.getValueAtPercentile(p));
+        }
+    }
+
+    @Test
+    public void decodedHistogramKeepsRecording() {
+        Histogram h = new Histogram(4, 1000);
+        h.record(10);
+
+        Histogram decoded = Histogram.decode(h.encode());
+        decoded.record(3);
+        h.record(3);
+
+        assertEquals(h.encode(), decoded.encode());
+        assertEquals(3, decoded.getMin());
+    }
+
+    @Test
+    public void emptyRoundTrip() {
+        Histogram decoded = Histogram.decode(new Histogram().encode());
+
+        assertNotNull(decoded);
+        assertEquals(0, decoded.getCount());
+        assertEquals(0, decoded.getMin());
+
+        //The min is not stuck at 0
+        decoded.record(5);
+        assertEquals(5, decoded.getMin());
+    }
+
+    @Test
+    public void malformedEncodings() {
+        assertNull(Histogram.decode(null));
+        assertNull(Histogram.decode(""));
+        assertNull(Histogram.decode("6 100 0 0"));
+        assertNull(Histogram.decode("6 100 x 0 0"));
+        assertNull(Histogram.decode("6 100 5 5 5 100000:1"));
+        assertNull(Histogram.decode("1 100 0 0 0"));
+    }
+
+    @Test
+    public void snapshotAndReset() {
+        Histogram h = new Histogram();
+        h.record(3);
+        h.record(7);
+
+        Histogram snapshot = h.getSnapshotAndReset();
+
+        assertEquals(2, snapshot.getCount());
+        assertEquals(3, snapshot.getMin());
+        assertEquals(7, snapshot.getMax());
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(0, h.getMax());
+    }
+}
@@ -0,0 +1,33 @@
+package org.ohmage.reminders.core;
+
+import java.util.HashMap;
+
+/*
+ * A trigger state store kept in memory
+ */
+class MemoryStateStore implements TriggerStateStore {
+
+    final HashMap<Integer, Long> triggerTimes = new HashMap<Integer, Long>();
+    final HashMap<String, Long> takenTimes = new HashMap<String, Long>();
+    final HashMap<String, Long> ignoredTimes = new HashMap<String, Long>();
+
+    @Override
+    public long getTriggerTimeStamp(int trigId) {
+        return get(triggerTimes, trigId);
+    }
+
+    @Override
+    public long getSurveyTakenTime(String survey) {
+        return get(takenTimes, survey);
+    }
+
+    @Override
+    public long getSurveyIgnoredTime(String survey) {
+        return get(ignoredTimes, survey);
+    }
+
+    private static <K> long get(HashMap<K, Long> times, K key) {
+        Long time = times.get(key);
+        return time == null ? INVALID_TIMESTAMP : time;
+    }
+}
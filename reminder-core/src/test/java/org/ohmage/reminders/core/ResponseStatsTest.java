@@ -0,0 +1,93 @@
+package org.ohmage.reminders.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResponseStatsTest {
+
+    private static final long SECOND = 1000;
+
+    @Test
+    public void countsTheOutcomes() {
+        ResponseStats stats = new ResponseStats();
+        stats.onTaken(10 * SECOND);
+        stats.onTaken(-1);
+        stats.onIgnored();
+        stats.onExpired();
+
+        assertEquals(2, stats.getTakenCount());
+        assertEquals(1, stats.getIgnoredCount());
+        assertEquals(1, stats.getExpiredCount());
+        assertEquals(4, stats.getCount());
+        assertEquals(0.5, stats.getResponseRate(), 0);
+        assertEquals(0.25, stats.getIgnoreRate(), 0);
+    }
+
+    @Test
+    public void noOutcome() {
+        ResponseStats stats = new ResponseStats();
+
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getResponseRate(), 0);
+        assertEquals(0, stats.getIgnoreRate(), 0);
+        assertEquals(0, stats.getResponseTimeAtPercentile(50));
+    }
+
+    @Test
+    public void unknownResponseTimesAreNotRecorded() {
+        ResponseStats stats = new ResponseStats();
+        stats.onTaken(-1);
+        stats.onTaken(4 * SECOND);
+
+        assertEquals(4 * SECOND, stats.getMeanResponseTime());
+        assertEquals(4 * SECOND, stats.getResponseTimeAtPercentile(50));
+    }
+
+    @Test
+    public void responseTimesAreInSeconds() {
+        ResponseStats stats = new ResponseStats();
+        stats.onTaken(2999);
+
+        assertEquals(2 * SECOND, stats.getResponseTimeAtPercentile(100));
+    }
+
+    @Test
+    public void responseTimesAreWithinTheResolution() {
+        ResponseStats stats = new ResponseStats();
+        stats.onTaken(3600 * SECOND);
+
+        long reported = stats.getResponseTimeAtPercentile(50);
+        assertEquals(3600 * SECOND, reported, 3600 * SECOND * 0.125);
+    }
+
+    @Test
+    public void roundTrip() {
+        ResponseStats stats = new ResponseStats();
+        for (int i = 1; i <= 100; i++) {
+            stats.onTaken(i * 30 * SECOND);
+        }
+        stats.onIgnored();
+        stats.onExpired();
+
+        ResponseStats restored = new ResponseStats(stats.getTakenCount(),
+                stats.getIgnoredCount(), stats.getExpiredCount(), stats.encodeResponseTimes());
+
+        assertEquals(stats.getCount(), restored.getCount());
+        assertEquals(stats.getResponseRate(), restored.getResponseRate(), 0);
+        assertEquals(stats.getMeanResponseTime(), restored.getMeanResponseTime());
+        assertEquals(stats.getResponseTimeAtPercentile(50),
+                restored.getResponseTimeAtPercentile(50));
+        assertEquals(stats.getResponseTimeAtPercentile(90),
+                restored.getResponseTimeAtPercentile(90));
+        assertEquals(stats.encodeResponseTimes(), restored.encodeResponseTimes());
+    }
+
+    @Test
+    public void malformedResponseTimesAreDropped() {
+        ResponseStats stats = new ResponseStats(3, 1, 0, "garbage");
+
+        assertEquals(4, stats.getCount());
+        assertEquals(0, stats.getMeanResponseTime());
+    }
+}
@@ -0,0 +1,164 @@
+package org.ohmage.reminders.core;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ohmage.reminders.types.time.TimeTrigDesc;
+import org.ohmage.reminders.utils.SimpleTime;
+
+import java.util.Calendar;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeTrigScheduleTest {
+
+    private static final int TRIG_ID = 1;
+    private static final long MINUTE = 60 * 1000;
+
+    //Wednesday, 2 July 2014
+    private final FixedClock mClock = FixedClock.at(2014, 7, 2, 10, 0);
+    private final MemoryStateStore mStore = new MemoryStateStore();
+    private TimeTrigSchedule mSchedule;
+
+    @Before
+    public void setUp() {
+        mSchedule = new TimeTrigSchedule(mClock, mStore, new Random(42));
+    }
+
+    private static TimeTrigDesc at(int hour, int minute) {
+        TimeTrigDesc desc = new TimeTrigDesc();
+        desc.setTriggerTime(new SimpleTime(hour, minute));
+        return desc;
+    }
+
+    private static TimeTrigDesc between(int startHour, int endHour) {
+        TimeTrigDesc desc = new TimeTrigDesc();
+        desc.setRandomized(true);
+        desc.setRangeEnabled(true);
+        desc.setRangeStart(new SimpleTime(startHour, 0));
+        desc.setRangeEnd(new SimpleTime(endHour, 0));
+        return desc;
+    }
+
+    private static void repeatOnlyOn(TimeTrigDesc desc, int... days) {
+        for (String day : desc.getRepeat().keySet()) {
+            desc.setRepeatStatus(day, false);
+        }
+        for (int day : days) {
+            desc.setRepeatStatus(TimeTrigDesc.getDayOfWeekString(day), true);
+        }
+    }
+
+    @Test
+    public void firesLaterToday() {
+        assertEquals(FixedClock.timeOf(2014, 7, 2, 18, 30),
+                mSchedule.getNextFireTime(TRIG_ID, at(18, 30)));
+    }
+
+    @Test
+    public void firesTomorrowOncePastTheTime() {
+        assertEquals(FixedClock.timeOf(2014, 7, 3, 8, 0),
+                mSchedule.getNextFireTime(TRIG_ID, at(8, 0)));
+    }
+
+    @Test
+    public void firesTomorrowAtTheCurrentMinute() {
+        //The time has to be strictly after now
+        assertEquals(FixedClock.timeOf(2014, 7, 3, 10, 0),
+                mSchedule.getNextFireTime(TRIG_ID, at(10, 0)));
+    }
+
+    @Test
+    public void firesAtMostOnceADay() {
+        mStore.triggerTimes.put(TRIG_ID, FixedClock.timeOf(2014, 7, 2, 9, 0));
+
+        assertTrue(mSchedule.hasTriggeredToday(TRIG_ID));
+        assertEquals(FixedClock.timeOf(2014, 7, 3, 18, 30),
+                mSchedule.getNextFireTime(TRIG_ID, at(18, 30)));
+    }
+
+    @Test
+    public void firedYesterdayDoesNotCount() {
+        mStore.triggerTimes.put(TRIG_ID, FixedClock.timeOf(2014, 7, 1, 23, 59));
+
+        assertFalse(mSchedule.hasTriggeredToday(TRIG_ID));
+        assertEquals(FixedClock.timeOf(2014, 7, 2, 18, 30),
+                mSchedule.getNextFireTime(TRIG_ID, at(18, 30)));
+    }
+
+    @Test
+    public void skipsTheDaysItDoesNotRepeatOn() {
+        TimeTrigDesc desc = at(8, 0);
+        repeatOnlyOn(desc, Calendar.FRIDAY);
+
+        assertEquals(FixedClock.timeOf(2014, 7, 4, 8, 0),
+                mSchedule.getNextFireTime(TRIG_ID, desc));
+    }
+
+    @Test
+    public void looksAWeekAhead() {
+        TimeTrigDesc desc = at(8, 0);
+        repeatOnlyOn(desc, Calendar.WEDNESDAY);
+
+        assertEquals(FixedClock.timeOf(2014, 7, 9, 8, 0),
+                mSchedule.getNextFireTime(TRIG_ID, desc));
+    }
+
+    @Test
+    public void noTimeWithoutRepeatDays() {
+        TimeTrigDesc desc = at(8, 0);
+        repeatOnlyOn(desc);
+
+        assertEquals(TimeTrigSchedule.NO_TIME, mSchedule.getNextFireTime(TRIG_ID, desc));
+    }
+
+    @Test
+    public void randomizedFiresInTheRestOfTheRange() {
+        long from = FixedClock.timeOf(2014, 7, 2, 10, 0);
+        long to = FixedClock.timeOf(2014, 7, 2, 11, 0);
+
+        boolean sawFrom = false;
+        boolean sawTo = false;
+        for (int seed = 0; seed < 2000; seed++) {
+            TimeTrigSchedule schedule = new TimeTrigSchedule(mClock, mStore, new Random(seed));
+            long time = schedule.getNextFireTime(TRIG_ID, between(9, 11));
+
+            assertTrue("fires at " + time, time >= from && time <= to);
+            assertEquals(0, time % MINUTE);
+            sawFrom |= time == from;
+            sawTo |= time == to;
+        }
+
+        //Both ends of the range are inclusive
+        assertTrue(sawFrom);
+        assertTrue(sawTo);
+    }
+
+    @Test
+    public void randomizedFiresTomorrowOncePastTheRange() {
+        long from = FixedClock.timeOf(2014, 7, 3, 7, 0);
+        long to = FixedClock.timeOf(2014, 7, 3, 8, 0);
+
+        for (int seed = 0; seed < 100; seed++) {
+            TimeTrigSchedule schedule = new TimeTrigSchedule(mClock, mStore, new Random(seed));
+            long time = schedule.getNextFireTime(TRIG_ID, between(7, 8));
+
+            assertTrue("fires at " + time, time >= from && time <= to);
+        }
+    }
+
+    @Test
+    public void randomizedFiresInTheWholeRangeBeforeItStarts() {
+        long from = FixedClock.timeOf(2014, 7, 2, 12, 0);
+        long to = FixedClock.timeOf(2014, 7, 2, 14, 0);
+
+        for (int seed = 0; seed < 100; seed++) {
+            TimeTrigSchedule schedule = new TimeTrigSchedule(mClock, mStore, new Random(seed));
+            long time = schedule.getNextFireTime(TRIG_ID, between(12, 14));
+
+            assertTrue("fires at " + time, time >= from && time <= to);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import org.ohmage.reminders.core.TriggerStateStore;
+import org.ohmage.reminders.notif.NotifSurveyAdaptor;
+
+/*
+ * The trigger state store backed by the trigger database (the time stamp
+ * of the last time a trigger went off) and the shared preferences of the
+ * notifier (the time stamps of the surveys taken or ignored).
+ */
+public class AndroidTriggerStateStore implements TriggerStateStore {
+
+    private final Context mContext;
+
+    public AndroidTriggerStateStore(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public long getTriggerTimeStamp(int trigId) {
+        TriggerDB db = new TriggerDB(mContext);
+        db.open();
+
+        long ret = INVALID_TIMESTAMP;
+        Cursor c = db.getTrigger(trigId);
+        if (c.moveToFirst()) {
+
+            String rtDesc = c.getString(
+                    c.getColumnIndexOrThrow(TriggerDB.KEY_RUNTIME_DESCRIPT));
+            TriggerRunTimeDesc desc = new TriggerRunTimeDesc();
+            if (desc.loadString(rtDesc)) {
+                ret = desc.getTriggerTimeStamp();
+            }
+        }
+
+        c.close();
+        db.close();
+        return ret;
+    }
+
+    @Override
+    public long getSurveyTakenTime(String survey) {
+        return NotifSurveyAdaptor.getSurveyTakenTime(mContext, survey);
+    }
+
+    @Override
+    public long getSurveyIgnoredTime(String survey) {
+        return NotifSurveyAdaptor.getSurveyIgnoredTime(mContext, survey);
+    }
+}
@@ -0,0 +1,90 @@
+package org.ohmage.reminders.base;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.ohmage.reminders.core.Metrics;
+
+/*
+ * Incremental upgrades of the schemas of the databases of the framework.
+ *
+ * Each database lists the steps from one version to the next. On upgrade
+ * the steps after the old version are run in order up to the new version,
+ * altering the tables in place and backfilling the new columns, so that
+ * the triggers and places of the user survive the upgrade.
+ *
+ * SQLiteOpenHelper runs onUpgrade() in a transaction: if any step fails
+ * the database is left at its old version and the upgrade is tried again
+ * the next time it is opened.
+ */
+public class DBMigrations {
+
+    private static final String TAG = "DBMigrations";
+
+    /* Upgrade of a schema to a version from the version before it */
+    public static abstract class Step {
+        final int version;
+
+        public Step(int version) {
+            this.version = version;
+        }
+
+        public abstract void migrate(SQLiteDatabase db);
+    }
+
+    /*
+     * Run the steps which upgrade a database from oldVersion to newVersion.
+     * The steps must be in increasing order of version.
+     */
+    public static void upgrade(SQLiteDatabase db, String name, int oldVersion,
+                               int newVersion, Step[] steps) {
+        Log.i(TAG, "DBMigrations: Upgrading " + name + " from " + oldVersion
+                + " to " + newVersion);
+
+        long start = System.currentTimeMillis();
+        for (Step step : steps) {
+            if (step.version > oldVersion && step.version <= newVersion) {
+                Log.v(TAG, "DBMigrations: Migrating " + name + " to " + step.version);
+                step.migrate(db);
+            }
+        }
+        long time = System.currentTimeMillis() - start;
+
+        Metrics.record(Metrics.DB_MIGRATION, time);
+        Log.i(TAG, "DBMigrations: Upgraded " + name + " in " + time + "ms");
+    }
+
+    /*
+     * Check whether a table has a column
+     */
+    public static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = c.getColumnIndexOrThrow("name");
+            while (c.moveToNext()) {
+                if (column.equalsIgnoreCase(c.getString(nameIndex))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            c.close();
+        }
+    }
+
+    /*
+     * Add a column to a table unless it is already there, so that a step
+     * can be run on a table whichever shape the older versions gave it.
+     * Returns whether the column was added.
+     */
+    public static boolean addColumn(SQLiteDatabase db, String table, String column,
+                                    String definition) {
+        if (hasColumn(db, table, column)) {
+            return false;
+        }
+
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        return true;
+    }
+}
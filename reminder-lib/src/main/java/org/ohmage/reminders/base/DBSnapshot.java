@@ -0,0 +1,185 @@
+package org.ohmage.reminders.base;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/*
+ * Dump and bulk load of the rows of the tables of the databases of the
+ * framework, for the snapshots of TriggerSnapshot. A table is written as
+ *
+ * {
+ *     "columns": ["_id", "name", ...],
+ *     "rows": [["1", "Home", ...], ...]
+ * }
+ *
+ * with the values as strings, which the affinity of the columns turns
+ * back into numbers when they are loaded, and the ids kept so that the
+ * rows which refer to each other still do. The rows are written and
+ * loaded one at a time, so any number of rows takes constant memory.
+ *
+ * The columns of the snapshot which the table no longer has are dropped,
+ * and those which it did not have yet take their default, so a snapshot
+ * taken with an older schema can be loaded as long as the meaning of
+ * the columns it has did not change.
+ */
+public class DBSnapshot {
+
+    private static final String KEY_COLUMNS = "columns";
+    private static final String KEY_ROWS = "rows";
+
+    /*
+     * Write all the rows of a table
+     */
+    public static void writeTable(SQLiteDatabase db, String table, JsonWriter writer)
+            throws IOException {
+        Cursor c = db.query(table, null, null, null, null, null, null);
+        try {
+            String[] columns = c.getColumnNames();
+
+            writer.beginObject();
+            writer.name(KEY_COLUMNS);
+            writer.beginArray();
+            for (String column : columns) {
+                writer.value(column);
+            }
+            writer.endArray();
+
+            writer.name(KEY_ROWS);
+            writer.beginArray();
+            while (c.moveToNext()) {
+                writer.beginArray();
+                for (int i = 0; i < columns.length; i++) {
+                    //A null value is written as null
+                    writer.value(c.getString(i));
+                }
+                writer.endArray();
+            }
+            writer.endArray();
+            writer.endObject();
+        } finally {
+            c.close();
+        }
+    }
+
+    /*
+     * Insert the rows of a table written by writeTable() with a compiled
+     * statement. The rows must not conflict with those of the table, which
+     * is normally empty. Returns the number of rows inserted.
+     */
+    public static int readTable(SQLiteDatabase db, String table, JsonReader reader)
+            throws IOException {
+        HashSet<String> known = getColumns(db, table);
+
+        //The index in a row of each column loaded, -1 for those dropped
+        ArrayList<Integer> indexes = null;
+        int columnCount = 0;
+        SQLiteStatement insert = null;
+        int count = 0;
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals(KEY_COLUMNS)) {
+                    indexes = new ArrayList<Integer>();
+                    StringBuilder sql = new StringBuilder("INSERT INTO " + table + " (");
+                    StringBuilder params = new StringBuilder();
+
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String column = reader.nextString();
+                        if (known.contains(column)) {
+                            if (columnCount > 0) {
+                                sql.append(", ");
+                                params.append(", ");
+                            }
+                            sql.append(column);
+                            params.append('?');
+                            indexes.add(++columnCount);
+                        } else {
+                            indexes.add(-1);
+                        }
+                    }
+                    reader.endArray();
+
+                    if (columnCount > 0) {
+                        insert = db.compileStatement(sql.append(") VALUES (").append(params)
+                                .append(')').toString());
+                    }
+                } else if (name.equals(KEY_ROWS)) {
+                    if (indexes == null) {
+                        throw new IOException("Rows of " + table + " before its columns");
+                    }
+
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readRow(reader, indexes, insert);
+                        count++;
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+        }
+
+        return count;
+    }
+
+    private static void readRow(JsonReader reader, ArrayList<Integer> indexes,
+                                SQLiteStatement insert) throws IOException {
+        if (insert != null) {
+            insert.clearBindings();
+        }
+
+        int i = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int index = i < indexes.size() ? indexes.get(i) : -1;
+            i++;
+
+            if (index == -1 || insert == null) {
+                reader.skipValue();
+            } else if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                insert.bindNull(index);
+            } else {
+                insert.bindString(index, reader.nextString());
+            }
+        }
+        reader.endArray();
+
+        if (insert != null && insert.executeInsert() == -1) {
+            throw new IOException("Failed to insert a row");
+        }
+    }
+
+    private static HashSet<String> getColumns(SQLiteDatabase db, String table) {
+        HashSet<String> columns = new HashSet<String>();
+
+        Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = c.getColumnIndexOrThrow("name");
+            while (c.moveToNext()) {
+                columns.add(c.getString(nameIndex));
+            }
+        } finally {
+            c.close();
+        }
+        return columns;
+    }
+}
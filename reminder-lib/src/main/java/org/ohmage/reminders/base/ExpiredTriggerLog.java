@@ -0,0 +1,270 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.reminders.config.ExpiredLogConfig;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Log of the triggers which expired with surveys not taken, kept for the
+ * host application to upload. Each record is a line of JSON appended to a
+ * file in the files directory of the application.
+ *
+ * The file being appended to is never read. Once it grows above
+ * maxFileSize, or when a reader is opened, it is sealed: renamed to
+ * <name>.<sequence> with a sequence which grows with each file sealed.
+ * A Reader reads the sealed files in order, and the host commits the
+ * records it has uploaded, which deletes the files read to the end.
+ * A file read in part is read again from its start by the next reader,
+ * so a record may be delivered more than once but is never lost unless
+ * more than maxSealedFiles files are waiting to be read.
+ */
+public class ExpiredTriggerLog {
+
+    private static final String TAG = "ExpiredTriggerLog";
+
+    private static final String CHARSET = "UTF-8";
+
+    //Guards the files against concurrent appends and seals
+    private static final Object sLock = new Object();
+
+    /*
+     * Append a record to the log
+     */
+    public static void append(Context context, JSONObject record) {
+        synchronized (sLock) {
+            File file = getFile(context);
+            if (file.length() > ExpiredLogConfig.maxFileSize) {
+                seal(context);
+            }
+
+            Writer writer = null;
+            try {
+                writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(file, true), CHARSET),
+                        ExpiredLogConfig.writeBufferSize);
+                writer.write(record.toString());
+                writer.write('\n');
+            } catch (IOException e) {
+                Log.e(TAG, "ExpiredTriggerLog: Failed to write " + file, e);
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, "ExpiredTriggerLog: Failed to close " + file, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Open a reader over all the records appended so far
+     */
+    public static Reader openReader(Context context) {
+        File[] files;
+        synchronized (sLock) {
+            if (getFile(context).length() > 0) {
+                seal(context);
+            }
+            files = getSealedFiles(context);
+        }
+
+        return new Reader(files);
+    }
+
+    /*
+     * Delete all the records
+     */
+    public static void clear(Context context) {
+        synchronized (sLock) {
+            getFile(context).delete();
+            for (File file : getSealedFiles(context)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(),
+                ExpiredLogConfig.fileName);
+    }
+
+    /*
+     * Get the sealed files, oldest first
+     */
+    private static File[] getSealedFiles(Context context) {
+        File dir = context.getApplicationContext().getFilesDir();
+        String[] names = dir.list();
+        if (names == null) {
+            return new File[0];
+        }
+
+        ArrayList<Long> sequences = new ArrayList<Long>();
+        for (String name : names) {
+            long sequence = getSequence(name);
+            if (sequence >= 0) {
+                sequences.add(sequence);
+            }
+        }
+
+        Long[] sorted = sequences.toArray(new Long[sequences.size()]);
+        Arrays.sort(sorted);
+
+        File[] files = new File[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            files[i] = new File(dir, ExpiredLogConfig.fileName + "." + sorted[i]);
+        }
+        return files;
+    }
+
+    //Get the sequence of a sealed file from its name, -1 if the name is
+    //not the name of a sealed file
+    private static long getSequence(String name) {
+        String prefix = ExpiredLogConfig.fileName + ".";
+        if (!name.startsWith(prefix)) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void seal(Context context) {
+        File[] sealed = getSealedFiles(context);
+
+        long next = 1;
+        if (sealed.length > 0) {
+            next = getSequence(sealed[sealed.length - 1].getName()) + 1;
+        }
+
+        File file = getFile(context);
+        Log.v(TAG, "ExpiredTriggerLog: Sealing " + file + " as " + next);
+        file.renameTo(new File(file.getParentFile(), file.getName() + "." + next));
+
+        //Drop the oldest files beyond the limit, counting the new one
+        for (int i = 0; i < sealed.length + 1 - ExpiredLogConfig.maxSealedFiles; i++) {
+            Log.w(TAG, "ExpiredTriggerLog: Dropping unread " + sealed[i]);
+            sealed[i].delete();
+        }
+    }
+
+    /*
+     * Reads the records of the sealed files a line at a time, so that
+     * any number of records can be read in constant memory.
+     */
+    public static class Reader {
+        private final File[] mFiles;
+        //Index of the file being read
+        private int mIndex = 0;
+        private BufferedReader mReader = null;
+        private boolean mClosed = false;
+
+        private Reader(File[] files) {
+            mFiles = files;
+        }
+
+        /*
+         * Get the next record, or null once all of them have been read.
+         * Lines which are not valid JSON are skipped.
+         */
+        public JSONObject next() {
+            while (!mClosed && mIndex < mFiles.length) {
+                try {
+                    if (mReader == null) {
+                        mReader = new BufferedReader(new InputStreamReader(
+                                new FileInputStream(mFiles[mIndex]), CHARSET));
+                    }
+
+                    String line = mReader.readLine();
+                    if (line == null) {
+                        closeFile();
+                        mIndex++;
+                        continue;
+                    }
+
+                    if (line.length() != 0) {
+                        return new JSONObject(line);
+                    }
+                } catch (JSONException e) {
+                    Log.w(TAG, "ExpiredTriggerLog: Skipping malformed record in "
+                            + mFiles[mIndex]);
+                } catch (IOException e) {
+                    //The file may have been dropped or cleared meanwhile
+                    Log.e(TAG, "ExpiredTriggerLog: Failed to read " + mFiles[mIndex], e);
+                    closeFile();
+                    mIndex++;
+                }
+            }
+
+            return null;
+        }
+
+        /*
+         * Get up to max of the next records, none once all of them have
+         * been read
+         */
+        public List<JSONObject> nextBatch(int max) {
+            ArrayList<JSONObject> batch = new ArrayList<JSONObject>();
+            JSONObject record;
+            while (batch.size() < max && (record = next()) != null) {
+                batch.add(record);
+            }
+            return batch;
+        }
+
+        /*
+         * Delete the files whose records have all been read. To be called
+         * once the records read so far have been uploaded.
+         */
+        public void commit() {
+            synchronized (sLock) {
+                for (int i = 0; i < mIndex && i < mFiles.length; i++) {
+                    if (mFiles[i] != null) {
+                        mFiles[i].delete();
+                        mFiles[i] = null;
+                    }
+                }
+            }
+        }
+
+        /*
+         * Release the file being read. The records not committed are
+         * read again by the next reader.
+         */
+        public void close() {
+            closeFile();
+            mClosed = true;
+        }
+
+        private void closeFile() {
+            if (mReader != null) {
+                try {
+                    mReader.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "ExpiredTriggerLog: Failed to close reader", e);
+                }
+                mReader = null;
+            }
+        }
+    }
+}
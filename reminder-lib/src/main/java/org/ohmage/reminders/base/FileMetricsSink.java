@@ -0,0 +1,90 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.ohmage.reminders.core.MetricsSink;
+import org.ohmage.reminders.core.MetricsSnapshot;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/*
+ * Appends each report as a line of JSON to a file in the files directory
+ * of the application. Once the file grows above maxFileSize it is renamed
+ * to <name>.1, the previous <name>.1 to <name>.2 and so on, keeping at most
+ * maxRotatedFiles old files.
+ */
+public class FileMetricsSink implements MetricsSink {
+
+    private static final String TAG = "FileMetricsSink";
+
+    private final File mFile;
+    private final long mMaxFileSize;
+    private final int mMaxRotatedFiles;
+
+    public FileMetricsSink(Context context, String fileName,
+                           long maxFileSize, int maxRotatedFiles) {
+        mFile = new File(context.getApplicationContext().getFilesDir(), fileName);
+        mMaxFileSize = maxFileSize;
+        mMaxRotatedFiles = maxRotatedFiles;
+    }
+
+    /*
+     * Get the file currently written to
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public synchronized void report(MetricsSnapshot snapshot) {
+        if (mFile.length() > mMaxFileSize) {
+            rotate();
+        }
+
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(mFile, true);
+            writer.write(snapshot.toString());
+            writer.write('\n');
+        } catch (IOException e) {
+            Log.e(TAG, "FileMetricsSink: Failed to write " + mFile, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "FileMetricsSink: Failed to close " + mFile, e);
+                }
+            }
+        }
+    }
+
+    private void rotate() {
+        Log.v(TAG, "FileMetricsSink: Rotating " + mFile);
+
+        File oldest = getRotatedFile(mMaxRotatedFiles);
+        if (oldest.exists() && !oldest.delete()) {
+            Log.w(TAG, "FileMetricsSink: Failed to delete " + oldest);
+        }
+
+        for (int i = mMaxRotatedFiles - 1; i >= 1; i--) {
+            File file = getRotatedFile(i);
+            if (file.exists()) {
+                file.renameTo(getRotatedFile(i + 1));
+            }
+        }
+
+        if (mMaxRotatedFiles > 0) {
+            mFile.renameTo(getRotatedFile(1));
+        } else {
+            mFile.delete();
+        }
+    }
+
+    private File getRotatedFile(int index) {
+        return new File(mFile.getParentFile(), mFile.getName() + "." + index);
+    }
+}
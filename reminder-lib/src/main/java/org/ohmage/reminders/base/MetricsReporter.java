@@ -0,0 +1,111 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import org.ohmage.reminders.config.MetricsConfig;
+import org.ohmage.reminders.core.Metrics;
+import org.ohmage.reminders.core.MetricsSink;
+
+/*
+ * Hands the metrics of the framework to the sink every reportInterval.
+ * The sink is a FileMetricsSink unless the host application has set one
+ * of its own with setSink().
+ *
+ * The reports are made on the engine thread, but unlike the engine tasks
+ * they do not hold a wake lock: the interval is measured in uptime, so no
+ * report is ever made while the device is asleep.
+ */
+public class MetricsReporter {
+
+    private static final String TAG = "MetricsReporter";
+
+    private static Handler sHandler = null;
+    private static MetricsSink sSink = null;
+    //Whether the host application has chosen the sink
+    private static boolean sSinkSet = false;
+
+    private static final Runnable sReport = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                Metrics.report();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "MetricsReporter: Failed to report the metrics", e);
+            }
+
+            sHandler.postDelayed(this, MetricsConfig.reportInterval);
+        }
+    };
+
+    /*
+     * Start the periodic reports. Called by the engine when it is first
+     * used, does nothing after the first call.
+     */
+    public static synchronized void start(Context context) {
+        if (sHandler != null) {
+            return;
+        }
+
+        Metrics.registerGauge(Metrics.ENGINE_QUEUE_DEPTH, new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return TriggerEngine.getQueueDepth();
+            }
+        });
+        Metrics.registerGauge(Metrics.ENGINE_MAX_QUEUE_DEPTH, new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return TriggerEngine.getMaxQueueDepth();
+            }
+        });
+        Metrics.registerGauge(Metrics.ENGINE_TASKS, new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return TriggerEngine.getTaskCount();
+            }
+        });
+
+        if (!sSinkSet && MetricsConfig.useFileSink) {
+            installSink(new FileMetricsSink(context, MetricsConfig.fileName,
+                    MetricsConfig.maxFileSize, MetricsConfig.maxRotatedFiles));
+        }
+
+        sHandler = new Handler(TriggerEngine.getLooper());
+        sHandler.postDelayed(sReport, MetricsConfig.reportInterval);
+    }
+
+    /*
+     * Set the sink the reports are handed to, replacing the current one.
+     * Null stops the reports.
+     */
+    public static synchronized void setSink(MetricsSink sink) {
+        sSinkSet = true;
+        installSink(sink);
+    }
+
+    private static void installSink(MetricsSink sink) {
+        if (sSink != null) {
+            Metrics.removeSink(sSink);
+        }
+
+        sSink = sink;
+        if (sink != null) {
+            Metrics.addSink(sink);
+        }
+    }
+
+    /*
+     * Make a report right away on the engine thread, for instance before
+     * reading the metrics file
+     */
+    public static synchronized void reportNow() {
+        if (sHandler == null) {
+            return;
+        }
+
+        sHandler.removeCallbacks(sReport);
+        sHandler.post(sReport);
+    }
+}
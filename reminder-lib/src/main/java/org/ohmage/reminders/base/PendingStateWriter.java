@@ -0,0 +1,212 @@
+package org.ohmage.reminders.base;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.joda.time.DateTimeZone;
+import org.ohmage.reminders.base.ReminderContract.Reminders;
+import org.ohmage.reminders.core.Metrics;
+import org.ohmage.reminders.glue.TriggerFramework;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Writes the pending state of the surveys to the reminders provider of the
+ * host application.
+ *
+ * The surveys are selected with "_id IN (?, ...)" clauses of at most
+ * MAX_ARGS_PER_UPDATE arguments each so that large campaigns stay below the
+ * SQLite limit on the number of bind arguments. When more than one update is
+ * needed, all of them are sent to the provider in a single applyBatch() call.
+ *
+ * Updates made between beginBatch() and endBatch() are coalesced, i.e. only
+ * the last pending time set for each survey is written, once, when the
+ * outermost batch ends.
+ */
+public class PendingStateWriter {
+
+    private static final String TAG = "PendingStateWriter";
+
+    //SQLite refuses statements with more than 999 bind arguments
+    private static final int MAX_ARGS_PER_UPDATE = 500;
+
+    //Nesting depth of the open batches
+    private static int sBatchDepth = 0;
+    //Pending time of each survey updated in the current batch
+    private static final LinkedHashMap<String, Long> sQueued =
+            new LinkedHashMap<String, Long>();
+
+    private static long sCalls = 0;
+    private static long sTotalMS = 0;
+    private static long sMaxMS = 0;
+
+    /*
+     * Set the pending time of the given surveys. The update is written
+     * right away unless a batch is open.
+     */
+    public static void write(Context context, long time, String... surveys) {
+        synchronized (sQueued) {
+            if (sBatchDepth > 0) {
+                for (String survey : surveys) {
+                    //Remove first so that the survey is ordered by its latest update
+                    sQueued.remove(survey);
+                    sQueued.put(survey, time);
+                }
+                return;
+            }
+        }
+
+        LinkedHashMap<String, Long> updates = new LinkedHashMap<String, Long>();
+        for (String survey : surveys) {
+            updates.put(survey, time);
+        }
+
+        flush(context, updates);
+    }
+
+    /*
+     * Start coalescing the updates. Must be paired with endBatch(),
+     * batches can be nested.
+     */
+    public static void beginBatch() {
+        synchronized (sQueued) {
+            sBatchDepth++;
+        }
+    }
+
+    /*
+     * Close a batch. The updates are written when the outermost
+     * batch is closed.
+     */
+    public static void endBatch(Context context) {
+        LinkedHashMap<String, Long> updates;
+
+        synchronized (sQueued) {
+            if (sBatchDepth == 0) {
+                Log.e(TAG, "PendingStateWriter: endBatch() without beginBatch()");
+                return;
+            }
+
+            if (--sBatchDepth > 0 || sQueued.isEmpty()) {
+                return;
+            }
+
+            updates = new LinkedHashMap<String, Long>(sQueued);
+            sQueued.clear();
+        }
+
+        flush(context, updates);
+    }
+
+    private static void flush(Context context, LinkedHashMap<String, Long> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        //Group the surveys by their pending time, one group per
+        //distinct time, and split each group into chunks
+        LinkedHashMap<Long, List<String>> groups = new LinkedHashMap<Long, List<String>>();
+        for (Map.Entry<String, Long> update : updates.entrySet()) {
+            List<String> group = groups.get(update.getValue());
+            if (group == null) {
+                group = new ArrayList<String>();
+                groups.put(update.getValue(), group);
+            }
+            group.add(update.getKey());
+        }
+
+        String timezone = DateTimeZone.getDefault().getID();
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+
+        for (Map.Entry<Long, List<String>> group : groups.entrySet()) {
+            ContentValues values = new ContentValues();
+            values.put(Reminders.REMINDER_PENDING_TIME, group.getKey());
+            values.put(Reminders.REMINDER_PENDING_TIMEZONE, timezone);
+
+            List<String> surveys = group.getValue();
+            for (int start = 0; start < surveys.size(); start += MAX_ARGS_PER_UPDATE) {
+                List<String> chunk = surveys.subList(start,
+                        Math.min(start + MAX_ARGS_PER_UPDATE, surveys.size()));
+
+                ops.add(ContentProviderOperation.newUpdate(Reminders.buildRemindersUri())
+                        .withValues(values)
+                        .withSelection(buildSelection(chunk.size()),
+                                chunk.toArray(new String[chunk.size()]))
+                        .build());
+            }
+        }
+
+        long start = SystemClock.elapsedRealtime();
+
+        if (ops.size() == 1) {
+            //A single update does not need the batch machinery
+            String[] surveys = updates.keySet().toArray(new String[updates.size()]);
+            long time = updates.values().iterator().next();
+
+            ContentValues values = new ContentValues();
+            values.put(Reminders.REMINDER_PENDING_TIME, time);
+            values.put(Reminders.REMINDER_PENDING_TIMEZONE, timezone);
+
+            context.getContentResolver().update(Reminders.buildRemindersUri(), values,
+                    buildSelection(surveys.length), surveys);
+        } else {
+            try {
+                context.getContentResolver().applyBatch(TriggerFramework.getAuthority(), ops);
+            } catch (RemoteException e) {
+                Log.e(TAG, "PendingStateWriter: Failed to update the pending state", e);
+            } catch (OperationApplicationException e) {
+                Log.e(TAG, "PendingStateWriter: Failed to update the pending state", e);
+            }
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        recordLatency(elapsed);
+        Metrics.record(Metrics.PROVIDER_UPDATE_LATENCY, elapsed);
+
+        Log.v(TAG, "PendingStateWriter: Updated " + updates.size() + " surveys in "
+                + ops.size() + " operations, " + elapsed + "ms");
+    }
+
+    private static String buildSelection(int count) {
+        StringBuilder select = new StringBuilder(Reminders._ID + " IN (");
+        for (int i = 0; i < count; i++) {
+            select.append(i == 0 ? "?" : ",?");
+        }
+        return select.append(")").toString();
+    }
+
+    private static synchronized void recordLatency(long elapsed) {
+        sCalls++;
+        sTotalMS += elapsed;
+        sMaxMS = Math.max(sMaxMS, elapsed);
+    }
+
+    /*
+     * Number of writes made to the provider so far
+     */
+    public static synchronized long getWriteCount() {
+        return sCalls;
+    }
+
+    /*
+     * Average latency of the writes made to the provider so far
+     */
+    public static synchronized long getAverageLatency() {
+        return sCalls == 0 ? 0 : sTotalMS / sCalls;
+    }
+
+    /*
+     * Highest latency of the writes made to the provider so far
+     */
+    public static synchronized long getMaxLatency() {
+        return sMaxMS;
+    }
+}
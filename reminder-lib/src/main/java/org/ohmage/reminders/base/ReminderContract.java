@@ -9,6 +9,12 @@ import org.ohmage.reminders.glue.TriggerFramework;
  * Clients should create a provider to handle these columns for a content authority they specify
  * using {@link org.ohmage.reminders.glue.TriggerFramework#setAuthority(String)}. The Uri will look
  * something like content://{authority}/reminders.
+ * <p>
+ * The framework updates the pending time and timezone of the reminders each time a trigger goes
+ * off. It caches the names of the reminders for the notification, so the provider must call
+ * {@link android.content.ContentResolver#notifyChange} on the reminders Uri when a name changes.
+ * It may notify on every update: a change only makes the framework read the names again, and the
+ * notification is posted again only if one of them changed.
  */
 public abstract class ReminderContract {
 
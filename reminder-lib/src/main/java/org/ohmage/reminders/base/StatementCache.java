@@ -0,0 +1,111 @@
+package org.ohmage.reminders.base;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import java.util.HashMap;
+
+/*
+ * Cache of the compiled statements of the hot writes of a database
+ * connection, so that the SQL of each write is compiled once per
+ * connection instead of once per write as with SQLiteDatabase.update().
+ *
+ * A compiled statement holds its bindings, so the cache is confined to
+ * the thread which created it. TriggerDB and LocTrigDB keep one for the
+ * engine thread on their shared connection.
+ */
+public class StatementCache {
+
+    //Reads the number of rows changed by the last statement on the
+    //platforms without SQLiteStatement.executeUpdateDelete()
+    private static final String SQL_CHANGES = "SELECT changes()";
+
+    private final SQLiteDatabase mDb;
+    private final Thread mOwner = Thread.currentThread();
+    private final HashMap<String, SQLiteStatement> mStatements =
+            new HashMap<String, SQLiteStatement>();
+
+    public StatementCache(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /*
+     * Check if the cache can be used by the calling thread
+     */
+    public boolean isOwner() {
+        return Thread.currentThread() == mOwner;
+    }
+
+    /*
+     * Run an UPDATE or DELETE statement with the given arguments, which
+     * may be strings, numbers or null. Returns the number of rows changed.
+     */
+    public int executeUpdateDelete(String sql, Object... args) {
+        SQLiteStatement stmt = getStatement(sql);
+        bind(stmt, args);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return stmt.executeUpdateDelete();
+        }
+
+        stmt.execute();
+        return (int) getStatement(SQL_CHANGES).simpleQueryForLong();
+    }
+
+    /*
+     * Run a statement which returns nothing with the given arguments
+     */
+    public void execute(String sql, Object... args) {
+        SQLiteStatement stmt = getStatement(sql);
+        bind(stmt, args);
+        stmt.execute();
+    }
+
+    /*
+     * Release all the statements. Must be called before the connection
+     * is closed.
+     */
+    public void close() {
+        for (SQLiteStatement stmt : mStatements.values()) {
+            stmt.close();
+        }
+        mStatements.clear();
+    }
+
+    private SQLiteStatement getStatement(String sql) {
+        if (!isOwner()) {
+            throw new IllegalStateException("StatementCache used outside of the thread "
+                    + mOwner.getName());
+        }
+
+        SQLiteStatement stmt = mStatements.get(sql);
+        if (stmt == null) {
+            stmt = mDb.compileStatement(sql);
+            mStatements.put(sql, stmt);
+        }
+        return stmt;
+    }
+
+    /*
+     * Bind the arguments of a statement, which may be strings, numbers
+     * or null
+     */
+    public static void bind(SQLiteStatement stmt, Object[] args) {
+        stmt.clearBindings();
+
+        //Bind indexes start from 1
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg == null) {
+                stmt.bindNull(i + 1);
+            } else if (arg instanceof Long || arg instanceof Integer) {
+                stmt.bindLong(i + 1, ((Number) arg).longValue());
+            } else if (arg instanceof Double || arg instanceof Float) {
+                stmt.bindDouble(i + 1, ((Number) arg).doubleValue());
+            } else {
+                stmt.bindString(i + 1, arg.toString());
+            }
+        }
+    }
+}
@@ -15,8 +15,8 @@
  ******************************************************************************/
 package org.ohmage.reminders.base;
 
-import android.content.ContentValues;
 import android.content.Context;
+import android.content.Intent;
 import android.database.Cursor;
 import android.location.Location;
 import android.location.LocationManager;
@@ -30,19 +30,15 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 
-import org.joda.time.DateTimeZone;
 import org.json.JSONObject;
 import org.ohmage.reminders.base.ReminderContract.Reminders;
-import org.ohmage.reminders.notif.NotifDesc;
 import org.ohmage.reminders.notif.NotifSurveyAdaptor;
 import org.ohmage.reminders.notif.Notifier;
-import org.ohmage.reminders.types.location.LocTrigDesc;
-import org.ohmage.reminders.types.location.LocationTrigger;
-import org.ohmage.reminders.types.time.TimeTrigDesc;
-import org.ohmage.reminders.types.time.TimeTrigger;
 
 import java.lang.reflect.Type;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -61,6 +57,14 @@ public abstract class TriggerBase {
 
     private static final String TAG = "TriggerFramework";
 
+    /* Extras of the intents which start or stop several triggers at once */
+    public static final String KEY_TRIG_IDS = "trigger_ids";
+    public static final String KEY_TRIG_DESCS = "trigger_descs";
+    //The triggers are sent in several intents above this number, as the
+    //extras of an intent must stay well below the limit of a binder
+    //transaction, about 1MB shared by the whole process
+    public static final int MAX_TRIGGERS_PER_INTENT = 200;
+
     public String reminderId;
     public String campaignUrn;
     public String campaignName;
@@ -83,7 +87,11 @@ public abstract class TriggerBase {
         TriggerDB db = new TriggerDB(context);
         db.open();
 
-        String rtDesc = db.getRunTimeDescription(trigId);
+        //Read the descriptions needed at once
+        TriggerRecord trig = db.load(trigId, TriggerRecord.NOTIFY_COLUMNS);
+        String rtDesc = trig == null ? null : trig.runTimeDesc;
+        String notifDesc = trig == null ? null : trig.notifDesc;
+
         TriggerRunTimeDesc desc = new TriggerRunTimeDesc();
 
         desc.loadString(rtDesc);
@@ -99,10 +107,11 @@ public abstract class TriggerBase {
 
         //Save the run time desc in the database
         db.updateRunTimeDescription(trigId, desc.toString());
+        TriggerEventLog.record(context, trigId, TriggerEventDB.TYPE_FIRED);
 
         //Call the notifier to display the notification
         //Pass the notification description corresponding to this trigger
-        Notifier.notifyNewTrigger(context, trigId, db.getNotifDescription(trigId));
+        Notifier.notifyNewTrigger(context, trigId, notifDesc);
 
         db.close();
 
@@ -124,6 +133,8 @@ public abstract class TriggerBase {
     /**
      * Updates the pending state for surveys. It doesn't check to see if the survey should actually
      * be pending so callers must know that the state is correct.
+     * <p>
+     * The update is coalesced with the others if a {@link PendingStateWriter} batch is open.
      *
      * @param context
      * @param time
@@ -131,19 +142,7 @@ public abstract class TriggerBase {
      */
     public static void updatePendingStateForSurveys(Context context, long time,
                                                     String... surveys) {
-        StringBuilder select = new StringBuilder();
-        for (int i = 0; i < surveys.length; i++) {
-            if (select.length() != 0) {
-                select.append(" OR ");
-            }
-            select.append(Reminders._ID + "=?");
-        }
-
-        ContentValues values = new ContentValues();
-        values.put(Reminders.REMINDER_PENDING_TIME, time);
-        values.put(Reminders.REMINDER_PENDING_TIMEZONE, DateTimeZone.getDefault().getID());
-        context.getContentResolver().update(Reminders.buildRemindersUri(), values,
-                select.toString(), surveys);
+        PendingStateWriter.write(context, time, surveys);
     }
 
     /**
@@ -153,8 +152,8 @@ public abstract class TriggerBase {
      * @param time
      * @param ids
      */
-    private static void updatePendingStateForSurveys(Context context, long time,
-                                                     Set<String> ids) {
+    static void updatePendingStateForSurveys(Context context, long time,
+                                             Set<String> ids) {
         String[] selectArgs = ids.toArray(new String[]{});
         if (time == Reminders.NOT_PENDING) {
             // Find all surveys for this trigger which are not still active from some other trigger
@@ -257,17 +256,10 @@ public abstract class TriggerBase {
         TriggerDB db = new TriggerDB(context);
         db.open();
 
-        String ret = null;
-        Cursor c = db.getTrigger(trigId);
-        if (c.moveToFirst()) {
-
-            ret = c.getString(
-                    c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_DESCRIPT));
-        }
-
-        c.close();
+        TriggerRecord trig = db.load(trigId, TriggerRecord.DESC_COLUMNS);
         db.close();
-        return ret;
+
+        return trig == null ? null : trig.trigDesc;
     }
 
     /*
@@ -285,18 +277,15 @@ public abstract class TriggerBase {
         db.open();
 
         long ret = -1;
-        Cursor c = db.getTrigger(trigId);
-        if (c.moveToFirst()) {
+        TriggerRecord trig = db.load(trigId, new String[]{TriggerDB.KEY_RUNTIME_DESCRIPT});
+        if (trig != null) {
 
-            String rtDesc = c.getString(
-                    c.getColumnIndexOrThrow(TriggerDB.KEY_RUNTIME_DESCRIPT));
             TriggerRunTimeDesc desc = new TriggerRunTimeDesc();
-            if (desc.loadString(rtDesc)) {
+            if (desc.loadString(trig.runTimeDesc)) {
                 ret = desc.getTriggerTimeStamp();
             }
         }
 
-        c.close();
         db.close();
         return ret;
     }
@@ -312,16 +301,11 @@ public abstract class TriggerBase {
         TriggerDB db = new TriggerDB(context);
         db.open();
 
-        TriggerDB.Campaign campaign = db.getCampaignInfo(trigId);
-
-        Cursor c = db.getTrigger(trigId);
-        if (c.moveToFirst()) {
-            String trigType = c.getString(
-                    c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_TYPE));
-
-            if (trigType.equals(this.getTriggerType())) {
+        TriggerRecord trig = db.load(trigId, TriggerRecord.TRIGGER_COLUMNS);
+        if (trig != null) {
+            if (trig.trigType.equals(this.getTriggerType())) {
                 //Stop trigger first
-                stopTrigger(context, trigId, db.getTriggerDescription(trigId));
+                stopTrigger(context, trigId, trig.trigDesc);
                 //Get surveys for trigger
                 Set<String> surveys = NotifSurveyAdaptor.getActiveSurveysForTrigger(context, trigId);
                 //Delete from database
@@ -333,7 +317,6 @@ public abstract class TriggerBase {
             }
         }
 
-        c.close();
         db.close();
     }
 
@@ -354,19 +337,20 @@ public abstract class TriggerBase {
         db.open();
 
         //Save the trigger desc. Use default desc for notification, action
-        // and run time
+        // and run time. The notification desc is that of the global profile.
         int trigId = (int) db.addTrigger(uuid, campaignUrn, campaignName, this.getTriggerType(), trigDesc,
                 actDesc,
-                NotifDesc.getDefaultDesc(context),
+                null,
                 TriggerRunTimeDesc.getDefaultDesc());
 
 //        String actDesc = db.getActionDescription(trigId);
+        boolean enabled = db.isTriggerEnabled(trigId);
         db.close();
 
         //If the action has a positive number of surveys,
         //start the trigger.
         TriggerActionDesc desc = new TriggerActionDesc();
-        if (desc.loadString(actDesc) && desc.getCount() > 0) {
+        if (enabled && desc.loadString(actDesc) && desc.getCount() > 0) {
             startTrigger(context, trigId, trigDesc);
         }
     }
@@ -388,12 +372,13 @@ public abstract class TriggerBase {
 
 //        String actDesc = db.getActionDescription(trigId);
         db.updateActionDescription(trigId, actDesc);
+        boolean enabled = db.isTriggerEnabled(trigId);
         db.close();
 
         //If the action has a positive number of surveys,
         //restart the trigger.
         TriggerActionDesc desc = new TriggerActionDesc();
-        if (desc.loadString(actDesc) && desc.getCount() > 0) {
+        if (enabled && desc.loadString(actDesc) && desc.getCount() > 0) {
             resetTrigger(context, trigId, trigDesc);
         }
     }
@@ -406,13 +391,15 @@ public abstract class TriggerBase {
         db.open();
         db.updateTriggerDescription(trigId, trigDesc);
 
-        String actDesc = db.getActionDescription(trigId);
+        TriggerRecord trig = db.load(trigId, TriggerRecord.TRIGGER_COLUMNS);
+        String actDesc = trig == null ? null : trig.actDesc;
+        boolean enabled = db.isTriggerEnabled(trigId);
         db.close();
 
         //If the action has a positive number of surveys,
         //restart the trigger.
         TriggerActionDesc desc = new TriggerActionDesc();
-        if (desc.loadString(actDesc) && desc.getCount() > 0) {
+        if (enabled && desc.loadString(actDesc) && desc.getCount() > 0) {
             resetTrigger(context, trigId, trigDesc);
         }
     }
@@ -442,17 +429,12 @@ public abstract class TriggerBase {
             JsonObject object = json.getAsJsonObject();
             String type = object.get("type").getAsString();
 
-            TriggerBase trigger = new TimeTrigger();
-            if (trigger.getTriggerType().equals(type)) {
-                trigger.trigDesc = context.deserialize(object.getAsJsonObject("description"), TimeTrigDesc.class);
-            } else {
-                trigger = new LocationTrigger();
-                if (trigger.getTriggerType().equals(type)) {
-                    trigger.trigDesc = context.deserialize(object.getAsJsonObject("description"), LocTrigDesc.class);
-                } else {
-                    throw new JsonParseException("Invalid trigger type");
-                }
+            //Dispatch by type through the registered trigger types
+            TriggerBase trigger = new TriggerTypeMap().newTrigger(type);
+            if (trigger == null) {
+                throw new JsonParseException("Invalid trigger type");
             }
+            trigger.trigDesc = trigger.parseDescription(object.getAsJsonObject("description"));
 
             trigger.reminderId = object.get("reminder_id").getAsString();
             trigger.actDesc = new TriggerActionDesc();
@@ -509,6 +491,11 @@ public abstract class TriggerBase {
      */
     public abstract JSONObject getPreferences(Context context);
 
+    /*
+     * Parse the description of a trigger of this type given by the server
+     */
+    public abstract TrigDesc parseDescription(JsonElement json) throws JsonParseException;
+
     /*
      * Start a specific trigger
      */
@@ -524,6 +511,94 @@ public abstract class TriggerBase {
      */
     public abstract void stopTrigger(Context context, int trigId, String trigDesc);
 
+    /*
+     * Start several triggers of this type, given their descriptions keyed
+     * by id. The types which are started by a service override this to
+     * send the service a command per batch of triggers.
+     */
+    public void startTriggers(Context context, Map<Integer, String> trigDescs) {
+        for (Map.Entry<Integer, String> trig : trigDescs.entrySet()) {
+            startTrigger(context, trig.getKey(), trig.getValue());
+        }
+    }
+
+    /*
+     * Stop several triggers of this type, given their descriptions keyed
+     * by id. See startTriggers().
+     */
+    public void stopTriggers(Context context, Map<Integer, String> trigDescs) {
+        for (Map.Entry<Integer, String> trig : trigDescs.entrySet()) {
+            stopTrigger(context, trig.getKey(), trig.getValue());
+        }
+    }
+
+    /*
+     * Get the name of the place of a specific trigger description of
+     * this type, indexed for the search of the triggers. The types which
+     * are not bound to a place return null.
+     */
+    public String getPlaceName(Context context, String trigDesc) {
+        return null;
+    }
+
+    /*
+     * Start a service with copies of an intent which carry the ids and
+     * descriptions of several triggers, at most MAX_TRIGGERS_PER_INTENT
+     * per intent
+     */
+    public static void startServiceWithTriggers(Context context, Intent intent,
+                                                Map<Integer, String> trigDescs) {
+        LinkedHashMap<Integer, String> batch = new LinkedHashMap<Integer, String>();
+        for (Map.Entry<Integer, String> trig : trigDescs.entrySet()) {
+            batch.put(trig.getKey(), trig.getValue());
+            if (batch.size() == MAX_TRIGGERS_PER_INTENT) {
+                context.startService(putTriggers(new Intent(intent), batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            context.startService(putTriggers(new Intent(intent), batch));
+        }
+    }
+
+    /*
+     * Put the ids and descriptions of several triggers in an intent
+     */
+    public static Intent putTriggers(Intent intent, Map<Integer, String> trigDescs) {
+        int[] ids = new int[trigDescs.size()];
+        String[] descs = new String[trigDescs.size()];
+
+        int i = 0;
+        for (Map.Entry<Integer, String> trig : trigDescs.entrySet()) {
+            ids[i] = trig.getKey();
+            descs[i] = trig.getValue();
+            i++;
+        }
+
+        intent.putExtra(KEY_TRIG_IDS, ids);
+        intent.putExtra(KEY_TRIG_DESCS, descs);
+        return intent;
+    }
+
+    /*
+     * Get the descriptions keyed by id of the triggers put in an intent
+     * with putTriggers(). Empty if the intent has none.
+     */
+    public static Map<Integer, String> getTriggers(Intent intent) {
+        LinkedHashMap<Integer, String> trigDescs = new LinkedHashMap<Integer, String>();
+
+        int[] ids = intent.getIntArrayExtra(KEY_TRIG_IDS);
+        String[] descs = intent.getStringArrayExtra(KEY_TRIG_DESCS);
+        if (ids == null || descs == null || ids.length != descs.length) {
+            return trigDescs;
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            trigDescs.put(ids[i], descs[i]);
+        }
+        return trigDescs;
+    }
+
     /*
      * Launch the activity to create a new trigger of this type. The activity
      * can save the trigger description to the db using the API addNewTrigger()
@@ -0,0 +1,214 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.reminders.config.SyncConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The local edits of the triggers and of the notification profiles,
+ * recorded by TriggerDB in its change log, for the host application to
+ * upload only what changed since its last upload instead of the full
+ * state of the triggers.
+ *
+ * Each change has a sequence which grows with each change. The host
+ * remembers the sequence of the last change it uploaded, reads the
+ * changes after it with a Reader, and acknowledges them once uploaded,
+ * which deletes them from the log. A change read but not acknowledged
+ * is read again by the next reader.
+ *
+ * Each change is read as a JSON object:
+ *
+ * {
+ *     "seq": 42,
+ *     "op": "insert" | "update" | "delete",
+ *     "entity": "trigger",
+ *     "reminder_id": "...",
+ *     "campaign_urn": "...",
+ *     "type": "TimeTrigger",
+ *     "description": { ... },
+ *     "action": { ... },
+ *     "notification": { ... }
+ * }
+ *
+ * with the current state of the trigger, and only the reminder id for a
+ * deleted one. The change of a notification profile has the entity
+ * "notif_profile", a "profile_id" and its "notification" description.
+ *
+ * The log is empty until the first edit after the upgrade which created
+ * it, so the host uploads the full state once, starting from the
+ * sequence given by getLastSeq() before that upload.
+ */
+public class TriggerChangeLog {
+
+    private static final String TAG = "TriggerFramework";
+
+    private static final String KEY_SEQ = "seq";
+    private static final String KEY_OP = "op";
+    private static final String KEY_ENTITY = "entity";
+    private static final String KEY_REMINDER_ID = "reminder_id";
+    private static final String KEY_PROFILE_ID = "profile_id";
+    private static final String KEY_CAMPAIGN_URN = "campaign_urn";
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_DESCRIPTION = "description";
+    private static final String KEY_ACTION = "action";
+    private static final String KEY_NOTIFICATION = "notification";
+
+    /*
+     * Open a reader over the changes after a sequence, 0 for all of them
+     */
+    public static Reader openReader(Context context, long sinceSeq) {
+        return new Reader(context, sinceSeq);
+    }
+
+    /*
+     * Get the sequence of the latest change, 0 if there was none
+     */
+    public static long getLastSeq(Context context) {
+        TriggerDB db = new TriggerDB(context);
+        db.open();
+        long seq = db.getLastChangeSeq();
+        db.close();
+        return seq;
+    }
+
+    /*
+     * Delete the changes up to a sequence, once they are uploaded.
+     * Returns the number of changes deleted.
+     */
+    public static int acknowledge(Context context, long upToSeq) {
+        TriggerDB db = new TriggerDB(context);
+        db.open();
+        int count = db.deleteChanges(upToSeq);
+        db.close();
+
+        Log.v(TAG, "TriggerChangeLog: Acknowledged " + count + " changes up to " + upToSeq);
+        return count;
+    }
+
+    /*
+     * Reads the changes a page of changesPageSize at a time, so that any
+     * number of changes can be read in constant memory. The db is only
+     * open while a page is read.
+     */
+    public static class Reader {
+        private final Context mContext;
+        //Sequence of the last change read from the db
+        private long mSeq;
+        private final ArrayList<JSONObject> mPage = new ArrayList<JSONObject>();
+        //Index of the next change of the page
+        private int mIndex = 0;
+        private boolean mDone = false;
+
+        private Reader(Context context, long sinceSeq) {
+            mContext = context;
+            mSeq = sinceSeq;
+        }
+
+        /*
+         * Get the next change, or null once all of them have been read
+         */
+        public JSONObject next() {
+            if (mIndex == mPage.size()) {
+                if (mDone) {
+                    return null;
+                }
+
+                readPage();
+                if (mPage.isEmpty()) {
+                    return null;
+                }
+            }
+
+            return mPage.get(mIndex++);
+        }
+
+        /*
+         * Get up to max of the next changes, none once all of them have
+         * been read
+         */
+        public List<JSONObject> nextBatch(int max) {
+            ArrayList<JSONObject> batch = new ArrayList<JSONObject>();
+            JSONObject change;
+            while (batch.size() < max && (change = next()) != null) {
+                batch.add(change);
+            }
+            return batch;
+        }
+
+        private void readPage() {
+            mPage.clear();
+            mIndex = 0;
+
+            TriggerDB db = new TriggerDB(mContext);
+            db.open();
+            Cursor c = db.getChanges(mSeq, SyncConfig.changesPageSize);
+            try {
+                while (c.moveToNext()) {
+                    mSeq = c.getLong(c.getColumnIndexOrThrow(TriggerDB.KEY_CHANGE_SEQ));
+                    mPage.add(toJson(c));
+                }
+                mDone = c.getCount() < SyncConfig.changesPageSize;
+            } catch (JSONException e) {
+                //Only thrown for values which are not numbers
+                Log.e(TAG, "TriggerChangeLog: Failed to read change " + mSeq, e);
+                mDone = true;
+            } finally {
+                c.close();
+                db.close();
+            }
+        }
+    }
+
+    private static JSONObject toJson(Cursor c) throws JSONException {
+        JSONObject change = new JSONObject();
+        change.put(KEY_SEQ, c.getLong(c.getColumnIndexOrThrow(TriggerDB.KEY_CHANGE_SEQ)));
+
+        String op = c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_CHANGE_OP));
+        String entity = c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_CHANGE_ENTITY));
+        change.put(KEY_OP, op);
+        change.put(KEY_ENTITY, entity);
+
+        if (TriggerDB.CHANGE_ENTITY_NOTIF_PROFILE.equals(entity)) {
+            change.put(KEY_PROFILE_ID,
+                    c.getInt(c.getColumnIndexOrThrow(TriggerDB.KEY_CHANGE_ENTITY_ID)));
+            putDescription(change, KEY_NOTIFICATION, c, TriggerDB.KEY_NOTIF_DESCRIPT);
+            return change;
+        }
+
+        change.put(KEY_REMINDER_ID, c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_UUID)));
+        if (TriggerDB.CHANGE_OP_DELETE.equals(op)) {
+            return change;
+        }
+
+        change.put(KEY_CAMPAIGN_URN,
+                c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_CAMPAIGN_URN)));
+        change.put(KEY_TYPE, c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_TYPE)));
+        putDescription(change, KEY_DESCRIPTION, c, TriggerDB.KEY_TRIG_DESCRIPT);
+        putDescription(change, KEY_ACTION, c, TriggerDB.KEY_TRIG_ACTION_DESCRIPT);
+        putDescription(change, KEY_NOTIFICATION, c, TriggerDB.KEY_NOTIF_DESCRIPT);
+        return change;
+    }
+
+    //The descriptions are stored as JSON strings, and given as is if
+    //they are not valid JSON
+    private static void putDescription(JSONObject change, String key, Cursor c, String column)
+            throws JSONException {
+        String desc = c.getString(c.getColumnIndexOrThrow(column));
+        if (desc == null) {
+            return;
+        }
+
+        try {
+            change.put(key, new JSONObject(desc));
+        } catch (JSONException e) {
+            change.put(key, desc);
+        }
+    }
+}
@@ -22,9 +22,25 @@ import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.ohmage.reminders.config.NotifConfig;
+import org.ohmage.reminders.core.Metrics;
+import org.ohmage.reminders.notif.NotifSurveyAdaptor;
+
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /*
  * The database to store all triggers in the system. Each row 
@@ -40,16 +56,60 @@ import java.util.ArrayList;
  *  - notif desc: The manner in which the notification is to be done
  *                when the trigger goes off
  *  - run time desc: A collection of run time info related to the trigger  
+ *
+ * The notification descriptions are stored once per profile in the
+ * notif_profiles table. Each trigger refers to a profile and may override
+ * it with a description of its own in its notif desc column. The reads
+ * go through a view which resolves the effective description of each
+ * trigger in the notif desc column, so changing the description of a
+ * profile is a single row write.
+ *
+ * Likewise the urn and name of the campaign of the triggers are stored
+ * once in the campaigns table, and resolved by the view in the campaign
+ * urn and campaign name columns. The campaigns are cached in memory.
+ * A campaign may be disabled, which keeps its triggers but stops them
+ * and hides their surveys until it is enabled again.
+ *
+ * The triggers which come from the server keep the hash of their content
+ * as of the last sync, see TriggerSync.
+ *
+ * The local edits of the triggers and of the notification profiles are
+ * recorded in the change_log table by SQLite triggers, so that no write
+ * can miss them, for the host to upload, see TriggerChangeLog. Each row
+ * is the latest change of a trigger or profile, with a sequence which
+ * grows with each change. A deleted trigger leaves a tombstone.
+ *
+ * The title, summary and number of surveys shown for each trigger in the
+ * list of triggers are computed off the main thread and kept in the
+ * trigger_display table, whose row is dropped by SQLite triggers when the
+ * trigger changes, see TriggerListLoader.
+ *
+ * The same columns, with the names of the campaign, of the surveys and of
+ * the place of each trigger, are indexed for full text search in the
+ * trigger_search FTS3 table, written and dropped along with the display
+ * row. The names of the surveys are given by the host and kept in the
+ * survey_names table. A rename of a campaign or of a survey drops the
+ * rows of the triggers which show it, which are indexed again on the
+ * next search, see TriggerSearch.
  */
 public class TriggerDB {
 
     private static final String TAG = "TriggerFramework";
 
     private static final String DATABASE_NAME = "trigger_framework";
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 10;
 
-    /* Table name */
+    /* Table names */
     private static final String TABLE_TRIGGERS = "triggers";
+    private static final String TABLE_NOTIF_PROFILES = "notif_profiles";
+    private static final String TABLE_CAMPAIGNS = "campaigns";
+    private static final String TABLE_CHANGES = "change_log";
+    private static final String TABLE_DISPLAY = "trigger_display";
+    private static final String TABLE_SEARCH = "trigger_search";
+    private static final String TABLE_SURVEY_NAMES = "survey_names";
+    //The triggers with their campaign and their effective notification
+    //description, read in place of the triggers table
+    private static final String VIEW_TRIGGERS = "triggers_resolved";
 
     /* Columns */
     public static final String KEY_ID = "_id";
@@ -61,9 +121,120 @@ public class TriggerDB {
     public static final String KEY_TRIG_ACTION_DESCRIPT = "trig_action_descript";
     public static final String KEY_NOTIF_DESCRIPT = "notif_descript";
     public static final String KEY_RUNTIME_DESCRIPT = "runtime_descript";
+    public static final String KEY_NOTIF_PROFILE_ID = "notif_profile_id";
+    public static final String KEY_CAMPAIGN_ID = "campaign_id";
+    public static final String KEY_CAMPAIGN_ENABLED = "campaign_enabled";
+    //Hash of the content of the trigger as last synced from the server,
+    //null for the triggers created on the device
+    private static final String KEY_SYNC_HASH = "sync_hash";
+
+    /* Columns of the notification profiles */
+    private static final String KEY_PROFILE_DESCRIPT = "descript";
+
+    /* Columns of the campaigns */
+    private static final String KEY_URN = "urn";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_ENABLED = "enabled";
+
+    /* Columns of the change log */
+    public static final String KEY_CHANGE_SEQ = "seq";
+    public static final String KEY_CHANGE_ENTITY = "entity";
+    public static final String KEY_CHANGE_ENTITY_ID = "entity_id";
+    public static final String KEY_CHANGE_OP = "op";
+
+    /* Entities and operations of the change log */
+    public static final String CHANGE_ENTITY_TRIGGER = "trigger";
+    public static final String CHANGE_ENTITY_NOTIF_PROFILE = "notif_profile";
+    public static final String CHANGE_OP_INSERT = "insert";
+    public static final String CHANGE_OP_UPDATE = "update";
+    public static final String CHANGE_OP_DELETE = "delete";
+
+    /* Display columns of the triggers, keyed by the id of the trigger */
+    public static final String KEY_DISPLAY_TITLE = "display_title";
+    public static final String KEY_DISPLAY_SUMMARY = "display_summary";
+    public static final String KEY_SURVEY_COUNT = "survey_count";
+    //The locale the display columns were computed in
+    public static final String KEY_DISPLAY_LOCALE = "display_locale";
+
+    /* Columns of the search index, whose rows have the id of their trigger as docid */
+    private static final String KEY_SEARCH_TITLE = "title";
+    private static final String KEY_SEARCH_SUMMARY = "summary";
+    private static final String KEY_SEARCH_CAMPAIGN = "campaign";
+    private static final String KEY_SEARCH_SURVEYS = "surveys";
+    private static final String KEY_SEARCH_PLACES = "places";
+    private static final String KEY_DOCID = "docid";
+
+    //The profile shared by all the triggers unless they are given
+    //another one, edited through updateAllNotificationDescriptions()
+    public static final int NOTIF_PROFILE_GLOBAL = 1;
+
+    //Number of ids bound in each query of loadAll(), well below the
+    //limit of 999 parameters per statement of SQLite
+    private static final int LOAD_BATCH_SIZE = 200;
+
+    //The tables of a snapshot, see TriggerSnapshot. The change log is
+    //local to the device and is left out.
+    private static final String[] SNAPSHOT_TABLES = {
+            TABLE_CAMPAIGNS, TABLE_NOTIF_PROFILES, TABLE_TRIGGERS
+    };
+
+    /* Writes of the display and search rows */
+    //Only written if the trigger is still as it was when they were computed
+    private static final String SQL_PUT_DISPLAY = "INSERT OR REPLACE INTO " + TABLE_DISPLAY
+            + " (" + KEY_ID + ", " + KEY_DISPLAY_TITLE + ", " + KEY_DISPLAY_SUMMARY + ", "
+            + KEY_SURVEY_COUNT + ", " + KEY_DISPLAY_LOCALE + ") SELECT " + KEY_ID + ", ?, ?, ?, ?"
+            + " FROM " + TABLE_TRIGGERS + " WHERE " + KEY_ID + "=? AND " + KEY_TRIG_TYPE + "=? AND "
+            + KEY_TRIG_DESCRIPT + " IS ? AND " + KEY_TRIG_ACTION_DESCRIPT + " IS ?";
+    private static final String SQL_DELETE_SEARCH = "DELETE FROM " + TABLE_SEARCH
+            + " WHERE " + KEY_DOCID + "=?";
+    private static final String SQL_PUT_SEARCH = "INSERT INTO " + TABLE_SEARCH + " ("
+            + KEY_DOCID + ", " + KEY_SEARCH_TITLE + ", " + KEY_SEARCH_SUMMARY + ", "
+            + KEY_SEARCH_CAMPAIGN + ", " + KEY_SEARCH_SURVEYS + ", " + KEY_SEARCH_PLACES
+            + ") SELECT " + KEY_ID + ", ?, ?, " + KEY_CAMPAIGN_NAME + ", ?, ? FROM "
+            + VIEW_TRIGGERS + " WHERE " + KEY_ID + "=?";
+    //The hot writes of the engine thread
+    static final String SQL_UPDATE_ACTION_DESC = "UPDATE " + TABLE_TRIGGERS + " SET "
+            + KEY_TRIG_ACTION_DESCRIPT + "=? WHERE " + KEY_ID + "=?";
+    static final String SQL_UPDATE_RUNTIME_DESC = "UPDATE " + TABLE_TRIGGERS + " SET "
+            + KEY_RUNTIME_DESCRIPT + "=? WHERE " + KEY_ID + "=?";
+
+    /* Columns of the rows of the list of triggers */
+    private static final String COLUMNS_LIST = "t." + KEY_ID + ", t." + KEY_UUID
+            + ", t." + KEY_CAMPAIGN_URN
+            + ", t." + KEY_TRIG_TYPE + ", t." + KEY_TRIG_DESCRIPT + ", t."
+            + KEY_TRIG_ACTION_DESCRIPT + ", d." + KEY_DISPLAY_TITLE + ", d." + KEY_DISPLAY_SUMMARY
+            + ", d." + KEY_SURVEY_COUNT + ", d." + KEY_DISPLAY_LOCALE;
+
+    //The campaigns keyed by urn, shared by all the instances. Campaigns
+    //are only ever added or renamed, so the cache is never stale, except
+    //on the restore of a snapshot which clears it.
+    private static final HashMap<String, Campaign> sCampaigns = new HashMap<String, Campaign>();
+    private static boolean sCampaignsLoaded = false;
+
+    /*
+     * Listener to the changes of the triggers, e.g. to refresh a list of
+     * them. Called on the thread which made the change, after the change,
+     * but possibly before the transaction it is part of is committed.
+     */
+    public interface OnChangeListener {
+        /* A trigger was added, changed or deleted */
+        void onTriggerChanged(int trigId);
+
+        /* Any number of triggers were changed */
+        void onAllTriggersChanged();
+    }
+
+    private static final CopyOnWriteArrayList<OnChangeListener> sListeners =
+            new CopyOnWriteArrayList<OnChangeListener>();
+
+    //The connection shared by all the instances. It is opened by the first
+    //of them and stays open as long as the process, so that the statements
+    //compiled on it for the engine thread are reused across the instances.
+    private static DatabaseHelper sDbHelper = null;
+    private static Context sDbContext = null;
+    private static StatementCache sEngineStatements = null;
 
     private final Context mContext;
-    private DatabaseHelper mDbHelper;
     private SQLiteDatabase mDb;
 
     public TriggerDB(Context context) {
@@ -74,11 +245,8 @@ public class TriggerDB {
     public boolean open() {
         Log.v(TAG, "DB: open");
 
-
-        mDbHelper = new DatabaseHelper(mContext);
-
         try {
-            mDb = mDbHelper.getWritableDatabase();
+            mDb = openConnection(mContext);
         } catch (SQLException e) {
             Log.e(TAG, "Error opening trigger db", e);
             return false;
@@ -86,15 +254,196 @@ public class TriggerDB {
         return true;
     }
 
-    /* Close the database */
+    /* Close the database. The shared connection is left open. */
     public void close() {
         Log.v(TAG, "DB: close");
+    }
+
+    /*
+     * Get the shared connection, opening it if needed. The connection
+     * belongs to the application context it was opened for, another
+     * application context gets a connection of its own.
+     */
+    private static synchronized SQLiteDatabase openConnection(Context context) {
+        Context appContext = context.getApplicationContext();
+
+        if (sDbHelper != null && sDbContext != appContext) {
+            if (sEngineStatements != null) {
+                sEngineStatements.close();
+                sEngineStatements = null;
+            }
+            sDbHelper.close();
+            sDbHelper = null;
+        }
+
+        if (sDbHelper == null) {
+            sDbHelper = new DatabaseHelper(appContext);
+            sDbContext = appContext;
+        }
+        return sDbHelper.getWritableDatabase();
+    }
 
-        if (mDbHelper != null) {
-            mDbHelper.close();
+    /*
+     * Get the statements cached on the shared connection for the engine
+     * thread, which makes the hot writes. Returns null on the other
+     * threads, which compile their statements for each call.
+     */
+    private StatementCache getEngineStatements() {
+        if (!TriggerEngine.isEngineThread()) {
+            return null;
+        }
+
+        synchronized (TriggerDB.class) {
+            if (sEngineStatements == null) {
+                sEngineStatements = new StatementCache(mDb);
+            }
+            return sEngineStatements;
         }
     }
 
+    /*
+     * The reads and writes go through the helpers below so that the time
+     * they take is recorded. Queries fill their cursor right away, so that
+     * the time includes running the query and not only compiling it.
+     */
+    private Cursor query(String table, String[] columns, String selection,
+                         String[] selectionArgs, String groupBy, String having,
+                         String orderBy) {
+        long start = Metrics.startTimer();
+        Cursor c = mDb.query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
+        c.getCount();
+        Metrics.stopTimer(Metrics.TRIGGER_DB_READ, start);
+        return c;
+    }
+
+    private Cursor rawQuery(String sql, String[] selectionArgs) {
+        long start = Metrics.startTimer();
+        Cursor c = mDb.rawQuery(sql, selectionArgs);
+        c.getCount();
+        Metrics.stopTimer(Metrics.TRIGGER_DB_READ, start);
+        return c;
+    }
+
+    private long insert(String table, String nullColumnHack, ContentValues values,
+                        int conflictAlgorithm) {
+        long start = Metrics.startTimer();
+        long id = mDb.insertWithOnConflict(table, nullColumnHack, values, conflictAlgorithm);
+        Metrics.stopTimer(Metrics.TRIGGER_DB_WRITE, start);
+        return id;
+    }
+
+    private int update(String table, ContentValues values, String whereClause,
+                       String[] whereArgs) {
+        long start = Metrics.startTimer();
+        int count = mDb.update(table, values, whereClause, whereArgs);
+        Metrics.stopTimer(Metrics.TRIGGER_DB_WRITE, start);
+        return count;
+    }
+
+    /*
+     * Run a statement with the given arguments, which may be strings,
+     * numbers or null. Returns the number of rows it changed.
+     */
+    private int executeUpdateDelete(String sql, Object... args) {
+        long start = Metrics.startTimer();
+        try {
+            StatementCache statements = getEngineStatements();
+            if (statements != null) {
+                return statements.executeUpdateDelete(sql, args);
+            }
+
+            SQLiteStatement stmt = mDb.compileStatement(sql);
+            try {
+                StatementCache.bind(stmt, args);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    return stmt.executeUpdateDelete();
+                }
+
+                stmt.execute();
+                return (int) DatabaseUtils.longForQuery(mDb, "SELECT changes()", null);
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            Metrics.stopTimer(Metrics.TRIGGER_DB_WRITE, start);
+        }
+    }
+
+    /*
+     * Run a statement which returns nothing with the given arguments
+     */
+    private void execute(String sql, Object... args) {
+        long start = Metrics.startTimer();
+        try {
+            StatementCache statements = getEngineStatements();
+            if (statements != null) {
+                statements.execute(sql, args);
+                return;
+            }
+
+            SQLiteStatement stmt = mDb.compileStatement(sql);
+            try {
+                StatementCache.bind(stmt, args);
+                stmt.execute();
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            Metrics.stopTimer(Metrics.TRIGGER_DB_WRITE, start);
+        }
+    }
+
+    private int delete(String table, String whereClause, String[] whereArgs) {
+        long start = Metrics.startTimer();
+        int count = mDb.delete(table, whereClause, whereArgs);
+        Metrics.stopTimer(Metrics.TRIGGER_DB_WRITE, start);
+        return count;
+    }
+
+    public static void registerListener(OnChangeListener listener) {
+        sListeners.add(listener);
+    }
+
+    public static void unregisterListener(OnChangeListener listener) {
+        sListeners.remove(listener);
+    }
+
+    //Every write of the triggers ends with one of the calls below, which
+    //drop the cached states of the triggers and tell the listeners
+    private static void invalidateTrigger(int trigId) {
+        NotifSurveyAdaptor.invalidateTrigger(trigId);
+        for (OnChangeListener listener : sListeners) {
+            listener.onTriggerChanged(trigId);
+        }
+    }
+
+    private static void invalidateAllTriggers() {
+        NotifSurveyAdaptor.invalidateAllTriggers();
+        notifyAllTriggersChanged();
+    }
+
+    private static void notifyAllTriggersChanged() {
+        for (OnChangeListener listener : sListeners) {
+            listener.onAllTriggersChanged();
+        }
+    }
+
+    /*
+     * Wrap several writes in a transaction, so that they are applied at
+     * once or not at all
+     */
+    public void beginTransaction() {
+        mDb.beginTransaction();
+    }
+
+    public void setTransactionSuccessful() {
+        mDb.setTransactionSuccessful();
+    }
+
+    public void endTransaction() {
+        mDb.endTransaction();
+    }
+
     /*
      * Add a new trigger to the db
      */
@@ -103,6 +452,19 @@ public class TriggerDB {
                            String trigActDesc,
                            String notifDescript,
                            String rtDescript) {
+        return addTrigger(uuid, campaignUrn, campaignName, trigType, trigDescript, trigActDesc,
+                notifDescript, rtDescript, null);
+    }
+
+    /*
+     * Add a new trigger synced from the server, with the hash of its content
+     */
+    public long addTrigger(String uuid, String campaignUrn, String campaignName, String trigType,
+                           String trigDescript,
+                           String trigActDesc,
+                           String notifDescript,
+                           String rtDescript,
+                           String syncHash) {
 
         Log.v(TAG, "DB: addTrigger(" + campaignUrn +
                 ", " + trigType +
@@ -113,15 +475,25 @@ public class TriggerDB {
 
         ContentValues values = new ContentValues();
         values.put(KEY_UUID, uuid);
-        values.put(KEY_CAMPAIGN_URN, campaignUrn);
-        values.put(KEY_CAMPAIGN_NAME, campaignName);
+        if (campaignUrn != null) {
+            values.put(KEY_CAMPAIGN_ID, getOrAddCampaign(campaignUrn, campaignName));
+        }
         values.put(KEY_TRIG_TYPE, trigType);
         values.put(KEY_TRIG_DESCRIPT, trigDescript);
         values.put(KEY_TRIG_ACTION_DESCRIPT, trigActDesc);
+        //A null description uses the global profile
         values.put(KEY_NOTIF_DESCRIPT, notifDescript);
+        values.put(KEY_NOTIF_PROFILE_ID, NOTIF_PROFILE_GLOBAL);
         values.put(KEY_RUNTIME_DESCRIPT, rtDescript);
+        values.put(KEY_SYNC_HASH, syncHash);
+
+        long trigId = insert(TABLE_TRIGGERS, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
+        if (trigId != -1) {
+            invalidateTrigger((int) trigId);
+        }
 
-        return mDb.insertWithOnConflict(TABLE_TRIGGERS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        return trigId;
     }
 
     /*
@@ -130,16 +502,107 @@ public class TriggerDB {
     public Cursor getTrigger(int trigId) {
         Log.v(TAG, "DB: getTrigger(" + trigId + ")");
 
-        return mDb.query(TABLE_TRIGGERS, null,
+        return query(VIEW_TRIGGERS, null,
                 KEY_ID + "=?", new String[]{String.valueOf(trigId)},
                 null, null, null);
     }
 
+    /*
+     * Load a trigger with all its columns. Returns null if there is no
+     * trigger with this id.
+     */
+    public TriggerRecord load(int trigId) {
+        return load(trigId, TriggerRecord.ALL_COLUMNS);
+    }
+
+    /*
+     * Load the given columns of a trigger, e.g. one of the projections of
+     * TriggerRecord. Returns null if there is no trigger with this id.
+     */
+    public TriggerRecord load(int trigId, String[] columns) {
+        Cursor c = query(VIEW_TRIGGERS, withId(columns),
+                KEY_ID + "=?", new String[]{String.valueOf(trigId)},
+                null, null, null);
+
+        TriggerRecord record = null;
+        if (c.moveToFirst()) {
+            record = TriggerRecord.fromCursor(c);
+        }
+        c.close();
+        return record;
+    }
+
+    /*
+     * Load several triggers with all their columns
+     */
+    public Map<Integer, TriggerRecord> loadAll(Collection<Integer> trigIds) {
+        return loadAll(trigIds, TriggerRecord.ALL_COLUMNS);
+    }
+
+    /*
+     * Load the given columns of several triggers, with one query per
+     * LOAD_BATCH_SIZE ids. The records are keyed by id in the order of the
+     * ids, the ids of the triggers which do not exist are left out.
+     */
+    public Map<Integer, TriggerRecord> loadAll(Collection<Integer> trigIds, String[] columns) {
+        LinkedHashMap<Integer, TriggerRecord> records = new LinkedHashMap<Integer, TriggerRecord>();
+        for (Integer trigId : trigIds) {
+            //Placeholders which keep the order of the ids
+            records.put(trigId, null);
+        }
+
+        ArrayList<String> batch = new ArrayList<String>(LOAD_BATCH_SIZE);
+        for (Integer trigId : records.keySet()) {
+            batch.add(String.valueOf(trigId));
+            if (batch.size() == LOAD_BATCH_SIZE) {
+                loadBatch(batch, columns, records);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            loadBatch(batch, columns, records);
+        }
+
+        records.values().removeAll(Collections.singleton(null));
+        return records;
+    }
+
+    private void loadBatch(ArrayList<String> trigIds, String[] columns,
+                           Map<Integer, TriggerRecord> records) {
+        StringBuilder in = new StringBuilder();
+        for (int i = 0; i < trigIds.size(); i++) {
+            in.append(i == 0 ? "?" : ",?");
+        }
+
+        Cursor c = query(VIEW_TRIGGERS, withId(columns),
+                KEY_ID + " IN (" + in + ")", trigIds.toArray(new String[trigIds.size()]),
+                null, null, null);
+        while (c.moveToNext()) {
+            TriggerRecord record = TriggerRecord.fromCursor(c);
+            records.put(record.id, record);
+        }
+        c.close();
+    }
+
+    //Add the id to a projection if it is not there
+    private static String[] withId(String[] columns) {
+        for (String column : columns) {
+            if (KEY_ID.equals(column)) {
+                return columns;
+            }
+        }
+
+        String[] ret = new String[columns.length + 1];
+        ret[0] = KEY_ID;
+        System.arraycopy(columns, 0, ret, 1, columns.length);
+        return ret;
+    }
+
     /*
      * Get all the triggers for a survey for a campaign
      */
     public Cursor getSurveyTriggers(String campaignUrn, String surveyTitle) {
-        return mDb.query(TABLE_TRIGGERS, null,
+        return query(VIEW_TRIGGERS, null,
                 KEY_CAMPAIGN_URN + "=? AND " + KEY_TRIG_ACTION_DESCRIPT + " LIKE " + DatabaseUtils.sqlEscapeString("%" + surveyTitle + "%"),
                 new String[]{campaignUrn},
                 null, null, null);
@@ -167,7 +630,7 @@ public class TriggerDB {
             selectArgs.add(trigType);
         }
 
-        return mDb.query(TABLE_TRIGGERS, null, selectBuilder.toString(),
+        return query(VIEW_TRIGGERS, null, selectBuilder.toString(),
                 selectArgs.toArray(new String[]{}), null, null, null);
     }
 
@@ -182,24 +645,340 @@ public class TriggerDB {
      * Get all triggers in the system
      */
     public Cursor getAllTriggers() {
-        return mDb.query(TABLE_TRIGGERS, null, null, null, null, null, null);
+        return query(VIEW_TRIGGERS, null, null, null, null, null, null);
     }
 
+    /*
+     * Get the campaigns which have triggers
+     */
     public ArrayList<Campaign> getAllCampaigns() {
-        Cursor c = mDb.query(TABLE_TRIGGERS, new String[]{KEY_CAMPAIGN_URN, KEY_CAMPAIGN_NAME}, null, null,
-                KEY_CAMPAIGN_URN, null, null);
+        Cursor c = query(TABLE_CAMPAIGNS, new String[]{KEY_ID, KEY_URN, KEY_NAME, KEY_ENABLED},
+                "EXISTS (SELECT 1 FROM " + TABLE_TRIGGERS + " WHERE " + TABLE_TRIGGERS + "."
+                        + KEY_CAMPAIGN_ID + "=" + TABLE_CAMPAIGNS + "." + KEY_ID + ")",
+                null, null, null, KEY_URN);
         ArrayList<Campaign> ret = new ArrayList<Campaign>(c.getCount());
-        int i = 0;
         while (c.moveToNext()) {
-            Campaign campaign = new Campaign();
-            campaign.urn = c.getString(0);
-            campaign.name = c.getString(1);
-            ret.add(campaign);
+            ret.add(new Campaign(c.getInt(0), c.getString(1), c.getString(2), c.getInt(3) != 0));
         }
         c.close();
         return ret;
     }
 
+    /*
+     * Get a campaign by urn, null if no trigger was ever added to it
+     */
+    public Campaign getCampaign(String campaignUrn) {
+        synchronized (sCampaigns) {
+            loadCampaigns();
+            return sCampaigns.get(campaignUrn);
+        }
+    }
+
+    /*
+     * Get the ids of the triggers of a campaign
+     */
+    public ArrayList<Integer> getCampaignTriggerIds(String campaignUrn) {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+
+        Campaign campaign = getCampaign(campaignUrn);
+        if (campaign == null) {
+            return ids;
+        }
+
+        Cursor c = query(TABLE_TRIGGERS, new String[]{KEY_ID}, KEY_CAMPAIGN_ID + "=?",
+                new String[]{String.valueOf(campaign.id)}, null, null, null);
+        while (c.moveToNext()) {
+            ids.add(c.getInt(0));
+        }
+        c.close();
+        return ids;
+    }
+
+    /*
+     * Count the triggers of a campaign
+     */
+    public long getCampaignTriggerCount(String campaignUrn) {
+        Campaign campaign = getCampaign(campaignUrn);
+        if (campaign == null) {
+            return 0;
+        }
+
+        return DatabaseUtils.longForQuery(mDb, "SELECT count(*) FROM " + TABLE_TRIGGERS
+                + " WHERE " + KEY_CAMPAIGN_ID + "=?", new String[]{String.valueOf(campaign.id)});
+    }
+
+    /*
+     * Delete all the triggers of a campaign with a single statement.
+     * Returns the number of triggers deleted. The triggers must have
+     * been stopped first.
+     */
+    public int deleteCampaignTriggers(String campaignUrn) {
+        Campaign campaign = getCampaign(campaignUrn);
+        if (campaign == null) {
+            return 0;
+        }
+
+        int count = delete(TABLE_TRIGGERS, KEY_CAMPAIGN_ID + "=?",
+                new String[]{String.valueOf(campaign.id)});
+        invalidateAllTriggers();
+        return count;
+    }
+
+    public static class SyncState {
+        public final int id;
+        public final String hash;
+
+        public SyncState(int id, String hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+    }
+
+    /*
+     * Get the id and the sync hash of the triggers of a campaign keyed by
+     * uuid. The hash is null for the triggers which were never synced.
+     */
+    public HashMap<String, SyncState> getSyncStates(String campaignUrn) {
+        HashMap<String, SyncState> states = new HashMap<String, SyncState>();
+
+        Campaign campaign = getCampaign(campaignUrn);
+        if (campaign == null) {
+            return states;
+        }
+
+        Cursor c = query(TABLE_TRIGGERS, new String[]{KEY_ID, KEY_UUID, KEY_SYNC_HASH},
+                KEY_CAMPAIGN_ID + "=?", new String[]{String.valueOf(campaign.id)},
+                null, null, null);
+        while (c.moveToNext()) {
+            states.put(c.getString(1), new SyncState(c.getInt(0), c.getString(2)));
+        }
+        c.close();
+        return states;
+    }
+
+    /*
+     * Replace the content of a trigger with the one synced from the server.
+     * A local edit of the trigger which was not uploaded yet is dropped
+     * from the change log, as the server overrides it.
+     */
+    public boolean updateSyncedTrigger(int trigId, String trigType, String trigDesc,
+                                       String actDesc, String syncHash) {
+        Log.v(TAG, "DB: updateSyncedTrigger(" + trigId + ", " + trigType + ")");
+
+        ContentValues values = new ContentValues();
+        values.put(KEY_TRIG_TYPE, trigType);
+        values.put(KEY_TRIG_DESCRIPT, trigDesc);
+        values.put(KEY_TRIG_ACTION_DESCRIPT, actDesc);
+        values.put(KEY_SYNC_HASH, syncHash);
+
+        int count;
+        mDb.beginTransaction();
+        try {
+            count = update(TABLE_TRIGGERS, values, KEY_ID + "=?",
+                    new String[]{String.valueOf(trigId)});
+            deleteTriggerChanges(Collections.singleton(trigId));
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        invalidateTrigger(trigId);
+        return count == 1;
+    }
+
+    /*
+     * Delete several triggers, with one statement per LOAD_BATCH_SIZE ids.
+     * Returns the number of triggers deleted. The triggers must have been
+     * stopped first.
+     */
+    public int deleteTriggers(Collection<Integer> trigIds) {
+        for (Integer trigId : trigIds) {
+            invalidateTrigger(trigId);
+        }
+        return deleteIn(TABLE_TRIGGERS, null, KEY_ID, trigIds);
+    }
+
+    /*
+     * Delete several triggers which were deleted on the server. Unlike
+     * deleteTriggers(), they are not recorded in the change log, and any
+     * local change of them which was not uploaded yet is dropped.
+     */
+    public int deleteSyncedTriggers(Collection<Integer> trigIds) {
+        int count;
+        mDb.beginTransaction();
+        try {
+            count = deleteTriggers(trigIds);
+            deleteTriggerChanges(trigIds);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return count;
+    }
+
+    private void deleteTriggerChanges(Collection<Integer> trigIds) {
+        deleteIn(TABLE_CHANGES, KEY_CHANGE_ENTITY + "='" + CHANGE_ENTITY_TRIGGER + "'",
+                KEY_CHANGE_ENTITY_ID, trigIds);
+    }
+
+    /*
+     * Delete the rows of a table matching the selection, which may be
+     * null, whose column is one of the ids, with one statement per
+     * LOAD_BATCH_SIZE ids. Returns the number of rows deleted.
+     */
+    private int deleteIn(String table, String selection, String column,
+                         Collection<Integer> ids) {
+        String prefix = selection == null ? "" : selection + " AND ";
+        int count = 0;
+
+        ArrayList<String> batch = new ArrayList<String>(LOAD_BATCH_SIZE);
+        StringBuilder in = new StringBuilder();
+        for (Integer id : ids) {
+            batch.add(String.valueOf(id));
+            in.append(in.length() == 0 ? "?" : ",?");
+
+            if (batch.size() == LOAD_BATCH_SIZE) {
+                count += delete(table, prefix + column + " IN (" + in + ")",
+                        batch.toArray(new String[batch.size()]));
+                batch.clear();
+                in.setLength(0);
+            }
+        }
+        if (!batch.isEmpty()) {
+            count += delete(table, prefix + column + " IN (" + in + ")",
+                    batch.toArray(new String[batch.size()]));
+        }
+        return count;
+    }
+
+    /*
+     * Get the ids of all the triggers
+     */
+    public ArrayList<Integer> getAllTriggerIds() {
+        Cursor c = query(TABLE_TRIGGERS, new String[]{KEY_ID}, null, null, null, null, null);
+        ArrayList<Integer> ids = new ArrayList<Integer>(c.getCount());
+        while (c.moveToNext()) {
+            ids.add(c.getInt(0));
+        }
+        c.close();
+        return ids;
+    }
+
+    /*
+     * Delete all the triggers with a single statement. Returns the number
+     * of triggers deleted. The triggers must have been stopped first.
+     */
+    public int deleteAllTriggers() {
+        int count = delete(TABLE_TRIGGERS, null, null);
+        invalidateAllTriggers();
+        return count;
+    }
+
+    /*
+     * Enable or disable a campaign. The triggers of a disabled campaign
+     * are not started and their surveys are never active. Returns false
+     * if no trigger was ever added to the campaign.
+     */
+    public boolean setCampaignEnabled(String campaignUrn, boolean enabled) {
+        Log.v(TAG, "DB: setCampaignEnabled(" + campaignUrn + ", " + enabled + ")");
+
+        synchronized (sCampaigns) {
+            loadCampaigns();
+
+            Campaign campaign = sCampaigns.get(campaignUrn);
+            if (campaign == null) {
+                return false;
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(KEY_ENABLED, enabled ? 1 : 0);
+
+            update(TABLE_CAMPAIGNS, values, KEY_ID + "=?",
+                    new String[]{String.valueOf(campaign.id)});
+            sCampaigns.put(campaignUrn, new Campaign(campaign.id, campaign.urn,
+                    campaign.name, enabled));
+        }
+
+        invalidateAllTriggers();
+        return true;
+    }
+
+    /*
+     * Check whether the campaign of a trigger is enabled. The triggers
+     * without a campaign are always enabled.
+     */
+    public boolean isTriggerEnabled(int trigId) {
+        Campaign campaign = getCampaignInfo(trigId);
+        return campaign == null || campaign.enabled;
+    }
+
+    /*
+     * Get a campaign, adding it if it is new, and update its name if it
+     * changed
+     */
+    public Campaign addCampaign(String campaignUrn, String campaignName) {
+        getOrAddCampaign(campaignUrn, campaignName);
+        return getCampaign(campaignUrn);
+    }
+
+    /*
+     * Get the id of a campaign, adding it if it is new, and update its
+     * name if it changed
+     */
+    private int getOrAddCampaign(String campaignUrn, String campaignName) {
+        synchronized (sCampaigns) {
+            loadCampaigns();
+
+            Campaign campaign = sCampaigns.get(campaignUrn);
+            if (campaign == null) {
+                ContentValues values = new ContentValues();
+                values.put(KEY_URN, campaignUrn);
+                values.put(KEY_NAME, campaignName);
+
+                int id = (int) insert(TABLE_CAMPAIGNS, null, values,
+                        SQLiteDatabase.CONFLICT_ABORT);
+                campaign = new Campaign(id, campaignUrn, campaignName, true);
+                sCampaigns.put(campaignUrn, campaign);
+            } else if (campaignName != null && !campaignName.equals(campaign.name)) {
+                ContentValues values = new ContentValues();
+                values.put(KEY_NAME, campaignName);
+
+                update(TABLE_CAMPAIGNS, values, KEY_ID + "=?",
+                        new String[]{String.valueOf(campaign.id)});
+                campaign = new Campaign(campaign.id, campaignUrn, campaignName,
+                        campaign.enabled);
+                sCampaigns.put(campaignUrn, campaign);
+            }
+
+            return campaign.id;
+        }
+    }
+
+    private static void invalidateCampaigns() {
+        synchronized (sCampaigns) {
+            sCampaigns.clear();
+            sCampaignsLoaded = false;
+        }
+    }
+
+    //Must be called with the cache locked
+    private void loadCampaigns() {
+        if (sCampaignsLoaded) {
+            return;
+        }
+
+        Cursor c = query(TABLE_CAMPAIGNS, new String[]{KEY_ID, KEY_URN, KEY_NAME, KEY_ENABLED},
+                null, null, null, null, null);
+        while (c.moveToNext()) {
+            Campaign campaign = new Campaign(c.getInt(0), c.getString(1), c.getString(2),
+                    c.getInt(3) != 0);
+            sCampaigns.put(campaign.urn, campaign);
+        }
+        c.close();
+
+        sCampaignsLoaded = true;
+    }
+
 //    /*
 //     * Get all the triggers corresponding to a type
 //     */
@@ -228,7 +1007,7 @@ public class TriggerDB {
     public String getNotifDescription(int trigId) {
         Log.v(TAG, "DB: getNotifDescription(" + trigId + ")");
 
-        Cursor c = mDb.query(TABLE_TRIGGERS, new String[]{KEY_NOTIF_DESCRIPT},
+        Cursor c = query(VIEW_TRIGGERS, new String[]{KEY_NOTIF_DESCRIPT},
                 KEY_ID + "=?", new String[]{String.valueOf(trigId)},
                 null, null, null);
 
@@ -247,7 +1026,7 @@ public class TriggerDB {
     public String getTriggerType(int trigId) {
         Log.v(TAG, "DB: getTriggerType(" + trigId + ")");
 
-        Cursor c = mDb.query(TABLE_TRIGGERS, new String[]{KEY_TRIG_TYPE},
+        Cursor c = query(VIEW_TRIGGERS, new String[]{KEY_TRIG_TYPE},
                 KEY_ID + "=?", new String[]{String.valueOf(trigId)},
                 null, null, null);
 
@@ -261,8 +1040,17 @@ public class TriggerDB {
     }
 
     public static class Campaign {
-        public String urn;
-        public String name;
+        public final int id;
+        public final String urn;
+        public final String name;
+        public final boolean enabled;
+
+        public Campaign(int id, String urn, String name, boolean enabled) {
+            this.id = id;
+            this.urn = urn;
+            this.name = name;
+            this.enabled = enabled;
+        }
     }
 
     /*
@@ -271,15 +1059,13 @@ public class TriggerDB {
     public Campaign getCampaignInfo(int trigId) {
         Log.v(TAG, "DB: getCampaignUrn(" + trigId + ")");
 
-        Cursor c = mDb.query(TABLE_TRIGGERS, new String[]{KEY_CAMPAIGN_URN, KEY_CAMPAIGN_NAME},
+        Cursor c = query(VIEW_TRIGGERS, new String[]{KEY_CAMPAIGN_URN},
                 KEY_ID + "=?", new String[]{String.valueOf(trigId)},
                 null, null, null);
 
         Campaign campaign = null;
-        if (c.moveToFirst()) {
-            campaign = new Campaign();
-            campaign.urn = c.getString(c.getColumnIndexOrThrow(KEY_CAMPAIGN_URN));
-            campaign.name = c.getString(c.getColumnIndexOrThrow(KEY_CAMPAIGN_NAME));
+        if (c.moveToFirst() && !c.isNull(0)) {
+            campaign = getCampaign(c.getString(0));
         }
         c.close();
         return campaign;
@@ -291,7 +1077,7 @@ public class TriggerDB {
     public String getTriggerDescription(int trigId) {
         Log.v(TAG, "DB: getTriggerDescription(" + trigId + ")");
 
-        Cursor c = mDb.query(TABLE_TRIGGERS, new String[]{KEY_TRIG_DESCRIPT},
+        Cursor c = query(VIEW_TRIGGERS, new String[]{KEY_TRIG_DESCRIPT},
                 KEY_ID + "=?", new String[]{String.valueOf(trigId)},
                 null, null, null);
 
@@ -310,7 +1096,7 @@ public class TriggerDB {
     public String getActionDescription(int trigId) {
         Log.v(TAG, "DB: getActionDescription(" + trigId + ")");
 
-        Cursor c = mDb.query(TABLE_TRIGGERS, new String[]{KEY_TRIG_ACTION_DESCRIPT},
+        Cursor c = query(VIEW_TRIGGERS, new String[]{KEY_TRIG_ACTION_DESCRIPT},
                 KEY_ID + "=?", new String[]{String.valueOf(trigId)},
                 null, null, null);
 
@@ -329,7 +1115,7 @@ public class TriggerDB {
     public String getRunTimeDescription(int trigId) {
         Log.v(TAG, "DB: getRunTimeDescription(" + trigId + ")");
 
-        Cursor c = mDb.query(TABLE_TRIGGERS, new String[]{KEY_RUNTIME_DESCRIPT},
+        Cursor c = query(VIEW_TRIGGERS, new String[]{KEY_RUNTIME_DESCRIPT},
                 KEY_ID + "=?", new String[]{String.valueOf(trigId)},
                 null, null, null);
 
@@ -352,12 +1138,14 @@ public class TriggerDB {
         ContentValues values = new ContentValues();
         values.put(KEY_TRIG_DESCRIPT, newDesc);
 
-        if (mDb.update(TABLE_TRIGGERS, values,
+        if (update(TABLE_TRIGGERS, values,
                 KEY_ID + "=?",
                 new String[]{String.valueOf(trigId)}) != 1) {
             return false;
         }
 
+        invalidateTrigger(trigId);
+
         return true;
     }
 
@@ -368,15 +1156,12 @@ public class TriggerDB {
         Log.v(TAG, "DB: updateActionDescription(" + trigId +
                 ", " + newDesc + ")");
 
-        ContentValues values = new ContentValues();
-        values.put(KEY_TRIG_ACTION_DESCRIPT, newDesc);
-
-        if (mDb.update(TABLE_TRIGGERS, values,
-                KEY_ID + "=?",
-                new String[]{String.valueOf(trigId)}) != 1) {
+        if (executeUpdateDelete(SQL_UPDATE_ACTION_DESC, newDesc, trigId) != 1) {
             return false;
         }
 
+        invalidateTrigger(trigId);
+
         return true;
     }
 
@@ -387,15 +1172,12 @@ public class TriggerDB {
         Log.v(TAG, "DB: updateRunTimeDescription(" + trigId +
                 ", " + newDesc + ")");
 
-        ContentValues values = new ContentValues();
-        values.put(KEY_RUNTIME_DESCRIPT, newDesc);
-
-        if (mDb.update(TABLE_TRIGGERS, values,
-                KEY_ID + "=?",
-                new String[]{String.valueOf(trigId)}) != 1) {
+        if (executeUpdateDelete(SQL_UPDATE_RUNTIME_DESC, newDesc, trigId) != 1) {
             return false;
         }
 
+        invalidateTrigger(trigId);
+
         return true;
     }
 
@@ -414,16 +1196,73 @@ public class TriggerDB {
 //    }
 
     /*
-     * Update the notification descriptions of all triggers
-     * a new one
+     * Update the notification description of all triggers which
+     * use the global profile and have no override of their own
      */
     public boolean updateAllNotificationDescriptions(String newDesc) {
         Log.v(TAG, "DB: updateAllNotificationDescriptions(" + newDesc + ")");
 
+        return updateNotifProfile(NOTIF_PROFILE_GLOBAL, newDesc);
+    }
+
+    /*
+     * Add a notification profile. Returns the id of the profile or -1
+     * on failure.
+     */
+    public long addNotifProfile(String desc) {
         ContentValues values = new ContentValues();
-        values.put(KEY_NOTIF_DESCRIPT, newDesc);
+        values.put(KEY_PROFILE_DESCRIPT, desc);
 
-        mDb.update(TABLE_TRIGGERS, values, null, null);
+        return insert(TABLE_NOTIF_PROFILES, null, values, SQLiteDatabase.CONFLICT_ABORT);
+    }
+
+    /*
+     * Update the description of a notification profile
+     */
+    public boolean updateNotifProfile(int profileId, String desc) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_PROFILE_DESCRIPT, desc);
+
+        if (update(TABLE_NOTIF_PROFILES, values, KEY_ID + "=?",
+                new String[]{String.valueOf(profileId)}) != 1) {
+            return false;
+        }
+
+        //The parsed descriptions of all the triggers using the profile
+        invalidateAllTriggers();
+        return true;
+    }
+
+    /*
+     * Make a trigger use a notification profile
+     */
+    public boolean setNotifProfile(int trigId, int profileId) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_NOTIF_PROFILE_ID, profileId);
+
+        if (update(TABLE_TRIGGERS, values, KEY_ID + "=?",
+                new String[]{String.valueOf(trigId)}) != 1) {
+            return false;
+        }
+
+        invalidateTrigger(trigId);
+        return true;
+    }
+
+    /*
+     * Override the description of the profile of a trigger with one of
+     * its own, or go back to the profile if desc is null
+     */
+    public boolean setNotifOverride(int trigId, String desc) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_NOTIF_DESCRIPT, desc);
+
+        if (update(TABLE_TRIGGERS, values, KEY_ID + "=?",
+                new String[]{String.valueOf(trigId)}) != 1) {
+            return false;
+        }
+
+        invalidateTrigger(trigId);
         return true;
     }
 
@@ -433,12 +1272,305 @@ public class TriggerDB {
     public boolean deleteTrigger(int trigId) {
         Log.v(TAG, "DB: deleteTrigger(" + trigId + ")");
 
-        mDb.delete(TABLE_TRIGGERS, KEY_ID + "=?",
+        delete(TABLE_TRIGGERS, KEY_ID + "=?",
                 new String[]{String.valueOf(trigId)});
+        invalidateTrigger(trigId);
 
         return true;
     }
 
+    /*
+     * Get up to limit of the rows of the list of the triggers of a
+     * campaign, or of all the triggers if the campaign is null, after a
+     * trigger id, in the order of their ids. If match is not null, only
+     * the triggers whose indexed columns match this FTS3 query are listed,
+     * which only finds the triggers indexed so far. The display columns
+     * are null until they are put for the current description of the
+     * trigger.
+     */
+    public Cursor getTriggerListPage(String campaignUrn, String match, int afterId, int limit) {
+        StringBuilder sql = new StringBuilder();
+        ArrayList<String> args = new ArrayList<String>();
+        String order;
+
+        if (match != null) {
+            //Driven by the index, which gives its matches in docid order.
+            //The index is not aliased, as MATCH takes the name of its table.
+            sql.append("SELECT " + COLUMNS_LIST + " FROM " + TABLE_SEARCH + " JOIN "
+                    + VIEW_TRIGGERS + " t ON t." + KEY_ID + "=" + TABLE_SEARCH + "." + KEY_DOCID
+                    + " LEFT JOIN " + TABLE_DISPLAY + " d ON d." + KEY_ID + "=t." + KEY_ID
+                    + " WHERE " + TABLE_SEARCH + " MATCH ? AND " + TABLE_SEARCH + "." + KEY_DOCID
+                    + ">?");
+            args.add(match);
+            order = TABLE_SEARCH + "." + KEY_DOCID;
+        } else {
+            sql.append(getTriggerListQuery());
+            sql.append(" WHERE t." + KEY_ID + ">?");
+            order = "t." + KEY_ID;
+        }
+        args.add(String.valueOf(afterId));
+        if (campaignUrn != null) {
+            sql.append(" AND t." + KEY_CAMPAIGN_URN + "=?");
+            args.add(campaignUrn);
+        }
+        sql.append(" ORDER BY " + order + " LIMIT " + limit);
+
+        return rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    /*
+     * Get the rows of the list of some triggers, of a campaign if it is
+     * not null and matching an FTS3 query if it is not null, in the order
+     * of their ids. The triggers which no longer exist or no longer match
+     * have no row.
+     */
+    public Cursor getTriggerListRows(String campaignUrn, String match,
+                                     Collection<Integer> trigIds) {
+        StringBuilder sql = new StringBuilder(getTriggerListQuery());
+        ArrayList<String> args = new ArrayList<String>();
+
+        sql.append(" WHERE t." + KEY_ID + " IN (");
+        boolean first = true;
+        for (int trigId : trigIds) {
+            sql.append(first ? "?" : ", ?");
+            args.add(String.valueOf(trigId));
+            first = false;
+        }
+        sql.append(")");
+        if (campaignUrn != null) {
+            sql.append(" AND t." + KEY_CAMPAIGN_URN + "=?");
+            args.add(campaignUrn);
+        }
+        if (match != null) {
+            sql.append(" AND t." + KEY_ID + " IN (SELECT " + KEY_DOCID + " FROM " + TABLE_SEARCH
+                    + " WHERE " + TABLE_SEARCH + " MATCH ?)");
+            args.add(match);
+        }
+        sql.append(" ORDER BY t." + KEY_ID);
+
+        return rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    /*
+     * Get up to limit of the rows of the list of the triggers, of a
+     * campaign if it is not null, after a trigger id, which are not
+     * indexed in a locale, in the order of their ids
+     */
+    public Cursor getUnindexedTriggers(String campaignUrn, String locale, int afterId,
+                                       int limit) {
+        StringBuilder sql = new StringBuilder(getTriggerListQuery());
+        ArrayList<String> args = new ArrayList<String>();
+
+        sql.append(" WHERE t." + KEY_ID + ">? AND (d." + KEY_DISPLAY_LOCALE + " IS NULL OR d."
+                + KEY_DISPLAY_LOCALE + "<>?)");
+        args.add(String.valueOf(afterId));
+        args.add(locale);
+        if (campaignUrn != null) {
+            sql.append(" AND t." + KEY_CAMPAIGN_URN + "=?");
+            args.add(campaignUrn);
+        }
+        sql.append(" ORDER BY t." + KEY_ID + " LIMIT " + limit);
+
+        return rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    private static String getTriggerListQuery() {
+        return "SELECT " + COLUMNS_LIST + " FROM " + VIEW_TRIGGERS + " t LEFT JOIN "
+                + TABLE_DISPLAY + " d ON d." + KEY_ID + "=t." + KEY_ID;
+    }
+
+    /*
+     * Keep the display columns of a trigger computed from the given
+     * descriptions, and index them for search along with the names of the
+     * surveys and of the place of the trigger. They are dropped if the
+     * trigger changed meanwhile.
+     */
+    public void putDisplayColumns(int trigId, String trigType, String trigDesc, String actDesc,
+                                  String title, String summary, int surveyCount,
+                                  String surveyNames, String placeNames, String locale) {
+        if (executeUpdateDelete(SQL_PUT_DISPLAY, title, summary, surveyCount, locale,
+                trigId, trigType, trigDesc, actDesc) == 0) {
+            return;
+        }
+
+        //The display row is replaced without firing its delete trigger
+        execute(SQL_DELETE_SEARCH, trigId);
+        execute(SQL_PUT_SEARCH, title, summary, surveyNames, placeNames, trigId);
+    }
+
+    /*
+     * Get the names of the surveys given by the host, keyed by survey id
+     */
+    public HashMap<String, String> getSurveyNames() {
+        HashMap<String, String> names = new HashMap<String, String>();
+
+        Cursor c = query(TABLE_SURVEY_NAMES, new String[]{KEY_ID, KEY_NAME},
+                null, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                names.put(c.getString(0), c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        return names;
+    }
+
+    /*
+     * Keep the names of some surveys, keyed by survey id. The triggers of
+     * the surveys whose name changed are indexed again on the next search.
+     * Returns the number of names changed.
+     */
+    public int updateSurveyNames(Map<String, String> names) {
+        HashMap<String, String> current = getSurveyNames();
+        int count = 0;
+
+        mDb.beginTransaction();
+        try {
+            for (Map.Entry<String, String> entry : names.entrySet()) {
+                String id = entry.getKey();
+                String name = entry.getValue();
+
+                if (!current.containsKey(id)) {
+                    ContentValues values = new ContentValues();
+                    values.put(KEY_ID, id);
+                    values.put(KEY_NAME, name);
+                    insert(TABLE_SURVEY_NAMES, null, values, SQLiteDatabase.CONFLICT_ABORT);
+                    count++;
+                } else if (name == null ? current.get(id) != null : !name.equals(current.get(id))) {
+                    ContentValues values = new ContentValues();
+                    values.put(KEY_NAME, name);
+                    update(TABLE_SURVEY_NAMES, values, KEY_ID + "=?", new String[]{id});
+                    count++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        if (count > 0) {
+            //Only the display of the triggers changed
+            notifyAllTriggersChanged();
+        }
+        return count;
+    }
+
+    /*
+     * Get up to limit of the changes after a sequence, oldest first. The
+     * changes of the triggers come with the current state of the trigger,
+     * null for a tombstone, and those of the profiles with the current
+     * description of the profile in the notif desc column.
+     */
+    public Cursor getChanges(long sinceSeq, int limit) {
+        return rawQuery("SELECT l." + KEY_CHANGE_SEQ + ", l." + KEY_CHANGE_ENTITY + ", l."
+                + KEY_CHANGE_ENTITY_ID + ", l." + KEY_UUID + ", l." + KEY_CHANGE_OP + ", t."
+                + KEY_CAMPAIGN_URN + ", t." + KEY_TRIG_TYPE + ", t." + KEY_TRIG_DESCRIPT + ", t."
+                + KEY_TRIG_ACTION_DESCRIPT + ", coalesce(t." + KEY_NOTIF_DESCRIPT + ", p."
+                + KEY_PROFILE_DESCRIPT + ") AS " + KEY_NOTIF_DESCRIPT
+                + " FROM " + TABLE_CHANGES + " l"
+                + " LEFT JOIN " + VIEW_TRIGGERS + " t ON l." + KEY_CHANGE_ENTITY + "='"
+                + CHANGE_ENTITY_TRIGGER + "' AND t." + KEY_ID + "=l." + KEY_CHANGE_ENTITY_ID
+                + " LEFT JOIN " + TABLE_NOTIF_PROFILES + " p ON l." + KEY_CHANGE_ENTITY + "='"
+                + CHANGE_ENTITY_NOTIF_PROFILE + "' AND p." + KEY_ID + "=l." + KEY_CHANGE_ENTITY_ID
+                + " WHERE l." + KEY_CHANGE_SEQ + ">? ORDER BY l." + KEY_CHANGE_SEQ
+                + " LIMIT " + limit,
+                new String[]{String.valueOf(sinceSeq)});
+    }
+
+    /*
+     * Get the sequence of the latest change ever recorded, 0 if none.
+     * Compaction does not lower it.
+     */
+    public long getLastChangeSeq() {
+        Cursor c = rawQuery("SELECT seq FROM sqlite_sequence WHERE name=?",
+                new String[]{TABLE_CHANGES});
+        long seq = c.moveToFirst() ? c.getLong(0) : 0;
+        c.close();
+        return seq;
+    }
+
+    /*
+     * Delete the changes up to a sequence, once the host has uploaded
+     * them. Returns the number of changes deleted.
+     */
+    public int deleteChanges(long upToSeq) {
+        return delete(TABLE_CHANGES, KEY_CHANGE_SEQ + "<=?",
+                new String[]{String.valueOf(upToSeq)});
+    }
+
+    /*
+     * Write the campaigns, the notification profiles and the triggers to
+     * a snapshot, in one transaction so that they refer to each other
+     */
+    public void writeSnapshot(JsonWriter writer) throws IOException {
+        long start = Metrics.startTimer();
+
+        mDb.beginTransaction();
+        try {
+            writer.beginObject();
+            for (String table : SNAPSHOT_TABLES) {
+                writer.name(table);
+                DBSnapshot.writeTable(mDb, table, writer);
+            }
+            writer.endObject();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        Metrics.stopTimer(Metrics.TRIGGER_DB_READ, start);
+    }
+
+    /*
+     * Replace all the campaigns, notification profiles and triggers with
+     * those of a snapshot written by writeSnapshot(), in one transaction:
+     * if the snapshot cannot be read the db is left as it was. The
+     * triggers must have been stopped first. The restored triggers are
+     * not local edits, so the change log is cleared. Returns the number
+     * of triggers restored.
+     */
+    public int readSnapshot(JsonReader reader) throws IOException {
+        long start = Metrics.startTimer();
+        int count = 0;
+
+        mDb.beginTransaction();
+        try {
+            for (String table : SNAPSHOT_TABLES) {
+                mDb.delete(table, null, null);
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String table = reader.nextName();
+                if (table.equals(TABLE_TRIGGERS)) {
+                    count = DBSnapshot.readTable(mDb, table, reader);
+                } else if (table.equals(TABLE_CAMPAIGNS) || table.equals(TABLE_NOTIF_PROFILES)) {
+                    DBSnapshot.readTable(mDb, table, reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            //The triggers always have the global profile to fall back on
+            mDb.execSQL("INSERT OR IGNORE INTO " + TABLE_NOTIF_PROFILES + " (" + KEY_ID + ", "
+                    + KEY_PROFILE_DESCRIPT + ") VALUES (" + NOTIF_PROFILE_GLOBAL + ", "
+                    + DatabaseUtils.sqlEscapeString(NotifConfig.defaultConfig) + ")");
+            mDb.delete(TABLE_CHANGES, null, null);
+
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+
+            //The campaigns are read again, whether or not they were replaced
+            invalidateCampaigns();
+            invalidateAllTriggers();
+        }
+
+        Metrics.stopTimer(Metrics.TRIGGER_DB_WRITE, start);
+        return count;
+    }
+
 
     /* Database helper inner class */
     private static class DatabaseHelper extends SQLiteOpenHelper {
@@ -455,23 +1587,318 @@ public class TriggerDB {
                     "create table " + TABLE_TRIGGERS + " ("
                             + KEY_ID + " integer primary key autoincrement, "
                             + KEY_UUID + " string unique, "
-                            + KEY_CAMPAIGN_URN + " text, "
-                            + KEY_CAMPAIGN_NAME + " text, "
+                            + KEY_CAMPAIGN_ID + " integer references "
+                            + TABLE_CAMPAIGNS + " (" + KEY_ID + "), "
                             + KEY_TRIG_TYPE + " text not null, "
                             + KEY_TRIG_DESCRIPT + " text, "
                             + KEY_TRIG_ACTION_DESCRIPT + " text, "
                             + KEY_NOTIF_DESCRIPT + " text, "
-                            + KEY_RUNTIME_DESCRIPT + " text)";
+                            + KEY_RUNTIME_DESCRIPT + " text, "
+                            + KEY_NOTIF_PROFILE_ID + " integer not null default "
+                            + NOTIF_PROFILE_GLOBAL + ", "
+                            + KEY_SYNC_HASH + " text)";
 
 
-            //Create the table
+            //Create the tables
+            createCampaigns(mDb);
             mDb.execSQL(QUERY_CREATE_TRIGGERS_TB);
+            createCampaignIndex(mDb);
+
+            createNotifProfiles(mDb, DatabaseUtils.sqlEscapeString(NotifConfig.defaultConfig));
+            createChangeLog(mDb);
+            createDisplay(mDb);
+            createSearch(mDb);
+            createView(mDb);
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_TRIGGERS);
-            onCreate(db);
+            DBMigrations.upgrade(db, DATABASE_NAME, oldVersion, newVersion, MIGRATIONS);
+
+            //The view follows the latest schema
+            createView(db);
+
+            //The campaigns may have been moved to their own table
+            invalidateCampaigns();
         }
     }
+
+    private static void createCampaigns(SQLiteDatabase db) {
+        db.execSQL("create table " + TABLE_CAMPAIGNS + " ("
+                + KEY_ID + " integer primary key autoincrement, "
+                + KEY_URN + " text not null unique, "
+                + KEY_NAME + " text, "
+                + KEY_ENABLED + " integer not null default 1)");
+    }
+
+    private static void createCampaignIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_TRIGGERS + "_" + KEY_CAMPAIGN_ID
+                + " ON " + TABLE_TRIGGERS + " (" + KEY_CAMPAIGN_ID + ")");
+    }
+
+    /*
+     * Create the profiles table with the global profile, given as an
+     * SQL expression
+     */
+    private static void createNotifProfiles(SQLiteDatabase db, String globalDesc) {
+        db.execSQL("create table " + TABLE_NOTIF_PROFILES + " ("
+                + KEY_ID + " integer primary key autoincrement, "
+                + KEY_PROFILE_DESCRIPT + " text not null)");
+
+        db.execSQL("INSERT INTO " + TABLE_NOTIF_PROFILES + " (" + KEY_ID + ", "
+                + KEY_PROFILE_DESCRIPT + ") VALUES (" + NOTIF_PROFILE_GLOBAL + ", "
+                + globalDesc + ")");
+    }
+
+    /*
+     * Create the change log and the SQLite triggers which fill it. Each
+     * trigger or profile has at most one row, replaced with a new sequence
+     * on each change, so the log grows with the number of triggers edited
+     * and not with the number of edits. A change keeps the insert of a
+     * trigger which was not uploaded yet.
+     *
+     * The writes of a sync, which set the hash of the trigger, and of the
+     * run time descriptions, are not edits and are not recorded. The
+     * deletes of a sync go through deleteSyncedTriggers(), which drops the
+     * rows the delete trigger wrote, and a sync drops the pending changes
+     * of the triggers it overwrites.
+     */
+    private static void createChangeLog(SQLiteDatabase db) {
+        db.execSQL("create table " + TABLE_CHANGES + " ("
+                + KEY_CHANGE_SEQ + " integer primary key autoincrement, "
+                + KEY_CHANGE_ENTITY + " text not null, "
+                + KEY_CHANGE_ENTITY_ID + " integer not null, "
+                + KEY_UUID + " text, "
+                + KEY_CHANGE_OP + " text not null, "
+                + "unique (" + KEY_CHANGE_ENTITY + ", " + KEY_CHANGE_ENTITY_ID + "))");
+
+        String log = "INSERT OR REPLACE INTO " + TABLE_CHANGES + " (" + KEY_CHANGE_ENTITY + ", "
+                + KEY_CHANGE_ENTITY_ID + ", " + KEY_UUID + ", " + KEY_CHANGE_OP + ") VALUES ";
+
+        db.execSQL("CREATE TRIGGER " + TABLE_CHANGES + "_trigger_insert AFTER INSERT ON "
+                + TABLE_TRIGGERS + " WHEN NEW." + KEY_SYNC_HASH + " IS NULL BEGIN " + log
+                + "('" + CHANGE_ENTITY_TRIGGER + "', NEW." + KEY_ID + ", NEW." + KEY_UUID + ", '"
+                + CHANGE_OP_INSERT + "'); END");
+        db.execSQL("CREATE TRIGGER " + TABLE_CHANGES + "_trigger_update AFTER UPDATE OF "
+                + KEY_TRIG_TYPE + ", " + KEY_TRIG_DESCRIPT + ", " + KEY_TRIG_ACTION_DESCRIPT + ", "
+                + KEY_NOTIF_DESCRIPT + ", " + KEY_NOTIF_PROFILE_ID + ", " + KEY_CAMPAIGN_ID
+                + " ON " + TABLE_TRIGGERS + " WHEN NEW." + KEY_SYNC_HASH + " IS OLD."
+                + KEY_SYNC_HASH + " BEGIN " + log
+                + "('" + CHANGE_ENTITY_TRIGGER + "', NEW." + KEY_ID + ", NEW." + KEY_UUID
+                + ", coalesce((SELECT " + KEY_CHANGE_OP + " FROM " + TABLE_CHANGES + " WHERE "
+                + KEY_CHANGE_ENTITY + "='" + CHANGE_ENTITY_TRIGGER + "' AND " + KEY_CHANGE_ENTITY_ID
+                + "=NEW." + KEY_ID + " AND " + KEY_CHANGE_OP + "='" + CHANGE_OP_INSERT + "'), '"
+                + CHANGE_OP_UPDATE + "')); END");
+        db.execSQL("CREATE TRIGGER " + TABLE_CHANGES + "_trigger_delete AFTER DELETE ON "
+                + TABLE_TRIGGERS + " BEGIN " + log
+                + "('" + CHANGE_ENTITY_TRIGGER + "', OLD." + KEY_ID + ", OLD." + KEY_UUID + ", '"
+                + CHANGE_OP_DELETE + "'); END");
+
+        db.execSQL("CREATE TRIGGER " + TABLE_CHANGES + "_profile_insert AFTER INSERT ON "
+                + TABLE_NOTIF_PROFILES + " BEGIN " + log
+                + "('" + CHANGE_ENTITY_NOTIF_PROFILE + "', NEW." + KEY_ID + ", NULL, '"
+                + CHANGE_OP_INSERT + "'); END");
+        db.execSQL("CREATE TRIGGER " + TABLE_CHANGES + "_profile_update AFTER UPDATE OF "
+                + KEY_PROFILE_DESCRIPT + " ON " + TABLE_NOTIF_PROFILES + " BEGIN " + log
+                + "('" + CHANGE_ENTITY_NOTIF_PROFILE + "', NEW." + KEY_ID + ", NULL, '"
+                + CHANGE_OP_UPDATE + "'); END");
+    }
+
+    /*
+     * Create the table of the display columns, and the SQLite triggers
+     * which drop the columns of a trigger whenever what they are computed
+     * from changes
+     */
+    private static void createDisplay(SQLiteDatabase db) {
+        db.execSQL("create table " + TABLE_DISPLAY + " ("
+                + KEY_ID + " integer primary key, "
+                + KEY_DISPLAY_TITLE + " text, "
+                + KEY_DISPLAY_SUMMARY + " text, "
+                + KEY_SURVEY_COUNT + " integer not null default 0, "
+                + KEY_DISPLAY_LOCALE + " text)");
+
+        String drop = " BEGIN DELETE FROM " + TABLE_DISPLAY + " WHERE " + KEY_ID + "=OLD."
+                + KEY_ID + "; END";
+        db.execSQL("CREATE TRIGGER " + TABLE_DISPLAY + "_update AFTER UPDATE OF "
+                + KEY_TRIG_TYPE + ", " + KEY_TRIG_DESCRIPT + ", " + KEY_TRIG_ACTION_DESCRIPT
+                + ", " + KEY_CAMPAIGN_ID + " ON " + TABLE_TRIGGERS + drop);
+        db.execSQL("CREATE TRIGGER " + TABLE_DISPLAY + "_delete AFTER DELETE ON "
+                + TABLE_TRIGGERS + drop);
+    }
+
+    /*
+     * Create the search index and the table of the names of the surveys,
+     * and the SQLite triggers which drop the rows of the index along with
+     * those of the display columns, and drop the display columns of the
+     * triggers whose campaign or surveys are renamed
+     */
+    private static void createSearch(SQLiteDatabase db) {
+        db.execSQL("create virtual table " + TABLE_SEARCH + " using fts3("
+                + KEY_SEARCH_TITLE + ", "
+                + KEY_SEARCH_SUMMARY + ", "
+                + KEY_SEARCH_CAMPAIGN + ", "
+                + KEY_SEARCH_SURVEYS + ", "
+                + KEY_SEARCH_PLACES + ")");
+
+        db.execSQL("create table " + TABLE_SURVEY_NAMES + " ("
+                + KEY_ID + " text primary key, "
+                + KEY_NAME + " text)");
+
+        db.execSQL("CREATE TRIGGER " + TABLE_SEARCH + "_delete AFTER DELETE ON " + TABLE_DISPLAY
+                + " BEGIN DELETE FROM " + TABLE_SEARCH + " WHERE " + KEY_DOCID + "=OLD." + KEY_ID
+                + "; END");
+
+        db.execSQL("CREATE TRIGGER " + TABLE_SEARCH + "_campaign AFTER UPDATE OF " + KEY_NAME
+                + " ON " + TABLE_CAMPAIGNS + " BEGIN DELETE FROM " + TABLE_DISPLAY + " WHERE "
+                + KEY_ID + " IN (SELECT " + KEY_ID + " FROM " + TABLE_TRIGGERS + " WHERE "
+                + KEY_CAMPAIGN_ID + "=NEW." + KEY_ID + "); END");
+
+        //The ids are quoted in the action descriptions, with their slashes
+        //escaped by JSONObject
+        String surveys = " BEGIN DELETE FROM " + TABLE_DISPLAY + " WHERE " + KEY_ID
+                + " IN (SELECT " + KEY_ID + " FROM " + TABLE_TRIGGERS + " WHERE "
+                + KEY_TRIG_ACTION_DESCRIPT + " LIKE '%\"' || NEW." + KEY_ID + " || '\"%' OR "
+                + KEY_TRIG_ACTION_DESCRIPT + " LIKE '%\"' || replace(NEW." + KEY_ID
+                + ", '/', '\\/') || '\"%'); END";
+        db.execSQL("CREATE TRIGGER " + TABLE_SEARCH + "_survey_insert AFTER INSERT ON "
+                + TABLE_SURVEY_NAMES + surveys);
+        db.execSQL("CREATE TRIGGER " + TABLE_SEARCH + "_survey_update AFTER UPDATE OF "
+                + KEY_NAME + " ON " + TABLE_SURVEY_NAMES + surveys);
+    }
+
+    /*
+     * (Re)create the view which resolves the campaign and the notification
+     * description of each trigger
+     */
+    private static void createView(SQLiteDatabase db) {
+        db.execSQL("DROP VIEW IF EXISTS " + VIEW_TRIGGERS);
+        db.execSQL("CREATE VIEW " + VIEW_TRIGGERS + " AS SELECT "
+                + "t." + KEY_ID + " AS " + KEY_ID + ", "
+                + "t." + KEY_UUID + " AS " + KEY_UUID + ", "
+                + "t." + KEY_CAMPAIGN_ID + " AS " + KEY_CAMPAIGN_ID + ", "
+                + "c." + KEY_URN + " AS " + KEY_CAMPAIGN_URN + ", "
+                + "c." + KEY_NAME + " AS " + KEY_CAMPAIGN_NAME + ", "
+                + "coalesce(c." + KEY_ENABLED + ", 1) AS " + KEY_CAMPAIGN_ENABLED + ", "
+                + "t." + KEY_TRIG_TYPE + " AS " + KEY_TRIG_TYPE + ", "
+                + "t." + KEY_TRIG_DESCRIPT + " AS " + KEY_TRIG_DESCRIPT + ", "
+                + "t." + KEY_TRIG_ACTION_DESCRIPT + " AS " + KEY_TRIG_ACTION_DESCRIPT + ", "
+                + "coalesce(t." + KEY_NOTIF_DESCRIPT + ", p." + KEY_PROFILE_DESCRIPT + ") AS "
+                + KEY_NOTIF_DESCRIPT + ", "
+                + "t." + KEY_RUNTIME_DESCRIPT + " AS " + KEY_RUNTIME_DESCRIPT + ", "
+                + "t." + KEY_NOTIF_PROFILE_ID + " AS " + KEY_NOTIF_PROFILE_ID
+                + " FROM " + TABLE_TRIGGERS + " t"
+                + " LEFT JOIN " + TABLE_CAMPAIGNS + " c ON t." + KEY_CAMPAIGN_ID + " = c." + KEY_ID
+                + " LEFT JOIN " + TABLE_NOTIF_PROFILES + " p"
+                + " ON t." + KEY_NOTIF_PROFILE_ID + " = p." + KEY_ID);
+    }
+
+    /*
+     * The upgrades of the schema, one per version. Older versions of the
+     * framework created the triggers table with a subset of the columns,
+     * so the columns are only added if they are missing.
+     */
+    private static final DBMigrations.Step[] MIGRATIONS = {
+            new DBMigrations.Step(2) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    DBMigrations.addColumn(db, TABLE_TRIGGERS, KEY_CAMPAIGN_URN, "text");
+                    DBMigrations.addColumn(db, TABLE_TRIGGERS, KEY_CAMPAIGN_NAME, "text");
+                }
+            },
+            new DBMigrations.Step(3) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    if (DBMigrations.addColumn(db, TABLE_TRIGGERS, KEY_UUID, "string")) {
+                        //Give the existing triggers a random uuid and enforce the
+                        //uniqueness which ALTER TABLE cannot add to a column
+                        db.execSQL("UPDATE " + TABLE_TRIGGERS + " SET " + KEY_UUID
+                                + "=lower(hex(randomblob(16))) WHERE " + KEY_UUID + " IS NULL");
+                        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " + TABLE_TRIGGERS
+                                + "_" + KEY_UUID + " ON " + TABLE_TRIGGERS + " (" + KEY_UUID + ")");
+                    }
+                }
+            },
+            new DBMigrations.Step(4) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    DBMigrations.addColumn(db, TABLE_TRIGGERS, KEY_NOTIF_PROFILE_ID,
+                            "integer not null default " + NOTIF_PROFILE_GLOBAL);
+
+                    //All the triggers were given a copy of the global description,
+                    //so the most common one becomes the global profile
+                    createNotifProfiles(db, "coalesce((SELECT " + KEY_NOTIF_DESCRIPT
+                            + " FROM " + TABLE_TRIGGERS + " WHERE " + KEY_NOTIF_DESCRIPT
+                            + " IS NOT NULL GROUP BY " + KEY_NOTIF_DESCRIPT
+                            + " ORDER BY count(*) DESC LIMIT 1), "
+                            + DatabaseUtils.sqlEscapeString(NotifConfig.defaultConfig) + ")");
+
+                    //The copies are dropped, the other descriptions are overrides
+                    db.execSQL("UPDATE " + TABLE_TRIGGERS + " SET " + KEY_NOTIF_DESCRIPT
+                            + "=NULL WHERE " + KEY_NOTIF_DESCRIPT + "=(SELECT "
+                            + KEY_PROFILE_DESCRIPT + " FROM " + TABLE_NOTIF_PROFILES
+                            + " WHERE " + KEY_ID + "=" + NOTIF_PROFILE_GLOBAL + ")");
+                }
+            },
+            new DBMigrations.Step(5) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createCampaigns(db);
+                    db.execSQL("INSERT INTO " + TABLE_CAMPAIGNS + " (" + KEY_URN + ", " + KEY_NAME
+                            + ") SELECT " + KEY_CAMPAIGN_URN + ", max(" + KEY_CAMPAIGN_NAME + ") FROM "
+                            + TABLE_TRIGGERS + " WHERE " + KEY_CAMPAIGN_URN + " IS NOT NULL GROUP BY "
+                            + KEY_CAMPAIGN_URN);
+
+                    DBMigrations.addColumn(db, TABLE_TRIGGERS, KEY_CAMPAIGN_ID, "integer references "
+                            + TABLE_CAMPAIGNS + " (" + KEY_ID + ")");
+                    db.execSQL("UPDATE " + TABLE_TRIGGERS + " SET " + KEY_CAMPAIGN_ID + "=(SELECT "
+                            + KEY_ID + " FROM " + TABLE_CAMPAIGNS + " WHERE " + KEY_URN + "="
+                            + TABLE_TRIGGERS + "." + KEY_CAMPAIGN_URN + ")");
+                    createCampaignIndex(db);
+
+                    //SQLite cannot drop the old columns, they are cleared instead
+                    db.execSQL("UPDATE " + TABLE_TRIGGERS + " SET " + KEY_CAMPAIGN_URN + "=NULL, "
+                            + KEY_CAMPAIGN_NAME + "=NULL");
+                }
+            },
+            new DBMigrations.Step(6) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    DBMigrations.addColumn(db, TABLE_CAMPAIGNS, KEY_ENABLED,
+                            "integer not null default 1");
+                }
+            },
+            new DBMigrations.Step(7) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    DBMigrations.addColumn(db, TABLE_TRIGGERS, KEY_SYNC_HASH, "text");
+                }
+            },
+            new DBMigrations.Step(8) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    //The existing triggers are not logged, the host uploads
+                    //them in full once before it asks for the changes
+                    createChangeLog(db);
+                }
+            },
+            new DBMigrations.Step(9) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    //Filled as the triggers are listed
+                    createDisplay(db);
+                }
+            },
+            new DBMigrations.Step(10) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    //The display columns are a cache, they are created again
+                    //with the triggers which keep them in step with the index
+                    db.execSQL("DROP TRIGGER IF EXISTS " + TABLE_DISPLAY + "_update");
+                    db.execSQL("DROP TRIGGER IF EXISTS " + TABLE_DISPLAY + "_delete");
+                    db.execSQL("DROP TABLE IF EXISTS " + TABLE_DISPLAY);
+                    createDisplay(db);
+                    createSearch(db);
+                }
+            }
+    };
 }
@@ -0,0 +1,219 @@
+package org.ohmage.reminders.base;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.ohmage.reminders.core.Metrics;
+
+/*
+ * The single background thread on which the trigger framework does its
+ * work. The receivers and services of the framework hand their work off to
+ * this thread instead of doing database, JSON and content provider work on
+ * the main thread of the host application. Since there is only one thread,
+ * the tasks run one at a time in the order they were posted and the state
+ * of the triggers is only ever touched from this thread.
+ *
+ * A partial wake lock is held from the moment a task is posted until it has
+ * finished running, so that the device does not go back to sleep with work
+ * still in the queue.
+ */
+public class TriggerEngine {
+
+    private static final String TAG = "TriggerEngine";
+
+    private static final String WAKE_LOCK_TAG =
+            "org.ohmage.reminders.base.TriggerEngine.wake_lock";
+
+    private static HandlerThread sThread = null;
+    private static Handler sHandler = null;
+    private static PowerManager.WakeLock sWakeLock = null;
+
+    //Number of tasks posted and not finished yet
+    private static int sQueueDepth = 0;
+    private static int sMaxQueueDepth = 0;
+    //Number of tasks finished
+    private static long sTasks = 0;
+    //Total time the tasks spent waiting in the queue
+    private static long sTotalWaitMS = 0;
+    //Total and highest time the tasks took to run
+    private static long sTotalRunMS = 0;
+    private static long sMaxRunMS = 0;
+
+    /*
+     * Get the looper of the engine thread. The thread is started
+     * the first time this is called.
+     */
+    public static synchronized Looper getLooper() {
+        if (sThread == null) {
+            sThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            sThread.start();
+            sHandler = new Handler(sThread.getLooper());
+        }
+
+        return sThread.getLooper();
+    }
+
+    /*
+     * Check if the caller is running on the engine thread
+     */
+    public static boolean isEngineThread() {
+        return Looper.myLooper() == getLooper();
+    }
+
+    /*
+     * Queue a task on the engine thread
+     */
+    public static void post(Context context, Runnable task) {
+        postDelayed(context, task, 0);
+    }
+
+    /*
+     * Queue a task on the engine thread to be run after the given delay.
+     * The wake lock is held during the delay as well.
+     */
+    public static void postDelayed(Context context, final Runnable task, long delay) {
+        getLooper();
+        MetricsReporter.start(context);
+        acquireWakeLock(context);
+
+        synchronized (TriggerEngine.class) {
+            sQueueDepth++;
+            sMaxQueueDepth = Math.max(sMaxQueueDepth, sQueueDepth);
+        }
+
+        final long posted = SystemClock.uptimeMillis() + delay;
+        sHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.uptimeMillis();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    //Keep the engine thread alive for the other tasks
+                    Log.e(TAG, "TriggerEngine: Task failed", e);
+                } finally {
+                    recordTask(start - posted, SystemClock.uptimeMillis() - start);
+                    releaseWakeLock();
+                }
+            }
+        }, delay);
+    }
+
+    /*
+     * Handle a broadcast on the engine thread. The broadcast is kept
+     * alive with goAsync() where available until the task finishes,
+     * on older platforms the wake lock alone keeps the device awake.
+     */
+    public static void handleBroadcast(BroadcastReceiver receiver, Context context,
+                                       Runnable task) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            task = new AsyncBroadcastTask(receiver.goAsync(), task);
+        }
+
+        post(context.getApplicationContext(), task);
+    }
+
+    private static synchronized void acquireWakeLock(Context context) {
+        if (sWakeLock == null) {
+            PowerManager powerMan = (PowerManager) context.getApplicationContext()
+                    .getSystemService(Context.POWER_SERVICE);
+
+            sWakeLock = powerMan.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
+            //Held once per queued task
+            sWakeLock.setReferenceCounted(true);
+        }
+
+        sWakeLock.acquire();
+    }
+
+    private static synchronized void releaseWakeLock() {
+        if (sWakeLock != null && sWakeLock.isHeld()) {
+            sWakeLock.release();
+        }
+    }
+
+    private static void recordTask(long waitMS, long runMS) {
+        Metrics.record(Metrics.ENGINE_TASK_WAIT, waitMS);
+        Metrics.record(Metrics.ENGINE_TASK_RUN, runMS);
+
+        synchronized (TriggerEngine.class) {
+            sQueueDepth--;
+            sTasks++;
+            sTotalWaitMS += Math.max(waitMS, 0);
+            sTotalRunMS += runMS;
+            sMaxRunMS = Math.max(sMaxRunMS, runMS);
+        }
+    }
+
+    /*
+     * Number of tasks waiting or running at the moment
+     */
+    public static synchronized int getQueueDepth() {
+        return sQueueDepth;
+    }
+
+    /*
+     * Highest number of tasks waiting or running at the same time
+     */
+    public static synchronized int getMaxQueueDepth() {
+        return sMaxQueueDepth;
+    }
+
+    /*
+     * Number of tasks run so far
+     */
+    public static synchronized long getTaskCount() {
+        return sTasks;
+    }
+
+    /*
+     * Average time the tasks spent in the queue before running
+     */
+    public static synchronized long getAverageWaitTime() {
+        return sTasks == 0 ? 0 : sTotalWaitMS / sTasks;
+    }
+
+    /*
+     * Average time the tasks took to run
+     */
+    public static synchronized long getAverageRunTime() {
+        return sTasks == 0 ? 0 : sTotalRunMS / sTasks;
+    }
+
+    /*
+     * Highest time a task took to run
+     */
+    public static synchronized long getMaxRunTime() {
+        return sMaxRunMS;
+    }
+
+    /* Task which finishes a pending broadcast once it has run */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static class AsyncBroadcastTask implements Runnable {
+        private final BroadcastReceiver.PendingResult mResult;
+        private final Runnable mTask;
+
+        AsyncBroadcastTask(BroadcastReceiver.PendingResult result, Runnable task) {
+            mResult = result;
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mTask.run();
+            } finally {
+                mResult.finish();
+            }
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package org.ohmage.reminders.base;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import org.ohmage.reminders.core.ResponseStats;
+
+import java.util.ArrayList;
+
+/*
+ * Append-only history of what happened to the triggers. Each row is
+ * one event:
+ * (id, trigger id, type, time, survey)
+ *
+ *  - type: one of the TYPE_ constants
+ *  - time: the time of the event in milliseconds since the epoch
+ *  - survey: the survey the event is about, for the events caused by
+ *            the user acting on a survey. Null for the other events.
+ *
+ * The rows are never updated. They are only deleted by the retention
+ * policy, see TriggerEventLog.
+ *
+ * The history is kept in a database of its own so that it can grow and
+ * be compacted without touching the database of the triggers.
+ *
+ * The database also holds the running response stats of each trigger
+ * and each survey, see ResponseStats. They are updated along with the
+ * events so that they can be read without scanning the history, and are
+ * not affected by the retention policy.
+ */
+public class TriggerEventDB {
+
+    private static final String TAG = "TriggerEventDB";
+
+    private static final String DATABASE_NAME = "trigger_events";
+    private static final int DATABASE_VERSION = 2;
+
+    /* Table names */
+    private static final String TABLE_EVENTS = "trigger_events";
+    private static final String TABLE_RESPONSE_STATS = "response_stats";
+
+    /* Columns */
+    public static final String KEY_ID = "_id";
+    public static final String KEY_TRIGGER_ID = "trigger_id";
+    public static final String KEY_TYPE = "type";
+    public static final String KEY_TIME = "time";
+    public static final String KEY_SURVEY = "survey";
+
+    /* Columns of the response stats */
+    private static final String KEY_SCOPE = "scope";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_TAKEN = "taken";
+    private static final String KEY_IGNORED = "ignored";
+    private static final String KEY_EXPIRED = "expired";
+    private static final String KEY_RESPONSE_TIMES = "response_times";
+
+    /* Scopes of the response stats */
+    public static final String SCOPE_TRIGGER = "trigger";
+    public static final String SCOPE_SURVEY = "survey";
+
+    /* Event types */
+    public static final int TYPE_FIRED = 1;
+    public static final int TYPE_EXPIRED = 2;
+    public static final int TYPE_TAKEN = 3;
+    public static final int TYPE_IGNORED = 4;
+    public static final int TYPE_SNOOZED = 5;
+    public static final int TYPE_REPEATED = 6;
+
+    //Matches the events of all the triggers in the queries
+    public static final int ALL_TRIGGERS = -1;
+
+    //Number of rows read at a time by an EventReader
+    private static final int READ_PAGE_SIZE = 200;
+
+    //Value of PRAGMA auto_vacuum when it is off
+    private static final long AUTO_VACUUM_NONE = 0;
+
+    private final Context mContext;
+    private DatabaseHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    public TriggerEventDB(Context context) {
+        this.mContext = context;
+    }
+
+    //Delete the database file
+    public static void deleteDatabase(Context context) {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /* Open the database */
+    public boolean open() {
+        mDbHelper = new DatabaseHelper(mContext);
+
+        try {
+            mDb = mDbHelper.getWritableDatabase();
+            enableIncrementalVacuum(mDb);
+        } catch (SQLException e) {
+            Log.e(TAG, "Error opening trigger event db", e);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Turn on the incremental vacuum so that the space of deleted events
+     * can be reclaimed with compact(). The mode of a database which has
+     * tables only changes with a VACUUM, which cannot run in the transaction
+     * of onCreate(), so it is done here, once per database.
+     */
+    private static void enableIncrementalVacuum(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_NONE) {
+            Log.v(TAG, "DB: Enabling incremental vacuum");
+
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+    }
+
+    /* Close the database */
+    public void close() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+    }
+
+    /*
+     * Get the name of an event type, e.g. "fired"
+     */
+    public static String getTypeName(int type) {
+        switch (type) {
+            case TYPE_FIRED:
+                return "fired";
+            case TYPE_EXPIRED:
+                return "expired";
+            case TYPE_TAKEN:
+                return "taken";
+            case TYPE_IGNORED:
+                return "ignored";
+            case TYPE_SNOOZED:
+                return "snoozed";
+            case TYPE_REPEATED:
+                return "repeated";
+            default:
+                return "unknown";
+        }
+    }
+
+    /*
+     * Append an event. Returns the id of the event or -1 on failure.
+     */
+    public long addEvent(int trigId, int type, long time, String survey) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_TRIGGER_ID, trigId);
+        values.put(KEY_TYPE, type);
+        values.put(KEY_TIME, time);
+        values.put(KEY_SURVEY, survey);
+
+        return mDb.insert(TABLE_EVENTS, null, values);
+    }
+
+    /*
+     * Get a reader over the events of a trigger, or of all the triggers
+     * if trigId is ALL_TRIGGERS, with from <= time < to. The events are
+     * read in the order they happened, a page at a time, so that any
+     * range can be read in constant memory.
+     *
+     * The reader must not be used after the database is closed.
+     */
+    public EventReader getEvents(int trigId, long from, long to) {
+        return new EventReader(trigId, from, to);
+    }
+
+    /*
+     * Count the events of a type for a trigger, or for all the triggers
+     * if trigId is ALL_TRIGGERS, with from <= time < to
+     */
+    public long getEventCount(int trigId, int type, long from, long to) {
+        StringBuilder select = new StringBuilder(KEY_TYPE + "=? AND "
+                + KEY_TIME + ">=? AND " + KEY_TIME + "<?");
+        ArrayList<String> args = new ArrayList<String>();
+        args.add(String.valueOf(type));
+        args.add(String.valueOf(from));
+        args.add(String.valueOf(to));
+
+        if (trigId != ALL_TRIGGERS) {
+            select.append(" AND " + KEY_TRIGGER_ID + "=?");
+            args.add(String.valueOf(trigId));
+        }
+
+        return DatabaseUtils.longForQuery(mDb, "SELECT count(*) FROM " + TABLE_EVENTS
+                + " WHERE " + select, args.toArray(new String[args.size()]));
+    }
+
+    /*
+     * Delete the events older than the given time. Returns the number of
+     * events deleted.
+     */
+    public int deleteEventsBefore(long time) {
+        return mDb.delete(TABLE_EVENTS, KEY_TIME + "<?",
+                new String[]{String.valueOf(time)});
+    }
+
+    /*
+     * Delete the oldest events so that at most maxEvents are left.
+     * Returns the number of events deleted.
+     */
+    public int trimEvents(int maxEvents) {
+        long count = DatabaseUtils.longForQuery(mDb, "SELECT count(*) FROM " + TABLE_EVENTS,
+                null);
+        if (count <= maxEvents) {
+            return 0;
+        }
+
+        //The ids grow with the time the events were added
+        return mDb.delete(TABLE_EVENTS, KEY_ID + " IN (SELECT " + KEY_ID
+                + " FROM " + TABLE_EVENTS + " ORDER BY " + KEY_ID + " LIMIT ?)",
+                new String[]{String.valueOf(count - maxEvents)});
+    }
+
+    /*
+     * Get the response stats of a trigger or a survey, keyed by the
+     * trigger id or the survey name depending on the scope. Returns
+     * empty stats if nothing has been counted yet.
+     */
+    public ResponseStats getResponseStats(String scope, String name) {
+        Cursor c = mDb.query(TABLE_RESPONSE_STATS,
+                new String[]{KEY_TAKEN, KEY_IGNORED, KEY_EXPIRED, KEY_RESPONSE_TIMES},
+                KEY_SCOPE + "=? AND " + KEY_NAME + "=?", new String[]{scope, name},
+                null, null, null);
+
+        ResponseStats stats = new ResponseStats();
+        if (c.moveToFirst()) {
+            stats = new ResponseStats(c.getLong(0), c.getLong(1), c.getLong(2), c.getString(3));
+        }
+        c.close();
+
+        return stats;
+    }
+
+    /*
+     * Count an outcome, TYPE_TAKEN, TYPE_IGNORED or TYPE_EXPIRED, in the
+     * response stats of a trigger or a survey. The response time is only
+     * used for the surveys taken, -1 if it is not known.
+     */
+    public void addResponseOutcome(String scope, String name, int type, long responseTimeMS) {
+        //The stats are read, updated and written back in one transaction
+        //so that concurrent outcomes are not lost
+        mDb.beginTransaction();
+        try {
+            ResponseStats stats = getResponseStats(scope, name);
+            switch (type) {
+                case TYPE_TAKEN:
+                    stats.onTaken(responseTimeMS);
+                    break;
+                case TYPE_IGNORED:
+                    stats.onIgnored();
+                    break;
+                case TYPE_EXPIRED:
+                    stats.onExpired();
+                    break;
+                default:
+                    return;
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(KEY_SCOPE, scope);
+            values.put(KEY_NAME, name);
+            values.put(KEY_TAKEN, stats.getTakenCount());
+            values.put(KEY_IGNORED, stats.getIgnoredCount());
+            values.put(KEY_EXPIRED, stats.getExpiredCount());
+            values.put(KEY_RESPONSE_TIMES, stats.encodeResponseTimes());
+
+            mDb.replace(TABLE_RESPONSE_STATS, null, values);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /*
+     * Delete the response stats of a trigger or a survey
+     */
+    public void deleteResponseStats(String scope, String name) {
+        mDb.delete(TABLE_RESPONSE_STATS, KEY_SCOPE + "=? AND " + KEY_NAME + "=?",
+                new String[]{scope, name});
+    }
+
+    /*
+     * Give the pages freed by deleted events back to the file system
+     */
+    public void compact() {
+        //The pragma returns a row per page freed
+        Cursor c = mDb.rawQuery("PRAGMA incremental_vacuum", null);
+        while (c.moveToNext()) {
+            //Step through all the rows to run the vacuum to completion
+        }
+        c.close();
+    }
+
+    /* A single event */
+    public static class Event {
+        public final long id;
+        public final int trigId;
+        public final int type;
+        public final long time;
+        public final String survey;
+
+        Event(long id, int trigId, int type, long time, String survey) {
+            this.id = id;
+            this.trigId = trigId;
+            this.type = type;
+            this.time = time;
+            this.survey = survey;
+        }
+
+        @Override
+        public String toString() {
+            return trigId + " " + getTypeName(type) + " at " + time
+                    + (survey == null ? "" : " (" + survey + ")");
+        }
+    }
+
+    /*
+     * Reads the events of a time range a page at a time. Each page picks
+     * up after the last event of the previous one, so events appended
+     * while reading are not skipped and no event is read twice.
+     */
+    public class EventReader {
+        private final String mSelection;
+        //Arguments of the selection which follow the position of the reader
+        private final ArrayList<String> mArgs = new ArrayList<String>();
+
+        private Cursor mPage = null;
+        private int mPageRows = 0;
+        private boolean mDone = false;
+
+        //Position of the reader, i.e. the last event read. Starts just
+        //before the first possible event at "from", ids start from 1.
+        private long mLastTime;
+        private long mLastId = 0;
+
+        private EventReader(int trigId, long from, long to) {
+            StringBuilder select = new StringBuilder("(" + KEY_TIME + ">? OR ("
+                    + KEY_TIME + "=? AND " + KEY_ID + ">?)) AND " + KEY_TIME + "<?");
+            mArgs.add(String.valueOf(to));
+
+            if (trigId != ALL_TRIGGERS) {
+                select.append(" AND " + KEY_TRIGGER_ID + "=?");
+                mArgs.add(String.valueOf(trigId));
+            }
+
+            mSelection = select.toString();
+            mLastTime = from;
+        }
+
+        /*
+         * Get the next event, or null once all of them have been read
+         */
+        public Event next() {
+            if (mDone) {
+                return null;
+            }
+
+            if (mPage == null || !mPage.moveToNext()) {
+                if (mPage != null) {
+                    mPage.close();
+                    if (mPageRows < READ_PAGE_SIZE) {
+                        //The previous page was the last one
+                        mPage = null;
+                        mDone = true;
+                        return null;
+                    }
+                }
+
+                mPage = readPage();
+                mPageRows = mPage.getCount();
+                if (!mPage.moveToNext()) {
+                    close();
+                    return null;
+                }
+            }
+
+            Event event = new Event(mPage.getLong(0), mPage.getInt(1), mPage.getInt(2),
+                    mPage.getLong(3), mPage.getString(4));
+            mLastTime = event.time;
+            mLastId = event.id;
+            return event;
+        }
+
+        private Cursor readPage() {
+            ArrayList<String> args = new ArrayList<String>();
+            args.add(String.valueOf(mLastTime));
+            args.add(String.valueOf(mLastTime));
+            args.add(String.valueOf(mLastId));
+            args.addAll(mArgs);
+
+            return mDb.query(TABLE_EVENTS,
+                    new String[]{KEY_ID, KEY_TRIGGER_ID, KEY_TYPE, KEY_TIME, KEY_SURVEY},
+                    mSelection, args.toArray(new String[args.size()]), null, null,
+                    KEY_TIME + ", " + KEY_ID, String.valueOf(READ_PAGE_SIZE));
+        }
+
+        /*
+         * Release the page being read. Called automatically once all the
+         * events have been read.
+         */
+        public void close() {
+            if (mPage != null) {
+                mPage.close();
+                mPage = null;
+            }
+            mDone = true;
+        }
+    }
+
+    /* Database helper inner class */
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        public DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            Log.v(TAG, "DB: SQLiteOpenHelper.onCreate");
+
+            db.execSQL("create table " + TABLE_EVENTS + " ("
+                    + KEY_ID + " integer primary key autoincrement, "
+                    + KEY_TRIGGER_ID + " integer not null, "
+                    + KEY_TYPE + " integer not null, "
+                    + KEY_TIME + " integer not null, "
+                    + KEY_SURVEY + " text)");
+
+            db.execSQL("create index " + TABLE_EVENTS + "_trigger_time on "
+                    + TABLE_EVENTS + " (" + KEY_TRIGGER_ID + ", " + KEY_TIME + ")");
+            db.execSQL("create index " + TABLE_EVENTS + "_time on "
+                    + TABLE_EVENTS + " (" + KEY_TIME + ")");
+
+            createResponseStatsTable(db);
+        }
+
+        private static void createResponseStatsTable(SQLiteDatabase db) {
+            db.execSQL("create table " + TABLE_RESPONSE_STATS + " ("
+                    + KEY_SCOPE + " text not null, "
+                    + KEY_NAME + " text not null, "
+                    + KEY_TAKEN + " integer not null, "
+                    + KEY_IGNORED + " integer not null, "
+                    + KEY_EXPIRED + " integer not null, "
+                    + KEY_RESPONSE_TIMES + " text, "
+                    + "primary key (" + KEY_SCOPE + ", " + KEY_NAME + "))");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            DBMigrations.upgrade(db, DATABASE_NAME, oldVersion, newVersion, MIGRATIONS);
+        }
+    }
+
+    /*
+     * The upgrades of the schema, one per version. See DBMigrations.
+     */
+    private static final DBMigrations.Step[] MIGRATIONS = {
+            new DBMigrations.Step(2) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    //The history is kept, the stats only count the outcomes
+                    //from the upgrade on
+                    DatabaseHelper.createResponseStatsTable(db);
+                }
+            }
+    };
+}
@@ -0,0 +1,228 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.ohmage.reminders.config.EventLogConfig;
+import org.ohmage.reminders.core.ResponseStats;
+import org.ohmage.reminders.notif.NotifSurveyAdaptor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Records the events of the triggers in the TriggerEventDB and keeps the
+ * history bounded.
+ *
+ * After an event is recorded, the retention policy is run on the engine
+ * thread if it has not been run for compactionInterval: the events older
+ * than the retention period are deleted, then the oldest events beyond
+ * maxEvents, and the space they took is given back to the file system.
+ *
+ * The surveys taken, ignored and expired are also counted in the response
+ * stats of the trigger which activated them and of the survey itself.
+ * An outcome is counted in the stats of each trigger which had activated
+ * the survey, but only once in the stats of the survey, with the response
+ * time measured from the trigger which activated it last.
+ */
+public class TriggerEventLog {
+
+    private static final String TAG = "TriggerEventLog";
+
+    private static final String PREF_KEY_LAST_COMPACTION = "last_compaction";
+
+    /*
+     * Record an event of a trigger which is not about a specific survey
+     */
+    public static void record(Context context, int trigId, int type) {
+        record(context, trigId, type, null);
+    }
+
+    /*
+     * Record an event of a trigger
+     */
+    public static void record(Context context, int trigId, int type, String survey) {
+        TriggerEventDB db = new TriggerEventDB(context);
+        if (!db.open()) {
+            return;
+        }
+        add(db, trigId, type, survey, System.currentTimeMillis());
+        db.close();
+
+        compactIfDue(context);
+    }
+
+    /*
+     * Record an event for each of the given surveys against the triggers
+     * which have activated it at the moment. Must be called before the
+     * event changes the active surveys, e.g. before a survey is recorded
+     * as taken.
+     */
+    public static void recordForActiveTriggers(Context context, int type,
+                                               Collection<String> surveys) {
+        Map<Integer, Set<String>> active = NotifSurveyAdaptor.getActiveSurveysByTrigger(context);
+        if (active.isEmpty()) {
+            return;
+        }
+
+        TriggerEventDB db = new TriggerEventDB(context);
+        if (!db.open()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        //The time stamp of the trigger which activated each survey last
+        HashMap<String, Long> lastTrigTS = new HashMap<String, Long>();
+        for (Map.Entry<Integer, Set<String>> trig : active.entrySet()) {
+            long trigTS = getValidTimeStamp(
+                    NotifSurveyAdaptor.getTriggerTimeStamp(context, trig.getKey()), now);
+
+            for (String survey : surveys) {
+                //A null survey stands for the trigger as a whole
+                if (survey == null || trig.getValue().contains(survey)) {
+                    add(db, trig.getKey(), type, survey, now);
+
+                    if (survey != null) {
+                        db.addResponseOutcome(TriggerEventDB.SCOPE_TRIGGER,
+                                String.valueOf(trig.getKey()), type, getResponseTime(trigTS, now));
+
+                        Long last = lastTrigTS.get(survey);
+                        if (last == null || trigTS > last) {
+                            lastTrigTS.put(survey, trigTS);
+                        }
+                    }
+                }
+            }
+        }
+
+        //The survey has a single outcome however many triggers activated it
+        for (Map.Entry<String, Long> survey : lastTrigTS.entrySet()) {
+            db.addResponseOutcome(TriggerEventDB.SCOPE_SURVEY, survey.getKey(), type,
+                    getResponseTime(survey.getValue(), now));
+        }
+        db.close();
+
+        compactIfDue(context);
+    }
+
+    /*
+     * Record an event against all the triggers which have activated any
+     * survey at the moment, e.g. when the notification is snoozed
+     */
+    public static void recordForActiveTriggers(Context context, int type) {
+        recordForActiveTriggers(context, type, Collections.<String>singleton(null));
+    }
+
+    /*
+     * Count the surveys activated by a trigger which were neither taken
+     * nor ignored by the time it expired
+     */
+    public static void recordExpiredSurveys(Context context, int trigId,
+                                            Collection<String> surveys) {
+        if (surveys.isEmpty()) {
+            return;
+        }
+
+        TriggerEventDB db = new TriggerEventDB(context);
+        if (!db.open()) {
+            return;
+        }
+        for (String survey : surveys) {
+            addOutcome(db, trigId, survey, TriggerEventDB.TYPE_EXPIRED, -1);
+        }
+        db.close();
+    }
+
+    /*
+     * Get the response stats of a trigger
+     */
+    public static ResponseStats getTriggerResponseStats(Context context, int trigId) {
+        return getResponseStats(context, TriggerEventDB.SCOPE_TRIGGER, String.valueOf(trigId));
+    }
+
+    /*
+     * Get the response stats of a survey across all the triggers
+     */
+    public static ResponseStats getSurveyResponseStats(Context context, String survey) {
+        return getResponseStats(context, TriggerEventDB.SCOPE_SURVEY, survey);
+    }
+
+    private static ResponseStats getResponseStats(Context context, String scope, String name) {
+        TriggerEventDB db = new TriggerEventDB(context);
+        if (!db.open()) {
+            return new ResponseStats();
+        }
+        ResponseStats stats = db.getResponseStats(scope, name);
+        db.close();
+
+        return stats;
+    }
+
+    private static long getValidTimeStamp(long trigTS, long now) {
+        return trigTS > 0 && trigTS <= now ? trigTS : TriggerRunTimeDesc.INVALID_TIMESTAMP;
+    }
+
+    private static long getResponseTime(long trigTS, long now) {
+        return trigTS == TriggerRunTimeDesc.INVALID_TIMESTAMP ? -1 : now - trigTS;
+    }
+
+    private static void addOutcome(TriggerEventDB db, int trigId, String survey, int type,
+                                   long responseTimeMS) {
+        db.addResponseOutcome(TriggerEventDB.SCOPE_TRIGGER, String.valueOf(trigId), type,
+                responseTimeMS);
+        db.addResponseOutcome(TriggerEventDB.SCOPE_SURVEY, survey, type, responseTimeMS);
+    }
+
+    private static void add(TriggerEventDB db, int trigId, int type, String survey, long time) {
+        Log.v(TAG, "TriggerEventLog: " + TriggerEventDB.getTypeName(type) + " "
+                + trigId + (survey == null ? "" : " " + survey));
+
+        db.addEvent(trigId, type, time, survey);
+    }
+
+    private static synchronized void compactIfDue(Context context) {
+        SharedPreferences pref = context.getSharedPreferences(
+                TriggerEventLog.class.getName(), Context.MODE_PRIVATE);
+
+        long now = System.currentTimeMillis();
+        long last = pref.getLong(PREF_KEY_LAST_COMPACTION, 0);
+        if (last <= now && now - last < EventLogConfig.compactionInterval) {
+            return;
+        }
+
+        pref.edit().putLong(PREF_KEY_LAST_COMPACTION, now).commit();
+
+        final Context appContext = context.getApplicationContext();
+        TriggerEngine.post(appContext, new Runnable() {
+            @Override
+            public void run() {
+                compact(appContext);
+            }
+        });
+    }
+
+    /*
+     * Apply the retention policy to the event history
+     */
+    public static void compact(Context context) {
+        TriggerEventDB db = new TriggerEventDB(context);
+        if (!db.open()) {
+            return;
+        }
+
+        int expired = db.deleteEventsBefore(
+                System.currentTimeMillis() - EventLogConfig.retention);
+        int trimmed = db.trimEvents(EventLogConfig.maxEvents);
+        if (expired + trimmed > 0) {
+            db.compact();
+        }
+        db.close();
+
+        Log.v(TAG, "TriggerEventLog: Deleted " + expired + " expired and "
+                + trimmed + " excess events");
+    }
+}
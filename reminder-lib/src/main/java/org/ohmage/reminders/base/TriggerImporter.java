@@ -0,0 +1,136 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import org.ohmage.reminders.config.SyncConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/*
+ * Streaming import of the reminders of a campaign given by the server as
+ * a JSON array of the objects read by TriggerBase.TriggerDeserializer:
+ *
+ * [
+ *     {
+ *         "reminder_id": "...",
+ *         "type": "TimeTrigger",
+ *         "description": { ... },
+ *         "surveys": ["...", ...]
+ *     },
+ *     ...
+ * ]
+ *
+ * The reminders are read one at a time and synced in batches of
+ * importBatchSize with TriggerSync, so the memory held does not depend on
+ * the size of the payload. Only the description of the reminder being
+ * read is parsed into a tree, and given to the trigger of its type in the
+ * TriggerTypeMap.
+ */
+public class TriggerImporter {
+
+    private static final String TAG = "TriggerFramework";
+
+    private static final String KEY_REMINDER_ID = "reminder_id";
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_DESCRIPTION = "description";
+    private static final String KEY_SURVEYS = "surveys";
+
+    /*
+     * Sync the triggers of a campaign with the full set of its reminders
+     * read from a stream. The reminders of an unknown type or with an
+     * invalid description are skipped but their triggers are kept.
+     *
+     * The batches read before a failure to read the stream stay written,
+     * but no trigger is deleted unless the stream is read to its end.
+     */
+    public static TriggerSync.Result importTriggers(Context context, String campaignUrn,
+                                                    String campaignName, InputStream in)
+            throws IOException {
+
+        TriggerTypeMap trigMap = new TriggerTypeMap();
+        JsonParser parser = new JsonParser();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+
+        TriggerSync.Session session = new TriggerSync.Session(context, campaignUrn, campaignName,
+                SyncConfig.importBatchSize);
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readReminder(reader, parser, trigMap, session);
+            }
+            reader.endArray();
+
+            return session.finish();
+        } finally {
+            //The stream is left to the caller to close
+            session.close();
+        }
+    }
+
+    private static void readReminder(JsonReader reader, JsonParser parser,
+                                     TriggerTypeMap trigMap, TriggerSync.Session session)
+            throws IOException {
+
+        String uuid = null;
+        String trigType = null;
+        JsonElement description = null;
+        TriggerActionDesc actDesc = new TriggerActionDesc();
+
+        //The fields may come in any order, so the description is kept
+        //until the type is known
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(KEY_REMINDER_ID)) {
+                uuid = reader.nextString();
+            } else if (name.equals(KEY_TYPE)) {
+                trigType = reader.nextString();
+            } else if (name.equals(KEY_DESCRIPTION)) {
+                description = parser.parse(reader);
+            } else if (name.equals(KEY_SURVEYS)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    actDesc.addSurvey(reader.nextString());
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (uuid == null) {
+            Log.w(TAG, "TriggerImporter: Skipping reminder without id");
+            return;
+        }
+
+        TriggerBase trig = trigMap.getTrigger(trigType);
+        if (trig == null || description == null || !description.isJsonObject()) {
+            Log.w(TAG, "TriggerImporter: Skipping invalid reminder " + uuid);
+            session.keep(uuid);
+            return;
+        }
+
+        TrigDesc trigDesc;
+        try {
+            trigDesc = trig.parseDescription(description);
+        } catch (RuntimeException e) {
+            //The parsers also fail with the exceptions of the JSON tree
+            //on missing or mistyped fields
+            Log.w(TAG, "TriggerImporter: Skipping reminder " + uuid
+                    + " with invalid description", e);
+            session.keep(uuid);
+            return;
+        }
+
+        session.add(new TriggerSync.Item(uuid, trigType, trigDesc.toString(),
+                actDesc.toString()));
+    }
+}
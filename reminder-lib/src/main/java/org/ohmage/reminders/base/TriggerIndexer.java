@@ -0,0 +1,164 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import org.ohmage.reminders.config.TrigListConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/*
+ * Computes the display columns of the triggers, which are shown in the
+ * list of triggers and indexed for search, and keeps them in TriggerDB.
+ * The columns are computed in the current locale, with the names of the
+ * surveys as they were when the indexer was created.
+ *
+ * Parses the descriptions of the triggers, so must not be used on the
+ * main thread.
+ */
+public class TriggerIndexer {
+
+    private static final String TAG = "TriggerFramework";
+
+    /*
+     * The display columns of a trigger
+     */
+    public static class Display {
+        public String title;
+        public String summary;
+        public int surveyCount;
+        //Only indexed
+        public String surveyNames;
+        public String placeNames;
+    }
+
+    //A trigger read to be indexed
+    private static class Row {
+        int id;
+        String trigType;
+        String trigDesc;
+        String actDesc;
+    }
+
+    private final Context mContext;
+    private final TriggerDB mDb;
+    private final TriggerTypeMap mTrigMap = new TriggerTypeMap();
+    private final HashMap<String, String> mSurveyNames;
+    private final String mLocale = Locale.getDefault().toString();
+
+    public TriggerIndexer(Context context, TriggerDB db) {
+        mContext = context;
+        mDb = db;
+        mSurveyNames = db.getSurveyNames();
+    }
+
+    /*
+     * Get the locale in which the columns are computed
+     */
+    public String getLocale() {
+        return mLocale;
+    }
+
+    /*
+     * Compute the display columns of a trigger from its descriptions
+     */
+    public Display compute(String trigType, String trigDesc, String actDesc) {
+        Display display = new Display();
+
+        TriggerBase trig = mTrigMap.getTrigger(trigType);
+        if (trig != null) {
+            display.title = trig.getDisplayTitle(mContext, trigDesc);
+            display.summary = trig.getDisplaySummary(mContext, trigDesc);
+            display.placeNames = trig.getPlaceName(mContext, trigDesc);
+        }
+
+        TriggerActionDesc desc = new TriggerActionDesc();
+        desc.loadString(actDesc);
+        display.surveyCount = desc.getCount();
+
+        //The surveys the host did not name are indexed by id
+        StringBuilder names = new StringBuilder();
+        for (String survey : desc.getSurveys()) {
+            String name = mSurveyNames.get(survey);
+            if (names.length() > 0) {
+                names.append(' ');
+            }
+            names.append(name != null ? name : survey);
+        }
+        display.surveyNames = names.toString();
+
+        return display;
+    }
+
+    /*
+     * Keep the display columns of a trigger computed from the given
+     * descriptions. They are dropped if the trigger changed meanwhile.
+     */
+    public void put(int trigId, String trigType, String trigDesc, String actDesc,
+                    Display display) {
+        mDb.putDisplayColumns(trigId, trigType, trigDesc, actDesc, display.title,
+                display.summary, display.surveyCount, display.surveyNames, display.placeNames,
+                mLocale);
+    }
+
+    /*
+     * Index all the triggers of a campaign, or all the triggers if the
+     * campaign is null, which are not indexed in the current locale, in
+     * transactions of indexBatchSize triggers. Returns the number of
+     * triggers indexed.
+     */
+    public int indexAll(String campaignUrn) {
+        int count = 0;
+        int afterId = 0;
+
+        while (true) {
+            ArrayList<Row> rows = new ArrayList<Row>();
+
+            Cursor c = mDb.getUnindexedTriggers(campaignUrn, mLocale, afterId,
+                    TrigListConfig.indexBatchSize);
+            try {
+                while (c.moveToNext()) {
+                    Row row = new Row();
+                    row.id = c.getInt(c.getColumnIndexOrThrow(TriggerDB.KEY_ID));
+                    row.trigType = c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_TYPE));
+                    row.trigDesc = c.getString(c.getColumnIndexOrThrow(
+                            TriggerDB.KEY_TRIG_DESCRIPT));
+                    row.actDesc = c.getString(c.getColumnIndexOrThrow(
+                            TriggerDB.KEY_TRIG_ACTION_DESCRIPT));
+                    rows.add(row);
+                }
+            } finally {
+                c.close();
+            }
+
+            if (rows.isEmpty()) {
+                break;
+            }
+
+            mDb.beginTransaction();
+            try {
+                for (Row row : rows) {
+                    put(row.id, row.trigType, row.trigDesc, row.actDesc,
+                            compute(row.trigType, row.trigDesc, row.actDesc));
+                }
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+
+            count += rows.size();
+            afterId = rows.get(rows.size() - 1).id;
+            if (rows.size() < TrigListConfig.indexBatchSize) {
+                break;
+            }
+        }
+
+        if (count > 0) {
+            Log.v(TAG, "TriggerIndexer: Indexed " + count + " triggers");
+        }
+        return count;
+    }
+}
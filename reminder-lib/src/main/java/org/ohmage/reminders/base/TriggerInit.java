@@ -22,14 +22,24 @@ import android.util.Log;
 
 import com.google.gson.GsonBuilder;
 
+import org.ohmage.reminders.base.ReminderContract.Reminders;
 import org.ohmage.reminders.config.NotifConfig;
 import org.ohmage.reminders.notif.NotifDesc;
+import org.ohmage.reminders.notif.NotifSurveyAdaptor;
 import org.ohmage.reminders.notif.Notifier;
 import org.ohmage.reminders.types.location.LocTrigDesc;
 import org.ohmage.reminders.types.location.LocTrigMapsActivity;
 import org.ohmage.reminders.types.time.TimeTrigDesc;
 import org.ohmage.reminders.utils.TrigPrefManager;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
 /*
  * Boot listener. Starts all the active triggers. 
  * Also restores the pending notifications if any
@@ -47,6 +57,19 @@ public class TriggerInit {
         TriggerDB db = new TriggerDB(context);
         db.open();
 
+        TriggerDB.Campaign campaign = db.getCampaign(campaignUrn);
+        if (campaign != null && !campaign.enabled) {
+            Log.v(TAG, "TriggerInit: Campaign " + campaignUrn + " is disabled");
+
+            db.close();
+            return;
+        }
+
+        //The triggers to start, keyed by type, so that each type
+        //starts all of its triggers at once
+        HashMap<String, Map<Integer, String>> toStart =
+                new HashMap<String, Map<Integer, String>>();
+
         Cursor c = db.getAllTriggers(campaignUrn);
 
         if (c.moveToFirst()) {
@@ -69,6 +92,12 @@ public class TriggerInit {
                 String actDesc = c.getString(
                         c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_ACTION_DESCRIPT));
 
+                //The triggers of the disabled campaigns, when all the
+                //campaigns are initialized, stay stopped
+                if (c.getInt(c.getColumnIndexOrThrow(TriggerDB.KEY_CAMPAIGN_ENABLED)) == 0) {
+                    continue;
+                }
+
                 Log.v(TAG, "TriggerInit: Read from db: " + trigId +
                         ", " + trigDesc + ", " + actDesc);
 
@@ -82,7 +111,12 @@ public class TriggerInit {
                         Log.v(TAG, "TriggerInit: Starting trigger: " + trigId +
                                 ", " + trigDesc);
 
-                        trig.startTrigger(context, trigId, trigDesc);
+                        Map<Integer, String> trigs = toStart.get(trigType);
+                        if (trigs == null) {
+                            trigs = new LinkedHashMap<Integer, String>();
+                            toStart.put(trigType, trigs);
+                        }
+                        trigs.put(trigId, trigDesc);
                     }
 
                     //Restore the notification states for this trigger
@@ -101,6 +135,10 @@ public class TriggerInit {
         c.close();
         db.close();
 
+        for (Map.Entry<String, Map<Integer, String>> trigs : toStart.entrySet()) {
+            trigMap.getTrigger(trigs.getKey()).startTriggers(context, trigs.getValue());
+        }
+
         //Refresh the notification display
         Notifier.refreshNotification(context, true);
     }
@@ -113,43 +151,154 @@ public class TriggerInit {
     public static boolean resetTriggersAndSettings(Context context) {
         Log.v(TAG, "TriggerInit: Resetting all triggers");
 
-        TriggerTypeMap trigMap = new TriggerTypeMap();
+        deleteTriggers(context, null);
+        return true;
+    }
+
+    /*
+     * Stops and removes all the triggers of a campaign
+     */
+    public static boolean resetTriggersAndSettings(Context context, String campaignUrn) {
+        Log.v(TAG, "TriggerInit: Resetting the triggers of " + campaignUrn);
+
+        deleteTriggers(context, campaignUrn);
+        return true;
+    }
 
+    /*
+     * Stop and delete all the triggers of a campaign, or all the triggers
+     * if the campaign is null. Returns the number of triggers deleted.
+     *
+     * The triggers are stopped with one command per trigger type and
+     * deleted with a single statement. The pending state of their surveys
+     * is written once and the notification is refreshed once, so the cost
+     * barely grows with the number of triggers.
+     */
+    public static int deleteTriggers(Context context, String campaignUrn) {
         TriggerDB db = new TriggerDB(context);
         db.open();
 
-        Cursor c = db.getAllTriggers();
+        ArrayList<Integer> trigIds = campaignUrn == null
+                ? db.getAllTriggerIds()
+                : db.getCampaignTriggerIds(campaignUrn);
+        if (trigIds.isEmpty()) {
+            db.close();
+            return 0;
+        }
 
-        //Stop and delete all triggers
-        if (c.moveToFirst()) {
-            do {
-                int trigId = c.getInt(
-                        c.getColumnIndexOrThrow(TriggerDB.KEY_ID));
+        stopTriggers(context, db.loadAll(trigIds, TriggerRecord.TRIGGER_COLUMNS).values());
+        //Read before the delete, the surveys are no longer active after it
+        Set<String> surveys = getActiveSurveys(context, trigIds);
 
-                TriggerBase trig = trigMap.getTrigger(
-                        db.getTriggerType(trigId));
-                if (trig != null) {
-                    //delete the trigger
-                    trig.deleteTrigger(context, trigId);
-                }
-            } while (c.moveToNext());
+        int count = campaignUrn == null
+                ? db.deleteAllTriggers()
+                : db.deleteCampaignTriggers(campaignUrn);
+        db.close();
+
+        Log.v(TAG, "TriggerInit: Deleted " + count + " triggers of " + campaignUrn);
+
+        //Only the surveys which no other trigger keeps active stop being pending
+        TriggerBase.updatePendingStateForSurveys(context, Reminders.NOT_PENDING, surveys);
+        Notifier.removeTriggerNotifications(context, trigIds);
+        return count;
+    }
+
+    /*
+     * Enable or disable all the triggers of a campaign. A disabled
+     * campaign keeps its triggers but they are stopped and none of their
+     * surveys is active until the campaign is enabled again, also across
+     * restarts. Returns false if the campaign has no triggers.
+     */
+    public static boolean setCampaignEnabled(Context context, String campaignUrn,
+                                             boolean enabled) {
+        Log.v(TAG, "TriggerInit: setCampaignEnabled(" + campaignUrn + ", " + enabled + ")");
+
+        TriggerDB db = new TriggerDB(context);
+        db.open();
+
+        TriggerDB.Campaign campaign = db.getCampaign(campaignUrn);
+        if (campaign == null) {
+            db.close();
+            return false;
         }
 
-        c.close();
-        db.close();
+        if (campaign.enabled == enabled) {
+            db.close();
+            return true;
+        }
 
-        //Refresh the notification display
-        Notifier.refreshNotification(context, true);
+        if (enabled) {
+            db.setCampaignEnabled(campaignUrn, true);
+            db.close();
+
+            //Start the triggers and restore their notifications
+            initTriggers(context, campaignUrn, campaign.name);
+            return true;
+        }
+
+        ArrayList<Integer> trigIds = db.getCampaignTriggerIds(campaignUrn);
+        stopTriggers(context, db.loadAll(trigIds, TriggerRecord.TRIGGER_COLUMNS).values());
+        //Read before the campaign is disabled, which hides the surveys
+        Set<String> surveys = getActiveSurveys(context, trigIds);
 
+        db.setCampaignEnabled(campaignUrn, false);
+        db.close();
+
+        TriggerBase.updatePendingStateForSurveys(context, Reminders.NOT_PENDING, surveys);
+        Notifier.removeTriggerNotifications(context, trigIds);
         return true;
     }
 
+    /*
+     * Stop triggers with a command per batch of triggers of each type
+     */
+    static void stopTriggers(Context context, Collection<TriggerRecord> trigs) {
+        TriggerTypeMap trigMap = new TriggerTypeMap();
+
+        HashMap<String, Map<Integer, String>> byType =
+                new HashMap<String, Map<Integer, String>>();
+        for (TriggerRecord trig : trigs) {
+            if (trigMap.getTrigger(trig.trigType) == null) {
+                continue;
+            }
+
+            Map<Integer, String> trigDescs = byType.get(trig.trigType);
+            if (trigDescs == null) {
+                trigDescs = new LinkedHashMap<Integer, String>();
+                byType.put(trig.trigType, trigDescs);
+            }
+            trigDescs.put(trig.id, trig.trigDesc);
+        }
+
+        for (Map.Entry<String, Map<Integer, String>> trigDescs : byType.entrySet()) {
+            trigMap.getTrigger(trigDescs.getKey()).stopTriggers(context, trigDescs.getValue());
+        }
+    }
+
+    /*
+     * Get the surveys which are active because of any of the given triggers
+     */
+    private static Set<String> getActiveSurveys(Context context, Collection<Integer> trigIds) {
+        HashSet<String> surveys = new HashSet<String>();
+
+        Map<Integer, Set<String>> active = NotifSurveyAdaptor.getActiveSurveysByTrigger(context);
+        for (int trigId : trigIds) {
+            Set<String> trigSurveys = active.get(trigId);
+            if (trigSurveys != null) {
+                surveys.addAll(trigSurveys);
+            }
+        }
+        return surveys;
+    }
+
     public static boolean resetAllTriggersAndSettings(Context context) {
         Log.v(TAG, "TriggerInit: Resetting all triggers");
 
         resetTriggersAndSettings(context);
 
         TrigPrefManager.clearPreferenceFiles(context);
+        TriggerEventDB.deleteDatabase(context);
+        ExpiredTriggerLog.clear(context);
 
         TriggerTypeMap trigMap = new TriggerTypeMap();
 
@@ -169,6 +318,11 @@ public class TriggerInit {
 
         NotifDesc.setGlobalDesc(context, NotifConfig.defaultConfig);
 
+        TriggerDB db = new TriggerDB(context);
+        db.open();
+        db.updateAllNotificationDescriptions(NotifConfig.defaultConfig);
+        db.close();
+
         return true;
     }
 
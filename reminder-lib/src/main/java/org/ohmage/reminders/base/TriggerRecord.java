@@ -0,0 +1,82 @@
+package org.ohmage.reminders.base;
+
+import android.database.Cursor;
+
+/*
+ * Immutable copy of a row of the triggers table, read with
+ * TriggerDB.load() so that the columns a caller needs are fetched with a
+ * single query instead of one query per column.
+ *
+ * A record loaded with a projection only holds the columns of the
+ * projection, the others are null. The id is always loaded.
+ */
+public class TriggerRecord {
+
+    /* Projections for the callers which only need some of the columns */
+    public static final String[] ALL_COLUMNS = {
+            TriggerDB.KEY_ID, TriggerDB.KEY_UUID, TriggerDB.KEY_CAMPAIGN_URN,
+            TriggerDB.KEY_CAMPAIGN_NAME, TriggerDB.KEY_TRIG_TYPE, TriggerDB.KEY_TRIG_DESCRIPT,
+            TriggerDB.KEY_TRIG_ACTION_DESCRIPT, TriggerDB.KEY_NOTIF_DESCRIPT,
+            TriggerDB.KEY_RUNTIME_DESCRIPT};
+    //What is needed to match the triggers against the current
+    //location or time, e.g. by the location service
+    public static final String[] DESC_COLUMNS = {
+            TriggerDB.KEY_ID, TriggerDB.KEY_TRIG_DESCRIPT};
+    //What is needed to start, stop or restart a trigger
+    public static final String[] TRIGGER_COLUMNS = {
+            TriggerDB.KEY_ID, TriggerDB.KEY_TRIG_TYPE, TriggerDB.KEY_TRIG_DESCRIPT,
+            TriggerDB.KEY_TRIG_ACTION_DESCRIPT};
+    //What is needed to notify the user when a trigger goes off
+    public static final String[] NOTIFY_COLUMNS = {
+            TriggerDB.KEY_ID, TriggerDB.KEY_NOTIF_DESCRIPT, TriggerDB.KEY_RUNTIME_DESCRIPT};
+
+    public final int id;
+    public final String uuid;
+    public final String campaignUrn;
+    public final String campaignName;
+    public final String trigType;
+    public final String trigDesc;
+    public final String actDesc;
+    public final String notifDesc;
+    public final String runTimeDesc;
+
+    public TriggerRecord(int id, String uuid, String campaignUrn, String campaignName,
+                         String trigType, String trigDesc, String actDesc,
+                         String notifDesc, String runTimeDesc) {
+        this.id = id;
+        this.uuid = uuid;
+        this.campaignUrn = campaignUrn;
+        this.campaignName = campaignName;
+        this.trigType = trigType;
+        this.trigDesc = trigDesc;
+        this.actDesc = actDesc;
+        this.notifDesc = notifDesc;
+        this.runTimeDesc = runTimeDesc;
+    }
+
+    /*
+     * Read the record at the current position of a cursor over the
+     * triggers table. The columns missing from the cursor are left null.
+     */
+    public static TriggerRecord fromCursor(Cursor c) {
+        return new TriggerRecord(c.getInt(c.getColumnIndexOrThrow(TriggerDB.KEY_ID)),
+                getString(c, TriggerDB.KEY_UUID),
+                getString(c, TriggerDB.KEY_CAMPAIGN_URN),
+                getString(c, TriggerDB.KEY_CAMPAIGN_NAME),
+                getString(c, TriggerDB.KEY_TRIG_TYPE),
+                getString(c, TriggerDB.KEY_TRIG_DESCRIPT),
+                getString(c, TriggerDB.KEY_TRIG_ACTION_DESCRIPT),
+                getString(c, TriggerDB.KEY_NOTIF_DESCRIPT),
+                getString(c, TriggerDB.KEY_RUNTIME_DESCRIPT));
+    }
+
+    private static String getString(Cursor c, String column) {
+        int index = c.getColumnIndex(column);
+        return index == -1 ? null : c.getString(index);
+    }
+
+    @Override
+    public String toString() {
+        return "TriggerRecord(" + id + ", " + trigType + ", " + campaignUrn + ")";
+    }
+}
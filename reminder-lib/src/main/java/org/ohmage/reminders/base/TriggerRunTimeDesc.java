@@ -19,6 +19,7 @@ import android.location.Location;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.ohmage.reminders.core.Metrics;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -87,6 +88,7 @@ public class TriggerRunTimeDesc {
     public boolean loadString(String desc) {
 
         initialize();
+        Metrics.increment(Metrics.DESC_PARSE_RUNTIME);
 
         if (desc == null) {
             return false;
@@ -0,0 +1,171 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import org.ohmage.reminders.core.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Full text search of the triggers over their title and summary, the
+ * name of their campaign, the names of their surveys and the name of
+ * their place, indexed by TriggerDB in an FTS3 table.
+ *
+ * The index is kept up to date lazily: a change of a trigger, or a rename
+ * of its campaign or of one of its surveys, drops the indexed row of the
+ * trigger, and the triggers which have no row are indexed by a
+ * TriggerIndexer before each search. So the first search after an
+ * upgrade or a bulk change indexes all the triggers once, and the next
+ * ones only the triggers changed since.
+ *
+ * The text searched is split into words, each of which must prefix a word
+ * of one of the indexed columns, e.g. "mood home" finds the triggers of
+ * the survey "Mood" at the place "Home".
+ */
+public class TriggerSearch {
+
+    private static final String TAG = "TriggerFramework";
+
+    //The separators of the words of the default tokenizer of FTS3, which
+    //treats all the characters outside of ASCII as part of words
+    private static final String SEPARATORS = "[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F]+";
+
+    /*
+     * A trigger found by a search
+     */
+    public static class Match {
+        public final int trigId;
+        public final String reminderId;
+        public final String campaignUrn;
+        public final String trigType;
+        public final String title;
+        public final String summary;
+
+        Match(Cursor c) {
+            trigId = c.getInt(c.getColumnIndexOrThrow(TriggerDB.KEY_ID));
+            reminderId = c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_UUID));
+            campaignUrn = c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_CAMPAIGN_URN));
+            trigType = c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_TYPE));
+            title = c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_DISPLAY_TITLE));
+            summary = c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_DISPLAY_SUMMARY));
+        }
+    }
+
+    /*
+     * Find up to limit of the triggers of a campaign, or of all the
+     * campaigns if it is null, which match a text, in the order of their
+     * ids. Nothing is found for a text without words.
+     *
+     * Reads and may write the db, so must not be called on the main
+     * thread.
+     */
+    public static List<Match> search(Context context, String campaignUrn, String text,
+                                     int limit) {
+        ArrayList<Match> matches = new ArrayList<Match>();
+
+        String match = toMatchQuery(text);
+        if (match == null) {
+            return matches;
+        }
+
+        TriggerDB db = new TriggerDB(context);
+        db.open();
+        try {
+            long start = System.currentTimeMillis();
+            new TriggerIndexer(context, db).indexAll(campaignUrn);
+            Metrics.record(Metrics.SEARCH_INDEX, System.currentTimeMillis() - start);
+
+            start = System.currentTimeMillis();
+            Cursor c = db.getTriggerListPage(campaignUrn, match, 0, limit);
+            try {
+                while (c.moveToNext()) {
+                    matches.add(new Match(c));
+                }
+            } finally {
+                c.close();
+            }
+            Metrics.record(Metrics.SEARCH_QUERY, System.currentTimeMillis() - start);
+        } finally {
+            db.close();
+        }
+
+        return matches;
+    }
+
+    /*
+     * Turn a text typed by the user into an FTS3 query which matches the
+     * rows with words prefixed by each of its words, or null if it has no
+     * words
+     */
+    public static String toMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        StringBuilder match = new StringBuilder();
+        for (String word : text.split(SEPARATORS)) {
+            if (word.length() == 0) {
+                continue;
+            }
+
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            //The tokenizer folds ASCII to lower case, while the operators
+            //of the queries are upper case
+            match.append(toLowerAscii(word)).append('*');
+        }
+
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    private static String toLowerAscii(String word) {
+        char[] chars = word.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    /*
+     * Read the names of all the surveys from the reminders provider of the
+     * host, and keep those which changed for the search. Returns the
+     * number of names changed.
+     */
+    public static int updateSurveyNames(Context context) {
+        Actions actions = new Actions(context, null);
+
+        HashMap<String, String> names = new HashMap<String, String>();
+        String[] ids = actions.getIds();
+        String[] actionNames = actions.getNames();
+        for (int i = 0; i < ids.length; i++) {
+            names.put(ids[i], actionNames[i]);
+        }
+
+        return updateSurveyNames(context, names);
+    }
+
+    /*
+     * Keep the names of some surveys, keyed by survey id, for the search.
+     * The triggers of the surveys renamed are indexed again by the next
+     * search. Returns the number of names changed.
+     */
+    public static int updateSurveyNames(Context context, Map<String, String> names) {
+        TriggerDB db = new TriggerDB(context);
+        db.open();
+        int count = db.updateSurveyNames(names);
+        db.close();
+
+        if (count > 0) {
+            Log.v(TAG, "TriggerSearch: Updated the names of " + count + " surveys");
+        }
+        return count;
+    }
+}
@@ -0,0 +1,327 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.ohmage.reminders.base.ReminderContract.Reminders;
+import org.ohmage.reminders.core.Metrics;
+import org.ohmage.reminders.notif.NotifDesc;
+import org.ohmage.reminders.notif.NotifSurveyAdaptor;
+import org.ohmage.reminders.notif.Notifier;
+import org.ohmage.reminders.types.location.LocTrigDB;
+import org.ohmage.reminders.types.location.LocTrigMapsActivity;
+import org.ohmage.reminders.types.location.LocTrigService;
+import org.ohmage.reminders.utils.TrigPrefManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Snapshot of the whole state of the framework, to move it to another
+ * device or back it up: the triggers, campaigns and notification profiles
+ * of TriggerDB, the places and locations of LocTrigDB, and the preferences
+ * which hold the taken and ignored times of the surveys and the global
+ * notification settings. The snapshot is a gzipped JSON object:
+ *
+ * {
+ *     "version": 1,
+ *     "trigger_db": { "campaigns": { ... }, "notif_profiles": { ... }, "triggers": { ... } },
+ *     "loc_trig_db": { "categories": { ... }, "locations": { ... } },
+ *     "preferences": { "<file>": { "<key>": ["<type>", <value>], ... }, ... }
+ * }
+ *
+ * with the tables written by DBSnapshot. The snapshot is written and read
+ * one row at a time, so its size does not bound the memory needed.
+ *
+ * A restore replaces the state in bulk instead of adding the triggers one
+ * at a time: the triggers are stopped with a command per batch, each
+ * database is replaced in a single transaction, and all the triggers are
+ * started and their notifications restored in one pass at the end.
+ *
+ * The change log, the event log and the log of the expired triggers are
+ * local to the device and are not part of the snapshot.
+ */
+public class TriggerSnapshot {
+
+    private static final String TAG = "TriggerFramework";
+
+    private static final String CHARSET = "UTF-8";
+    private static final int BUFFER_SIZE = 8192;
+
+    //Version of the format, which a restore reads up to
+    private static final int VERSION = 1;
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_TRIGGER_DB = "trigger_db";
+    private static final String KEY_LOC_TRIG_DB = "loc_trig_db";
+    private static final String KEY_PREFERENCES = "preferences";
+
+    /* Types of the values of the preferences */
+    private static final String TYPE_STRING = "s";
+    private static final String TYPE_BOOLEAN = "b";
+    private static final String TYPE_INT = "i";
+    private static final String TYPE_LONG = "l";
+    private static final String TYPE_FLOAT = "f";
+    private static final String TYPE_STRING_SET = "ss";
+
+    //The preference files of the framework. Only these are restored.
+    private static final List<String> PREFERENCE_FILES = Arrays.asList(
+            NotifSurveyAdaptor.class.getName(),
+            Notifier.class.getName(),
+            NotifDesc.PREF_FILE_NAME,
+            LocTrigMapsActivity.TOOL_TIP_PREF_NAME);
+
+    /*
+     * Write a snapshot to a stream. The stream is left to the caller to
+     * close.
+     */
+    public static void export(Context context, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+
+        GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(gzip, CHARSET));
+
+        writer.beginObject();
+        writer.name(KEY_VERSION).value(VERSION);
+
+        writer.name(KEY_TRIGGER_DB);
+        TriggerDB db = new TriggerDB(context);
+        db.open();
+        try {
+            db.writeSnapshot(writer);
+        } finally {
+            db.close();
+        }
+
+        writer.name(KEY_LOC_TRIG_DB);
+        LocTrigDB locDb = new LocTrigDB(context);
+        locDb.open();
+        try {
+            locDb.writeSnapshot(writer);
+        } finally {
+            locDb.close();
+        }
+
+        writer.name(KEY_PREFERENCES);
+        writePreferences(context, writer);
+
+        writer.endObject();
+        writer.flush();
+        gzip.finish();
+
+        long time = System.currentTimeMillis() - start;
+        Metrics.record(Metrics.SNAPSHOT_EXPORT, time);
+        Log.v(TAG, "TriggerSnapshot: Exported in " + time + "ms");
+    }
+
+    /*
+     * Replace the state with a snapshot read from a stream. Returns the
+     * number of triggers restored. The stream is left to the caller to
+     * close.
+     *
+     * If the snapshot cannot be read, the databases which were not read
+     * in full are left as they were, and the triggers are started again
+     * from whatever state the restore left.
+     */
+    public static int restore(Context context, InputStream in) throws IOException {
+        long start = System.currentTimeMillis();
+
+        TriggerDB db = new TriggerDB(context);
+        db.open();
+        ArrayList<Integer> trigIds = db.getAllTriggerIds();
+        TriggerInit.stopTriggers(context, db.loadAll(trigIds,
+                TriggerRecord.TRIGGER_COLUMNS).values());
+        db.close();
+
+        //Read before the restore, which replaces the triggers
+        HashSet<String> surveys = new HashSet<String>();
+        for (Set<String> trigSurveys :
+                NotifSurveyAdaptor.getActiveSurveysByTrigger(context).values()) {
+            surveys.addAll(trigSurveys);
+        }
+
+        int count;
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(
+                    new GZIPInputStream(in, BUFFER_SIZE), CHARSET));
+            count = read(context, reader);
+        } finally {
+            //Only the surveys which no restored trigger keeps active stop
+            //being pending
+            TriggerBase.updatePendingStateForSurveys(context, Reminders.NOT_PENDING, surveys);
+            Notifier.removeTriggerNotifications(context, trigIds);
+
+            Intent i = new Intent(context, LocTrigService.class);
+            i.setAction(LocTrigService.ACTION_UPDATE_LOCATIONS);
+            context.startService(i);
+
+            //Start all the triggers and restore their notifications at once
+            TriggerInit.initTriggers(context, null, null);
+        }
+
+        long time = System.currentTimeMillis() - start;
+        Metrics.record(Metrics.SNAPSHOT_RESTORE, time);
+        Log.v(TAG, "TriggerSnapshot: Restored " + count + " triggers in " + time + "ms");
+        return count;
+    }
+
+    private static int read(Context context, JsonReader reader) throws IOException {
+        int count = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(KEY_VERSION)) {
+                int version = reader.nextInt();
+                if (version > VERSION) {
+                    throw new IOException("Unsupported snapshot version " + version);
+                }
+            } else if (name.equals(KEY_TRIGGER_DB)) {
+                TriggerDB db = new TriggerDB(context);
+                db.open();
+                try {
+                    count = db.readSnapshot(reader);
+                } finally {
+                    db.close();
+                }
+            } else if (name.equals(KEY_LOC_TRIG_DB)) {
+                LocTrigDB db = new LocTrigDB(context);
+                db.open();
+                try {
+                    db.readSnapshot(reader);
+                } finally {
+                    db.close();
+                }
+            } else if (name.equals(KEY_PREFERENCES)) {
+                readPreferences(context, reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return count;
+    }
+
+    private static void writePreferences(Context context, JsonWriter writer) throws IOException {
+        writer.beginObject();
+        for (String file : PREFERENCE_FILES) {
+            SharedPreferences pref = context.getSharedPreferences(file, Context.MODE_PRIVATE);
+
+            writer.name(file);
+            writer.beginObject();
+            for (Map.Entry<String, ?> entry : pref.getAll().entrySet()) {
+                writePreference(writer, entry.getKey(), entry.getValue());
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+    }
+
+    private static void writePreference(JsonWriter writer, String key, Object value)
+            throws IOException {
+        writer.name(key);
+        writer.beginArray();
+        if (value instanceof Boolean) {
+            writer.value(TYPE_BOOLEAN).value(((Boolean) value).booleanValue());
+        } else if (value instanceof Integer) {
+            writer.value(TYPE_INT).value(((Integer) value).longValue());
+        } else if (value instanceof Long) {
+            writer.value(TYPE_LONG).value(((Long) value).longValue());
+        } else if (value instanceof Float) {
+            writer.value(TYPE_FLOAT).value(((Float) value).doubleValue());
+        } else if (value instanceof Set) {
+            writer.value(TYPE_STRING_SET);
+            writer.beginArray();
+            for (Object item : (Set<?>) value) {
+                writer.value(String.valueOf(item));
+            }
+            writer.endArray();
+        } else {
+            writer.value(TYPE_STRING).value(String.valueOf(value));
+        }
+        writer.endArray();
+    }
+
+    private static void readPreferences(Context context, JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String file = reader.nextName();
+            if (!PREFERENCE_FILES.contains(file)) {
+                Log.w(TAG, "TriggerSnapshot: Skipping unknown preferences " + file);
+                reader.skipValue();
+                continue;
+            }
+
+            SharedPreferences.Editor editor = context.getSharedPreferences(
+                    file, Context.MODE_PRIVATE).edit();
+            editor.clear();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                readPreference(reader, editor, reader.nextName());
+            }
+            reader.endObject();
+
+            editor.commit();
+        }
+        reader.endObject();
+
+        TrigPrefManager.registerPreferenceFile(context, NotifSurveyAdaptor.class.getName());
+    }
+
+    private static void readPreference(JsonReader reader, SharedPreferences.Editor editor,
+                                       String key) throws IOException {
+        reader.beginArray();
+        String type = reader.nextString();
+        if (type.equals(TYPE_STRING)) {
+            editor.putString(key, reader.nextString());
+        } else if (type.equals(TYPE_BOOLEAN)) {
+            editor.putBoolean(key, reader.nextBoolean());
+        } else if (type.equals(TYPE_INT)) {
+            editor.putInt(key, reader.nextInt());
+        } else if (type.equals(TYPE_LONG)) {
+            editor.putLong(key, reader.nextLong());
+        } else if (type.equals(TYPE_FLOAT)) {
+            editor.putFloat(key, (float) reader.nextDouble());
+        } else if (type.equals(TYPE_STRING_SET)) {
+            HashSet<String> values = new HashSet<String>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                values.add(reader.nextString());
+            }
+            reader.endArray();
+
+            //The framework itself stores no sets, older platforms drop them
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                editor.putStringSet(key, values);
+            }
+        } else {
+            Log.w(TAG, "TriggerSnapshot: Skipping preference " + key + " of type " + type);
+            reader.skipValue();
+        }
+
+        //Ignore anything after the value
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+    }
+}
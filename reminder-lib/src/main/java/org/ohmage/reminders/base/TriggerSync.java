@@ -0,0 +1,364 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.ohmage.reminders.base.ReminderContract.Reminders;
+import org.ohmage.reminders.notif.NotifSurveyAdaptor;
+import org.ohmage.reminders.notif.Notifier;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Sync of the triggers of a campaign with the set of reminders given by
+ * the server, e.g. parsed with TriggerBase.TriggerDeserializer or read
+ * by TriggerImporter.
+ *
+ * The reminders are matched with the triggers by uuid, and their content
+ * with the hash of the content of each trigger as of the last sync, so
+ * the triggers which did not change on the server are neither written
+ * nor restarted. The new reminders are added, the changed ones updated
+ * and the synced triggers which are no longer on the server deleted.
+ * Only the triggers whose type or description changed, or which were
+ * turned on or off, are restarted.
+ *
+ * The triggers created on the device have no hash and are kept.
+ */
+public class TriggerSync {
+
+    private static final String TAG = "TriggerFramework";
+
+    /* The changes applied by a sync */
+    public static class Result {
+        public int inserted = 0;
+        public int updated = 0;
+        public int deleted = 0;
+        public int unchanged = 0;
+
+        @Override
+        public String toString() {
+            return "inserted " + inserted + ", updated " + updated + ", deleted " + deleted
+                    + ", unchanged " + unchanged;
+        }
+    }
+
+    /* A reminder to sync, with its descriptions serialized */
+    static class Item {
+        final String uuid;
+        final String trigType;
+        final String trigDesc;
+        final String actDesc;
+
+        Item(String uuid, String trigType, String trigDesc, String actDesc) {
+            this.uuid = uuid;
+            this.trigType = trigType;
+            this.trigDesc = trigDesc;
+            this.actDesc = actDesc;
+        }
+    }
+
+    /*
+     * Sync the triggers of a campaign with the full set of reminders of
+     * the campaign on the server, in one transaction. The reminders
+     * without an id are skipped.
+     */
+    public static Result sync(Context context, String campaignUrn, String campaignName,
+                              Collection<TriggerBase> reminders) {
+
+        //A single batch, so that all the changes are one transaction
+        Session session = new Session(context, campaignUrn, campaignName, Integer.MAX_VALUE);
+        try {
+            for (TriggerBase reminder : reminders) {
+                if (reminder.reminderId == null) {
+                    Log.w(TAG, "TriggerSync: Skipping reminder without id");
+                    continue;
+                }
+
+                session.add(new Item(reminder.reminderId, reminder.getTriggerType(),
+                        reminder.trigDesc.toString(), reminder.actDesc.toString()));
+            }
+            return session.finish();
+        } finally {
+            session.close();
+        }
+    }
+
+    /*
+     * Hash of the content of a reminder which is synced: its type, its
+     * description and its surveys
+     */
+    public static String getContentHash(TriggerBase reminder) {
+        return getContentHash(reminder.getTriggerType(), reminder.trigDesc.toString(),
+                reminder.actDesc.toString());
+    }
+
+    static String getContentHash(String trigType, String trigDesc, String actDesc) {
+        String content = trigType + "\n" + trigDesc + "\n" + actDesc;
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(content.getBytes("UTF-8"));
+
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * A sync in progress. The reminders are added one at a time and
+     * written in batches, each batch in a transaction followed by the
+     * commands which restart its changed triggers, so that only a batch
+     * of reminders is held at a time. The deletes are written with the
+     * last batch by finish(), so a sync which is not finished never
+     * deletes anything.
+     *
+     * The session holds the db open until it is closed.
+     */
+    static class Session {
+        private final Context mContext;
+        private final String mCampaignUrn;
+        private final String mCampaignName;
+        private final int mBatchSize;
+        private final TriggerDB mDb;
+        private final boolean mEnabled;
+
+        //The id and hash of the triggers of the campaign keyed by uuid,
+        //kept up to date as the batches are written
+        private final Map<String, TriggerDB.SyncState> mLocal;
+        //The uuids of the reminders added so far
+        private final HashSet<String> mSeen = new HashSet<String>();
+        //The surveys active at the start keyed by trigger, and those of
+        //the triggers changed or deleted since
+        private final Map<Integer, Set<String>> mActive;
+        private final HashSet<String> mSurveys = new HashSet<String>();
+        private final ArrayList<Integer> mDeleted = new ArrayList<Integer>();
+
+        private final ArrayList<Item> mBatch = new ArrayList<Item>();
+        private final Result mResult = new Result();
+
+        Session(Context context, String campaignUrn, String campaignName, int batchSize) {
+            mContext = context;
+            mCampaignUrn = campaignUrn;
+            mCampaignName = campaignName;
+            mBatchSize = batchSize;
+
+            mDb = new TriggerDB(context);
+            mDb.open();
+
+            //Add the campaign before any transaction so that the cache of
+            //the campaigns never refers to a row which was rolled back
+            mEnabled = mDb.addCampaign(campaignUrn, campaignName).enabled;
+            mLocal = mDb.getSyncStates(campaignUrn);
+            mActive = NotifSurveyAdaptor.getActiveSurveysByTrigger(context);
+        }
+
+        /*
+         * Add a reminder of the server
+         */
+        void add(Item item) {
+            mSeen.add(item.uuid);
+            mBatch.add(item);
+
+            if (mBatch.size() >= mBatchSize) {
+                flush(false);
+            }
+        }
+
+        /*
+         * Keep the trigger of a reminder which is on the server but could
+         * not be read, instead of deleting it as no longer on the server
+         */
+        void keep(String uuid) {
+            mSeen.add(uuid);
+        }
+
+        /*
+         * Write the last batch and delete the synced triggers whose
+         * reminders were not added
+         */
+        Result finish() {
+            flush(true);
+
+            Log.v(TAG, "TriggerSync: Synced " + mCampaignUrn + ": " + mResult);
+            return mResult;
+        }
+
+        /*
+         * Close the db, and update the pending state and the notification
+         * once for all the batches written
+         */
+        void close() {
+            mDb.close();
+
+            if (mResult.inserted + mResult.updated + mResult.deleted == 0) {
+                return;
+            }
+
+            //Only the surveys which no trigger keeps active stop being pending
+            TriggerBase.updatePendingStateForSurveys(mContext, Reminders.NOT_PENDING, mSurveys);
+            Notifier.removeTriggerNotifications(mContext, mDeleted);
+        }
+
+        private void flush(boolean last) {
+            ArrayList<Integer> deletes = new ArrayList<Integer>();
+            if (last) {
+                for (Map.Entry<String, TriggerDB.SyncState> state : mLocal.entrySet()) {
+                    if (state.getValue().hash != null && !mSeen.contains(state.getKey())) {
+                        deletes.add(state.getValue().id);
+                    }
+                }
+            }
+
+            //The triggers as they were, to stop them
+            ArrayList<Integer> existing = new ArrayList<Integer>(deletes);
+            for (Item item : mBatch) {
+                TriggerDB.SyncState state = mLocal.get(item.uuid);
+                if (state != null) {
+                    existing.add(state.id);
+                }
+            }
+            Map<Integer, TriggerRecord> before =
+                    mDb.loadAll(existing, TriggerRecord.TRIGGER_COLUMNS);
+
+            //Triggers to stop and to start, keyed by type
+            HashMap<String, Map<Integer, String>> toStop =
+                    new HashMap<String, Map<Integer, String>>();
+            HashMap<String, Map<Integer, String>> toStart =
+                    new HashMap<String, Map<Integer, String>>();
+
+            mDb.beginTransaction();
+            try {
+                for (Item item : mBatch) {
+                    write(item, before, toStop, toStart);
+                }
+
+                for (int trigId : deletes) {
+                    TriggerRecord old = before.get(trigId);
+                    if (old != null) {
+                        put(toStop, old.trigType, trigId, old.trigDesc);
+                    }
+                    addSurveys(trigId);
+                }
+                mResult.deleted += mDb.deleteSyncedTriggers(deletes);
+                mDeleted.addAll(deletes);
+
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+            mBatch.clear();
+
+            //The stops are sent first so that a trigger which is rescheduled
+            //is stopped with its old description before it is started again
+            TriggerTypeMap trigMap = new TriggerTypeMap();
+            for (Map.Entry<String, Map<Integer, String>> trigs : toStop.entrySet()) {
+                TriggerBase trig = trigMap.getTrigger(trigs.getKey());
+                if (trig != null) {
+                    trig.stopTriggers(mContext, trigs.getValue());
+                }
+            }
+            for (Map.Entry<String, Map<Integer, String>> trigs : toStart.entrySet()) {
+                TriggerBase trig = trigMap.getTrigger(trigs.getKey());
+                if (trig != null) {
+                    trig.startTriggers(mContext, trigs.getValue());
+                }
+            }
+        }
+
+        private void write(Item item, Map<Integer, TriggerRecord> before,
+                           Map<String, Map<Integer, String>> toStop,
+                           Map<String, Map<Integer, String>> toStart) {
+            String hash = getContentHash(item.trigType, item.trigDesc, item.actDesc);
+            TriggerDB.SyncState state = mLocal.get(item.uuid);
+
+            if (state == null) {
+                long trigId = mDb.addTrigger(item.uuid, mCampaignUrn, mCampaignName,
+                        item.trigType, item.trigDesc, item.actDesc, null,
+                        TriggerRunTimeDesc.getDefaultDesc(), hash);
+                if (trigId == -1) {
+                    //The uuid is taken by a trigger of another campaign
+                    Log.w(TAG, "TriggerSync: Failed to add reminder " + item.uuid);
+                    return;
+                }
+
+                if (mEnabled && hasSurveys(item.actDesc)) {
+                    put(toStart, item.trigType, (int) trigId, item.trigDesc);
+                }
+                remember(item, (int) trigId, hash, before);
+                mResult.inserted++;
+                return;
+            }
+
+            TriggerRecord old = before.get(state.id);
+            if (hash.equals(state.hash) || old == null) {
+                mResult.unchanged++;
+                return;
+            }
+
+            mDb.updateSyncedTrigger(state.id, item.trigType, item.trigDesc, item.actDesc, hash);
+
+            boolean wasActive = mEnabled && hasSurveys(old.actDesc);
+            boolean isActive = mEnabled && hasSurveys(item.actDesc);
+            boolean rescheduled = !item.trigType.equals(old.trigType)
+                    || !item.trigDesc.equals(old.trigDesc);
+
+            //A change of the surveys alone does not touch the alarms
+            if (wasActive && (!isActive || rescheduled)) {
+                put(toStop, old.trigType, state.id, old.trigDesc);
+            }
+            if (isActive && (!wasActive || rescheduled)) {
+                put(toStart, item.trigType, state.id, item.trigDesc);
+            }
+            addSurveys(state.id);
+            remember(item, state.id, hash, before);
+            mResult.updated++;
+        }
+
+        //Record what was written, for a reminder which appears again
+        private void remember(Item item, int trigId, String hash,
+                              Map<Integer, TriggerRecord> before) {
+            mLocal.put(item.uuid, new TriggerDB.SyncState(trigId, hash));
+            before.put(trigId, new TriggerRecord(trigId, item.uuid, mCampaignUrn, mCampaignName,
+                    item.trigType, item.trigDesc, item.actDesc, null, null));
+        }
+
+        private void addSurveys(int trigId) {
+            Set<String> surveys = mActive.get(trigId);
+            if (surveys != null) {
+                mSurveys.addAll(surveys);
+            }
+        }
+    }
+
+    private static boolean hasSurveys(String actDesc) {
+        TriggerActionDesc desc = new TriggerActionDesc();
+        return desc.loadString(actDesc) && desc.getCount() > 0;
+    }
+
+    private static void put(Map<String, Map<Integer, String>> byType, String trigType,
+                            int trigId, String trigDesc) {
+        Map<Integer, String> trigs = byType.get(trigType);
+        if (trigs == null) {
+            trigs = new LinkedHashMap<Integer, String>();
+            byType.put(trigType, trigs);
+        }
+        trigs.put(trigId, trigDesc);
+    }
+}
@@ -33,7 +33,7 @@ public class TriggerTimeReceiver extends BroadcastReceiver {
 
     private static final String DEBUG_TAG = "TriggerFramework";
 
-    private static void handleTimeChange(Context context) {
+    static void handleTimeChange(Context context) {
         TriggerTypeMap trigMap = new TriggerTypeMap();
 
         TriggerDB db = new TriggerDB(context);
@@ -54,9 +54,11 @@ public class TriggerTimeReceiver extends BroadcastReceiver {
                         c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_TYPE));
                 String actDesc = c.getString(
                         c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_ACTION_DESCRIPT));
+                boolean enabled = c.getInt(
+                        c.getColumnIndexOrThrow(TriggerDB.KEY_CAMPAIGN_ENABLED)) != 0;
 
                 TriggerBase trig = trigMap.getTrigger(trigType);
-                if (trig != null) {
+                if (trig != null && enabled) {
                     TriggerActionDesc aDesc = new TriggerActionDesc();
                     //Restart the trigger if it is active
                     if (aDesc.loadString(actDesc) && aDesc.getCount() > 0) {
@@ -80,7 +82,13 @@ public class TriggerTimeReceiver extends BroadcastReceiver {
 
             Log.v(DEBUG_TAG, "TriggerTimeReceiver: " + i.getAction());
 
-            handleTimeChange(context);
+            final Context appContext = context.getApplicationContext();
+            TriggerEngine.handleBroadcast(this, context, new Runnable() {
+                @Override
+                public void run() {
+                    handleTimeChange(appContext);
+                }
+            });
         }
     }
 }
@@ -71,6 +71,26 @@ public class TriggerTypeMap {
         return mTrigTypeMap.get(trigType);
     }
 
+    /*
+     * Create a new instance of the trigger of a type, e.g. to hold a
+     * trigger read from the server. Returns null if the type is not
+     * registered.
+     */
+    public TriggerBase newTrigger(String trigType) {
+        TriggerBase trig = getTrigger(trigType);
+        if (trig == null) {
+            return null;
+        }
+
+        try {
+            return trig.getClass().newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /*
      * Get TriggerBase instances of all types
      */
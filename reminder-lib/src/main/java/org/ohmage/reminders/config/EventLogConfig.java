@@ -0,0 +1,14 @@
+package org.ohmage.reminders.config;
+
+/*
+ * Class containing the compile time constants which define the
+ * retention of the trigger event history
+ */
+public class EventLogConfig {
+    //Events older than this are deleted
+    public static final long retention = 180L * 24 * 60 * 60 * 1000; //180 days
+    //The oldest events are deleted beyond this number of events
+    public static final int maxEvents = 50000;
+    //Minimum time between two runs of the retention policy
+    public static final long compactionInterval = 24 * 60 * 60 * 1000; //1 day
+}
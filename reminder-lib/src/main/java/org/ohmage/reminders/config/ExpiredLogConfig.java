@@ -0,0 +1,17 @@
+package org.ohmage.reminders.config;
+
+/*
+ * Class containing the compile time constants which define the log of
+ * the triggers which expired with surveys not taken
+ */
+public class ExpiredLogConfig {
+    //Name of the file in the files directory of the application
+    public static final String fileName = "expired_triggers.ndjson";
+    //The file is sealed for reading once it grows above this size
+    public static final long maxFileSize = 64 * 1024; //bytes
+    //Number of sealed files kept until the host reads them. The
+    //oldest files are dropped beyond this.
+    public static final int maxSealedFiles = 16;
+    //Size of the buffer of the writer
+    public static final int writeBufferSize = 8 * 1024; //bytes
+}
@@ -0,0 +1,20 @@
+package org.ohmage.reminders.config;
+
+/*
+ * Class containing the compile time constants which define the
+ * reporting of the metrics of the trigger framework
+ */
+public class MetricsConfig {
+    //Interval between two reports. The interval only elapses
+    //while the device is awake.
+    public static final long reportInterval = 15 * 60 * 1000; //15 mins
+    //Whether the metrics are written to a local file when the
+    //host application has not registered a sink of its own
+    public static final boolean useFileSink = true;
+    //Name of the file in the files directory of the application
+    public static final String fileName = "trigger_metrics.log";
+    //The file is rotated once it grows above this size
+    public static final long maxFileSize = 256 * 1024; //bytes
+    //Number of rotated files kept in addition to the current one
+    public static final int maxRotatedFiles = 3;
+}
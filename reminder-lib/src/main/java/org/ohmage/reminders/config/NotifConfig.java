@@ -33,4 +33,7 @@ public class NotifConfig {
     //has already been taken within this window, the
     //notification will be suppressed
     public static final int maxSuppression = 1440; //minutes
+    //Refresh requests arriving within this window after a
+    //refresh are coalesced into a single trailing refresh
+    public static final long refreshDebounceWindow = 500; //ms
 }
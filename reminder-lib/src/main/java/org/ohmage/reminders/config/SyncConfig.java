@@ -0,0 +1,14 @@
+package org.ohmage.reminders.config;
+
+/*
+ * Class containing the compile time constants which define the sync of
+ * the reminders given by the server
+ */
+public class SyncConfig {
+    //Number of reminders read by the streaming importer before they are
+    //written in a transaction. Bounds the memory held by an import.
+    public static final int importBatchSize = 200; //reminders
+    //Number of local changes read from the db at a time by a reader of
+    //the change log
+    public static final int changesPageSize = 100; //changes
+}
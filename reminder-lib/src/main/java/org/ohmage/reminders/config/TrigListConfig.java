@@ -0,0 +1,21 @@
+package org.ohmage.reminders.config;
+
+/*
+ * Class containing the compile time constants which define the loading of
+ * the list of triggers and its search
+ */
+public class TrigListConfig {
+    //Number of triggers loaded at a time as the list is scrolled
+    public static final int listPageSize = 100; //triggers
+    //The next page is loaded once the list shows a row this close to the
+    //end of the rows loaded so far
+    public static final int listPrefetchDistance = 20; //rows
+    //Delay before the rows of the triggers changed are reloaded, so that a
+    //burst of changes is reloaded at once, after its transaction
+    public static final long listRefreshDelay = 250; //ms
+    //Delay after the last edit of the filter of the list before the list
+    //is filtered
+    public static final long listFilterDelay = 300; //ms
+    //Number of triggers indexed for search in each transaction
+    public static final int indexBatchSize = 200; //triggers
+}
@@ -17,16 +17,40 @@ package org.ohmage.reminders.glue;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
 import org.json.JSONArray;
+import org.ohmage.reminders.base.ExpiredTriggerLog;
+import org.ohmage.reminders.base.MetricsReporter;
 import org.ohmage.reminders.base.ReminderContract.Reminders;
 import org.ohmage.reminders.base.TriggerBase;
+import org.ohmage.reminders.base.TriggerChangeLog;
+import org.ohmage.reminders.base.TriggerEngine;
+import org.ohmage.reminders.base.TriggerEventLog;
+import org.ohmage.reminders.base.TriggerImporter;
 import org.ohmage.reminders.base.TriggerInit;
+import org.ohmage.reminders.base.TriggerSearch;
+import org.ohmage.reminders.base.TriggerSnapshot;
+import org.ohmage.reminders.base.TriggerSync;
+import org.ohmage.reminders.core.MetricsSink;
+import org.ohmage.reminders.core.ResponseStats;
 import org.ohmage.reminders.notif.NotifSurveyAdaptor;
 import org.ohmage.reminders.notif.Notifier;
 import org.ohmage.reminders.ui.TriggerListActivity;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /*
  * The glue layer between trigger framework and the 
@@ -34,6 +58,8 @@ import java.util.Set;
  */
 public class TriggerFramework {
 
+    private static final String TAG = "TriggerFramework";
+
     /*
      * Action of the intent which is broadcasted when the user
      * clicks on the notification.
@@ -82,6 +108,27 @@ public class TriggerFramework {
         return i;
     }
 
+    /*
+     * Callback through which the asynchronous variants of the APIs
+     * deliver their result, or the error thrown while computing it.
+     * It is called on the main thread.
+     *
+     * The APIs which were there before the asynchronous variants keep
+     * their behavior: notifySurveyTaken() queues the update on the engine
+     * thread and returns, the reads and the resets run on the calling
+     * thread. The synchronous variants of the later APIs which change the
+     * triggers wait for the engine thread, behind whatever is queued on
+     * it, e.g. an import or a restore, so they must not be called on the
+     * main thread.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        void onError(Throwable error);
+    }
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
     /*
      * Get the list of all surveys which are active currently.
      */
@@ -92,20 +139,72 @@ public class TriggerFramework {
         return actSurveys.toArray(new String[actSurveys.size()]);
     }
 
+    /*
+     * Asynchronous variant of getActiveSurveys(). The callback is optional.
+     */
+    public static Future<String[]> getActiveSurveysAsync(final Context context,
+                                                         final String campaignUrn,
+                                                         Callback<String[]> callback) {
+
+        return submit(context, new Callable<String[]>() {
+            @Override
+            public String[] call() {
+                return getActiveSurveys(context, campaignUrn);
+            }
+        }, callback);
+    }
+
     /*
      * Tell the trigger framework that a survey has been taken. The framework
      * will store the current time stamp against the survey name and it will
      * be used to decide whether a trigger notification for that survey must
      * be displayed or not.
+     *
+     * The update is queued on the engine thread, so this returns right
+     * away and can be called on the main thread.
      */
     public static void notifySurveyTaken(Context context, String survey) {
 
-        TriggerBase.updatePendingStateForSurveys(context, Reminders.NOT_PENDING, survey);
+        notifySurveysTaken(context, Collections.singletonList(survey));
+    }
+
+    /*
+     * Tell the trigger framework that a number of surveys have been taken.
+     * Same as notifySurveyTaken(), except that the pending state of all
+     * the surveys is updated at once and the notification is refreshed
+     * only once.
+     *
+     * The update is queued on the engine thread, so this returns right
+     * away and can be called on the main thread.
+     */
+    public static void notifySurveysTaken(Context context, Collection<String> surveys) {
 
-        NotifSurveyAdaptor.recordSurveyTaken(context, survey);
-        //Quietly refresh the notification to remove the taken
-        //survey from the notification if applicable
-        Notifier.refreshNotification(context, true);
+        notifySurveysTakenAsync(context, surveys, null);
+    }
+
+    /*
+     * Asynchronous variant of notifySurveysTaken(). The callback is optional.
+     */
+    public static Future<Void> notifySurveysTakenAsync(final Context context,
+                                                       Collection<String> surveys,
+                                                       Callback<Void> callback) {
+
+        final String[] taken = surveys.toArray(new String[surveys.size()]);
+
+        return submit(context, new Callable<Void>() {
+            @Override
+            public Void call() {
+                TriggerBase.updatePendingStateForSurveys(context, Reminders.NOT_PENDING, taken);
+
+                for (String survey : taken) {
+                    NotifSurveyAdaptor.recordSurveyTaken(context, survey);
+                }
+                //Quietly refresh the notification to remove the taken
+                //surveys from the notification if applicable
+                Notifier.refreshNotification(context, true);
+                return null;
+            }
+        }, callback);
     }
 
     /*
@@ -117,6 +216,135 @@ public class TriggerFramework {
         return NotifSurveyAdaptor.getActiveTriggerInfo(context, campaignUrn, survey);
     }
 
+    /*
+     * Asynchronous variant of getActiveTriggerInfo(). The callback is optional.
+     */
+    public static Future<JSONArray> getActiveTriggerInfoAsync(final Context context,
+                                                              final String campaignUrn,
+                                                              final String survey,
+                                                              Callback<JSONArray> callback) {
+
+        return submit(context, new Callable<JSONArray>() {
+            @Override
+            public JSONArray call() {
+                return getActiveTriggerInfo(context, campaignUrn, survey);
+            }
+        }, callback);
+    }
+
+    /*
+     * Get the response stats of a survey: how often it was taken, ignored
+     * or left to expire after a trigger activated it, and how long it took
+     * to be taken. The stats are kept up to date as the outcomes happen,
+     * so this does not read the event history.
+     */
+    public static ResponseStats getSurveyResponseStats(Context context, String survey) {
+
+        return TriggerEventLog.getSurveyResponseStats(context, survey);
+    }
+
+    /*
+     * Asynchronous variant of getSurveyResponseStats(). The callback is optional.
+     */
+    public static Future<ResponseStats> getSurveyResponseStatsAsync(final Context context,
+                                                                   final String survey,
+                                                                   Callback<ResponseStats> callback) {
+
+        return submit(context, new Callable<ResponseStats>() {
+            @Override
+            public ResponseStats call() {
+                return getSurveyResponseStats(context, survey);
+            }
+        }, callback);
+    }
+
+    /*
+     * Get the response stats of the surveys activated by a trigger
+     */
+    public static ResponseStats getTriggerResponseStats(Context context, int trigId) {
+
+        return TriggerEventLog.getTriggerResponseStats(context, trigId);
+    }
+
+    /*
+     * Asynchronous variant of getTriggerResponseStats(). The callback is optional.
+     */
+    public static Future<ResponseStats> getTriggerResponseStatsAsync(final Context context,
+                                                                    final int trigId,
+                                                                    Callback<ResponseStats> callback) {
+
+        return submit(context, new Callable<ResponseStats>() {
+            @Override
+            public ResponseStats call() {
+                return getTriggerResponseStats(context, trigId);
+            }
+        }, callback);
+    }
+
+    /*
+     * Open a reader over the records of the triggers which expired with
+     * surveys not taken, one JSON object per trigger expired. Read the
+     * records in batches with nextBatch() until it returns none, and
+     * call commit() after each batch is uploaded so that it is not
+     * delivered again. Close the reader when done.
+     *
+     * Reads files, so must not be called on the main thread.
+     */
+    public static ExpiredTriggerLog.Reader openExpiredTriggerReader(Context context) {
+        return ExpiredTriggerLog.openReader(context);
+    }
+
+    /*
+     * Open a reader over the local edits of the triggers and of the
+     * notification settings after a sequence, one JSON object per trigger
+     * or settings changed, see TriggerChangeLog. Read the changes in
+     * batches with nextBatch() until it returns none, and acknowledge
+     * the sequence of the last change of each batch once it is uploaded.
+     *
+     * Reads the db, so must not be called on the main thread.
+     */
+    public static TriggerChangeLog.Reader openTriggerChangeReader(Context context, long sinceSeq) {
+        return TriggerChangeLog.openReader(context, sinceSeq);
+    }
+
+    /*
+     * Get the sequence of the latest local edit, to read the changes from
+     * after a full upload of the triggers.
+     *
+     * Reads the db, so must not be called on the main thread.
+     */
+    public static long getLastTriggerChangeSeq(Context context) {
+        return TriggerChangeLog.getLastSeq(context);
+    }
+
+    /*
+     * Drop the local edits up to a sequence once they are uploaded.
+     * Returns the number of changes dropped.
+     *
+     * Waits for the engine thread, so must not be called on the main
+     * thread.
+     */
+    public static int acknowledgeTriggerChanges(Context context, long upToSeq) {
+
+        return await(acknowledgeTriggerChangesAsync(context, upToSeq, null));
+    }
+
+    /*
+     * Asynchronous variant of acknowledgeTriggerChanges(). The callback is
+     * optional.
+     */
+    public static Future<Integer> acknowledgeTriggerChangesAsync(final Context context,
+                                                                 final long upToSeq,
+                                                                 Callback<Integer> callback) {
+
+        return submit(context, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return TriggerChangeLog.acknowledge(context, upToSeq);
+            }
+        }, callback);
+    }
+
     /*
      * Stops and deletes all triggers and resets all trigger related settings
      * to default.
@@ -129,13 +357,367 @@ public class TriggerFramework {
         return TriggerInit.resetAllTriggersAndSettings(context);
     }
 
+    /*
+     * Asynchronous variant of resetAllTriggerSettings(). The callback is
+     * optional. Must not be called when any of the trigger related UI is
+     * being shown.
+     */
+    public static Future<Boolean> resetAllTriggerSettingsAsync(final Context context,
+                                                               Callback<Boolean> callback) {
+
+        return submit(context, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return TriggerInit.resetAllTriggersAndSettings(context);
+            }
+        }, callback);
+    }
+
+    /*
+     * Stops and deletes all the triggers of a campaign, e.g. when the user
+     * leaves it. The triggers of the other campaigns are kept.
+     *
+     * Note: Like resetAllTriggerSettings(), this API must be called only
+     * on the background and must not be called when any of the trigger
+     * related UI is being shown.
+     */
     public static boolean resetTriggerSettings(Context context, String campaignUrn, String campaignName) {
 
-        return TriggerInit.resetTriggersAndSettings(context);
+        return TriggerInit.resetTriggersAndSettings(context, campaignUrn);
+    }
+
+    /*
+     * Asynchronous variant of resetTriggerSettings(). The callback is optional.
+     */
+    public static Future<Boolean> resetTriggerSettingsAsync(final Context context,
+                                                            final String campaignUrn,
+                                                            Callback<Boolean> callback) {
+
+        return submit(context, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return TriggerInit.resetTriggersAndSettings(context, campaignUrn);
+            }
+        }, callback);
+    }
+
+    /*
+     * Sync the triggers of a campaign with the full set of its reminders
+     * on the server, parsed with the deserializers registered by
+     * TriggerInit.injectDeserializers(). The reminders are matched with
+     * the triggers by their reminder id: the new ones are added, the
+     * changed ones updated and the ones no longer on the server deleted.
+     * The triggers which did not change are left alone.
+     *
+     * Waits for the engine thread, so must not be called on the main
+     * thread.
+     */
+    public static TriggerSync.Result syncTriggers(Context context, String campaignUrn,
+                                                  String campaignName,
+                                                  Collection<TriggerBase> reminders) {
+
+        return await(syncTriggersAsync(context, campaignUrn, campaignName, reminders, null));
+    }
+
+    /*
+     * Asynchronous variant of syncTriggers(). The callback is optional.
+     */
+    public static Future<TriggerSync.Result> syncTriggersAsync(final Context context,
+                                                               final String campaignUrn,
+                                                               final String campaignName,
+                                                               final Collection<TriggerBase> reminders,
+                                                               Callback<TriggerSync.Result> callback) {
+
+        return submit(context, new Callable<TriggerSync.Result>() {
+            @Override
+            public TriggerSync.Result call() {
+                return TriggerSync.sync(context, campaignUrn, campaignName, reminders);
+            }
+        }, callback);
+    }
+
+    /*
+     * Variant of syncTriggers() which reads the reminders from a stream of
+     * the JSON array given by the server, one reminder at a time, so that
+     * the memory needed does not grow with the number of reminders. The
+     * changes are written in batches. Returns null if the stream could
+     * not be read, in which case no trigger is deleted.
+     *
+     * Waits for the engine thread, so must not be called on the main
+     * thread.
+     */
+    public static TriggerSync.Result importTriggers(Context context, String campaignUrn,
+                                                    String campaignName, InputStream in) {
+
+        return await(importTriggersAsync(context, campaignUrn, campaignName, in, null));
+    }
+
+    /*
+     * Asynchronous variant of importTriggers(). The callback is optional.
+     */
+    public static Future<TriggerSync.Result> importTriggersAsync(final Context context,
+                                                                 final String campaignUrn,
+                                                                 final String campaignName,
+                                                                 final InputStream in,
+                                                                 Callback<TriggerSync.Result> callback) {
+
+        return submit(context, new Callable<TriggerSync.Result>() {
+            @Override
+            public TriggerSync.Result call() {
+                try {
+                    return TriggerImporter.importTriggers(context, campaignUrn, campaignName, in);
+                } catch (IOException e) {
+                    Log.e(TAG, "TriggerFramework: Failed to import the reminders of "
+                            + campaignUrn, e);
+                    return null;
+                }
+            }
+        }, callback);
+    }
+
+    /*
+     * Enable or disable all the triggers of a campaign. The triggers of a
+     * disabled campaign are kept but do not go off and none of their
+     * surveys is active. Returns false if the campaign has no triggers.
+     *
+     * Waits for the engine thread, so must not be called on the main
+     * thread.
+     */
+    public static boolean setCampaignEnabled(Context context, String campaignUrn, boolean enabled) {
+
+        return await(setCampaignEnabledAsync(context, campaignUrn, enabled, null));
+    }
+
+    /*
+     * Asynchronous variant of setCampaignEnabled(). The callback is optional.
+     */
+    public static Future<Boolean> setCampaignEnabledAsync(final Context context,
+                                                          final String campaignUrn,
+                                                          final boolean enabled,
+                                                          Callback<Boolean> callback) {
+
+        return submit(context, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return TriggerInit.setCampaignEnabled(context, campaignUrn, enabled);
+            }
+        }, callback);
+    }
+
+    /*
+     * Write a snapshot of all the triggers, places and trigger settings
+     * to a stream, e.g. to back them up or move them to another device.
+     * The trigger framework is blocked while the snapshot is written, so
+     * the stream should be a file rather than the network. Returns false
+     * if the stream could not be written.
+     *
+     * Waits for the engine thread, so must not be called on the main
+     * thread.
+     */
+    public static boolean exportSnapshot(Context context, OutputStream out) {
+
+        return await(exportSnapshotAsync(context, out, null));
+    }
+
+    /*
+     * Asynchronous variant of exportSnapshot(). The callback is optional.
+     */
+    public static Future<Boolean> exportSnapshotAsync(final Context context,
+                                                      final OutputStream out,
+                                                      Callback<Boolean> callback) {
+
+        return submit(context, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                try {
+                    TriggerSnapshot.export(context, out);
+                    return true;
+                } catch (IOException e) {
+                    Log.e(TAG, "TriggerFramework: Failed to export the snapshot", e);
+                    return false;
+                }
+            }
+        }, callback);
+    }
+
+    /*
+     * Replace all the triggers, places and trigger settings with a
+     * snapshot written by exportSnapshot(), and start the triggers.
+     * Returns the number of triggers restored, or null if the stream
+     * could not be read.
+     *
+     * Must not be called when any of the trigger related UI is being
+     * shown.
+     *
+     * Waits for the engine thread, so must not be called on the main
+     * thread.
+     */
+    public static Integer restoreSnapshot(Context context, InputStream in) {
+
+        return await(restoreSnapshotAsync(context, in, null));
+    }
+
+    /*
+     * Asynchronous variant of restoreSnapshot(). The callback is optional.
+     */
+    public static Future<Integer> restoreSnapshotAsync(final Context context,
+                                                       final InputStream in,
+                                                       Callback<Integer> callback) {
+
+        return submit(context, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                try {
+                    return TriggerSnapshot.restore(context, in);
+                } catch (IOException e) {
+                    Log.e(TAG, "TriggerFramework: Failed to restore the snapshot", e);
+                    return null;
+                }
+            }
+        }, callback);
+    }
+
+    /*
+     * Find up to limit of the triggers of a campaign, or of all the
+     * campaigns if campaignUrn is null, whose title, summary, campaign,
+     * surveys or place have words prefixed by each of the words of a text.
+     * The triggers changed since the last search are indexed first.
+     *
+     * Waits for the engine thread, so must not be called on the main
+     * thread.
+     */
+    public static List<TriggerSearch.Match> searchTriggers(Context context, String campaignUrn,
+                                                           String text, int limit) {
+
+        return await(searchTriggersAsync(context, campaignUrn, text, limit, null));
+    }
+
+    /*
+     * Asynchronous variant of searchTriggers(). The callback is optional.
+     */
+    public static Future<List<TriggerSearch.Match>> searchTriggersAsync(
+            final Context context, final String campaignUrn, final String text, final int limit,
+            Callback<List<TriggerSearch.Match>> callback) {
+
+        return submit(context, new Callable<List<TriggerSearch.Match>>() {
+            @Override
+            public List<TriggerSearch.Match> call() {
+                return TriggerSearch.search(context, campaignUrn, text, limit);
+            }
+        }, callback);
+    }
+
+    /*
+     * Read the names of the surveys from the reminders provider again, so
+     * that the search of the triggers finds them by the current names of
+     * their surveys. To be called when the host renames surveys. Returns
+     * the number of names changed.
+     *
+     * Waits for the engine thread, so must not be called on the main
+     * thread.
+     */
+    public static int updateSurveyNames(Context context) {
+
+        return await(updateSurveyNamesAsync(context, null));
+    }
+
+    /*
+     * Asynchronous variant of updateSurveyNames(). The callback is optional.
+     */
+    public static Future<Integer> updateSurveyNamesAsync(final Context context,
+                                                         Callback<Integer> callback) {
+
+        return submit(context, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return TriggerSearch.updateSurveyNames(context);
+            }
+        }, callback);
+    }
+
+    /*
+     * Set the sink to which the metrics of the framework are reported
+     * periodically, in place of the default sink which appends them to a
+     * file in the files directory of the application. Passing null turns
+     * the reports off. The sink is called on the engine thread.
+     */
+    public static void setMetricsSink(MetricsSink sink) {
+        MetricsReporter.setSink(sink);
+    }
+
+    /*
+     * Queue a task on the engine thread. The result, or the error thrown
+     * by the task, is passed to the callback, if any, on the main thread.
+     *
+     * When called from the engine thread itself, the task is run right
+     * away so that waiting for the result does not block the engine.
+     */
+    private static <T> Future<T> submit(Context context, Callable<T> task,
+                                        final Callback<T> callback) {
+
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                if (callback == null || isCancelled()) {
+                    return;
+                }
+
+                try {
+                    final T result = get();
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onResult(result);
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    final Throwable error = e.getCause();
+                    Log.e(TAG, "TriggerFramework: Asynchronous call failed", error);
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onError(error);
+                        }
+                    });
+                }
+            }
+        };
+
+        if (TriggerEngine.isEngineThread()) {
+            future.run();
+        } else {
+            TriggerEngine.post(context.getApplicationContext(), future);
+        }
+
+        return future;
+    }
+
+    /*
+     * Wait for the result of a task queued with submit()
+     */
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the trigger framework", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
     }
 
     private static String authority;
 
+    /*
+     * Set the authority of the reminders provider of the host application,
+     * see ReminderContract for the columns it must handle and the changes
+     * it must notify.
+     */
     public static void setAuthority(String authority) {
         TriggerFramework.authority = authority;
     }
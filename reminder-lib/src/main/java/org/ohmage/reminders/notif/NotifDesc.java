@@ -23,6 +23,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.reminders.config.NotifConfig;
+import org.ohmage.reminders.core.Metrics;
 
 import java.util.Collections;
 import java.util.Comparator;
@@ -43,7 +44,7 @@ import java.util.List;
  */
 public class NotifDesc {
 
-    private static final String PREF_FILE_NAME =
+    public static final String PREF_FILE_NAME =
             "edu.ucla.cens.triggers.notif.NotifDesc";
     private static final String PREF_KEY_GLOBAL_NOTIF_DESC = "notif_desc";
 
@@ -71,6 +72,7 @@ public class NotifDesc {
     public boolean loadString(String desc) {
 
         initialze();
+        Metrics.increment(Metrics.DESC_PARSE_NOTIF);
 
         if (desc == null) {
             return false;
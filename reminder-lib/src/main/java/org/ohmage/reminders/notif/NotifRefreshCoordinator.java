@@ -0,0 +1,180 @@
+package org.ohmage.reminders.notif;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.ohmage.reminders.base.TriggerEngine;
+import org.ohmage.reminders.config.NotifConfig;
+import org.ohmage.reminders.core.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Coordinates the refreshes of the home screen notification.
+ *
+ * Boot restore, time changes and survey taken events can ask for a refresh
+ * many times in quick succession. The first request is handled right away,
+ * any further requests which arrive within the debounce window are coalesced
+ * into a single trailing refresh. The trailing refresh alerts the user if any
+ * of the coalesced requests asked for it.
+ *
+ * A quiet refresh which would post the same set of surveys that is already
+ * being displayed is skipped, so that NotificationManager is not touched at
+ * all in that case. Refreshes which alert the user are never skipped as they
+ * are used for new triggers and repeat reminders.
+ */
+public class NotifRefreshCoordinator {
+
+    private static final String TAG = "NotifRefreshCoordinator";
+
+    private static Context sAppContext = null;
+    //Whether a trailing refresh has been scheduled
+    private static boolean sPending = false;
+    //Whether the scheduled trailing refresh should be quiet
+    private static boolean sPendingQuiet = true;
+    //Uptime of the latest refresh
+    private static long sLastRefreshTime = 0;
+    //The set of surveys in the notification posted last. Null if
+    //unknown, for instance after the process has been restarted.
+    private static Set<String> sLastSurveys = null;
+
+    private static long sRequested = 0;
+    private static long sCoalesced = 0;
+    private static long sSkipped = 0;
+    private static long sPosted = 0;
+
+    private static final Runnable sTrailingRefresh = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (NotifRefreshCoordinator.class) {
+                if (!sPending) {
+                    return;
+                }
+
+                sPending = false;
+                refresh(sAppContext, sPendingQuiet);
+            }
+        }
+    };
+
+    /*
+     * Request a refresh of the notification. The refresh is either done
+     * right away or coalesced with the other requests in the current
+     * debounce window.
+     */
+    public static synchronized void requestRefresh(Context context, boolean quiet) {
+        sRequested++;
+        Metrics.increment(Metrics.NOTIF_REFRESH_REQUESTED);
+
+        if (sPending) {
+            Log.v(TAG, "Coalescing refresh, quiet = " + quiet);
+
+            sPendingQuiet &= quiet;
+            sCoalesced++;
+            Metrics.increment(Metrics.NOTIF_REFRESH_COALESCED);
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        if (sLastRefreshTime != 0 &&
+                now - sLastRefreshTime < NotifConfig.refreshDebounceWindow) {
+
+            Log.v(TAG, "Deferring refresh to the end of the debounce window");
+
+            sAppContext = context.getApplicationContext();
+            sPending = true;
+            sPendingQuiet = quiet;
+            TriggerEngine.postDelayed(sAppContext, sTrailingRefresh,
+                    sLastRefreshTime + NotifConfig.refreshDebounceWindow - now);
+            return;
+        }
+
+        refresh(context, quiet);
+    }
+
+    /*
+     * Forget the set of surveys posted last so that the next refresh
+     * is posted even if the set has not changed. Must be called when
+     * the content of the notification changes without the set of
+     * active surveys changing.
+     */
+    public static synchronized void invalidate() {
+        sLastSurveys = null;
+    }
+
+    private static void refresh(Context context, boolean quiet) {
+
+        Log.v(TAG, "Refreshing notification, quiet = " + quiet);
+
+        sLastRefreshTime = SystemClock.uptimeMillis();
+
+        //The content of the notification depends on the names
+        if (SurveyNameCache.reloadIfStale(context)) {
+            sLastSurveys = null;
+        }
+
+        //Get the list of all the surveys active at the moment
+        Set<String> actSurveys = NotifSurveyAdaptor.getAllActiveSurveys(context, null);
+        boolean visible = Notifier.getNotifVisibility(context);
+
+        if (actSurveys.size() == 0) {
+            //Remove the notification if there are no active surveys
+            if (!visible && sLastSurveys != null && sLastSurveys.isEmpty()) {
+                sSkipped++;
+                Metrics.increment(Metrics.NOTIF_REFRESH_SKIPPED);
+                return;
+            }
+
+            Log.v(TAG, "No active surveys");
+            Notifier.hideNotification(context);
+        } else if (quiet && (!visible || actSurveys.equals(sLastSurveys))) {
+            //A quiet refresh of a hidden notification does nothing, and
+            //neither does one which would not change the notification
+            sSkipped++;
+            Metrics.increment(Metrics.NOTIF_REFRESH_SKIPPED);
+            return;
+        } else {
+            //Prepare the message and display the notification
+            Notifier.displayNotification(context, new ArrayList<String>(actSurveys), quiet);
+        }
+
+        sLastSurveys = new HashSet<String>(actSurveys);
+        sPosted++;
+        Metrics.increment(Metrics.NOTIF_REFRESH_POSTED);
+    }
+
+    /*
+     * Get a snapshot of the refresh counters
+     */
+    public static synchronized RefreshStats getStats() {
+        return new RefreshStats(sRequested, sCoalesced, sSkipped, sPosted);
+    }
+
+    /* Counters of the refresh requests handled so far */
+    public static class RefreshStats {
+        //Number of refreshes requested
+        public final long requested;
+        //Number of requests merged into a trailing refresh
+        public final long coalesced;
+        //Number of refreshes which did not need to touch the notification
+        public final long skipped;
+        //Number of refreshes which posted or removed the notification
+        public final long posted;
+
+        RefreshStats(long requested, long coalesced, long skipped, long posted) {
+            this.requested = requested;
+            this.coalesced = coalesced;
+            this.skipped = skipped;
+            this.posted = posted;
+        }
+
+        @Override
+        public String toString() {
+            return "requested=" + requested + ", coalesced=" + coalesced
+                    + ", skipped=" + skipped + ", posted=" + posted;
+        }
+    }
+}
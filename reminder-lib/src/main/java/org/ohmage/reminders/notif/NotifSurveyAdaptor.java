@@ -23,16 +23,26 @@ import android.util.Log;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.ohmage.reminders.base.AndroidTriggerStateStore;
+import org.ohmage.reminders.base.ExpiredTriggerLog;
 import org.ohmage.reminders.base.TriggerActionDesc;
 import org.ohmage.reminders.base.TriggerBase;
 import org.ohmage.reminders.base.TriggerDB;
+import org.ohmage.reminders.base.TriggerEventDB;
+import org.ohmage.reminders.base.TriggerEventLog;
+import org.ohmage.reminders.base.TriggerRecord;
 import org.ohmage.reminders.base.TriggerRunTimeDesc;
 import org.ohmage.reminders.base.TriggerTypeMap;
+import org.ohmage.reminders.core.ActiveSurveyRules;
 import org.ohmage.reminders.utils.TrigPrefManager;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 
 /*
@@ -60,21 +70,44 @@ public class NotifSurveyAdaptor {
     private static final String KEY_SURVEY_LIST = "survey_list";
     private static final String KEY_UNTAKEN_SURVEYS = "surveys_not_taken";
     private static final String KEY_CAMPAIGN_URN = "campaign_urn";
+    private static final String KEY_CAMPAIGN_NAME = "campaign_name";
+    private static final String KEY_TRIGGER_ID = "trigger_id";
+    private static final String KEY_TRIGGER_TIME = "trigger_time";
+    private static final String KEY_EXPIRED_TIME = "expired_time";
 
     /*
-     * Helper function to prepare the list of active surveys corresponding
-     * to trigger.
-     *
-     * A trigger is active if it has not expired (the notification duration
-     * has not been reached) after going off the last time.
-     *
-     * All surveys associated with an active active trigger are active
-     *     - EXCEPT those which have already been taken by the user within
-     *       the suppression window.
+     * The parsed state of a single trigger row which is needed to decide
+     * which of its surveys are active. The active surveys of a trigger only
+     * change over time (expiration, suppression) or when its row changes,
+     * so this state is cached per trigger and only reloaded from the db when
+     * the row is invalidated.
      */
-    private static HashSet<String> getActiveSurveys(Context context, Cursor trig) {
+    private static class TrigState {
+        String campaignUrn;
+        //The surveys of the triggers of a disabled campaign are never active
+        boolean enabled = true;
+        long trigTS = TriggerRunTimeDesc.INVALID_TIMESTAMP;
+        long durationMS;
+        long suppressMS;
+        String[] surveys = new String[0];
+    }
 
-        HashSet<String> actSurveys = new HashSet<String>();
+    //Cached trigger states keyed by trigger id
+    private static final HashMap<Integer, TrigState> sTrigStates =
+            new HashMap<Integer, TrigState>();
+    //Triggers whose rows changed since their state was cached
+    private static final HashSet<Integer> sDirtyTrigs = new HashSet<Integer>();
+    //Whether the cache has been populated with all the triggers
+    private static boolean sTrigStatesLoaded = false;
+
+    /*
+     * Parse the descriptors of a trigger row into its trigger state.
+     * Returns a state without surveys if any of the descriptors
+     * fail to parse.
+     */
+    private static TrigState parseTrigState(Cursor trig) {
+
+        TrigState state = new TrigState();
 
         String runTime = trig.getString(
                 trig.getColumnIndexOrThrow(TriggerDB.KEY_RUNTIME_DESCRIPT));
@@ -85,10 +118,11 @@ public class NotifSurveyAdaptor {
         String actions = trig.getString(
                 trig.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_ACTION_DESCRIPT));
 
-        String campaignUrn = trig.getString(
+        state.campaignUrn = trig.getString(
                 trig.getColumnIndexOrThrow(TriggerDB.KEY_CAMPAIGN_URN));
 
-        Log.v(TAG, "NotifSurveyAdaptor: Calculating active surveys for trigger");
+        state.enabled = trig.getInt(
+                trig.getColumnIndexOrThrow(TriggerDB.KEY_CAMPAIGN_ENABLED)) != 0;
 
         TriggerRunTimeDesc rtDesc = new TriggerRunTimeDesc();
         NotifDesc notifDesc = new NotifDesc();
@@ -100,48 +134,38 @@ public class NotifSurveyAdaptor {
 
             Log.e(TAG, "NotifSurveyAdaptor: Descritptor(s) failed to parse");
 
-            return actSurveys;
+            return state;
         }
 
-        if (!rtDesc.hasTriggerTimeStamp()) {
-            Log.v(TAG, "NotifSurveyAdaptor: Trigger has not gone off");
+        state.trigTS = rtDesc.getTriggerTimeStamp();
+        state.durationMS = notifDesc.getDuration() * 60000L;
+        state.suppressMS = notifDesc.getSuppression() * 60000L;
+        state.surveys = actDesc.getSurveys();
 
-            return actSurveys;
-        }
+        return state;
+    }
 
-        long now = System.currentTimeMillis();
-        long trigTS = rtDesc.getTriggerTimeStamp();
+    /*
+     * Helper function to prepare the list of active surveys corresponding
+     * to trigger. See ActiveSurveyRules for the rules.
+     */
+    private static Set<String> getActiveSurveys(Context context, TrigState trig, long now) {
 
-        if (trigTS > now) {
-            Log.e(TAG, "NotifSurveyAdaptor: Trigger time stamp is in the future!");
-            return actSurveys;
+        if (!trig.enabled) {
+            return new HashSet<String>();
         }
 
-        //How long it has been since the trigger went off
-        long elapsedMS = now - trigTS;
-
-        long durationMS = notifDesc.getDuration() * 60000;
-        long suppressMS = notifDesc.getSuppression() * 60000;
-
-        if (elapsedMS < durationMS) {
-
-            //The trigger has not expired, check each survey
-
-            String[] surveys = actDesc.getSurveys();
-            for (int i = 0; i < surveys.length; i++) {
-
-                //Has the survey been taken in within the
-                //suppression window?
-                if (IsSurveyTakenOrIgnored(context, surveys[i], System.currentTimeMillis() - suppressMS)) {
-                    continue;
-                }
-
-                //Add the active survey to the set
-                actSurveys.add(surveys[i]);
-            }
+        if (trig.trigTS > now) {
+            Log.e(TAG, "NotifSurveyAdaptor: Trigger time stamp is in the future!");
         }
 
-        return actSurveys;
+        return new ActiveSurveyRules(new AndroidTriggerStateStore(context))
+                .getActiveSurveys(trig.trigTS, trig.durationMS, trig.suppressMS,
+                        trig.surveys, now);
+    }
+
+    private static Set<String> getActiveSurveys(Context context, Cursor trig) {
+        return getActiveSurveys(context, parseTrigState(trig), System.currentTimeMillis());
     }
 
     private static HashSet<String> getSurveys(Cursor trig) {
@@ -176,12 +200,111 @@ public class NotifSurveyAdaptor {
                                                   String survey,
                                                   long since) {
 
+        return new ActiveSurveyRules(new AndroidTriggerStateStore(context))
+                .isSurveyTakenOrIgnored(survey, since);
+    }
+
+    /*
+     * Get the time the survey was taken the last time, or
+     * INVALID_TIMESTAMP if it has not been taken.
+     */
+    public static long getSurveyTakenTime(Context context, String survey) {
         SharedPreferences pref = context.getSharedPreferences(
                 NotifSurveyAdaptor.class.getName(),
                 Context.MODE_PRIVATE);
 
-        return (pref.contains(survey) && pref.getLong(survey, 0) > since)
-                || (pref.contains(survey + "_ignored") && pref.getLong(survey + "_ignored", 0) > since);
+        return pref.getLong(survey, TriggerRunTimeDesc.INVALID_TIMESTAMP);
+    }
+
+    /*
+     * Get the time the survey was ignored the last time, or
+     * INVALID_TIMESTAMP if it has not been ignored.
+     */
+    public static long getSurveyIgnoredTime(Context context, String survey) {
+        SharedPreferences pref = context.getSharedPreferences(
+                NotifSurveyAdaptor.class.getName(),
+                Context.MODE_PRIVATE);
+
+        return pref.getLong(survey + "_ignored", TriggerRunTimeDesc.INVALID_TIMESTAMP);
+    }
+
+    /*
+     * Bring the cached trigger states up to date. The first call reads
+     * all the triggers, later calls only reload the rows which have been
+     * invalidated since.
+     */
+    private static void updateTrigStates(Context context) {
+
+        boolean reloadAll;
+        ArrayList<Integer> dirtyTrigs;
+
+        //Take the pending invalidations. Any invalidation which arrives
+        //while the rows are being read is kept for the next update.
+        synchronized (sDirtyTrigs) {
+            reloadAll = !sTrigStatesLoaded;
+            dirtyTrigs = new ArrayList<Integer>(sDirtyTrigs);
+
+            sTrigStatesLoaded = true;
+            sDirtyTrigs.clear();
+        }
+
+        if (!reloadAll && dirtyTrigs.isEmpty()) {
+            return;
+        }
+
+        TriggerDB db = new TriggerDB(context);
+        db.open();
+
+        if (reloadAll) {
+            Log.v(TAG, "NotifSurveyAdaptor: Loading all trigger states");
+
+            sTrigStates.clear();
+
+            Cursor c = db.getAllTriggers();
+            while (c.moveToNext()) {
+                sTrigStates.put(c.getInt(c.getColumnIndexOrThrow(TriggerDB.KEY_ID)),
+                        parseTrigState(c));
+            }
+            c.close();
+        } else {
+            Log.v(TAG, "NotifSurveyAdaptor: Reloading " + dirtyTrigs.size()
+                    + " trigger states");
+
+            for (int trigId : dirtyTrigs) {
+                Cursor c = db.getTrigger(trigId);
+                if (c.moveToFirst()) {
+                    sTrigStates.put(trigId, parseTrigState(c));
+                } else {
+                    sTrigStates.remove(trigId);
+                }
+                c.close();
+            }
+        }
+
+        db.close();
+    }
+
+    /*
+     * Mark the cached state of a trigger as stale. Must be called
+     * whenever the row of a trigger is added, changed or deleted.
+     *
+     * Only the invalidation list is locked here so that writers never
+     * wait on a reader which is holding the db.
+     */
+    public static void invalidateTrigger(int trigId) {
+        synchronized (sDirtyTrigs) {
+            sDirtyTrigs.add(trigId);
+        }
+    }
+
+    /*
+     * Mark the cached state of all the triggers as stale.
+     */
+    public static void invalidateAllTriggers() {
+        synchronized (sDirtyTrigs) {
+            sTrigStatesLoaded = false;
+            sDirtyTrigs.clear();
+        }
     }
 
     /*
@@ -192,22 +315,20 @@ public class NotifSurveyAdaptor {
      * This function is used by the Notifier to prepare the
      * notification item.
      */
-    public static Set<String> getAllActiveSurveys(Context context, String campaignUrn) {
+    public static synchronized Set<String> getAllActiveSurveys(Context context,
+                                                               String campaignUrn) {
         HashSet<String> actSurveys = new HashSet<String>();
 
-        TriggerDB db = new TriggerDB(context);
-        db.open();
+        updateTrigStates(context);
 
-        Cursor c = db.getAllTriggers(campaignUrn);
-        if (c.moveToFirst()) {
-            do {
-
-                actSurveys.addAll(getActiveSurveys(context, c));
+        long now = System.currentTimeMillis();
+        for (TrigState trig : sTrigStates.values()) {
+            if (campaignUrn != null && !campaignUrn.equals(trig.campaignUrn)) {
+                continue;
+            }
 
-            } while (c.moveToNext());
+            actSurveys.addAll(getActiveSurveys(context, trig, now));
         }
-        c.close();
-        db.close();
 
         return actSurveys;
     }
@@ -215,22 +336,48 @@ public class NotifSurveyAdaptor {
     /*
      * Get all the active surveys corresponding to a specific trigger.
      */
-    public static Set<String> getActiveSurveysForTrigger(Context context,
-                                                         int trigId) {
-        HashSet<String> actSurveys = new HashSet<String>();
+    public static synchronized Set<String> getActiveSurveysForTrigger(Context context,
+                                                                      int trigId) {
+        updateTrigStates(context);
 
-        TriggerDB db = new TriggerDB(context);
-        db.open();
+        TrigState trig = sTrigStates.get(trigId);
+        if (trig == null) {
+            return new HashSet<String>();
+        }
 
-        Cursor c = db.getTrigger(trigId);
-        if (c.moveToFirst()) {
-            actSurveys.addAll(getActiveSurveys(context, c));
+        return getActiveSurveys(context, trig, System.currentTimeMillis());
+    }
+
+    /*
+     * Get the active surveys of all the triggers which have activated
+     * any survey at the moment, keyed by trigger id.
+     */
+    public static synchronized Map<Integer, Set<String>> getActiveSurveysByTrigger(
+            Context context) {
+        HashMap<Integer, Set<String>> active = new HashMap<Integer, Set<String>>();
+
+        updateTrigStates(context);
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Integer, TrigState> trig : sTrigStates.entrySet()) {
+            Set<String> surveys = getActiveSurveys(context, trig.getValue(), now);
+            if (!surveys.isEmpty()) {
+                active.put(trig.getKey(), surveys);
+            }
         }
 
-        c.close();
-        db.close();
+        return active;
+    }
 
-        return actSurveys;
+    /*
+     * Get the time stamp of the last time a trigger went off, or
+     * TriggerRunTimeDesc.INVALID_TIMESTAMP if it never did.
+     */
+    public static synchronized long getTriggerTimeStamp(Context context, int trigId) {
+        updateTrigStates(context);
+
+        TrigState trig = sTrigStates.get(trigId);
+        return trig == null ? TriggerRunTimeDesc.INVALID_TIMESTAMP : trig.trigTS;
     }
 
     public static Set<String> getSurveysForTrigger(Context context, int trigId) {
@@ -256,6 +403,9 @@ public class NotifSurveyAdaptor {
      */
     public static void recordSurveyTaken(Context context, String survey) {
 
+        TriggerEventLog.recordForActiveTriggers(context, TriggerEventDB.TYPE_TAKEN,
+                Collections.singleton(survey));
+
         SharedPreferences pref = context.getSharedPreferences(
                 NotifSurveyAdaptor.class.getName(),
                 Context.MODE_PRIVATE);
@@ -280,6 +430,9 @@ public class NotifSurveyAdaptor {
      */
     public static void recordSurveyIgnored(Context context, String survey) {
 
+        TriggerEventLog.recordForActiveTriggers(context, TriggerEventDB.TYPE_IGNORED,
+                Collections.singleton(survey));
+
         SharedPreferences pref = context.getSharedPreferences(
                 NotifSurveyAdaptor.class.getName(),
                 Context.MODE_PRIVATE);
@@ -388,22 +541,28 @@ public class NotifSurveyAdaptor {
     }
 
     /*
-     * To be called when a trigger expires. This function logs using
-     * LogProbe, the list of all surveys not taken by the user
-     * but were activated by the given trigger.
+     * To be called when a trigger expires. This function appends a record
+     * of the surveys activated by the given trigger which were not taken
+     * by the user to the ExpiredTriggerLog, for the host to upload.
      */
     public static void handleExpiredTrigger(Context context, int trigId) {
         TriggerDB db = new TriggerDB(context);
         db.open();
 
-        String sActDesc = db.getActionDescription(trigId);
-        String sTrigDesc = db.getTriggerDescription(trigId);
-        String sTrigType = db.getTriggerType(trigId);
-        String sRTDesc = db.getRunTimeDescription(trigId);
-        TriggerDB.Campaign sCampaign = db.getCampaignInfo(trigId);
-
+        TriggerRecord trig = db.load(trigId);
         db.close();
 
+        if (trig == null) {
+            return;
+        }
+
+        String sActDesc = trig.actDesc;
+        String sTrigDesc = trig.trigDesc;
+        String sTrigType = trig.trigType;
+        String sRTDesc = trig.runTimeDesc;
+        String sCampaignUrn = trig.campaignUrn;
+        String sCampaignName = trig.campaignName;
+
         if (sActDesc == null ||
                 sTrigDesc == null ||
                 sTrigType == null ||
@@ -435,6 +594,8 @@ public class NotifSurveyAdaptor {
             return;
         }
 
+        TriggerEventLog.recordExpiredSurveys(context, trigId, untakenList);
+
         JSONArray jSurveyList = new JSONArray();
         for (String survey : actDesc.getSurveys()) {
             jSurveyList.put(survey);
@@ -448,17 +609,21 @@ public class NotifSurveyAdaptor {
         JSONObject jExpired = new JSONObject();
 
         try {
+            jExpired.put(KEY_TRIGGER_ID, trigId);
+            jExpired.put(KEY_EXPIRED_TIME, System.currentTimeMillis());
+            jExpired.put(KEY_TRIGGER_TIME, rtDesc.getTriggerTimeStamp());
             jExpired.put(KEY_TRIGGER_TYPE, sTrigType);
             jExpired.put(KEY_TRIGGER_DESC, new JSONObject(sTrigDesc));
             jExpired.put(KEY_SURVEY_LIST, jSurveyList);
             jExpired.put(KEY_UNTAKEN_SURVEYS, jUntakenSurveys);
-            if (sCampaign != null)
-                jExpired.put(KEY_CAMPAIGN_URN, sCampaign.urn);
+            if (sCampaignUrn != null)
+                jExpired.put(KEY_CAMPAIGN_URN, sCampaignUrn);
+            if (sCampaignName != null)
+                jExpired.put(KEY_CAMPAIGN_NAME, sCampaignName);
         } catch (JSONException e) {
             return;
         }
 
-        //Log the info
-        Log.v(TAG, "Expired trigger has surveys not taken: " + jExpired.toString());
+        ExpiredTriggerLog.append(context, jExpired);
     }
 }
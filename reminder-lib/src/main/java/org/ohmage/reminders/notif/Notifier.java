@@ -24,7 +24,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
@@ -33,10 +33,14 @@ import android.widget.Toast;
 import org.ohmage.reminders.R;
 import org.ohmage.reminders.base.ReminderContract.Reminders;
 import org.ohmage.reminders.base.TriggerBase;
-import org.ohmage.reminders.base.TriggerDB;
+import org.ohmage.reminders.base.TriggerEngine;
+import org.ohmage.reminders.base.TriggerEventDB;
+import org.ohmage.reminders.base.TriggerEventLog;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /*
@@ -91,6 +95,12 @@ public class Notifier {
 
     private static final String KEY_TRIGGER_ID =
             Notifier.class.getName() + ".trigger_id";
+    //The expiration and repeat alarms are set per trigger, the data
+    //of their intent is this prefix followed by the trigger id
+    private static final String DATA_PREFIX_TRIG_ALM =
+            "notifier://org.ohmage.reminders.notif/";
+    //Trigger id of the alarms which are not specific to a trigger
+    private static final int NO_TRIGGER = -1;
     private static final String KEY_REPEAT_LIST =
             Notifier.class.getName() + ".repeat_list";
 
@@ -105,7 +115,7 @@ public class Notifier {
      * and it needs to be refreshed quietly (without alerting the user), no
      * action is required.
      */
-    private static void hideNotification(Context context) {
+    static void hideNotification(Context context) {
         NotificationManager notifMan = (NotificationManager) context.getSystemService(
                 Context.NOTIFICATION_SERVICE);
 
@@ -113,7 +123,7 @@ public class Notifier {
         saveNotifVisibility(context, false);
     }
 
-    private static void displayNotification(Context context, ArrayList<String> surveys, boolean quiet) {
+    static void displayNotification(Context context, ArrayList<String> surveys, boolean quiet) {
 
         // If the notification is to be refreshed quietly, and if it is hidden, do nothing.
         if (quiet && !getNotifVisibility(context)) {
@@ -153,6 +163,9 @@ public class Notifier {
             builder.setDefaults(Notification.DEFAULT_ALL);
         }
 
+        //Get the names of all the surveys in one go
+        Map<String, String> names = SurveyNameCache.getNames(context, surveys);
+
         if (surveys.size() == 1) {
             Intent ignoreIntent = new Intent(context, NotifReceiver.class)
                     .setAction(ACTION_NOTIF_IGNORED).putExtra(EXTRA_SURVEYS, surveys);
@@ -165,13 +178,22 @@ public class Notifier {
             builder.addAction(R.drawable.stat_notify_alarm, context.getString(R.string.snooze), piSnooze)
                     .addAction(android.R.drawable.ic_menu_close_clear_cancel, context.getString(R.string.ignore), piIgnore);
 
-            // Get the survey name
-            Cursor cursor = context.getContentResolver().query(Reminders.buildRemindersUri(),
-                    new String[]{Reminders.REMINDER_NAME}, Reminders._ID + "=?",
-                    new String[]{surveys.get(0)}, null);
-            if (cursor.moveToFirst()) {
-                builder.setContentTitle(cursor.getString(0));
+            // Use the survey name as the title
+            String name = names.get(surveys.get(0));
+            if (name != null) {
+                builder.setContentTitle(name);
+            }
+        } else if (names.size() > 0) {
+            // List the names of the surveys
+            builder.setContentText(getSurveyDisplayList(names.values()));
+
+            NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle()
+                    .setBigContentTitle(context.getString(R.string.notifications_multi_title,
+                            surveys.size()));
+            for (String name : names.values()) {
+                style.addLine(name);
             }
+            builder.setStyle(style);
         }
         notifMan.notify(NOIF_ID, builder.build());
 
@@ -183,7 +205,7 @@ public class Notifier {
      * Utility function to prepare a string of surveys from a list
      * of surveys. This function merely adds commas in between.
      */
-    private static String getSurveyDisplayList(Set<String> surveys) {
+    private static String getSurveyDisplayList(Collection<String> surveys) {
         String ret = "";
 
         int i = 0;
@@ -205,29 +227,23 @@ public class Notifier {
      * can be alerted when there is a new trigger or when there is a repeat
      * reminder. The notification can be refreshed quietly when a trigger
      * expires.
+     *
+     * Refreshes requested in quick succession are coalesced and a quiet
+     * refresh which would not change the notification is skipped. See
+     * NotifRefreshCoordinator.
      */
     public static void refreshNotification(Context context, boolean quiet) {
 
-        Log.v(TAG, "Notifier: Refreshing notification, quiet = " + quiet);
+        Log.v(TAG, "Notifier: Refresh requested, quiet = " + quiet);
 
-        //Get the list of all the surveys active at the moment
-        Set<String> actSurveys = NotifSurveyAdaptor.getAllActiveSurveys(context, null);
-
-        //Remove the notification if there are no active surveys
-        if (actSurveys.size() == 0) {
-            Log.v(TAG, "Notifier: No active surveys");
-            hideNotification(context);
-        } else {
-            //Prepare the message and display the notification
-            displayNotification(context, new ArrayList<String>(actSurveys), quiet);
-        }
+        NotifRefreshCoordinator.requestRefresh(context, quiet);
     }
 
     private static void cancelAllAlarms(Context context, int trigId) {
         AlarmManager alarmMan = (AlarmManager) context.getSystemService(
                 Context.ALARM_SERVICE);
 
-        Intent i = new Intent(context, NotifReceiver.class).setAction(ACTION_EXPIRE_ALM);
+        Intent i = createAlarmIntent(context, ACTION_EXPIRE_ALM, trigId);
         PendingIntent pi = PendingIntent.getBroadcast(context, 0, i,
                 PendingIntent.FLAG_NO_CREATE);
 
@@ -236,7 +252,7 @@ public class Notifier {
             pi.cancel();
         }
 
-        i = new Intent(context, NotifReceiver.class).setAction(ACTION_REPEAT_ALM);
+        i = createAlarmIntent(context, ACTION_REPEAT_ALM, trigId);
         pi = PendingIntent.getBroadcast(context, 0, i,
                 PendingIntent.FLAG_NO_CREATE);
 
@@ -249,7 +265,7 @@ public class Notifier {
     private static void cancelAlarm(Context context, String action) {
         AlarmManager alarmMan = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
 
-        Intent i = new Intent(context, NotifReceiver.class).setAction(action);
+        Intent i = createAlarmIntent(context, action, NO_TRIGGER);
         PendingIntent pi = PendingIntent.getBroadcast(context, 0, i,
                 PendingIntent.FLAG_NO_CREATE);
 
@@ -259,17 +275,31 @@ public class Notifier {
         }
     }
 
+    /*
+     * Create the intent of an alarm. The alarms of different triggers
+     * have different data so that they do not replace each other.
+     */
+    private static Intent createAlarmIntent(Context context, String action, int trigId) {
+        Intent i = new Intent(context, NotifReceiver.class).setAction(action);
+        if (trigId != NO_TRIGGER) {
+            i.setData(Uri.parse(DATA_PREFIX_TRIG_ALM + trigId));
+            i.putExtra(KEY_TRIGGER_ID, trigId);
+        }
+        return i;
+    }
+
     private static void setAlarm(Context context,
                                  String action,
+                                 int trigId,
                                  int mins,
                                  Bundle extras) {
 
-        Log.v(TAG, "Notifier: Setting alarm(" + mins + ", " + action + ")");
+        Log.v(TAG, "Notifier: Setting alarm(" + mins + ", " + action + ", " + trigId + ")");
 
         AlarmManager alarmMan = (AlarmManager)
                 context.getSystemService(Context.ALARM_SERVICE);
 
-        Intent i = new Intent(context, NotifReceiver.class).setAction(action);
+        Intent i = createAlarmIntent(context, action, trigId);
         if (extras != null) {
             i.putExtras(extras);
         }
@@ -310,7 +340,7 @@ public class Notifier {
         Bundle repeatBundle = new Bundle();
         repeatBundle.putIntArray(KEY_REPEAT_LIST, newRepeats);
         //Set the alarm for the first repeat item and attach the remaining list
-        setAlarm(context, ACTION_REPEAT_ALM, repeatDiffs[0], repeatBundle);
+        setAlarm(context, ACTION_REPEAT_ALM, trigId, repeatDiffs[0], repeatBundle);
     }
 
     /*
@@ -357,7 +387,7 @@ public class Notifier {
         }
 
         //Set an expire alarm for the remaining duration
-        setAlarm(context, ACTION_EXPIRE_ALM, remDuration, null);
+        setAlarm(context, ACTION_EXPIRE_ALM, trigId, remDuration, null);
 
         //Set an alarm for the remaining repeats, if any
         List<Integer> repeats = desc.getSortedRepeats();
@@ -421,11 +451,6 @@ public class Notifier {
      */
     private static void repeatReminder(Context context, int trigId, Intent intent) {
 
-        TriggerDB db = new TriggerDB(context);
-        db.open();
-        TriggerDB.Campaign campaign = db.getCampaignInfo(trigId);
-        db.close();
-
         Set<String> actSurveys = NotifSurveyAdaptor.getActiveSurveysForTrigger(context,
                 trigId);
 
@@ -435,6 +460,8 @@ public class Notifier {
             return;
         }
 
+        TriggerEventLog.record(context, trigId, TriggerEventDB.TYPE_REPEATED);
+
         //Trigger is still active, alert the user
         refreshNotification(context, false);
         //Continue the remaining repeat reminders
@@ -469,7 +496,7 @@ public class Notifier {
     /*
      * Get the current visibility of the notification
      */
-    private static boolean getNotifVisibility(Context context) {
+    static boolean getNotifVisibility(Context context) {
         SharedPreferences pref = context.getSharedPreferences(
                 Notifier.class.getName(),
                 Context.MODE_PRIVATE);
@@ -487,14 +514,14 @@ public class Notifier {
         Log.v(TAG, "Notifier: Handling expiration alarm for: "
                 + trigId);
 
+        //Alarms set by older versions do not carry the trigger id
+        if (trigId != NO_TRIGGER) {
+            TriggerEventLog.record(context, trigId, TriggerEventDB.TYPE_EXPIRED);
+        }
+
         //Log information related to expired triggers.
         NotifSurveyAdaptor.handleExpiredTrigger(context, trigId);
 
-        TriggerDB db = new TriggerDB(context);
-        db.open();
-        TriggerDB.Campaign campaign = db.getCampaignInfo(trigId);
-        db.close();
-
         //Quietly refresh the notification
         Notifier.refreshNotification(context, true);
     }
@@ -521,7 +548,7 @@ public class Notifier {
         }
 
         //Set an alarm to expire this trigger notif
-        setAlarm(context, ACTION_EXPIRE_ALM, desc.getDuration(), null);
+        setAlarm(context, ACTION_EXPIRE_ALM, trigId, desc.getDuration(), null);
 
         //Set an alarm for repeat reminder
         int[] repeatDiffs = getRepeatDiffs(desc.getSortedRepeats());
@@ -534,11 +561,37 @@ public class Notifier {
         refreshNotification(context, true);
     }
 
+    /*
+     * Remove the notifications of several triggers with a single refresh
+     */
+    public static void removeTriggerNotifications(Context context, Collection<Integer> trigIds) {
+        for (int trigId : trigIds) {
+            cancelAllAlarms(context, trigId);
+        }
+        refreshNotification(context, true);
+    }
+
     /* Receiver for all alarms */
     public static class NotifReceiver extends BroadcastReceiver {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
+        public void onReceive(Context context, final Intent intent) {
+
+            if (intent.getAction().equals(ACTION_NOTIF_SNOOZED)) {
+                //The toast has to be shown from the main thread
+                Toast.makeText(context, R.string.notification_snoozed, Toast.LENGTH_SHORT).show();
+            }
+
+            final Context appContext = context.getApplicationContext();
+            TriggerEngine.handleBroadcast(this, context, new Runnable() {
+                @Override
+                public void run() {
+                    handleIntent(appContext, intent);
+                }
+            });
+        }
+
+        private void handleIntent(Context context, Intent intent) {
 
             if (intent.getAction().equals(ACTION_NOTIF_CLICKED)) {
                 ArrayList<String> surveys = intent.getStringArrayListExtra(EXTRA_SURVEYS);
@@ -553,9 +606,9 @@ public class Notifier {
                 TriggerBase.updatePendingStateForSurveys(context, Reminders.NOT_PENDING,
                         surveys.toArray(new String[]{}));
             } else if (intent.getAction().equals(ACTION_NOTIF_SNOOZED)) {
-                Toast.makeText(context, R.string.notification_snoozed, Toast.LENGTH_SHORT).show();
+                TriggerEventLog.recordForActiveTriggers(context, TriggerEventDB.TYPE_SNOOZED);
                 hideNotification(context);
-                setAlarm(context, ACTION_NOTIF_RESHOW, 10, null);
+                setAlarm(context, ACTION_NOTIF_RESHOW, NO_TRIGGER, 10, null);
             } else if (intent.getAction().equals(ACTION_NOTIF_RESHOW)) {
                 refreshNotification(context, false);
             } else if (intent.getAction().equals(ACTION_NOTIF_DELETED)) {
@@ -563,14 +616,14 @@ public class Notifier {
             } else if (intent.getAction().equals(ACTION_EXPIRE_ALM)) {
 
                 Notifier.handleTriggerExpired(context,
-                        intent.getIntExtra(KEY_TRIGGER_ID, -1));
+                        intent.getIntExtra(KEY_TRIGGER_ID, NO_TRIGGER));
             } else if (intent.getAction().equals(ACTION_REPEAT_ALM)) {
 
                 if (!intent.hasExtra(KEY_TRIGGER_ID)) {
                     return;
                 }
 
-                int trigId = intent.getIntExtra(KEY_TRIGGER_ID, -1);
+                int trigId = intent.getIntExtra(KEY_TRIGGER_ID, NO_TRIGGER);
 
                 Notifier.repeatReminder(context, trigId, intent);
             }
@@ -0,0 +1,193 @@
+package org.ohmage.reminders.notif;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.util.Log;
+
+import org.ohmage.reminders.base.ReminderContract.Reminders;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Cache of the display names of the surveys, keyed by survey id. The names
+ * are provided by the host application through the reminders content
+ * provider, which lives in another process in general. The notification
+ * is refreshed often, so instead of querying the provider on each refresh,
+ * the names of all the surveys which are missing from the cache are fetched
+ * in one go, with queries of at most MAX_ARGS_PER_QUERY surveys each so that
+ * large campaigns stay below the SQLite limit on the number of bind
+ * arguments.
+ *
+ * The provider reports a change to the reminders uri for the writes of the
+ * pending state as well, which the framework makes each time a trigger goes
+ * off, and these do not change the names. So a change only marks the cache
+ * as stale: the next refresh of the notification reads the names of the
+ * cached surveys again and the notification is posted again only if one of
+ * them changed.
+ */
+public class SurveyNameCache {
+
+    private static final String TAG = "SurveyNameCache";
+
+    //SQLite refuses statements with more than 999 bind arguments
+    private static final int MAX_ARGS_PER_QUERY = 500;
+
+    //Survey id to name. A survey which is not known to the provider
+    //is mapped to null so that it is not queried again.
+    private static final HashMap<String, String> sNames = new HashMap<String, String>();
+
+    //Whether the provider reported a change since the names were read
+    private static boolean sStale = false;
+
+    private static ContentObserver sObserver = null;
+
+    /*
+     * Get the names of the given surveys. Surveys which are not
+     * known to the provider are left out of the returned map.
+     */
+    public static synchronized Map<String, String> getNames(Context context,
+                                                            Collection<String> surveys) {
+        registerObserver(context);
+
+        ArrayList<String> missing = new ArrayList<String>();
+        for (String survey : surveys) {
+            if (!sNames.containsKey(survey)) {
+                missing.add(survey);
+            }
+        }
+
+        if (missing.size() > 0) {
+            loadNames(context, missing);
+        }
+
+        HashMap<String, String> ret = new HashMap<String, String>();
+        for (String survey : surveys) {
+            String name = sNames.get(survey);
+            if (name != null) {
+                ret.put(survey, name);
+            }
+        }
+
+        return ret;
+    }
+
+    /*
+     * Get the name of a single survey. Returns null if the survey
+     * is not known to the provider.
+     */
+    public static String getName(Context context, String survey) {
+        ArrayList<String> surveys = new ArrayList<String>();
+        surveys.add(survey);
+
+        return getNames(context, surveys).get(survey);
+    }
+
+    /*
+     * Drop all the cached names
+     */
+    public static synchronized void invalidate() {
+        Log.v(TAG, "SurveyNameCache: Invalidating survey names");
+
+        sNames.clear();
+        sStale = false;
+    }
+
+    /*
+     * Read the names of the cached surveys again if the provider reported
+     * a change since they were read. Returns true if any of the names
+     * changed, in which case the notification must be posted again.
+     */
+    public static synchronized boolean reloadIfStale(Context context) {
+        if (!sStale) {
+            return false;
+        }
+
+        sStale = false;
+        if (sNames.isEmpty()) {
+            return false;
+        }
+
+        HashMap<String, String> old = new HashMap<String, String>(sNames);
+        if (!loadNames(context, new ArrayList<String>(old.keySet()))) {
+            //Try again on the next refresh
+            sStale = true;
+        }
+
+        boolean changed = !old.equals(sNames);
+        Log.v(TAG, "SurveyNameCache: Reloaded the names of " + old.size()
+                + " surveys, changed = " + changed);
+        return changed;
+    }
+
+    private static synchronized void markStale() {
+        sStale = true;
+    }
+
+    /*
+     * Query the names of the given surveys from the provider
+     * in one go and add them to the cache. Returns false if
+     * the provider could not be queried.
+     */
+    private static boolean loadNames(Context context, ArrayList<String> surveys) {
+
+        Log.v(TAG, "SurveyNameCache: Loading the names of " + surveys.size() + " surveys");
+
+        for (int start = 0; start < surveys.size(); start += MAX_ARGS_PER_QUERY) {
+            List<String> chunk = surveys.subList(start,
+                    Math.min(start + MAX_ARGS_PER_QUERY, surveys.size()));
+
+            Cursor c = context.getContentResolver().query(Reminders.buildRemindersUri(),
+                    new String[]{Reminders._ID, Reminders.REMINDER_NAME},
+                    buildSelection(chunk.size()), chunk.toArray(new String[chunk.size()]), null);
+
+            if (c == null) {
+                //Leave the rest of the cache untouched so that the query is retried
+                Log.e(TAG, "SurveyNameCache: Failed to query the survey names");
+                return false;
+            }
+
+            for (String survey : chunk) {
+                sNames.put(survey, null);
+            }
+
+            while (c.moveToNext()) {
+                sNames.put(c.getString(0), c.getString(1));
+            }
+            c.close();
+        }
+        return true;
+    }
+
+    private static String buildSelection(int count) {
+        StringBuilder select = new StringBuilder(Reminders._ID + " IN (");
+        for (int i = 0; i < count; i++) {
+            select.append(i == 0 ? "?" : ",?");
+        }
+        return select.append(")").toString();
+    }
+
+    /*
+     * Register a content observer to mark the cache as stale when
+     * the reminders of the host application change.
+     */
+    private static void registerObserver(Context context) {
+        if (sObserver != null) {
+            return;
+        }
+
+        sObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                markStale();
+            }
+        };
+
+        context.getApplicationContext().getContentResolver().registerContentObserver(
+                Reminders.buildRemindersUri(), true, sObserver);
+    }
+}
@@ -25,8 +25,17 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 import com.google.android.gms.maps.model.LatLng;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import org.ohmage.reminders.R;
+import org.ohmage.reminders.base.DBMigrations;
+import org.ohmage.reminders.base.DBSnapshot;
+import org.ohmage.reminders.base.StatementCache;
+import org.ohmage.reminders.base.TriggerEngine;
+import org.ohmage.reminders.core.Metrics;
+
+import java.io.IOException;
 
 /*
  * Database to store the location triggers settings. 
@@ -65,8 +74,16 @@ public class LocTrigDB {
     public static final String KEY_LONG = "longitude";
     public static final String KEY_RADIUS = "radius";
 
+    //The hot write of the engine thread
+    private static final String SQL_UPDATE_TIMESTAMP = "UPDATE " + TABLE_CATEGORIES + " SET "
+            + KEY_TIMESTAMP + "=? WHERE " + KEY_ID + "=?";
+
+    //The connection shared by all the instances, as in TriggerDB
+    private static DatabaseHelper sDbHelper = null;
+    private static Context sDbContext = null;
+    private static StatementCache sEngineStatements = null;
+
     private final Context mContext;
-    private DatabaseHelper mDbHelper;
     private SQLiteDatabase mDb;
 
     public LocTrigDB(Context context) {
@@ -74,16 +91,15 @@ public class LocTrigDB {
     }
 
     //Delete the database file
-    public static void deleteDatabase(Context context) {
+    public static synchronized void deleteDatabase(Context context) {
+        closeConnection();
         context.deleteDatabase(DATABASE_NAME);
     }
 
     /* Open the database */
     public boolean open() {
-        mDbHelper = new DatabaseHelper(mContext);
-
         try {
-            mDb = mDbHelper.getWritableDatabase();
+            mDb = openConnection(mContext);
         } catch (SQLException e) {
             Log.e(TAG, "Error opening location trigger db", e);
             return false;
@@ -91,11 +107,100 @@ public class LocTrigDB {
         return true;
     }
 
-    /* Close the database */
+    /* Close the database. The shared connection is left open. */
     public void close() {
-        if (mDbHelper != null) {
-            mDbHelper.close();
+    }
+
+    /*
+     * Get the shared connection, opening it if needed. The connection
+     * belongs to the application context it was opened for.
+     */
+    private static synchronized SQLiteDatabase openConnection(Context context) {
+        Context appContext = context.getApplicationContext();
+
+        if (sDbContext != appContext) {
+            closeConnection();
+        }
+
+        if (sDbHelper == null) {
+            sDbHelper = new DatabaseHelper(appContext);
+            sDbContext = appContext;
+        }
+        return sDbHelper.getWritableDatabase();
+    }
+
+    private static synchronized void closeConnection() {
+        if (sEngineStatements != null) {
+            sEngineStatements.close();
+            sEngineStatements = null;
         }
+        if (sDbHelper != null) {
+            sDbHelper.close();
+            sDbHelper = null;
+            sDbContext = null;
+        }
+    }
+
+    /*
+     * Get the statements cached on the shared connection for the engine
+     * thread. Returns null on the other threads.
+     */
+    private StatementCache getEngineStatements() {
+        if (!TriggerEngine.isEngineThread()) {
+            return null;
+        }
+
+        synchronized (LocTrigDB.class) {
+            if (sEngineStatements == null) {
+                sEngineStatements = new StatementCache(mDb);
+            }
+            return sEngineStatements;
+        }
+    }
+
+    /*
+     * The reads and writes go through the helpers below so that the time
+     * they take is recorded. Queries fill their cursor right away, so that
+     * the time includes running the query and not only compiling it.
+     */
+    private Cursor query(String table, String[] columns, String selection,
+                         String[] selectionArgs, String groupBy, String having,
+                         String orderBy) {
+        long start = Metrics.startTimer();
+        Cursor c = mDb.query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
+        c.getCount();
+        Metrics.stopTimer(Metrics.LOC_TRIG_DB_READ, start);
+        return c;
+    }
+
+    private Cursor rawQuery(String sql, String[] selectionArgs) {
+        long start = Metrics.startTimer();
+        Cursor c = mDb.rawQuery(sql, selectionArgs);
+        c.getCount();
+        Metrics.stopTimer(Metrics.LOC_TRIG_DB_READ, start);
+        return c;
+    }
+
+    private long insert(String table, String nullColumnHack, ContentValues values) {
+        long start = Metrics.startTimer();
+        long id = mDb.insert(table, nullColumnHack, values);
+        Metrics.stopTimer(Metrics.LOC_TRIG_DB_WRITE, start);
+        return id;
+    }
+
+    private int update(String table, ContentValues values, String whereClause,
+                       String[] whereArgs) {
+        long start = Metrics.startTimer();
+        int count = mDb.update(table, values, whereClause, whereArgs);
+        Metrics.stopTimer(Metrics.LOC_TRIG_DB_WRITE, start);
+        return count;
+    }
+
+    private int delete(String table, String whereClause, String[] whereArgs) {
+        long start = Metrics.startTimer();
+        int count = mDb.delete(table, whereClause, whereArgs);
+        Metrics.stopTimer(Metrics.LOC_TRIG_DB_WRITE, start);
+        return count;
     }
 
     /* Add a new category */
@@ -106,7 +211,7 @@ public class LocTrigDB {
         values.put(KEY_BUILT_IN, 0);
         values.put(KEY_TIMESTAMP, TIME_STAMP_INVALID);
 
-        if (mDb.insert(TABLE_CATEGORIES, null, values) == -1) {
+        if (insert(TABLE_CATEGORIES, null, values) == -1) {
             return false;
         }
 
@@ -119,7 +224,7 @@ public class LocTrigDB {
         ContentValues values = new ContentValues();
         values.put(KEY_NAME, newName);
 
-        if (mDb.update(TABLE_CATEGORIES, values,
+        if (update(TABLE_CATEGORIES, values,
                 "" + KEY_ID + "=" + categId, null) != 1) {
             return false;
         }
@@ -129,20 +234,20 @@ public class LocTrigDB {
 
     /* Return the list of all categories */
     public Cursor getAllCategories() {
-        return mDb.query(TABLE_CATEGORIES, new String[]{KEY_ID, KEY_NAME, KEY_BUILT_IN},
+        return query(TABLE_CATEGORIES, new String[]{KEY_ID, KEY_NAME, KEY_BUILT_IN},
                 null, null, null, null, null);
     }
 
     /* Get a single category from category id */
     public Cursor getCategory(int categoryId) {
-        return mDb.query(TABLE_CATEGORIES, null,
+        return query(TABLE_CATEGORIES, null,
                 "" + KEY_ID + "=" + categoryId,
                 null, null, null, null);
     }
 
     /* Get a single category from category name */
     public Cursor getCategory(String categName) {
-        return mDb.query(TABLE_CATEGORIES, null,
+        return query(TABLE_CATEGORIES, null,
                 KEY_NAME + "=?", new String[]{categName},
                 null, null, null);
     }
@@ -151,7 +256,7 @@ public class LocTrigDB {
     public String getCategoryName(int categId) {
         String name = null;
 
-        Cursor c = mDb.query(TABLE_CATEGORIES, new String[]{KEY_NAME},
+        Cursor c = query(TABLE_CATEGORIES, new String[]{KEY_NAME},
                 "" + KEY_ID + "=" + categId,
                 null, null, null, null);
 
@@ -169,8 +274,8 @@ public class LocTrigDB {
      */
     public int removeCategory(int categoryId) {
 
-        mDb.delete(TABLE_CATEGORIES, "" + KEY_ID + " = " + categoryId, null);
-        int locs = mDb.delete(TABLE_LOCATIONS, "" + KEY_CATEGORY_ID + " = " + categoryId, null);
+        delete(TABLE_CATEGORIES, "" + KEY_ID + " = " + categoryId, null);
+        int locs = delete(TABLE_LOCATIONS, "" + KEY_CATEGORY_ID + " = " + categoryId, null);
 
         return locs;
     }
@@ -179,7 +284,7 @@ public class LocTrigDB {
      * Get the time stamp of a category.
      */
     public long getCategoryTimeStamp(int categId) {
-        Cursor c = mDb.query(TABLE_CATEGORIES, new String[]{KEY_TIMESTAMP},
+        Cursor c = query(TABLE_CATEGORIES, new String[]{KEY_TIMESTAMP},
                 KEY_ID + "=?", new String[]{String.valueOf(categId)},
                 null, null, null);
 
@@ -196,12 +301,20 @@ public class LocTrigDB {
      * Set the time stamp of a category.
      */
     public void setCategoryTimeStamp(int categId, long timeStamp) {
-        ContentValues values = new ContentValues();
-        values.put(KEY_TIMESTAMP, timeStamp);
+        StatementCache statements = getEngineStatements();
+        if (statements == null) {
+            ContentValues values = new ContentValues();
+            values.put(KEY_TIMESTAMP, timeStamp);
+
+            update(TABLE_CATEGORIES, values,
+                    KEY_ID + "=?",
+                    new String[]{String.valueOf(categId)});
+            return;
+        }
 
-        mDb.update(TABLE_CATEGORIES, values,
-                KEY_ID + "=?",
-                new String[]{String.valueOf(categId)});
+        long start = Metrics.startTimer();
+        statements.execute(SQL_UPDATE_TIMESTAMP, timeStamp, categId);
+        Metrics.stopTimer(Metrics.LOC_TRIG_DB_WRITE, start);
     }
 
     /*
@@ -213,7 +326,7 @@ public class LocTrigDB {
         ContentValues values = new ContentValues();
         values.put(KEY_TIMESTAMP, TIME_STAMP_INVALID);
 
-        mDb.update(TABLE_CATEGORIES, values, null, null);
+        update(TABLE_CATEGORIES, values, null, null);
         return true;
     }
 
@@ -226,13 +339,13 @@ public class LocTrigDB {
         values.put(KEY_CATEGORY_ID, categoryId);
         values.put(KEY_RADIUS, radius);
 
-        return (int) mDb.insert(TABLE_LOCATIONS, null, values);
+        return (int) insert(TABLE_LOCATIONS, null, values);
     }
 
     /* Delete an existing location */
     public boolean removeLocation(long locId) {
 
-        if (mDb.delete(TABLE_LOCATIONS, "" + KEY_ID + " = " + locId, null) != 1) {
+        if (delete(TABLE_LOCATIONS, "" + KEY_ID + " = " + locId, null) != 1) {
             return false;
         }
 
@@ -245,7 +358,7 @@ public class LocTrigDB {
         ContentValues values = new ContentValues();
         values.put(KEY_RADIUS, radius);
 
-        if (mDb.update(TABLE_LOCATIONS, values,
+        if (update(TABLE_LOCATIONS, values,
                 "" + KEY_ID + "=" + locId, null) != 1) {
             return false;
         }
@@ -255,7 +368,7 @@ public class LocTrigDB {
 
     /* Get all locations corresponding to a category id */
     public Cursor getLocations(int categoryId) {
-        return mDb.rawQuery("SELECT " + KEY_ID + ", " + KEY_LAT + ", " + KEY_LONG + ", " + KEY_RADIUS
+        return rawQuery("SELECT " + KEY_ID + ", " + KEY_LAT + ", " + KEY_LONG + ", " + KEY_RADIUS
                         + " FROM " + TABLE_LOCATIONS
                         + " WHERE " + KEY_CATEGORY_ID + " = " + categoryId,
                 null
@@ -265,10 +378,60 @@ public class LocTrigDB {
 
     /* Get all locations */
     public Cursor getAllLocations() {
-        return mDb.query(TABLE_LOCATIONS, new String[]{KEY_ID, KEY_LAT, KEY_LONG, KEY_RADIUS,
+        return query(TABLE_LOCATIONS, new String[]{KEY_ID, KEY_LAT, KEY_LONG, KEY_RADIUS,
                 KEY_CATEGORY_ID}, null, null, null, null, null);
     }
 
+    /* Write the places and their locations to a snapshot */
+    public void writeSnapshot(JsonWriter writer) throws IOException {
+        long start = Metrics.startTimer();
+
+        mDb.beginTransaction();
+        try {
+            writer.beginObject();
+            writer.name(TABLE_CATEGORIES);
+            DBSnapshot.writeTable(mDb, TABLE_CATEGORIES, writer);
+            writer.name(TABLE_LOCATIONS);
+            DBSnapshot.writeTable(mDb, TABLE_LOCATIONS, writer);
+            writer.endObject();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        Metrics.stopTimer(Metrics.LOC_TRIG_DB_READ, start);
+    }
+
+    /*
+     * Replace all the places and their locations with those of a snapshot,
+     * in one transaction. The built-in places are replaced as well.
+     */
+    public void readSnapshot(JsonReader reader) throws IOException {
+        long start = Metrics.startTimer();
+
+        mDb.beginTransaction();
+        try {
+            mDb.delete(TABLE_LOCATIONS, null, null);
+            mDb.delete(TABLE_CATEGORIES, null, null);
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String table = reader.nextName();
+                if (table.equals(TABLE_CATEGORIES) || table.equals(TABLE_LOCATIONS)) {
+                    DBSnapshot.readTable(mDb, table, reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        Metrics.stopTimer(Metrics.LOC_TRIG_DB_WRITE, start);
+    }
+
     /**
      * ********************** INNER CLASSES ************************
      */
@@ -326,7 +489,15 @@ public class LocTrigDB {
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion,
                               int newVersion) {
+            DBMigrations.upgrade(db, DATABASE_NAME, oldVersion, newVersion, MIGRATIONS);
         }
     }
 
+    /*
+     * The upgrades of the schema, one per version after the first.
+     * See DBMigrations.
+     */
+    private static final DBMigrations.Step[] MIGRATIONS = {
+    };
+
 }
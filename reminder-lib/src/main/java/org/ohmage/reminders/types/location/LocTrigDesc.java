@@ -27,6 +27,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.reminders.base.TrigDesc;
 import org.ohmage.reminders.config.LocTrigConfig;
+import org.ohmage.reminders.core.Metrics;
 import org.ohmage.reminders.utils.SimpleTime;
 
 import java.lang.reflect.Type;
@@ -77,6 +78,7 @@ public class LocTrigDesc implements TrigDesc {
     public boolean loadString(String desc) {
 
         initialize();
+        Metrics.increment(Metrics.DESC_PARSE_LOCATION);
 
         if (desc == null) {
             return false;
@@ -266,6 +268,7 @@ public class LocTrigDesc implements TrigDesc {
             LocTrigDesc desc = new LocTrigDesc();
 
             desc.initialize();
+            Metrics.increment(Metrics.DESC_PARSE_LOCATION);
 
             desc.mLocation = jDesc.get(KEY_LOCATION).getAsString();
             desc.mMinInterval = jDesc.get(KEY_MIN_INTERVAL_REENTRY).getAsInt();
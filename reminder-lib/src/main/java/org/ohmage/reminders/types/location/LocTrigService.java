@@ -49,14 +49,22 @@ import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
-import com.google.android.gms.maps.model.LatLng;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.accelservice.IAccelService;
+import org.ohmage.reminders.base.PendingStateWriter;
+import org.ohmage.reminders.base.TriggerBase;
+import org.ohmage.reminders.base.TriggerEngine;
 import org.ohmage.reminders.base.TriggerDB;
+import org.ohmage.reminders.base.TriggerRecord;
 import org.ohmage.reminders.config.LocTrigConfig;
-import org.ohmage.reminders.utils.SimpleTime;
+import org.ohmage.reminders.core.Clock;
+import org.ohmage.reminders.core.DistanceCalculator;
+import org.ohmage.reminders.core.Metrics;
+import org.ohmage.reminders.core.PlaceMatcher;
+import org.ohmage.reminders.core.PlaceMatcher.Place;
+import org.ohmage.reminders.core.ReentryPolicy;
+import org.ohmage.reminders.core.SleepTimeCalculator;
 import org.ohmage.wifigpslocation.ILocationChangedCallback;
 import org.ohmage.wifigpslocation.IWiFiGPSLocationService;
 
@@ -65,6 +73,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 public class LocTrigService extends Service
         implements LocationListener {
@@ -85,6 +94,11 @@ public class LocTrigService extends Service
             LocTrigService.class.getName() + ".stop_trigger";
     public static final String ACTION_RESET_TRIGGER =
             LocTrigService.class.getName() + ".reset_trigger";
+    //Start or stop the triggers put in the intent by TriggerBase.putTriggers()
+    public static final String ACTION_START_TRIGGERS =
+            LocTrigService.class.getName() + ".start_triggers";
+    public static final String ACTION_REMOVE_TRIGGERS =
+            LocTrigService.class.getName() + ".stop_triggers";
     public static final String ACTION_UPDATE_LOCATIONS =
             LocTrigService.class.getName() + ".update_locations";
     private static final String ACTION_HANDLE_ALARM =
@@ -98,7 +112,7 @@ public class LocTrigService extends Service
     private static final String KEY_SAMPLING_ALARM_EXTRA = "alarm_extra";
 
     /* Invalid category id */
-    private static final int CATEG_ID_INVAL = -1;
+    private static final int CATEG_ID_INVAL = PlaceMatcher.NO_CATEGORY;
 
     /* Alarm actions */
     private static final String ACTION_ALRM_PASS_THROUGH =
@@ -129,16 +143,6 @@ public class LocTrigService extends Service
     //The threshold value to use when checking if a location
     //belongs to a category
     private static final float CATEG_ACCURACY_MARGIN = 20; //m
-    //The maximum value of GPS duty cycle interval
-    private static final long MAX_SLEEP_TIME = 360000; //6 mins
-    //The minimum value of GPS duty cycle interval
-    private static final long MIN_SLEEP_TIME = 30000; //30sec
-    //The actual sleep time is calculated based on the speed.
-    //The distance (the maximum of which is given above) is calculated
-    //from the proximity. The proximity is divided by this value get
-    //the distance value which should be divided by the speed to get the
-    //sleep time.
-    private static final float SLEEP_DIST_FACTOR = 10;
     //Discard samples below this accuracy
     private static final float INACCURATE_SAMPLE_THRESHOLD = 17; //m
     //Ignore the speed below this value
@@ -157,6 +161,8 @@ public class LocTrigService extends Service
 
     //Wake lock for GPS sampling
     private PowerManager.WakeLock mWakeLock = null;
+    //Elapsed real time at which the wake lock was acquired
+    private long mWakeLockTime = 0;
     //Wake lock for alarm receiver
     private static PowerManager.WakeLock mRecvrWakeLock = null;
 
@@ -171,14 +177,17 @@ public class LocTrigService extends Service
     //Number of initial samples collected when the very first time the
     //sampling is started
     private int mNInitialSamples = 0;
-    //Current sleep time before the next duty cycle
-    private long mCurrSleepTime = 0;
+    //Calculates the sleep time before the next duty cycle
+    private SleepTimeCalculator mSleepTime = new SleepTimeCalculator();
+    //Calculates the distance to the places
+    private final DistanceCalculator mDistance = new LocationDistanceCalculator();
+    //Finds the place a location falls into
+    private final PlaceMatcher mPlaceMatcher =
+            new PlaceMatcher(mDistance, CATEG_ACCURACY_MARGIN);
     //Speed calculated in the previous duty cycle
     private float mPrevSpeed = 0;
     //Speed calculated in the current duty cycle
     private float mCurrSpeed = 0;
-    //Current value of the proximity distance
-    private float mCurrProxDist = 0;
     //The latest location update received
     private final Location mLastKnownLoc = new Location(LocationManager.GPS_PROVIDER);
     //Time stamp of the above location update
@@ -197,6 +206,8 @@ public class LocTrigService extends Service
     //Flag to check if the sampling is started at all
     private boolean mSamplingStarted = false;
     private boolean mGPSStarted = false;
+    //Elapsed real time at which the location updates were turned on
+    private long mGPSStartTime = 0;
     private long mMotionDetectTS = 0;
     private WifiManager.WifiLock mWifiLock = null;
     //Status of location tracing
@@ -207,8 +218,8 @@ public class LocTrigService extends Service
     private final Location mLastLocTrace = new Location(LocationManager.GPS_PROVIDER);
 
     //Handler to handle motion detection callback
-    //It is require to run the handling in the current thread
-    Handler mHandler = new Handler() {
+    //It is require to run the handling in the engine thread
+    Handler mHandler = new Handler(TriggerEngine.getLooper()) {
         @Override
         public void handleMessage(Message msg) {
             handleWifiGPSLocChange();
@@ -216,7 +227,7 @@ public class LocTrigService extends Service
     };
 
     //The list of all locations to watch for
-    private LinkedList<LocListItem> mLocList;
+    private LinkedList<Place> mLocList;
 
 
     @Override
@@ -229,11 +240,17 @@ public class LocTrigService extends Service
         //Let the service live forever
         setKeepAliveAlarm(this);
 
-        //Cache the locations
-        mLocList = new LinkedList<LocListItem>();
-        populateLocList();
+        //Cache the locations. This is queued before any command
+        //so the engine thread sees the list populated.
+        mLocList = new LinkedList<Place>();
+        TriggerEngine.post(this, new Runnable() {
+            @Override
+            public void run() {
+                populateLocList();
 
-        initState();
+                initState();
+            }
+        });
 
         PowerManager powerMan = (PowerManager) getSystemService(POWER_SERVICE);
         mWakeLock = powerMan.newWakeLock(
@@ -266,7 +283,24 @@ public class LocTrigService extends Service
     }
 
     @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
+    public int onStartCommand(final Intent intent, int flags, int startId) {
+        //Handle the command on the engine thread. The wake lock taken
+        //by the alarm receiver is held until it has been handled.
+        TriggerEngine.post(this, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handleCommand(intent);
+                } finally {
+                    releaseRecvrWakeLock();
+                }
+            }
+        });
+
+        return START_NOT_STICKY;
+    }
+
+    private void handleCommand(Intent intent) {
         int trigId = intent.getIntExtra(KEY_TRIG_ID, -1);
         String trigDesc = intent.getStringExtra(KEY_TRIG_DESC);
 
@@ -276,6 +310,14 @@ public class LocTrigService extends Service
             cancelTriggerAlwaysAlarm(trigId);
         } else if (intent.getAction().equals(ACTION_RESET_TRIGGER)) {
             setTriggerAlwaysAlarm(trigId, trigDesc);
+        } else if (intent.getAction().equals(ACTION_START_TRIGGERS)) {
+            for (Map.Entry<Integer, String> trig : TriggerBase.getTriggers(intent).entrySet()) {
+                setTriggerAlwaysAlarm(trig.getKey(), trig.getValue());
+            }
+        } else if (intent.getAction().equals(ACTION_REMOVE_TRIGGERS)) {
+            for (int id : TriggerBase.getTriggers(intent).keySet()) {
+                cancelTriggerAlwaysAlarm(id);
+            }
         } else if (intent.getAction().equals(ACTION_HANDLE_ALARM)) {
             handleAlarm(intent.getExtras());
         } else if (intent.getAction().equals(ACTION_UPDATE_LOCATIONS)) {
@@ -285,22 +327,24 @@ public class LocTrigService extends Service
         }
 
         updateSamplingStatus();
-
-        releaseRecvrWakeLock();
-
-        return START_NOT_STICKY;
     }
 
     @Override
     public void onDestroy() {
-        stopGPS();
+        //Clean up after the commands already queued
+        TriggerEngine.post(this, new Runnable() {
+            @Override
+            public void run() {
+                stopGPS();
 
-        mLocList.clear();
+                mLocList.clear();
 
-        disconnectRemoteServices();
+                disconnectRemoteServices();
 
-        releaseWakeLock();
-        releaseRecvrWakeLock();
+                releaseWakeLock();
+                releaseRecvrWakeLock();
+            }
+        });
 
         super.onDestroy();
     }
@@ -334,12 +378,15 @@ public class LocTrigService extends Service
     private void acquireWakeLock() {
         if (!mWakeLock.isHeld()) {
             mWakeLock.acquire();
+            mWakeLockTime = SystemClock.elapsedRealtime();
         }
     }
 
     private void releaseWakeLock() {
         if (mWakeLock.isHeld()) {
             mWakeLock.release();
+            Metrics.record(Metrics.LOC_WAKE_LOCK_HOLD,
+                    SystemClock.elapsedRealtime() - mWakeLockTime);
         }
     }
 
@@ -509,10 +556,9 @@ public class LocTrigService extends Service
     private void initState() {
         Log.v(TAG, "LocTrigService: initState");
 
-        mCurrSleepTime = 0;
+        mSleepTime = new SleepTimeCalculator();
         mCurrSpeed = 0;
         mPrevSpeed = 0;
-        mCurrProxDist = 0;
         mNInitialSamples = 0;
         mLastKnownLoc.reset();
         mLastKnownLocBackup.reset();
@@ -630,7 +676,7 @@ public class LocTrigService extends Service
 
         long elapsed = SystemClock.elapsedRealtime() - mMotionDetectTS;
         if (elapsed < MOTION_DETECT_DELAY ||
-                mCurrSleepTime < SLEEP_TIME_MIN_MOTION_DETECT) {
+                mSleepTime.getSleepTime() < SLEEP_TIME_MIN_MOTION_DETECT) {
 
             Log.v(TAG, "LocTrigService: Too early, ignoring WifiGPS loc change");
             return;
@@ -779,7 +825,8 @@ public class LocTrigService extends Service
         List<String> providers = locMan.getAllProviders();
 
         if (providers.contains(LocationManager.GPS_PROVIDER))
-            locMan.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this);
+            locMan.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this,
+                    TriggerEngine.getLooper());
 
         //Use network location as well
         if (LocTrigConfig.useNetworkLocation) {
@@ -791,7 +838,8 @@ public class LocTrigService extends Service
             }
 
             if (providers.contains(LocationManager.NETWORK_PROVIDER))
-                locMan.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 0, 0, this);
+                locMan.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 0, 0, this,
+                        TriggerEngine.getLooper());
         }
 
         cancelSamplingAlarm(ACTION_ALRM_GPS_SAMPLE);
@@ -799,6 +847,8 @@ public class LocTrigService extends Service
         setSamplingAlarm(ACTION_ALRM_GPS_TIMEOUT, GPS_TIMEOUT, 0);
 
         mGPSStarted = true;
+        mGPSStartTime = SystemClock.elapsedRealtime();
+        Metrics.increment(Metrics.GPS_STARTS);
     }
 
     private void stopGPS() {
@@ -822,6 +872,7 @@ public class LocTrigService extends Service
         }
 
         mGPSStarted = false;
+        Metrics.record(Metrics.GPS_ON_TIME, SystemClock.elapsedRealtime() - mGPSStartTime);
     }
 
     private void uploadLatestLocation() {
@@ -1031,7 +1082,7 @@ public class LocTrigService extends Service
                         + ", category id = " + cId
                         + ", radius = " + r);
 
-                mLocList.add(new LocListItem(latE6, longE6, cId, r));
+                mLocList.add(new Place(latE6, longE6, cId, r));
 
             } while (c.moveToNext());
         }
@@ -1045,23 +1096,8 @@ public class LocTrigService extends Service
      * Return the category id in that case.
      */
     private int getLocCategory(Location loc) {
-        for (LocListItem item : mLocList) {
-
-            float[] dist = new float[1];
-            Location.distanceBetween(loc.getLatitude(), loc.getLongitude(),
-                    item.gp.latitude,
-                    item.gp.longitude,
-                    dist);
-
-            //Check if the given location (including its accuracy)
-            //completely falls inside an existing location (with an
-            //error threshold)
-            if ((dist[0] + loc.getAccuracy()) <= (item.radius + CATEG_ACCURACY_MARGIN)) {
-                return item.categoryId;
-            }
-        }
-
-        return CATEG_ID_INVAL;
+        return mPlaceMatcher.getCategory(mLocList, loc.getLatitude(),
+                loc.getLongitude(), loc.getAccuracy());
     }
 
     /*
@@ -1082,12 +1118,16 @@ public class LocTrigService extends Service
         TriggerDB dbHelper = new TriggerDB(this);
         dbHelper.open();
         trigs.addAll(locTrig.getAllActiveTriggerIds(this, null));
+        //Read the descriptions of all the triggers at once
+        Map<Integer, TriggerRecord> records = dbHelper.loadAll(trigs,
+                TriggerRecord.DESC_COLUMNS);
         dbHelper.close();
 
         for (int trig : trigs) {
             LocTrigDesc desc = new LocTrigDesc();
 
-            if (!desc.loadString(locTrig.getTrigger(this, trig))) {
+            TriggerRecord record = records.get(trig);
+            if (record == null || !desc.loadString(record.trigDesc)) {
                 continue;
             }
 
@@ -1134,25 +1174,21 @@ public class LocTrigService extends Service
 
     private float getDistanceToClosestCategory() {
 
-        float minDist = -1;
+        float minDist = SleepTimeCalculator.NO_PROXIMITY;
 
-        for (LocListItem item : mLocList) {
+        for (Place item : mLocList) {
 
             //Check the distance to all locations to watch for.
             //This includes only those locations which have not
             //expired.
             if (checkIfCategoryExpired(item.categoryId)) {
 
-                float[] dist = new float[1];
-                Location.distanceBetween(mLastKnownLoc.getLatitude(),
+                float d = mDistance.distanceBetween(mLastKnownLoc.getLatitude(),
                         mLastKnownLoc.getLongitude(),
-                        item.gp.latitude,
-                        item.gp.longitude,
-                        dist);
-
-                float d = dist[0] - item.radius;
+                        item.latitude,
+                        item.longitude) - item.radius;
                 if (d > 0) {
-                    minDist = (minDist == -1) ? d :
+                    minDist = (minDist == SleepTimeCalculator.NO_PROXIMITY) ? d :
                             Math.min(minDist, d);
                 }
             }
@@ -1160,7 +1196,7 @@ public class LocTrigService extends Service
 
         //If there is no closest location, and if the tracing
         //needs to be done, use a constant factor
-        if (minDist == -1 && mLocTraceEnabled) {
+        if (minDist == SleepTimeCalculator.NO_PROXIMITY && mLocTraceEnabled) {
             minDist = LocTrigConfig.LOC_TRACE_DISTANCE_FACTOR;
         }
 
@@ -1169,66 +1205,20 @@ public class LocTrigService extends Service
 
     /* Reset the current sleep time */
     private void resetSleepTime() {
-        mCurrSleepTime = Math.min(MIN_SLEEP_TIME, mCurrSleepTime);
+        mSleepTime.reset();
     }
 
     /* Calculate the new sleep time based on the current speed
      * and the distance to the closest category.
      */
     private long getUpdatedSleepTime() {
-        long sTime = mCurrSleepTime;
-        float sleepDist = 0;
-
         float proximityDist = getDistanceToClosestCategory();
 
         Log.v(TAG, "LocTrigService: Proximity dist: " + proximityDist);
 
-        //Based on the proximity, calculate the distance (sleepDist)
-        //which should be covered before the next sampling
-        if (proximityDist != -1) {
-            //sampleDist is a proportional to the proximity
-            sleepDist = proximityDist / SLEEP_DIST_FACTOR;
-
-            //If the user has covered half the proximity distance
-            //reset the sleep time. This will help when the speed
-            //cannot be measured and thus the sample time increases
-            //even though the user moves close to a location.
-            if (proximityDist <= mCurrProxDist / 2 && mCurrSpeed == 0) {
-                sTime = Math.min(MIN_SLEEP_TIME, sTime);
-            }
-
-            mCurrProxDist = proximityDist;
-        }
-
-        //Check if the user is idle
-        if (mCurrSpeed == 0) {
-            //if the phone is idle now and was moving before,
-            //reset the sleep time.
-            if (mPrevSpeed != 0) {
-                sTime = MIN_SLEEP_TIME;
-            } else {
-                //Double interval when the phone maintains
-                //the idle status
-                sTime *= 2;
-                if (sTime == 0) {
-                    sTime = MIN_SLEEP_TIME;
-                }
-            }
-        }
-
-        //If the speed is non-zero, calculate the sleep time based on it
-        else if (sleepDist != 0) {
-            float roundSpeed = (float) Math.ceil(mCurrSpeed);
-            sTime = (long) ((sleepDist / roundSpeed) * 1000);
-        } else {
-            sTime = MAX_SLEEP_TIME;
-        }
-
-        //Bound the sleep time
-        sTime = Math.min(MAX_SLEEP_TIME, sTime);
+        long sTime = mSleepTime.update(proximityDist, mCurrSpeed, mPrevSpeed);
 
         Log.v(TAG, "LocTrigService: Sleep time updated to: " + sTime);
-        mCurrSleepTime = sTime;
         return sTime;
     }
 
@@ -1292,71 +1282,71 @@ public class LocTrigService extends Service
         db.close();
 
         LocationTrigger locTrig = new LocationTrigger();
+        ReentryPolicy reentry = new ReentryPolicy(Clock.SYSTEM);
 
         LinkedList<Integer> trigs = new LinkedList<Integer>();
 
         TriggerDB dbHelper = new TriggerDB(this);
         dbHelper.open();
         trigs.addAll(locTrig.getAllActiveTriggerIds(this, null));
+        //Read the descriptions of all the triggers at once
+        Map<Integer, TriggerRecord> records = dbHelper.loadAll(trigs,
+                TriggerRecord.DESC_COLUMNS);
         dbHelper.close();
 
-        for (int trigId : trigs) {
-            LocTrigDesc desc = new LocTrigDesc();
-
-            if (!desc.loadString(locTrig.getTrigger(this, trigId))) {
-                continue;
-            }
-
-            if (!desc.getLocation().equalsIgnoreCase(categName)) {
-                continue;
-            }
-
-            if (desc.isRangeEnabled()) {
-
-                Log.v(TAG, "LocTrigService: Range enabling. Checking whether" +
-                        " to trigger");
+        //The triggers which go off together write the
+        //pending state of their surveys at once
+        PendingStateWriter.beginBatch();
+        try {
+            for (int trigId : trigs) {
+                LocTrigDesc desc = new LocTrigDesc();
 
-                if (locTrig.hasTriggeredToday(this, trigId)) {
-                    Log.v(TAG, "LocTrigService: Has triggered today, skipping");
+                TriggerRecord record = records.get(trigId);
+                if (record == null || !desc.loadString(record.trigDesc)) {
                     continue;
                 }
 
-                Calendar cal = Calendar.getInstance();
-                SimpleTime now = new SimpleTime(cal.get(Calendar.HOUR_OF_DAY),
-                        cal.get(Calendar.MINUTE));
-
-                if (now.isBefore(desc.getStartTime())) {
+                if (!desc.getLocation().equalsIgnoreCase(categName)) {
                     continue;
                 }
 
-                SimpleTime end = desc.getEndTime();
-                if (now.isAfter(end)) {
-                    continue;
-                } else if (now.equals(end) && cal.get(Calendar.SECOND) > 0) {
-                    continue;
-                }
+                if (desc.isRangeEnabled()) {
+
+                    Log.v(TAG, "LocTrigService: Range enabling. Checking whether" +
+                            " to trigger");
+
+                    if (locTrig.hasTriggeredToday(this, trigId)) {
+                        Log.v(TAG, "LocTrigService: Has triggered today, skipping");
+                        continue;
+                    }
+
+                    if (!reentry.shouldTriggerInRange(desc.getStartTime(),
+                            desc.getEndTime(), false)) {
+                        continue;
+                    }
+
+                    Log.v(TAG, "LocTrigService: Triggering now");
+                    cancelTriggerAlwaysAlarm(trigId);
+                    locTrig.notifyTrigger(this, trigId);
+                } else if (mCategPrevTS == LocTrigDB.TIME_STAMP_INVALID) {
+                    Log.v(TAG, "LocTrigService: Invalid categ timestamp." +
+                            " Triggering...");
 
-                Log.v(TAG, "LocTrigService: Triggering now");
-                cancelTriggerAlwaysAlarm(trigId);
-                locTrig.notifyTrigger(this, trigId);
-            } else if (mCategPrevTS == LocTrigDB.TIME_STAMP_INVALID) {
-                Log.v(TAG, "LocTrigService: Invalid categ timestamp." +
-                        " Triggering...");
-
-                locTrig.notifyTrigger(this, trigId);
-            } else {
-                long elapsed = System.currentTimeMillis() - mCategPrevTS;
-                long minReentry = desc.getMinReentryInterval() * 60 * 1000;
-
-                if (elapsed > minReentry) {
-                    Log.v(TAG, "LocTrigService: Beyond minimum re-entry. " +
-                            "Triggering...");
                     locTrig.notifyTrigger(this, trigId);
                 } else {
-                    Log.v(TAG, "LocTrigService: Minimum re-entry has not expired. " +
-                            " Not triggering.");
+                    if (reentry.shouldTriggerOnEntry(mCategPrevTS,
+                            desc.getMinReentryInterval())) {
+                        Log.v(TAG, "LocTrigService: Beyond minimum re-entry. " +
+                                "Triggering...");
+                        locTrig.notifyTrigger(this, trigId);
+                    } else {
+                        Log.v(TAG, "LocTrigService: Minimum re-entry has not expired. " +
+                                " Not triggering.");
+                    }
                 }
             }
+        } finally {
+            PendingStateWriter.endBatch(this);
         }
     }
 
@@ -1541,19 +1531,6 @@ public class LocTrigService extends Service
     /**
      * ********************* INNER CLASSES ***********************
      */
-    /* Class representing an item in the cached location list */
-    private class LocListItem {
-        public LatLng gp;
-        public float radius;
-        public int categoryId;
-
-        public LocListItem(int latE6, int longE6, int cId, float radius) {
-            this.gp = new LatLng(latE6 / 1E6, longE6 / 1E6);
-            this.categoryId = cId;
-            this.radius = radius;
-        }
-    }
-
     /* Receiver for all the alarms */
     public static class AlarmReceiver extends BroadcastReceiver {
 
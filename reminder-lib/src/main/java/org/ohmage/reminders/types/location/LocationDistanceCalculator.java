@@ -0,0 +1,20 @@
+package org.ohmage.reminders.types.location;
+
+import android.location.Location;
+
+import org.ohmage.reminders.core.DistanceCalculator;
+
+/*
+ * Distance calculator backed by the platform implementation,
+ * which takes the ellipsoid shape of the earth into account.
+ */
+public class LocationDistanceCalculator implements DistanceCalculator {
+
+    @Override
+    public float distanceBetween(double startLat, double startLong,
+                                 double endLat, double endLong) {
+        float[] dist = new float[1];
+        Location.distanceBetween(startLat, startLong, endLat, endLong, dist);
+        return dist[0];
+    }
+}
@@ -20,13 +20,19 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.util.Log;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.reminders.R;
+import org.ohmage.reminders.base.TrigDesc;
 import org.ohmage.reminders.base.TriggerBase;
 import org.ohmage.reminders.ui.TriggerListActivity;
 
+import java.util.Map;
+
 /*
  * The concrete instance of the location based triggers class. 
  * 
@@ -110,6 +116,11 @@ public class LocationTrigger extends TriggerBase {
         return desc.getLocation();
     }
 
+    @Override
+    public String getPlaceName(Context context, String trigDesc) {
+        return getDisplayTitle(context, trigDesc);
+    }
+
     @Override
     public int getIcon() {
         return R.drawable.map;
@@ -185,6 +196,12 @@ public class LocationTrigger extends TriggerBase {
         context.startActivity(i);
     }
 
+    @Override
+    public TrigDesc parseDescription(JsonElement json) throws JsonParseException {
+        return new LocTrigDesc.LocTrigDescDeserializer().deserialize(json,
+                LocTrigDesc.class, null);
+    }
+
     @Override
     public void stopTrigger(Context context, int trigId, String trigDesc) {
         Log.v(TAG, "LocationTrigger: removeTrigger(" + trigId +
@@ -198,6 +215,16 @@ public class LocationTrigger extends TriggerBase {
         context.startService(i);
     }
 
+    @Override
+    public void stopTriggers(Context context, Map<Integer, String> trigDescs) {
+        Log.v(TAG, "LocationTrigger: stopTriggers(" + trigDescs.size() + ")");
+
+        //Tell the service to stop them in a few batches
+        Intent i = new Intent(context, LocTrigService.class);
+        i.setAction(LocTrigService.ACTION_REMOVE_TRIGGERS);
+        startServiceWithTriggers(context, i, trigDescs);
+    }
+
     @Override
     public void resetTrigger(Context context, int trigId, String trigDesc) {
         Log.v(TAG, "LocationTrigger: resetTrigger(" + trigId +
@@ -224,6 +251,16 @@ public class LocationTrigger extends TriggerBase {
         context.startService(i);
     }
 
+    @Override
+    public void startTriggers(Context context, Map<Integer, String> trigDescs) {
+        Log.v(TAG, "LocationTrigger: startTriggers(" + trigDescs.size() + ")");
+
+        //Tell the service to start them in a few batches
+        Intent i = new Intent(context, LocTrigService.class);
+        i.setAction(LocTrigService.ACTION_START_TRIGGERS);
+        startServiceWithTriggers(context, i, trigDescs);
+    }
+
     /*
      * Helper function to serialize all the location settings to
      * a JSON array.
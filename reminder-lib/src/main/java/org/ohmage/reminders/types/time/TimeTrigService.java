@@ -27,9 +27,15 @@ import android.os.PowerManager;
 import android.os.SystemClock;
 import android.util.Log;
 
-import org.ohmage.reminders.utils.SimpleTime;
-
-import java.util.Calendar;
+import org.ohmage.reminders.base.AndroidTriggerStateStore;
+import org.ohmage.reminders.base.TriggerBase;
+import org.ohmage.reminders.base.TriggerEngine;
+import org.ohmage.reminders.core.Clock;
+import org.ohmage.reminders.core.Metrics;
+import org.ohmage.reminders.core.TimeTrigSchedule;
+
+import java.util.Date;
+import java.util.Map;
 import java.util.Random;
 
 public class TimeTrigService extends Service {
@@ -43,8 +49,13 @@ public class TimeTrigService extends Service {
     public static final String ACTION_SET_TRIGGER = "set_trigger";
     public static final String ACTION_REMOVE_TRIGGER = "remove_trigger";
     public static final String ACTION_RESET_TRIGGER = "reset_trigger";
+    //Set or remove the triggers put in the intent by TriggerBase.putTriggers()
+    public static final String ACTION_SET_TRIGGERS = "set_triggers";
+    public static final String ACTION_REMOVE_TRIGGERS = "remove_triggers";
     public static final String KEY_TRIG_ID = "trigger_id";
     public static final String KEY_TRIG_DESC = "trigger_desc";
+    //The time the alarm was set for
+    private static final String KEY_ALARM_TIME = "alarm_time";
 
     private static final String ACTION_TRIG_ALM =
             "edu.ucla.cens.triggers.types.time.TimeTriggerAlarm";
@@ -62,19 +73,51 @@ public class TimeTrigService extends Service {
     }
 
     @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
+    public int onStartCommand(final Intent intent, int flags, int startId) {
 
         Log.v(TAG, "TimeTriggerService: onStart");
 
+        //Handle the command on the engine thread. The wake lock taken
+        //by the alarm receiver is held until it has been handled.
+        TriggerEngine.post(this, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handleCommand(intent);
+                } finally {
+                    releaseWakeLock();
+                }
+            }
+        });
+
+        return START_NOT_STICKY;
+    }
+
+    private void handleCommand(Intent intent) {
         String action = intent.getAction();
+
+        if (ACTION_SET_TRIGGERS.equals(action) || ACTION_REMOVE_TRIGGERS.equals(action)) {
+            Map<Integer, String> trigDescs = TriggerBase.getTriggers(intent);
+
+            Log.v(TAG, "TimeTriggerService: " + action + " for "
+                    + trigDescs.size() + " triggers");
+
+            for (Map.Entry<Integer, String> trig : trigDescs.entrySet()) {
+                if (action.equals(ACTION_SET_TRIGGERS)) {
+                    setTrigger(trig.getKey(), trig.getValue());
+                } else {
+                    removeTrigger(trig.getKey(), trig.getValue());
+                }
+            }
+            return;
+        }
+
         if (action == null ||
                 !intent.hasExtra(KEY_TRIG_ID) ||
                 !intent.hasExtra(KEY_TRIG_DESC)) {
 
             Log.e(TAG, "TimeTriggerService: Started with invalid intent");
-
-            releaseWakeLock();
-            return START_NOT_STICKY;
+            return;
         }
 
         int trigId = intent.getIntExtra(KEY_TRIG_ID, -1);
@@ -84,6 +127,11 @@ public class TimeTrigService extends Service {
             Log.v(TAG, "TimeTriggerService: Handling trigger "
                     + trigId);
 
+            long alarmTime = intent.getLongExtra(KEY_ALARM_TIME, -1);
+            if (alarmTime != -1) {
+                Metrics.record(Metrics.FIRE_LATENCY, System.currentTimeMillis() - alarmTime);
+            }
+
             //Notify user
             new TimeTrigger().notifyTrigger(this, trigId);
             //repeat the alarm
@@ -105,10 +153,6 @@ public class TimeTrigService extends Service {
             removeTrigger(trigId, trigDesc);
             setTrigger(trigId, trigDesc);
         }
-
-        releaseWakeLock();
-
-        return START_NOT_STICKY;
     }
 
     @Override
@@ -155,105 +199,23 @@ public class TimeTrigService extends Service {
         return i;
     }
 
-    private Calendar getTriggerTimeForToday(int trigId, TimeTrigDesc trigDesc) {
-
-        TimeTrigger timeTrig = new TimeTrigger();
-        if (timeTrig.hasTriggeredToday(this, trigId)) {
-            return null;
-        }
-
-        Calendar now = Calendar.getInstance();
-
-        Calendar target = Calendar.getInstance();
-        target.set(Calendar.SECOND, 0);
-
-        if (!trigDesc.isRandomized()) {
-            target.set(Calendar.HOUR_OF_DAY, trigDesc.getTriggerTime().getHour());
-            target.set(Calendar.MINUTE, trigDesc.getTriggerTime().getMinute());
-
-            if (now.before(target)) {
-                return target;
-            }
-        } else { //if randomized, check if there is any more time left in the interval
-            SimpleTime tCurr = new SimpleTime();
-            SimpleTime tStart = trigDesc.getRangeStart();
-            SimpleTime tEnd = trigDesc.getRangeEnd();
-
-            if (tCurr.isBefore(tEnd)) {
-
-                int diff;
-                if (tCurr.isAfter(tStart)) {
-                    diff = tCurr.differenceInMinutes(tEnd);
-                    target.set(Calendar.HOUR_OF_DAY, tCurr.getHour());
-                    target.set(Calendar.MINUTE, tCurr.getMinute());
-                } else {
-                    diff = tStart.differenceInMinutes(tEnd);
-                    target.set(Calendar.HOUR_OF_DAY, tStart.getHour());
-                    target.set(Calendar.MINUTE, tStart.getMinute());
-                }
-
-                Random rand = new Random();
-                //Generate a random number (both ranges inclusive)
-                target.add(Calendar.MINUTE, rand.nextInt(diff + 1));
-                return target;
-            }
-        }
-
-        return null;
-    }
-
-    private Calendar getTriggerTimeForDay(int trigId, TimeTrigDesc trigDesc,
-                                          int dayOffset) {
-
-        Calendar target = Calendar.getInstance();
-        target.add(Calendar.DAY_OF_YEAR, dayOffset);
-
-        String dayStr = TimeTrigDesc.getDayOfWeekString(
-                target.get(Calendar.DAY_OF_WEEK));
-
-        if (!trigDesc.doesRepeatOnDay(dayStr)) {
-            return null;
-        }
-
-        if (dayOffset == 0) {
-            return getTriggerTimeForToday(trigId, trigDesc);
-        }
-
-        target.set(Calendar.SECOND, 0);
-        if (!trigDesc.isRandomized()) {
-            target.set(Calendar.HOUR_OF_DAY, trigDesc.getTriggerTime().getHour());
-            target.set(Calendar.MINUTE, trigDesc.getTriggerTime().getMinute());
-        } else {
-            target.set(Calendar.HOUR_OF_DAY, trigDesc.getRangeStart().getHour());
-            target.set(Calendar.MINUTE, trigDesc.getRangeStart().getMinute());
-
-            int diff = trigDesc.getRangeStart()
-                    .differenceInMinutes(trigDesc.getRangeEnd());
-            Random rand = new Random();
-            //Generate a random number (both ranges inclusive)
-            target.add(Calendar.MINUTE, rand.nextInt(diff + 1));
-        }
-
-        return target;
-    }
-
     private long getAlarmTimeInMillis(int trigId, TimeTrigDesc trigDesc) {
 
-        for (int i = 0; i <= 7; i++) {
+        TimeTrigSchedule schedule = new TimeTrigSchedule(Clock.SYSTEM,
+                new AndroidTriggerStateStore(this), new Random());
 
-            Calendar target = getTriggerTimeForDay(trigId, trigDesc, i);
-            if (target != null) {
-                Log.v(TAG, "TimeTriggerService: Calculated target time: " +
-                        target.getTime().toString());
+        long target = schedule.getNextFireTime(trigId, trigDesc);
+        if (target == TimeTrigSchedule.NO_TIME) {
+            Log.e(TAG, "TimeTriggerService: No valid day of the week found!");
 
-                return target.getTimeInMillis();
-            }
+            //Must not reach here
+            return -1;
         }
 
-        Log.e(TAG, "TimeTriggerService: No valid day of the week found!");
+        Log.v(TAG, "TimeTriggerService: Calculated target time: " +
+                new Date(target).toString());
 
-        //Must not reach here
-        return -1;
+        return target;
     }
 
     private void cancelAlarm(int trigId, String trigDesc) {
@@ -280,10 +242,6 @@ public class TimeTrigService extends Service {
         Log.v(TAG, "TimeTriggerService: Attempting to set trigger "
                 + trigId);
 
-        Intent i = createAlarmIntent(trigId, desc.toString());
-        PendingIntent pi = PendingIntent.getBroadcast(this, 0, i,
-                PendingIntent.FLAG_CANCEL_CURRENT);
-
         long alarmTime = getAlarmTimeInMillis(trigId, desc);
         if (alarmTime == -1) {
             Log.v(TAG, "TimeTriggerService: No valid time found for "
@@ -291,6 +249,11 @@ public class TimeTrigService extends Service {
             return;
         }
 
+        Intent i = createAlarmIntent(trigId, desc.toString());
+        i.putExtra(KEY_ALARM_TIME, alarmTime);
+        PendingIntent pi = PendingIntent.getBroadcast(this, 0, i,
+                PendingIntent.FLAG_CANCEL_CURRENT);
+
         /* Convert the alarm time to elapsed real time.
          * If we dont do this, a time change in the system might
          * set off all the alarms and a trigger might go off before
@@ -19,11 +19,16 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+
 import org.json.JSONObject;
 import org.ohmage.reminders.R;
+import org.ohmage.reminders.base.TrigDesc;
 import org.ohmage.reminders.base.TriggerBase;
 import org.ohmage.reminders.ui.TriggerListActivity;
 
+import java.util.Map;
 
 public class TimeTrigger extends TriggerBase {
 
@@ -48,6 +53,12 @@ public class TimeTrigger extends TriggerBase {
         return false;
     }
 
+    @Override
+    public TrigDesc parseDescription(JsonElement json) throws JsonParseException {
+        return new TimeTrigDesc.TimeTrigDescDeserializer().deserialize(json,
+                TimeTrigDesc.class, null);
+    }
+
     @Override
     public void stopTrigger(Context context, int trigId, String trigDesc) {
         Intent i = new Intent(context, TimeTrigService.class);
@@ -57,6 +68,13 @@ public class TimeTrigger extends TriggerBase {
         context.startService(i);
     }
 
+    @Override
+    public void stopTriggers(Context context, Map<Integer, String> trigDescs) {
+        Intent i = new Intent(context, TimeTrigService.class);
+        i.setAction(TimeTrigService.ACTION_REMOVE_TRIGGERS);
+        startServiceWithTriggers(context, i, trigDescs);
+    }
+
     @Override
     public void resetTrigger(Context context, int trigId, String trigDesc) {
         Intent i = new Intent(context, TimeTrigService.class);
@@ -75,6 +93,13 @@ public class TimeTrigger extends TriggerBase {
         context.startService(i);
     }
 
+    @Override
+    public void startTriggers(Context context, Map<Integer, String> trigDescs) {
+        Intent i = new Intent(context, TimeTrigService.class);
+        i.setAction(TimeTrigService.ACTION_SET_TRIGGERS);
+        startServiceWithTriggers(context, i, trigDescs);
+    }
+
     @Override
     public void launchTriggerCreateActivity(Context context, final String campaignUrn, final String campaignName, String[] actions, String[] preselectedActions, boolean adminMode) {
 
@@ -22,7 +22,11 @@ import android.app.ListActivity;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Menu;
@@ -30,11 +34,8 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView.AdapterContextMenuInfo;
-import android.widget.Button;
-import android.widget.ImageView;
+import android.widget.EditText;
 import android.widget.ListView;
-import android.widget.SimpleCursorAdapter;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import org.ohmage.reminders.R;
@@ -43,7 +44,9 @@ import org.ohmage.reminders.base.AdminPincodeActivity;
 import org.ohmage.reminders.base.TriggerActionDesc;
 import org.ohmage.reminders.base.TriggerBase;
 import org.ohmage.reminders.base.TriggerDB;
+import org.ohmage.reminders.base.TriggerSearch;
 import org.ohmage.reminders.base.TriggerTypeMap;
+import org.ohmage.reminders.config.TrigListConfig;
 import org.ohmage.reminders.config.TrigUserConfig;
 import org.ohmage.reminders.notif.NotifDesc;
 import org.ohmage.reminders.notif.NotifEditActivity;
@@ -51,6 +54,9 @@ import org.ohmage.reminders.notif.NotifSettingsActivity;
 import org.ohmage.reminders.notif.Notifier;
 import org.ohmage.reminders.utils.TrigPrefManager;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
 public class TriggerListActivity extends ListActivity {
 
     private static final String TAG = "TriggerListActivity";
@@ -96,7 +102,8 @@ public class TriggerListActivity extends ListActivity {
     private static final int REQ_EDIT_NOTIF = 0;
     private static final int ADMIN_REQUESTED = 1;
 
-    private Cursor mCursor;
+    private TriggerListAdapter mAdapter;
+    private EditText mFilter;
     private TriggerDB mDb;
     private TriggerTypeMap mTrigMap;
     private Actions mActions;
@@ -115,6 +122,61 @@ public class TriggerListActivity extends ListActivity {
     private boolean mAdminMode;
     private String[] mSelectParams;
 
+    // The triggers changed since the list was last refreshed, applied
+    // once the activity is resumed
+    private final Handler mHandler = new Handler();
+    private final HashSet<Integer> mChangedTrigIds = new HashSet<Integer>();
+    private boolean mAllTriggersChanged = false;
+    private boolean mResumed = false;
+    private boolean mRefreshPosted = false;
+
+    private final TriggerDB.OnChangeListener mChangeListener = new TriggerDB.OnChangeListener() {
+        @Override
+        public void onTriggerChanged(final int trigId) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mChangedTrigIds.add(trigId);
+                    scheduleRefresh();
+                }
+            });
+        }
+
+        @Override
+        public void onAllTriggersChanged() {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mAllTriggersChanged = true;
+                    scheduleRefresh();
+                }
+            });
+        }
+    };
+
+    private final Runnable mApplyFilter = new Runnable() {
+        @Override
+        public void run() {
+            mAdapter.setFilter(mFilter.getText().toString());
+        }
+    };
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            mRefreshPosted = false;
+
+            if (mAllTriggersChanged) {
+                mAdapter.reload();
+            } else if (!mChangedTrigIds.isEmpty()) {
+                mAdapter.refresh(new ArrayList<Integer>(mChangedTrigIds));
+            }
+
+            mAllTriggersChanged = false;
+            mChangedTrigIds.clear();
+        }
+    };
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -150,6 +212,34 @@ public class TriggerListActivity extends ListActivity {
 
         populateTriggerList();
         registerForContextMenu(getListView());
+        TriggerDB.registerListener(mChangeListener);
+
+        // Filter the list once the user stops typing
+        mFilter = (EditText) findViewById(R.id.edit_filter);
+        mFilter.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mHandler.removeCallbacks(mApplyFilter);
+                mHandler.postDelayed(mApplyFilter, TrigListConfig.listFilterDelay);
+            }
+        });
+
+        // Keep the current names of the surveys for the search
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                TriggerSearch.updateSurveyNames(getApplicationContext());
+                return null;
+            }
+        }.execute();
 
         // Display message and exit if there are no supported
         // trigger types
@@ -162,12 +252,30 @@ public class TriggerListActivity extends ListActivity {
         TrigPrefManager.registerPreferenceFile(this, PREF_FILE_NAME);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        mResumed = true;
+        scheduleRefresh();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        mResumed = false;
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
 
-        if (mCursor != null)
-            mCursor.close();
+        TriggerDB.unregisterListener(mChangeListener);
+        mHandler.removeCallbacks(mRefresh);
+        mHandler.removeCallbacks(mApplyFilter);
+        if (mAdapter != null)
+            mAdapter.cancel();
         if (mDb != null)
             mDb.close();
     }
@@ -192,37 +300,16 @@ public class TriggerListActivity extends ListActivity {
         mAdminMode = state.getBoolean(KEY_ADMIN_MODE);
     }
 
-    private String getDisplayTitle(String trigType, String trigDesc) {
-
-        TriggerBase trig = mTrigMap.getTrigger(trigType);
-
-        if (trig == null) {
-            return null;
-        }
-
-        return trig.getDisplayTitle(this, trigDesc);
-    }
-
-    private int getTrigTypeIcon(String trigType) {
-
-        TriggerBase trig = mTrigMap.getTrigger(trigType);
-
-        if (trig == null) {
-            return R.drawable.ic_launcher;
-        }
-
-        return trig.getIcon();
-    }
-
-    private String getDisplaySummary(String trigType, String trigDesc) {
-
-        TriggerBase trig = mTrigMap.getTrigger(trigType);
-
-        if (trig == null) {
-            return null;
+    /**
+     * Refresh the rows of the triggers changed, after a delay so that a
+     * burst of changes is refreshed at once
+     */
+    private void scheduleRefresh() {
+        if (mResumed && !mRefreshPosted
+                && (mAllTriggersChanged || !mChangedTrigIds.isEmpty())) {
+            mRefreshPosted = true;
+            mHandler.postDelayed(mRefresh, TrigListConfig.listRefreshDelay);
         }
-
-        return trig.getDisplaySummary(this, trigDesc);
     }
 
     private void toggleTrigger(int trigId, boolean enable) {
@@ -236,7 +323,8 @@ public class TriggerListActivity extends ListActivity {
 
             if (trig != null) {
 
-                if (enable) {
+                //The triggers of a disabled campaign stay stopped
+                if (enable && mDb.isTriggerEnabled(trigId)) {
                     trig.startTrigger(this, trigId, trigDesc);
                 } else {
                     trig.stopTrigger(this, trigId, trigDesc);
@@ -266,99 +354,28 @@ public class TriggerListActivity extends ListActivity {
 
     private void populateTriggerList() {
 
-        // The viewbinder class to define each list item
-        class CategListViewBinder implements SimpleCursorAdapter.ViewBinder {
-
+        mAdapter = new TriggerListAdapter(this, mCampaignUrn);
+        mAdapter.setOnActionsClickListener(new TriggerListAdapter.OnActionsClickListener() {
             @Override
-            public boolean setViewValue(View view, Cursor c, int colIndex) {
-
-                String trigType = c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_TYPE));
-
-                String trigDesc = c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_DESCRIPT));
-
-                int id = view.getId();
-                if (id == R.id.text1) {
-                    String title = getDisplayTitle(trigType, trigDesc);
-                    ((TextView) view).setText(title == null ? "" : title);
-                    return true;
-                } else if (id == R.id.text2) {
-                    String summary = getDisplaySummary(trigType, trigDesc);
-                    ((TextView) view).setText(summary == null ? "" : summary);
-                    return true;
-                } else if (id == R.id.button_actions_edit) {
-                    int trigId = c.getInt(c.getColumnIndexOrThrow(TriggerDB.KEY_ID));
-                    String actDesc = c.getString(c
-                            .getColumnIndexOrThrow(TriggerDB.KEY_TRIG_ACTION_DESCRIPT));
-                    Button bAct = (Button) view;
-                    bAct.setFocusable(false);
-                    TriggerActionDesc desc = new TriggerActionDesc();
-                    desc.loadString(actDesc);
-                    bAct.setText("(" + desc.getCount() + ")");
-                    bAct.setTag(new Integer(trigId));
-                    view.setOnClickListener(new View.OnClickListener() {
-                        @Override
-                        public void onClick(View v) {
-                            mDialogTrigId = (Integer) v.getTag();
-                            mActSelected = null;
-
-                            removeDialog(DIALOG_ID_ACTION_SEL);
-                            showDialog(DIALOG_ID_ACTION_SEL);
-                        }
-                    });
-                    return true;
-                } else if (id == R.id.icon_trigger_type) {
-                    ImageView iv = (ImageView) view;
-                    iv.setImageResource(getTrigTypeIcon(trigType));
-                    return true;
-                }
+            public void onActionsClick(TriggerListAdapter.Item item) {
+                mDialogTrigId = item.id;
+                mActSelected = null;
 
-                return false;
+                removeDialog(DIALOG_ID_ACTION_SEL);
+                showDialog(DIALOG_ID_ACTION_SEL);
             }
-        }
-
-        if (mCampaignUrn != null) {
-            mCursor = mDb.getAllTriggers(mCampaignUrn);
-        } else {
-            mCursor = mDb.getAllTriggers();
-        }
-
-        mCursor.moveToFirst();
-        startManagingCursor(mCursor);
-
-        String[] from = new String[]{
-                TriggerDB.KEY_ID, TriggerDB.KEY_ID, TriggerDB.KEY_ID, TriggerDB.KEY_ID
-        };
-
-        int[] to = new int[]{
-                R.id.text1, R.id.text2, R.id.button_actions_edit, R.id.icon_trigger_type
-        };
-
-        SimpleCursorAdapter triggers = new SimpleCursorAdapter(this,
-                R.layout.trigger_main_list_row, mCursor, from, to);
+        });
 
-        triggers.setViewBinder(new CategListViewBinder());
-        setListAdapter(triggers);
+        setListAdapter(mAdapter);
+        mAdapter.reload();
     }
 
     @Override
     protected void onListItemClick(ListView l, View v, int position, long id) {
         super.onListItemClick(l, v, position, id);
 
-        if (!mCursor.moveToPosition(position)) {
-            // TODO this should not happen. log
-            return;
-        }
-
-        String trigDesc = mCursor.getString(mCursor
-                .getColumnIndexOrThrow(TriggerDB.KEY_TRIG_DESCRIPT));
-        int trigId = mCursor.getInt(mCursor.getColumnIndexOrThrow(TriggerDB.KEY_ID));
-
-        String trigType = mCursor.getString(mCursor.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_TYPE));
-
-        String actDesc = mCursor.getString(mCursor
-                .getColumnIndexOrThrow(TriggerDB.KEY_TRIG_ACTION_DESCRIPT));
-
-        editTrigger(trigType, trigId, trigDesc, actDesc);
+        TriggerListAdapter.Item item = mAdapter.getItem(position);
+        editTrigger(item.trigType, item.id, item.trigDesc, item.actDesc);
     }
 
     private boolean isAdminLoggedIn() {
@@ -381,7 +398,6 @@ public class TriggerListActivity extends ListActivity {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
                         deleteTrigger(mDialogTrigId);
-                        mCursor.requery();
                     }
                 }).create();
 
@@ -611,9 +627,7 @@ public class TriggerListActivity extends ListActivity {
     public boolean onContextItemSelected(android.view.MenuItem item) {
 
         int pos = ((AdapterContextMenuInfo) item.getMenuInfo()).position;
-        mCursor.moveToPosition(pos);
-
-        int trigId = mCursor.getInt(mCursor.getColumnIndexOrThrow(TriggerDB.KEY_ID));
+        int trigId = mAdapter.getItem(pos).id;
 
         switch (item.getItemId()) {
 
@@ -636,7 +650,6 @@ public class TriggerListActivity extends ListActivity {
         prevDesc.loadString(prevActDesc);
 
         mDb.updateActionDescription(trigId, desc.toString());
-        mCursor.requery();
 
         Notifier.refreshNotification(this, true);
 
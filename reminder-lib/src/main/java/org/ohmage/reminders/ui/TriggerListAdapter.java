@@ -0,0 +1,316 @@
+package org.ohmage.reminders.ui;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import org.ohmage.reminders.R;
+import org.ohmage.reminders.base.TriggerBase;
+import org.ohmage.reminders.base.TriggerSearch;
+import org.ohmage.reminders.base.TriggerTypeMap;
+import org.ohmage.reminders.config.TrigListConfig;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * Adapter of the list of triggers, loaded a page at a time in the
+ * background by a TriggerListLoader as the list is scrolled, in the order
+ * of the ids of the triggers. The rows hold their display columns, so
+ * binding a row does no parsing and no query.
+ *
+ * The rows of the triggers which changed are reloaded with refresh(),
+ * which replaces, inserts or removes only those rows, and all of them with
+ * reload(). The results of the loads started before a reload() are
+ * dropped.
+ *
+ * The list may be filtered with the text typed by the user, which is
+ * searched in the index of the triggers, see TriggerSearch.
+ */
+public class TriggerListAdapter extends BaseAdapter {
+
+    /*
+     * A row of the list
+     */
+    public static class Item {
+        public final int id;
+        public final String trigType;
+        public final String trigDesc;
+        public final String actDesc;
+        public String title;
+        public String summary;
+        public int surveyCount;
+
+        public Item(int id, String trigType, String trigDesc, String actDesc) {
+            this.id = id;
+            this.trigType = trigType;
+            this.trigDesc = trigDesc;
+            this.actDesc = actDesc;
+        }
+    }
+
+    /*
+     * Listener to the clicks on the button of the surveys of a row
+     */
+    public interface OnActionsClickListener {
+        void onActionsClick(Item item);
+    }
+
+    private final LayoutInflater mInflater;
+    private final TriggerTypeMap mTrigMap = new TriggerTypeMap();
+    private final TriggerListLoader mLoader;
+    private OnActionsClickListener mActionsListener;
+
+    //The FTS3 query of the filter, null if the list is not filtered
+    private String mMatch = null;
+    //The rows loaded so far, in the order of their ids
+    private final ArrayList<Item> mItems = new ArrayList<Item>();
+    private boolean mLoading = false;
+    //True once the last page was loaded
+    private boolean mComplete = false;
+    //Incremented by reload(), to drop the loads started before it
+    private int mGeneration = 0;
+    private final ArrayList<AsyncTask<?, ?, ?>> mTasks = new ArrayList<AsyncTask<?, ?, ?>>();
+
+    public TriggerListAdapter(Context context, String campaignUrn) {
+        mInflater = LayoutInflater.from(context);
+        mLoader = new TriggerListLoader(context, campaignUrn);
+    }
+
+    public void setOnActionsClickListener(OnActionsClickListener listener) {
+        mActionsListener = listener;
+    }
+
+    /*
+     * Drop the rows and load them again from the first page
+     */
+    public void reload() {
+        cancel();
+        mGeneration++;
+        mItems.clear();
+        mComplete = false;
+        notifyDataSetChanged();
+
+        loadNextPage();
+    }
+
+    /*
+     * Only list the triggers which match the text typed by the user, or
+     * all of them if it is empty
+     */
+    public void setFilter(String text) {
+        String match = TriggerSearch.toMatchQuery(text);
+        if (match == null ? mMatch == null : match.equals(mMatch)) {
+            return;
+        }
+
+        mMatch = match;
+        reload();
+    }
+
+    /*
+     * Reload the rows of some triggers which were added, changed or
+     * deleted
+     */
+    public void refresh(Collection<Integer> trigIds) {
+        final ArrayList<Integer> ids = new ArrayList<Integer>(trigIds);
+        final String match = mMatch;
+        final int generation = mGeneration;
+
+        execute(new AsyncTask<Void, Void, List<Item>>() {
+            @Override
+            protected List<Item> doInBackground(Void... params) {
+                return mLoader.loadRows(match, ids);
+            }
+
+            @Override
+            protected void onPostExecute(List<Item> items) {
+                mTasks.remove(this);
+                if (generation == mGeneration) {
+                    applyRows(ids, items);
+                }
+            }
+        });
+    }
+
+    /*
+     * Stop loading, e.g. once the list is destroyed
+     */
+    public void cancel() {
+        for (AsyncTask<?, ?, ?> task : mTasks) {
+            task.cancel(false);
+        }
+        mTasks.clear();
+        mLoading = false;
+    }
+
+    private void loadNextPage() {
+        if (mLoading || mComplete) {
+            return;
+        }
+
+        mLoading = true;
+        final int afterId = mItems.isEmpty() ? 0 : mItems.get(mItems.size() - 1).id;
+        final String match = mMatch;
+        final int generation = mGeneration;
+
+        execute(new AsyncTask<Void, Void, List<Item>>() {
+            @Override
+            protected List<Item> doInBackground(Void... params) {
+                return mLoader.loadPage(match, afterId, TrigListConfig.listPageSize);
+            }
+
+            @Override
+            protected void onPostExecute(List<Item> items) {
+                mTasks.remove(this);
+                if (generation != mGeneration) {
+                    return;
+                }
+
+                mLoading = false;
+                mComplete = items.size() < TrigListConfig.listPageSize;
+                for (Item item : items) {
+                    //A refresh may have inserted it already
+                    if (mItems.isEmpty() || mItems.get(mItems.size() - 1).id < item.id) {
+                        mItems.add(item);
+                    }
+                }
+                notifyDataSetChanged();
+            }
+        });
+    }
+
+    private void execute(AsyncTask<Void, Void, List<Item>> task) {
+        mTasks.add(task);
+        task.execute();
+    }
+
+    private void applyRows(List<Integer> ids, List<Item> items) {
+        HashMap<Integer, Item> loaded = new HashMap<Integer, Item>();
+        for (Item item : items) {
+            loaded.put(item.id, item);
+        }
+
+        for (int id : ids) {
+            Item item = loaded.get(id);
+            int pos = findPosition(id);
+
+            if (pos >= 0) {
+                if (item == null) {
+                    mItems.remove(pos);
+                } else {
+                    mItems.set(pos, item);
+                }
+            } else if (item != null) {
+                //A trigger after the last row loaded comes with its page
+                int insertAt = -pos - 1;
+                if (insertAt < mItems.size() || mComplete) {
+                    mItems.add(insertAt, item);
+                }
+            }
+        }
+
+        notifyDataSetChanged();
+    }
+
+    //Binary search of the rows by id, as Collections.binarySearch()
+    private int findPosition(int id) {
+        int low = 0;
+        int high = mItems.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = mItems.get(mid).id;
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    public int getCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public Item getItem(int position) {
+        return mItems.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).id;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        //Not empty until the first page says so, so that the empty view
+        //does not flash while it loads
+        return mItems.isEmpty() && mComplete;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        if (position >= mItems.size() - TrigListConfig.listPrefetchDistance) {
+            loadNextPage();
+        }
+
+        View view = convertView;
+        if (view == null) {
+            view = mInflater.inflate(R.layout.trigger_main_list_row, parent, false);
+            view.findViewById(R.id.button_actions_edit).setOnClickListener(
+                    new View.OnClickListener() {
+                        @Override
+                        public void onClick(View v) {
+                            if (mActionsListener != null) {
+                                mActionsListener.onActionsClick((Item) v.getTag());
+                            }
+                        }
+                    });
+        }
+
+        Item item = mItems.get(position);
+
+        ((TextView) view.findViewById(R.id.text1)).setText(
+                item.title == null ? "" : item.title);
+        ((TextView) view.findViewById(R.id.text2)).setText(
+                item.summary == null ? "" : item.summary);
+
+        Button bAct = (Button) view.findViewById(R.id.button_actions_edit);
+        bAct.setFocusable(false);
+        bAct.setText("(" + item.surveyCount + ")");
+        bAct.setTag(item);
+
+        ((ImageView) view.findViewById(R.id.icon_trigger_type)).setImageResource(
+                getTrigTypeIcon(item.trigType));
+
+        return view;
+    }
+
+    private int getTrigTypeIcon(String trigType) {
+        TriggerBase trig = mTrigMap.getTrigger(trigType);
+
+        if (trig == null) {
+            return R.drawable.ic_launcher;
+        }
+
+        return trig.getIcon();
+    }
+}
@@ -0,0 +1,142 @@
+package org.ohmage.reminders.ui;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import org.ohmage.reminders.base.TriggerDB;
+import org.ohmage.reminders.base.TriggerIndexer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * Reads the rows of the list of triggers for TriggerListAdapter. Must not
+ * be called on the main thread.
+ *
+ * The title, summary and number of surveys of each trigger are read from
+ * the display columns of TriggerDB. Those which are missing, because the
+ * trigger is new or changed, or which were computed in another locale,
+ * are computed here by a TriggerIndexer and written back, so each trigger
+ * is only parsed once after each of its changes instead of on each bind
+ * of its row.
+ *
+ * The rows may be filtered with an FTS3 query, see TriggerSearch. The
+ * triggers are indexed before the first page of a filtered list is read.
+ */
+public class TriggerListLoader {
+
+    private static final String TAG = "TriggerFramework";
+
+    private final Context mContext;
+    private final String mCampaignUrn;
+
+    public TriggerListLoader(Context context, String campaignUrn) {
+        mContext = context.getApplicationContext();
+        mCampaignUrn = campaignUrn;
+    }
+
+    /*
+     * Load up to limit of the triggers after a trigger id which match a
+     * query, or all of them if it is null, in the order of their ids
+     */
+    public List<TriggerListAdapter.Item> loadPage(String match, int afterId, int limit) {
+        TriggerDB db = new TriggerDB(mContext);
+        db.open();
+        try {
+            TriggerIndexer indexer = new TriggerIndexer(mContext, db);
+            if (match != null && afterId == 0) {
+                indexer.indexAll(mCampaignUrn);
+            }
+
+            return read(db, indexer, db.getTriggerListPage(mCampaignUrn, match, afterId, limit));
+        } finally {
+            db.close();
+        }
+    }
+
+    /*
+     * Load some triggers which match a query, or all of them if it is
+     * null, in the order of their ids. The triggers which no longer exist
+     * or no longer match are left out.
+     */
+    public List<TriggerListAdapter.Item> loadRows(String match, Collection<Integer> trigIds) {
+        if (trigIds.isEmpty()) {
+            return new ArrayList<TriggerListAdapter.Item>();
+        }
+
+        TriggerDB db = new TriggerDB(mContext);
+        db.open();
+        try {
+            TriggerIndexer indexer = new TriggerIndexer(mContext, db);
+            if (match != null) {
+                //Index them first, as they may have changed
+                read(db, indexer, db.getTriggerListRows(mCampaignUrn, null, trigIds));
+            }
+
+            return read(db, indexer, db.getTriggerListRows(mCampaignUrn, match, trigIds));
+        } finally {
+            db.close();
+        }
+    }
+
+    private List<TriggerListAdapter.Item> read(TriggerDB db, TriggerIndexer indexer, Cursor c) {
+        ArrayList<TriggerListAdapter.Item> items = new ArrayList<TriggerListAdapter.Item>();
+        ArrayList<TriggerListAdapter.Item> computed = new ArrayList<TriggerListAdapter.Item>();
+        ArrayList<TriggerIndexer.Display> displays = new ArrayList<TriggerIndexer.Display>();
+
+        try {
+            int idIndex = c.getColumnIndexOrThrow(TriggerDB.KEY_ID);
+            int typeIndex = c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_TYPE);
+            int descIndex = c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_DESCRIPT);
+            int actDescIndex = c.getColumnIndexOrThrow(TriggerDB.KEY_TRIG_ACTION_DESCRIPT);
+            int titleIndex = c.getColumnIndexOrThrow(TriggerDB.KEY_DISPLAY_TITLE);
+            int summaryIndex = c.getColumnIndexOrThrow(TriggerDB.KEY_DISPLAY_SUMMARY);
+            int countIndex = c.getColumnIndexOrThrow(TriggerDB.KEY_SURVEY_COUNT);
+            int localeIndex = c.getColumnIndexOrThrow(TriggerDB.KEY_DISPLAY_LOCALE);
+
+            while (c.moveToNext()) {
+                TriggerListAdapter.Item item = new TriggerListAdapter.Item(c.getInt(idIndex),
+                        c.getString(typeIndex), c.getString(descIndex), c.getString(actDescIndex));
+
+                if (indexer.getLocale().equals(c.getString(localeIndex))) {
+                    item.title = c.getString(titleIndex);
+                    item.summary = c.getString(summaryIndex);
+                    item.surveyCount = c.getInt(countIndex);
+                } else {
+                    TriggerIndexer.Display display = indexer.compute(item.trigType,
+                            item.trigDesc, item.actDesc);
+                    item.title = display.title;
+                    item.summary = display.summary;
+                    item.surveyCount = display.surveyCount;
+                    computed.add(item);
+                    displays.add(display);
+                }
+
+                items.add(item);
+            }
+        } finally {
+            c.close();
+        }
+
+        if (!computed.isEmpty()) {
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < computed.size(); i++) {
+                    TriggerListAdapter.Item item = computed.get(i);
+                    indexer.put(item.id, item.trigType, item.trigDesc, item.actDesc,
+                            displays.get(i));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            Log.v(TAG, "TriggerListLoader: Computed the display columns of "
+                    + computed.size() + " triggers");
+        }
+
+        return items;
+    }
+}
@@ -0,0 +1,245 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.content.Intent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ohmage.reminders.config.NotifConfig;
+import org.ohmage.reminders.core.Histogram;
+import org.ohmage.reminders.core.Metrics;
+import org.ohmage.reminders.core.MetricsSnapshot;
+import org.ohmage.reminders.notif.NotifRefreshCoordinator;
+import org.ohmage.reminders.notif.NotifSurveyAdaptor;
+import org.ohmage.reminders.shadows.ShadowCancelablePendingIntent;
+import org.ohmage.reminders.shadows.ShadowIndexedAlarmManager;
+import org.ohmage.reminders.types.time.TimeTrigDesc;
+import org.ohmage.reminders.types.time.TimeTrigService;
+import org.ohmage.reminders.types.time.TimeTrigger;
+import org.ohmage.reminders.utils.SimpleTime;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ * Measures the restore of the triggers at boot, TriggerInit.initTriggers(),
+ * and after a change of the time, TriggerTimeReceiver.handleTimeChange(),
+ * with 100, 1k and 10k time triggers. A run fails when it goes over its
+ * Budget, whose limits grow linearly with the number of triggers.
+ *
+ * The services started during a run are run by the test as well, so the
+ * counts cover the whole restore and not only the calls made by the
+ * restore itself:
+ *
+ *  - alarms, the alarms scheduled in the shadow AlarmManager
+ *  - intents, the services started and the broadcasts sent
+ *  - queries, the reads and writes recorded by the metrics of TriggerDB
+ *    and LocTrigDB, wherever they were made
+ *
+ * The wall time is that of the JVM, with the database behind Robolectric,
+ * so its limit is only a guard against the restore becoming quadratic.
+ * The limits can be changed with system properties, for instance
+ * -DbootRestore.wallMsPerTrigger=50 on a slow machine.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18, shadows = {
+        ShadowCancelablePendingIntent.class, ShadowIndexedAlarmManager.class})
+public class BootRestorePerfTest {
+
+    private static final String CAMPAIGN_URN = "urn:boot_restore_test:";
+    private static final String CAMPAIGN_NAME = "Boot restore test";
+
+    /*
+     * The budget of a run
+     */
+    static class Budget {
+        final long wallMsPerTrigger = Long.getLong("bootRestore.wallMsPerTrigger", 20);
+        final long queriesPerTrigger = Long.getLong("bootRestore.queriesPerTrigger", 2);
+        final long intentsPerTrigger = Long.getLong("bootRestore.intentsPerTrigger", 1);
+        final long alarmsPerTrigger = Long.getLong("bootRestore.alarmsPerTrigger", 2);
+        //Allowance for the fixed cost of a run
+        final long base = Long.getLong("bootRestore.base", 50);
+
+        void check(String name, int triggers, Result result) {
+            assertWithin(name + " wall time", result.wallMs, wallMsPerTrigger, triggers);
+            assertWithin(name + " queries", result.queries, queriesPerTrigger, triggers);
+            assertWithin(name + " intents", result.intents, intentsPerTrigger, triggers);
+            assertWithin(name + " alarms", result.alarms, alarmsPerTrigger, triggers);
+        }
+
+        private void assertWithin(String what, long value, long perTrigger, int triggers) {
+            long limit = base + perTrigger * triggers;
+            assertTrue(what + " " + value + " over the budget of " + limit
+                    + " for " + triggers + " triggers", value <= limit);
+        }
+    }
+
+    static class Result {
+        long wallMs;
+        long queries;
+        long intents;
+        long alarms;
+    }
+
+    private Context mContext;
+    private ShadowApplication mApp;
+    private ShadowIndexedAlarmManager mAlarms;
+    private TimeTrigService mTimeService;
+    private int mStartId = 0;
+
+    @Before
+    public void setUp() {
+        //Every test has a database of its own, while the caches of
+        //the framework live as long as the test process
+        NotifSurveyAdaptor.invalidateAllTriggers();
+        NotifRefreshCoordinator.invalidate();
+
+        mContext = Robolectric.application;
+        mApp = Robolectric.shadowOf(Robolectric.application);
+        mAlarms = Robolectric.shadowOf_(mContext.getSystemService(Context.ALARM_SERVICE));
+        mTimeService = Robolectric.buildService(TimeTrigService.class)
+                .attach().create().get();
+    }
+
+    @Test
+    public void restore100Triggers() {
+        restore(100);
+    }
+
+    @Test
+    public void restore1000Triggers() {
+        restore(1000);
+    }
+
+    @Test
+    public void restore10000Triggers() {
+        restore(10000);
+    }
+
+    private void restore(int count) {
+        //The campaigns are cached by urn
+        final String campaignUrn = CAMPAIGN_URN + count;
+        seed(campaignUrn, count);
+        Budget budget = new Budget();
+
+        Result boot = measure(new Runnable() {
+            @Override
+            public void run() {
+                TriggerInit.initTriggers(mContext, campaignUrn, CAMPAIGN_NAME);
+            }
+        });
+        assertTrue("Not all the triggers have an alarm", boot.alarms >= count);
+        budget.check("Boot restore", count, boot);
+
+        Result timeChange = measure(new Runnable() {
+            @Override
+            public void run() {
+                TriggerTimeReceiver.handleTimeChange(mContext);
+            }
+        });
+        assertTrue("Not all the triggers have an alarm", timeChange.alarms >= count);
+        budget.check("Time change", count, timeChange);
+    }
+
+    /*
+     * Run the task along with all the work it queues and count
+     * what it did
+     */
+    private Result measure(Runnable task) {
+        //Start new intervals for the histograms
+        Metrics.snapshot();
+        mApp.clearStartedServices();
+        mApp.getBroadcastIntents().clear();
+
+        Result result = new Result();
+        long start = System.nanoTime();
+
+        task.run();
+        result.intents = drain();
+
+        result.wallMs = (System.nanoTime() - start) / 1000000;
+        result.intents += mApp.getBroadcastIntents().size();
+        result.alarms = mAlarms.getScheduledAlarmCount();
+
+        MetricsSnapshot snapshot = Metrics.snapshot();
+        result.queries = count(snapshot, Metrics.TRIGGER_DB_READ)
+                + count(snapshot, Metrics.TRIGGER_DB_WRITE)
+                + count(snapshot, Metrics.LOC_TRIG_DB_READ)
+                + count(snapshot, Metrics.LOC_TRIG_DB_WRITE);
+        return result;
+    }
+
+    /*
+     * Hand the started services their intents and run the engine until
+     * nothing is left, including the deferred notification refreshes.
+     * Returns the number of services started.
+     */
+    private int drain() {
+        int started = 0;
+
+        do {
+            Intent i;
+            while ((i = mApp.getNextStartedService()) != null) {
+                started++;
+
+                if (!TimeTrigService.class.getName().equals(i.getComponent().getClassName())) {
+                    fail("Unexpected service started: " + i);
+                }
+                //Each intent must stay below the limit of a binder transaction
+                int triggers = TriggerBase.getTriggers(i).size();
+                assertTrue("Intent with " + triggers + " triggers",
+                        triggers <= TriggerBase.MAX_TRIGGERS_PER_INTENT);
+                mTimeService.onStartCommand(i, 0, ++mStartId);
+            }
+
+            Robolectric.shadowOf(TriggerEngine.getLooper())
+                    .idle(NotifConfig.refreshDebounceWindow);
+        } while (mApp.peekNextStartedService() != null);
+
+        return started;
+    }
+
+    private static long count(MetricsSnapshot snapshot, String histogram) {
+        Histogram h = snapshot.histograms.get(histogram);
+        return h == null ? 0 : h.getCount();
+    }
+
+    /*
+     * Add the given number of time triggers, every tenth of which
+     * has already gone off
+     */
+    private void seed(String campaignUrn, int count) {
+        long now = System.currentTimeMillis();
+
+        TriggerDB db = new TriggerDB(mContext);
+        db.open();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                TimeTrigDesc desc = new TimeTrigDesc();
+                desc.setTriggerTime(new SimpleTime(7 + i % 14, (i * 5) % 60));
+
+                TriggerRunTimeDesc rtDesc = new TriggerRunTimeDesc();
+                rtDesc.loadString(TriggerRunTimeDesc.getDefaultDesc());
+                if (i % 10 == 0) {
+                    rtDesc.setTriggerTimeStamp(now - (i % 30) * 60000L);
+                }
+
+                db.addTrigger(UUID.randomUUID().toString(), campaignUrn, CAMPAIGN_NAME,
+                        new TimeTrigger().getTriggerType(), desc.toString(),
+                        "{\"surveys\": [\"" + (i % 4) + "\"]}", null, rtDesc.toString());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.ohmage.reminders.base;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ohmage.reminders.notif.NotifSurveyAdaptor;
+import org.ohmage.reminders.types.time.TimeTrigDesc;
+import org.ohmage.reminders.types.time.TimeTrigger;
+import org.ohmage.reminders.utils.SimpleTime;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Measures the cost of a write of the run time description of a trigger,
+ * the hottest write of the engine thread, through SQLiteDatabase.update(),
+ * which compiles the SQL on every call, and through the compiled statement
+ * of a StatementCache, as TriggerDB does on the engine thread.
+ *
+ * Both run on the same connection, in rounds of WRITES writes within a
+ * transaction so that the commits do not hide the cost of the statements.
+ * The best round of each is kept. The cached write fails when it costs
+ * more than a percentage of the update, which can be changed with the
+ * system property statementCache.maxPercent.
+ *
+ * Robolectric leaves Build.VERSION.SDK_INT at 1, so it is set to the
+ * emulated SDK for the writes to take the path of the devices, on which
+ * the changed rows are counted without a SELECT changes().
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class StatementCachePerfTest {
+
+    private static final String DATABASE_NAME = "trigger_framework";
+    private static final String CAMPAIGN_NAME = "Statement cache test";
+
+    private static final int TRIGGERS = 100;
+    private static final int WRITES = 2000;
+    private static final int ROUNDS = 5;
+    private static final long MAX_PERCENT = Long.getLong("statementCache.maxPercent", 90);
+    private static final int EMULATED_SDK = 18;
+
+    private Context mContext;
+    private ArrayList<Integer> mTrigIds;
+    private SQLiteDatabase mRawDb;
+    private StatementCache mStatements;
+    private int mSdk;
+
+    @Before
+    public void setUp() {
+        //Every test has a database of its own, while the caches of
+        //the framework live as long as the test process
+        NotifSurveyAdaptor.invalidateAllTriggers();
+
+        mSdk = Build.VERSION.SDK_INT;
+        Robolectric.Reflection.setFinalStaticField(Build.VERSION.class, "SDK_INT",
+                EMULATED_SDK);
+
+        mContext = Robolectric.application;
+        mTrigIds = seed("urn:statement_cache_test:" + UUID.randomUUID());
+
+        mRawDb = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(DATABASE_NAME).getPath(), null);
+        mStatements = new StatementCache(mRawDb);
+    }
+
+    @After
+    public void tearDown() {
+        mStatements.close();
+        mRawDb.close();
+
+        Robolectric.Reflection.setFinalStaticField(Build.VERSION.class, "SDK_INT", mSdk);
+    }
+
+    @Test
+    public void cachedStatementIsCheaperThanUpdate() {
+        long updateNs = Long.MAX_VALUE;
+        long cachedNs = Long.MAX_VALUE;
+
+        //The first round of each warms up
+        for (int round = 0; round <= ROUNDS; round++) {
+            long update = timeRound(round, false);
+            long cached = timeRound(round, true);
+            if (round > 0) {
+                updateNs = Math.min(updateNs, update);
+                cachedNs = Math.min(cachedNs, cached);
+            }
+        }
+
+        assertTrue("Cached write " + cachedNs / WRITES + " ns over " + MAX_PERCENT
+                        + "% of the update " + updateNs / WRITES + " ns",
+                cachedNs * 100 <= updateNs * MAX_PERCENT);
+
+        //The writes went to the triggers
+        TriggerDB db = new TriggerDB(mContext);
+        db.open();
+        assertEquals(runTimeDesc(ROUNDS, WRITES - 1),
+                db.getRunTimeDescription(mTrigIds.get((WRITES - 1) % TRIGGERS)));
+        db.close();
+    }
+
+    /*
+     * Time a round of writes. Returns the time it took in nanoseconds.
+     */
+    private long timeRound(int round, boolean cached) {
+        long start = System.nanoTime();
+
+        mRawDb.beginTransaction();
+        try {
+            for (int i = 0; i < WRITES; i++) {
+                int trigId = mTrigIds.get(i % TRIGGERS);
+                String desc = runTimeDesc(round, i);
+
+                int count;
+                if (cached) {
+                    count = mStatements.executeUpdateDelete(TriggerDB.SQL_UPDATE_RUNTIME_DESC,
+                            desc, trigId);
+                } else {
+                    ContentValues values = new ContentValues();
+                    values.put(TriggerDB.KEY_RUNTIME_DESCRIPT, desc);
+                    count = mRawDb.update("triggers", values, TriggerDB.KEY_ID + "=?",
+                            new String[]{String.valueOf(trigId)});
+                }
+                assertEquals(1, count);
+            }
+            mRawDb.setTransactionSuccessful();
+        } finally {
+            mRawDb.endTransaction();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static String runTimeDesc(int round, int i) {
+        return "{\"trigger_timestamp\": " + (round * WRITES + i) + "}";
+    }
+
+    private ArrayList<Integer> seed(String campaignUrn) {
+        TimeTrigDesc desc = new TimeTrigDesc();
+        desc.setTriggerTime(new SimpleTime(8, 0));
+
+        TriggerDB db = new TriggerDB(mContext);
+        db.open();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < TRIGGERS; i++) {
+                db.addTrigger(UUID.randomUUID().toString(), campaignUrn, CAMPAIGN_NAME,
+                        new TimeTrigger().getTriggerType(), desc.toString(),
+                        "{\"surveys\": [\"a\"]}", null, TriggerRunTimeDesc.getDefaultDesc());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        ArrayList<Integer> ids = db.getAllTriggerIds();
+        db.close();
+        return ids;
+    }
+}
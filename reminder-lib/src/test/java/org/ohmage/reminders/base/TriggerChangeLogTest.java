@@ -0,0 +1,139 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ohmage.reminders.notif.NotifRefreshCoordinator;
+import org.ohmage.reminders.notif.NotifSurveyAdaptor;
+import org.ohmage.reminders.shadows.ShadowCancelablePendingIntent;
+import org.ohmage.reminders.shadows.ShadowIndexedAlarmManager;
+import org.ohmage.reminders.types.time.TimeTrigDesc;
+import org.ohmage.reminders.types.time.TimeTrigger;
+import org.ohmage.reminders.utils.SimpleTime;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Checks that the change log only holds the local edits: the writes of a
+ * sync are never uploaded back as local changes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18, shadows = {
+        ShadowCancelablePendingIntent.class, ShadowIndexedAlarmManager.class})
+public class TriggerChangeLogTest {
+
+    private static final String CAMPAIGN_NAME = "Change log test";
+    private static final String ACTIONS = "{\"surveys\": [\"a\"]}";
+
+    private Context mContext;
+    //The campaigns are cached by urn
+    private String mCampaignUrn;
+    private TriggerDB mDb;
+
+    @Before
+    public void setUp() {
+        //Every test has a database of its own, while the caches of
+        //the framework live as long as the test process
+        NotifSurveyAdaptor.invalidateAllTriggers();
+        NotifRefreshCoordinator.invalidate();
+
+        mContext = Robolectric.application;
+        mCampaignUrn = "urn:change_log_test:" + UUID.randomUUID();
+        mDb = new TriggerDB(mContext);
+        mDb.open();
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void syncDeletesAreNotLogged() {
+        sync(item("a", 8), item("b", 9));
+        assertEquals(0, getChangeCount());
+
+        //b is no longer on the server
+        TriggerSync.Result result = sync(item("a", 8));
+        assertEquals(1, result.deleted);
+        assertEquals(1, mDb.getAllTriggerIds().size());
+        assertEquals(0, getChangeCount());
+    }
+
+    @Test
+    public void syncDropsTheLocalEditsItOverwrites() {
+        sync(item("a", 8));
+        int trigId = mDb.getAllTriggerIds().get(0);
+
+        assertTrue(mDb.updateActionDescription(trigId, "{\"surveys\": [\"b\"]}"));
+        assertEquals(1, getChangeCount());
+
+        //The server changed the reminder meanwhile
+        TriggerSync.Result result = sync(item("a", 10));
+        assertEquals(1, result.updated);
+        assertEquals(0, getChangeCount());
+    }
+
+    @Test
+    public void syncDropsTheLocalEditsOfTheTriggersItDeletes() {
+        sync(item("a", 8), item("b", 9));
+        int trigId = mDb.getSyncStates(mCampaignUrn).get("b").id;
+        assertTrue(mDb.updateActionDescription(trigId, "{\"surveys\": [\"b\"]}"));
+
+        sync(item("a", 8));
+        assertEquals(0, getChangeCount());
+    }
+
+    @Test
+    public void localDeletesOfSyncedTriggersAreLogged() {
+        sync(item("a", 8));
+        int trigId = mDb.getAllTriggerIds().get(0);
+
+        assertEquals(1, mDb.deleteTriggers(Collections.singleton(trigId)));
+
+        Cursor c = mDb.getChanges(0, 10);
+        assertEquals(1, c.getCount());
+        assertTrue(c.moveToFirst());
+        assertEquals(TriggerDB.CHANGE_OP_DELETE,
+                c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_CHANGE_OP)));
+        c.close();
+    }
+
+    private TriggerSync.Result sync(TriggerSync.Item... items) {
+        TriggerSync.Session session = new TriggerSync.Session(mContext, mCampaignUrn,
+                CAMPAIGN_NAME, Integer.MAX_VALUE);
+        try {
+            for (TriggerSync.Item item : items) {
+                session.add(item);
+            }
+            return session.finish();
+        } finally {
+            session.close();
+        }
+    }
+
+    private static TriggerSync.Item item(String uuid, int hour) {
+        TimeTrigDesc desc = new TimeTrigDesc();
+        desc.setTriggerTime(new SimpleTime(hour, 0));
+        return new TriggerSync.Item(uuid, new TimeTrigger().getTriggerType(), desc.toString(),
+                ACTIONS);
+    }
+
+    private int getChangeCount() {
+        Cursor c = mDb.getChanges(0, 10);
+        int count = c.getCount();
+        c.close();
+        return count;
+    }
+}
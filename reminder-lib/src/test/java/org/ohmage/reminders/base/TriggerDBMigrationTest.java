@@ -0,0 +1,331 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ohmage.reminders.core.Histogram;
+import org.ohmage.reminders.core.Metrics;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Upgrades the triggers database from each of its older versions and
+ * checks that the triggers survive. Each database is created with the
+ * tables of that version as its onCreate() created them, leaving out the
+ * views and the SQLite triggers, which the upgrades create again.
+ *
+ * The upgrade of 10k triggers from version 3, the version before the
+ * migrations, is also timed. Its limit can be changed with the system
+ * property dbMigration.wallMs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TriggerDBMigrationTest {
+
+    private static final String DATABASE_NAME = "trigger_framework";
+    private static final int CURRENT_VERSION = 10;
+
+    private static final String CAMPAIGN_NAME = "Migration test";
+    private static final String TRIG_TYPE = "TimeTrigger";
+    //The description every trigger was given a copy of before version 4
+    private static final String NOTIF_DESC = "{\"duration\": 60, \"suppression\": 30}";
+    private static final String NOTIF_OVERRIDE = "{\"duration\": 15, \"suppression\": 10}";
+    private static final int TRIGGERS = 3;
+
+    private static final int LARGE_TRIGGERS = 10000;
+    private static final long LARGE_WALL_MS = Long.getLong("dbMigration.wallMs", 10000);
+
+    private Context mContext;
+    //The campaigns are cached by urn
+    private String mCampaignUrn;
+    private SQLiteDatabase mRawDb;
+
+    @Before
+    public void setUp() {
+        mContext = Robolectric.application;
+        mCampaignUrn = "urn:migration_test:" + UUID.randomUUID();
+    }
+
+    @After
+    public void tearDown() {
+        if (mRawDb != null) {
+            mRawDb.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1() {
+        upgradeFrom(1);
+    }
+
+    @Test
+    public void upgradeFromVersion2() {
+        upgradeFrom(2);
+    }
+
+    @Test
+    public void upgradeFromVersion3() {
+        upgradeFrom(3);
+    }
+
+    @Test
+    public void upgradeFromVersion4() {
+        upgradeFrom(4);
+    }
+
+    @Test
+    public void upgradeFromVersion5() {
+        upgradeFrom(5);
+    }
+
+    @Test
+    public void upgradeFromVersion6() {
+        upgradeFrom(6);
+    }
+
+    @Test
+    public void upgradeFromVersion7() {
+        upgradeFrom(7);
+    }
+
+    @Test
+    public void upgradeFromVersion8() {
+        upgradeFrom(8);
+    }
+
+    @Test
+    public void upgradeFromVersion9() {
+        upgradeFrom(9);
+    }
+
+    @Test
+    public void upgrade10000TriggersFromVersion3() {
+        createDatabase(3, LARGE_TRIGGERS);
+        Metrics.snapshot();
+
+        long start = System.nanoTime();
+        TriggerDB db = new TriggerDB(mContext);
+        db.open();
+        long wallMs = (System.nanoTime() - start) / 1000000;
+
+        //The upgrade ran once, in a single pass over the steps
+        Histogram migration = Metrics.snapshot().histograms.get(Metrics.DB_MIGRATION);
+        assertEquals(1, migration.getCount());
+
+        assertEquals(LARGE_TRIGGERS, db.getAllTriggerIds().size());
+        assertEquals(LARGE_TRIGGERS, db.getCampaignTriggerCount(mCampaignUrn));
+        db.close();
+
+        assertEquals(CURRENT_VERSION, pragma("user_version"));
+        assertTrue("Upgrade took " + wallMs + " ms, over the limit of " + LARGE_WALL_MS + " ms",
+                wallMs <= LARGE_WALL_MS);
+    }
+
+    private void upgradeFrom(int version) {
+        createDatabase(version, TRIGGERS);
+
+        TriggerDB db = new TriggerDB(mContext);
+        db.open();
+
+        ArrayList<Integer> ids = db.getAllTriggerIds();
+        assertEquals(TRIGGERS, ids.size());
+
+        HashSet<String> uuids = new HashSet<String>();
+        for (int i = 0; i < TRIGGERS; i++) {
+            int trigId = i + 1;
+            assertTrue(ids.contains(trigId));
+
+            assertEquals(TRIG_TYPE, db.getTriggerType(trigId));
+            assertEquals(trigDesc(i), db.getTriggerDescription(trigId));
+            assertEquals(actionDesc(i), db.getActionDescription(trigId));
+            assertEquals(runTimeDesc(i), db.getRunTimeDescription(trigId));
+            assertEquals(notifDesc(i), db.getNotifDescription(trigId));
+
+            Cursor c = db.getTrigger(trigId);
+            assertTrue(c.moveToFirst());
+            String uuid = c.getString(c.getColumnIndexOrThrow(TriggerDB.KEY_UUID));
+            c.close();
+            assertNotNull(uuid);
+            if (version >= 3) {
+                assertEquals(uuid(i), uuid);
+            }
+            assertTrue("Duplicate uuid " + uuid, uuids.add(uuid));
+
+            TriggerDB.Campaign campaign = db.getCampaignInfo(trigId);
+            if (version >= 2) {
+                assertEquals(mCampaignUrn, campaign.urn);
+                assertEquals(CAMPAIGN_NAME, campaign.name);
+                assertTrue(campaign.enabled);
+            } else {
+                assertNull(campaign);
+            }
+        }
+
+        //The tables added by the upgrades can be written
+        assertTrue(db.addTrigger(UUID.randomUUID().toString(), mCampaignUrn, CAMPAIGN_NAME,
+                TRIG_TYPE, trigDesc(TRIGGERS), actionDesc(TRIGGERS), null,
+                runTimeDesc(TRIGGERS)) != -1);
+        assertTrue(db.updateActionDescription(1, actionDesc(TRIGGERS)));
+        db.putDisplayColumns(2, TRIG_TYPE, trigDesc(1), actionDesc(1), "Title", "Summary",
+                1, "survey", null, "en");
+        Cursor c = db.getTriggerListPage(null, "Title", 0, TRIGGERS + 1);
+        assertEquals(1, c.getCount());
+        c.close();
+        assertFalse(db.getLastChangeSeq() < 0);
+        db.close();
+
+        assertEquals(CURRENT_VERSION, pragma("user_version"));
+    }
+
+    /*
+     * Create the database of the given version with the given number of
+     * triggers, the first of which has its own notification description
+     */
+    private void createDatabase(int version, int triggers) {
+        SQLiteDatabase db = openRaw();
+        db.beginTransaction();
+        try {
+            createTables(db, version);
+            for (int i = 0; i < triggers; i++) {
+                insertTrigger(db, version, i);
+            }
+            db.setVersion(version);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            db.close();
+        }
+    }
+
+    private static void createTables(SQLiteDatabase db, int version) {
+        StringBuilder triggers = new StringBuilder(
+                "create table triggers (_id integer primary key autoincrement, ");
+        if (version >= 3) {
+            triggers.append("uuid string unique, ");
+        }
+        if (version >= 5) {
+            triggers.append("campaign_id integer references campaigns (_id), ");
+        } else if (version >= 2) {
+            triggers.append("campaign_urn text, campaign_name text, ");
+        }
+        triggers.append("trigger_type text not null, trig_descript text, "
+                + "trig_action_descript text, notif_descript text, runtime_descript text");
+        if (version >= 4) {
+            triggers.append(", notif_profile_id integer not null default 1");
+        }
+        if (version >= 7) {
+            triggers.append(", sync_hash text");
+        }
+        triggers.append(")");
+
+        if (version >= 5) {
+            db.execSQL("create table campaigns (_id integer primary key autoincrement, "
+                    + "urn text not null unique, name text"
+                    + (version >= 6 ? ", enabled integer not null default 1)" : ")"));
+        }
+        db.execSQL(triggers.toString());
+        if (version >= 5) {
+            db.execSQL("CREATE INDEX triggers_campaign_id ON triggers (campaign_id)");
+        }
+        if (version >= 4) {
+            db.execSQL("create table notif_profiles (_id integer primary key autoincrement, "
+                    + "descript text not null)");
+            db.execSQL("INSERT INTO notif_profiles (_id, descript) VALUES (1, "
+                    + DatabaseUtils.sqlEscapeString(NOTIF_DESC) + ")");
+        }
+        if (version >= 8) {
+            db.execSQL("create table change_log (seq integer primary key autoincrement, "
+                    + "entity text not null, entity_id integer not null, uuid text, "
+                    + "op text not null, unique (entity, entity_id))");
+        }
+        if (version >= 9) {
+            db.execSQL("create table trigger_display (_id integer primary key, "
+                    + "display_title text, display_summary text, "
+                    + "survey_count integer not null default 0, display_locale text)");
+        }
+    }
+
+    private void insertTrigger(SQLiteDatabase db, int version, int i) {
+        StringBuilder columns = new StringBuilder("trigger_type, trig_descript, "
+                + "trig_action_descript, notif_descript, runtime_descript");
+        ArrayList<Object> values = new ArrayList<Object>();
+        values.add(TRIG_TYPE);
+        values.add(trigDesc(i));
+        values.add(actionDesc(i));
+        //From version 4 the triggers without an override use the profile
+        values.add(version >= 4 && i != 0 ? null : notifDesc(i));
+        values.add(runTimeDesc(i));
+
+        if (version >= 3) {
+            columns.append(", uuid");
+            values.add(uuid(i));
+        }
+        if (version >= 5) {
+            db.execSQL("INSERT OR IGNORE INTO campaigns (urn, name) VALUES (?, ?)",
+                    new Object[]{mCampaignUrn, CAMPAIGN_NAME});
+            columns.append(", campaign_id");
+            values.add(DatabaseUtils.longForQuery(db, "SELECT _id FROM campaigns WHERE urn=?",
+                    new String[]{mCampaignUrn}));
+        } else if (version >= 2) {
+            columns.append(", campaign_urn, campaign_name");
+            values.add(mCampaignUrn);
+            values.add(CAMPAIGN_NAME);
+        }
+
+        StringBuilder params = new StringBuilder("?");
+        for (int j = 1; j < values.size(); j++) {
+            params.append(", ?");
+        }
+        db.execSQL("INSERT INTO triggers (" + columns + ") VALUES (" + params + ")",
+                values.toArray());
+    }
+
+    private static String uuid(int i) {
+        return "uuid-" + i;
+    }
+
+    private static String trigDesc(int i) {
+        return "{\"time\": \"" + (8 + i % 12) + ":00\"}";
+    }
+
+    private static String actionDesc(int i) {
+        return "{\"surveys\": [\"survey " + i % 4 + "\"]}";
+    }
+
+    private static String notifDesc(int i) {
+        return i == 0 ? NOTIF_OVERRIDE : NOTIF_DESC;
+    }
+
+    private static String runTimeDesc(int i) {
+        return "{\"trigger_timestamp\": " + (1000L * i) + "}";
+    }
+
+    private SQLiteDatabase openRaw() {
+        return SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(DATABASE_NAME).getPath(), null);
+    }
+
+    private long pragma(String name) {
+        if (mRawDb == null) {
+            mRawDb = openRaw();
+        }
+        return DatabaseUtils.longForQuery(mRawDb, "PRAGMA " + name, null);
+    }
+}
@@ -0,0 +1,180 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Checks that the events database is switched to the incremental vacuum,
+ * both when it is created and when it was created by an older version
+ * without it, so that compact() gives the space of deleted events back.
+ * Also checks that the events survive the upgrade from version 1, and
+ * times it with 10k events. Its limit can be changed with the system
+ * property dbMigration.wallMs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TriggerEventDBTest {
+
+    private static final String DATABASE_NAME = "trigger_events";
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+    private static final int EVENTS = 5000;
+    private static final int CURRENT_VERSION = 2;
+
+    private static final int LARGE_EVENTS = 10000;
+    private static final long LARGE_WALL_MS = Long.getLong("dbMigration.wallMs", 10000);
+
+    private Context mContext;
+    private SQLiteDatabase mRawDb;
+
+    @Before
+    public void setUp() {
+        mContext = Robolectric.application;
+    }
+
+    @After
+    public void tearDown() {
+        if (mRawDb != null) {
+            mRawDb.close();
+        }
+    }
+
+    @Test
+    public void newDatabaseUsesIncrementalVacuum() {
+        TriggerEventDB db = new TriggerEventDB(mContext);
+        db.open();
+        db.close();
+
+        assertEquals(AUTO_VACUUM_INCREMENTAL, pragma("auto_vacuum"));
+    }
+
+    @Test
+    public void existingDatabaseIsSwitchedToIncrementalVacuum() {
+        //The schema of version 2 as created with the pragma in onCreate(),
+        //where it had no effect
+        mRawDb = openRaw();
+        mRawDb.execSQL("create table trigger_events (_id integer primary key autoincrement, "
+                + "trigger_id integer not null, type integer not null, "
+                + "time integer not null, survey text)");
+        mRawDb.execSQL("create table response_stats (scope text not null, "
+                + "name text not null, taken integer not null, ignored integer not null, "
+                + "expired integer not null, response_times text, primary key (scope, name))");
+        mRawDb.execSQL("insert into trigger_events (trigger_id, type, time) values (1, 1, 1000)");
+        mRawDb.setVersion(2);
+        assertEquals(0, pragma("auto_vacuum"));
+        mRawDb.close();
+        mRawDb = null;
+
+        TriggerEventDB db = new TriggerEventDB(mContext);
+        db.open();
+        assertEquals(1, db.getEventCount(1, TriggerEventDB.TYPE_FIRED, 0, Long.MAX_VALUE));
+        db.close();
+
+        assertEquals(AUTO_VACUUM_INCREMENTAL, pragma("auto_vacuum"));
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsTheEvents() {
+        createVersion1(EVENTS);
+
+        TriggerEventDB db = new TriggerEventDB(mContext);
+        db.open();
+        assertEquals(EVENTS / 10, db.getEventCount(3, TriggerEventDB.TYPE_FIRED, 0, Long.MAX_VALUE));
+
+        //The stats added by version 2 start empty
+        assertEquals(0, db.getResponseStats(TriggerEventDB.SCOPE_SURVEY, "survey").getTakenCount());
+        db.addResponseOutcome(TriggerEventDB.SCOPE_SURVEY, "survey", TriggerEventDB.TYPE_TAKEN,
+                60000);
+        assertEquals(1, db.getResponseStats(TriggerEventDB.SCOPE_SURVEY, "survey").getTakenCount());
+        db.close();
+
+        assertEquals(CURRENT_VERSION, pragma("user_version"));
+    }
+
+    @Test
+    public void upgrade10000EventsFromVersion1() {
+        createVersion1(LARGE_EVENTS);
+
+        //Includes the vacuum which switches the database to the incremental one
+        long start = System.nanoTime();
+        TriggerEventDB db = new TriggerEventDB(mContext);
+        db.open();
+        long wallMs = (System.nanoTime() - start) / 1000000;
+
+        long count = 0;
+        for (int trigId = 0; trigId < 10; trigId++) {
+            count += db.getEventCount(trigId, TriggerEventDB.TYPE_FIRED, 0, Long.MAX_VALUE);
+        }
+        db.close();
+
+        assertEquals(LARGE_EVENTS, count);
+        assertEquals(CURRENT_VERSION, pragma("user_version"));
+        assertTrue("Upgrade took " + wallMs + " ms, over the limit of " + LARGE_WALL_MS + " ms",
+                wallMs <= LARGE_WALL_MS);
+    }
+
+    @Test
+    public void compactFreesTheDeletedPages() {
+        TriggerEventDB db = new TriggerEventDB(mContext);
+        db.open();
+        for (int i = 0; i < EVENTS; i++) {
+            db.addEvent(i % 10, TriggerEventDB.TYPE_FIRED, 1000 + i, "survey " + i);
+        }
+        db.deleteEventsBefore(1000 + EVENTS);
+        db.compact();
+        db.close();
+
+        assertEquals(0, pragma("freelist_count"));
+    }
+
+    /*
+     * Create the database of version 1, which had no response stats, with
+     * the given number of events spread over ten triggers
+     */
+    private void createVersion1(int events) {
+        SQLiteDatabase db = openRaw();
+        db.beginTransaction();
+        try {
+            db.execSQL("create table trigger_events (_id integer primary key autoincrement, "
+                    + "trigger_id integer not null, type integer not null, "
+                    + "time integer not null, survey text)");
+            db.execSQL("create index trigger_events_trigger_time on trigger_events "
+                    + "(trigger_id, time)");
+            db.execSQL("create index trigger_events_time on trigger_events (time)");
+
+            for (int i = 0; i < events; i++) {
+                db.execSQL("insert into trigger_events (trigger_id, type, time, survey) "
+                        + "values (?, ?, ?, ?)", new Object[]{i % 10, TriggerEventDB.TYPE_FIRED,
+                        1000 + i, "survey " + i % 4});
+            }
+            db.setVersion(1);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            db.close();
+        }
+    }
+
+    private SQLiteDatabase openRaw() {
+        return SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(DATABASE_NAME).getPath(), null);
+    }
+
+    private long pragma(String name) {
+        if (mRawDb == null) {
+            mRawDb = openRaw();
+        }
+        return DatabaseUtils.longForQuery(mRawDb, "PRAGMA " + name, null);
+    }
+}
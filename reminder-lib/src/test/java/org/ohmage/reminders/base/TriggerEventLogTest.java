@@ -0,0 +1,93 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ohmage.reminders.core.ResponseStats;
+import org.ohmage.reminders.notif.NotifDesc;
+import org.ohmage.reminders.notif.NotifRefreshCoordinator;
+import org.ohmage.reminders.notif.NotifSurveyAdaptor;
+import org.ohmage.reminders.types.time.TimeTrigDesc;
+import org.ohmage.reminders.types.time.TimeTrigger;
+import org.ohmage.reminders.utils.SimpleTime;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Checks that an outcome of a survey activated by several triggers is
+ * counted for each of the triggers, but only once for the survey.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TriggerEventLogTest {
+
+    private static final String CAMPAIGN_NAME = "Event log test";
+    private static final long MINUTE = 60000L;
+
+    private Context mContext;
+    private String mCampaignUrn;
+
+    @Before
+    public void setUp() {
+        //Every test has a database of its own, while the caches of
+        //the framework live as long as the test process
+        NotifSurveyAdaptor.invalidateAllTriggers();
+        NotifRefreshCoordinator.invalidate();
+
+        mContext = Robolectric.application;
+        //The campaigns are cached by urn
+        mCampaignUrn = "urn:event_log_test:" + UUID.randomUUID();
+    }
+
+    @Test
+    public void surveyActivatedByTwoTriggersIsCountedOnce() {
+        long now = System.currentTimeMillis();
+        int older = addTrigger("{\"surveys\": [\"a\"]}", now - 10 * MINUTE);
+        int newer = addTrigger("{\"surveys\": [\"a\", \"b\"]}", now - 5 * MINUTE);
+
+        TriggerEventLog.recordForActiveTriggers(mContext, TriggerEventDB.TYPE_TAKEN,
+                Collections.singleton("a"));
+        long elapsed = System.currentTimeMillis() - now;
+
+        assertEquals(1, TriggerEventLog.getTriggerResponseStats(mContext, older).getTakenCount());
+        assertEquals(1, TriggerEventLog.getTriggerResponseStats(mContext, newer).getTakenCount());
+
+        ResponseStats survey = TriggerEventLog.getSurveyResponseStats(mContext, "a");
+        assertEquals(1, survey.getTakenCount());
+        //Timed from the trigger which activated the survey last, to the
+        //second as the response times are kept in seconds
+        long meanMs = survey.getMeanResponseTime();
+        assertTrue("Mean response time " + meanMs + " ms",
+                meanMs >= 5 * MINUTE - 1000 && meanMs <= 5 * MINUTE + elapsed);
+
+        assertEquals(0, TriggerEventLog.getSurveyResponseStats(mContext, "b").getTakenCount());
+    }
+
+    private int addTrigger(String actions, long trigTS) {
+        TimeTrigDesc desc = new TimeTrigDesc();
+        desc.setTriggerTime(new SimpleTime(8, 0));
+
+        TriggerRunTimeDesc rtDesc = new TriggerRunTimeDesc();
+        rtDesc.loadString(TriggerRunTimeDesc.getDefaultDesc());
+        rtDesc.setTriggerTimeStamp(trigTS);
+
+        TriggerDB db = new TriggerDB(mContext);
+        db.open();
+        int trigId = (int) db.addTrigger(UUID.randomUUID().toString(), mCampaignUrn,
+                CAMPAIGN_NAME, new TimeTrigger().getTriggerType(), desc.toString(), actions,
+                NotifDesc.getDefaultDesc(mContext), rtDesc.toString());
+        db.close();
+
+        NotifSurveyAdaptor.invalidateAllTriggers();
+        return trigId;
+    }
+}
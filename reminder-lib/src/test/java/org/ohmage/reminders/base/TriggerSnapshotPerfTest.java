@@ -0,0 +1,277 @@
+package org.ohmage.reminders.base;
+
+import android.content.Context;
+import android.content.Intent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ohmage.reminders.config.NotifConfig;
+import org.ohmage.reminders.core.Histogram;
+import org.ohmage.reminders.core.Metrics;
+import org.ohmage.reminders.core.MetricsSnapshot;
+import org.ohmage.reminders.glue.TriggerFramework;
+import org.ohmage.reminders.notif.NotifRefreshCoordinator;
+import org.ohmage.reminders.notif.NotifSurveyAdaptor;
+import org.ohmage.reminders.shadows.ShadowCancelablePendingIntent;
+import org.ohmage.reminders.shadows.ShadowIndexedAlarmManager;
+import org.ohmage.reminders.types.location.LocTrigService;
+import org.ohmage.reminders.types.time.TimeTrigDesc;
+import org.ohmage.reminders.types.time.TimeTrigService;
+import org.ohmage.reminders.types.time.TimeTrigger;
+import org.ohmage.reminders.utils.SimpleTime;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ * Measures the export of a snapshot, TriggerSnapshot.export(), and its
+ * restore, TriggerSnapshot.restore(), with 100, 1k and 10k time triggers.
+ * A run fails when it goes over its Budget, whose limits grow linearly
+ * with the number of triggers.
+ *
+ * As in BootRestorePerfTest, the services started by the restore are run
+ * by the test as well, so the counts cover the whole restore:
+ *
+ *  - alarms, the alarms scheduled in the shadow AlarmManager
+ *  - intents, the services started and the broadcasts sent
+ *  - queries, the reads and writes recorded by the metrics of TriggerDB
+ *    and LocTrigDB, wherever they were made
+ *  - bytes, the size of the snapshot, for the export
+ *
+ * The times are those recorded by the snapshot in its metrics, with the
+ * database behind Robolectric, so their limits are only a guard against
+ * the export or the restore becoming quadratic. The limits can be changed
+ * with system properties, for instance -Dsnapshot.msPerTrigger=50 on a
+ * slow machine.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18, shadows = {
+        ShadowCancelablePendingIntent.class, ShadowIndexedAlarmManager.class})
+public class TriggerSnapshotPerfTest {
+
+    private static final String AUTHORITY = "org.ohmage.reminders.test";
+    private static final String CAMPAIGN_URN = "urn:snapshot_test:";
+    private static final String CAMPAIGN_NAME = "Snapshot test";
+
+    /*
+     * The budget of a run
+     */
+    static class Budget {
+        final long msPerTrigger = Long.getLong("snapshot.msPerTrigger", 20);
+        final long bytesPerTrigger = Long.getLong("snapshot.bytesPerTrigger", 100);
+        final long queriesPerTrigger = Long.getLong("snapshot.queriesPerTrigger", 2);
+        final long intentsPerTrigger = Long.getLong("snapshot.intentsPerTrigger", 1);
+        final long alarmsPerTrigger = Long.getLong("snapshot.alarmsPerTrigger", 2);
+        //Allowance for the fixed cost of a run
+        final long base = Long.getLong("snapshot.base", 50);
+        final long baseBytes = Long.getLong("snapshot.baseBytes", 4096);
+
+        void check(String name, int triggers, Result result) {
+            assertWithin(name + " time", result.ms, base, msPerTrigger, triggers);
+            assertWithin(name + " queries", result.queries, base, queriesPerTrigger, triggers);
+            assertWithin(name + " intents", result.intents, base, intentsPerTrigger, triggers);
+            assertWithin(name + " alarms", result.alarms, base, alarmsPerTrigger, triggers);
+        }
+
+        void checkSize(int triggers, long bytes) {
+            assertWithin("Snapshot size", bytes, baseBytes, bytesPerTrigger, triggers);
+        }
+
+        private void assertWithin(String what, long value, long base, long perTrigger,
+                                  int triggers) {
+            long limit = base + perTrigger * triggers;
+            assertTrue(what + " " + value + " over the budget of " + limit
+                    + " for " + triggers + " triggers", value <= limit);
+        }
+    }
+
+    static class Result {
+        long ms;
+        long queries;
+        long intents;
+        long alarms;
+    }
+
+    private Context mContext;
+    private ShadowApplication mApp;
+    private ShadowIndexedAlarmManager mAlarms;
+    private TimeTrigService mTimeService;
+    private int mStartId = 0;
+
+    @Before
+    public void setUp() {
+        //Every test has a database of its own, while the caches of
+        //the framework live as long as the test process
+        NotifSurveyAdaptor.invalidateAllTriggers();
+        NotifRefreshCoordinator.invalidate();
+        //The restore writes the pending state of the surveys
+        TriggerFramework.setAuthority(AUTHORITY);
+
+        mContext = Robolectric.application;
+        mApp = Robolectric.shadowOf(Robolectric.application);
+        mAlarms = Robolectric.shadowOf_(mContext.getSystemService(Context.ALARM_SERVICE));
+        mTimeService = Robolectric.buildService(TimeTrigService.class)
+                .attach().create().get();
+    }
+
+    @Test
+    public void snapshot100Triggers() throws IOException {
+        snapshot(100);
+    }
+
+    @Test
+    public void snapshot1000Triggers() throws IOException {
+        snapshot(1000);
+    }
+
+    @Test
+    public void snapshot10000Triggers() throws IOException {
+        snapshot(10000);
+    }
+
+    private void snapshot(int count) throws IOException {
+        //The campaigns are cached by urn
+        seed(CAMPAIGN_URN + count, count);
+        TriggerInit.initTriggers(mContext, null, null);
+        drain();
+        Budget budget = new Budget();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Result export = measure(Metrics.SNAPSHOT_EXPORT, new Task() {
+            @Override
+            public void run() throws IOException {
+                TriggerSnapshot.export(mContext, out);
+            }
+        });
+        budget.check("Export", count, export);
+        budget.checkSize(count, out.size());
+
+        final int[] restored = new int[1];
+        Result restore = measure(Metrics.SNAPSHOT_RESTORE, new Task() {
+            @Override
+            public void run() throws IOException {
+                restored[0] = TriggerSnapshot.restore(mContext,
+                        new ByteArrayInputStream(out.toByteArray()));
+            }
+        });
+        assertEquals(count, restored[0]);
+        assertTrue("Not all the triggers have an alarm", restore.alarms >= count);
+        budget.check("Restore", count, restore);
+    }
+
+    interface Task {
+        void run() throws IOException;
+    }
+
+    /*
+     * Run the task along with all the work it queues and count
+     * what it did
+     */
+    private Result measure(String histogram, Task task) throws IOException {
+        //Start new intervals for the histograms
+        Metrics.snapshot();
+        mApp.clearStartedServices();
+        mApp.getBroadcastIntents().clear();
+
+        Result result = new Result();
+
+        task.run();
+        result.intents = drain();
+
+        result.intents += mApp.getBroadcastIntents().size();
+        result.alarms = mAlarms.getScheduledAlarmCount();
+
+        MetricsSnapshot snapshot = Metrics.snapshot();
+        Histogram time = snapshot.histograms.get(histogram);
+        assertEquals(1, time.getCount());
+        result.ms = time.getMax();
+        result.queries = count(snapshot, Metrics.TRIGGER_DB_READ)
+                + count(snapshot, Metrics.TRIGGER_DB_WRITE)
+                + count(snapshot, Metrics.LOC_TRIG_DB_READ)
+                + count(snapshot, Metrics.LOC_TRIG_DB_WRITE);
+        return result;
+    }
+
+    /*
+     * Hand the started services their intents and run the engine until
+     * nothing is left, including the deferred notification refreshes.
+     * The location service, which has no places to watch here, is only
+     * counted. Returns the number of services started.
+     */
+    private int drain() {
+        int started = 0;
+
+        do {
+            Intent i;
+            while ((i = mApp.getNextStartedService()) != null) {
+                started++;
+
+                String service = i.getComponent().getClassName();
+                if (LocTrigService.class.getName().equals(service)) {
+                    continue;
+                }
+                if (!TimeTrigService.class.getName().equals(service)) {
+                    fail("Unexpected service started: " + i);
+                }
+                //Each intent must stay below the limit of a binder transaction
+                int triggers = TriggerBase.getTriggers(i).size();
+                assertTrue("Intent with " + triggers + " triggers",
+                        triggers <= TriggerBase.MAX_TRIGGERS_PER_INTENT);
+                mTimeService.onStartCommand(i, 0, ++mStartId);
+            }
+
+            Robolectric.shadowOf(TriggerEngine.getLooper())
+                    .idle(NotifConfig.refreshDebounceWindow);
+        } while (mApp.peekNextStartedService() != null);
+
+        return started;
+    }
+
+    private static long count(MetricsSnapshot snapshot, String histogram) {
+        Histogram h = snapshot.histograms.get(histogram);
+        return h == null ? 0 : h.getCount();
+    }
+
+    /*
+     * Add the given number of time triggers, every tenth of which
+     * has already gone off
+     */
+    private void seed(String campaignUrn, int count) {
+        long now = System.currentTimeMillis();
+
+        TriggerDB db = new TriggerDB(mContext);
+        db.open();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                TimeTrigDesc desc = new TimeTrigDesc();
+                desc.setTriggerTime(new SimpleTime(7 + i % 14, (i * 5) % 60));
+
+                TriggerRunTimeDesc rtDesc = new TriggerRunTimeDesc();
+                rtDesc.loadString(TriggerRunTimeDesc.getDefaultDesc());
+                if (i % 10 == 0) {
+                    rtDesc.setTriggerTimeStamp(now - (i % 30) * 60000L);
+                }
+
+                db.addTrigger(UUID.randomUUID().toString(), campaignUrn, CAMPAIGN_NAME,
+                        new TimeTrigger().getTriggerType(), desc.toString(),
+                        "{\"surveys\": [\"" + (i % 4) + "\"]}", null, rtDesc.toString());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            db.close();
+        }
+    }
+}
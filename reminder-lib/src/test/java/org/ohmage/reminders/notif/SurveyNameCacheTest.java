@@ -0,0 +1,129 @@
+package org.ohmage.reminders.notif;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ohmage.reminders.base.PendingStateWriter;
+import org.ohmage.reminders.base.ReminderContract.Reminders;
+import org.ohmage.reminders.glue.TriggerFramework;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Checks that the cache of the survey names survives the writes of the
+ * pending state, which the provider of the host reports as changes to the
+ * reminders uri, and that it picks up the names changed by the host.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class SurveyNameCacheTest {
+
+    private static final String AUTHORITY = "org.ohmage.reminders.test";
+
+    /*
+     * Provider of the host which notifies every update, as most providers do
+     */
+    static class HostProvider extends ContentProvider {
+        final HashMap<String, String> names = new HashMap<String, String>();
+        int queries = 0;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+            queries++;
+            MatrixCursor c = new MatrixCursor(projection);
+            for (String id : selectionArgs) {
+                if (names.containsKey(id)) {
+                    c.addRow(new Object[]{id, names.get(id)});
+                }
+            }
+            return c;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                          String[] selectionArgs) {
+            if (values.containsKey(Reminders.REMINDER_NAME)) {
+                for (String id : selectionArgs) {
+                    names.put(id, values.getAsString(Reminders.REMINDER_NAME));
+                }
+            }
+            Robolectric.application.getContentResolver().notifyChange(uri, null);
+            return selectionArgs.length;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    private Context mContext;
+    private HostProvider mProvider;
+
+    @Before
+    public void setUp() {
+        TriggerFramework.setAuthority(AUTHORITY);
+        SurveyNameCache.invalidate();
+
+        mContext = Robolectric.application;
+        mProvider = new HostProvider();
+        mProvider.names.put("a", "Morning survey");
+        mProvider.names.put("b", "Evening survey");
+        ShadowContentResolver.registerProvider(AUTHORITY, mProvider);
+    }
+
+    @Test
+    public void namesAreReadAgainOnlyWhenTheProviderChanges() {
+        assertEquals(mProvider.names, SurveyNameCache.getNames(mContext, Arrays.asList("a", "b")));
+        assertEquals(1, mProvider.queries);
+        assertFalse(SurveyNameCache.reloadIfStale(mContext));
+
+        //A trigger went off
+        PendingStateWriter.write(mContext, System.currentTimeMillis(), "a", "b");
+        assertFalse(SurveyNameCache.reloadIfStale(mContext));
+        assertEquals(2, mProvider.queries);
+        assertEquals("Morning survey", SurveyNameCache.getName(mContext, "a"));
+        assertEquals(2, mProvider.queries);
+
+        //The host renamed a survey
+        ContentValues values = new ContentValues();
+        values.put(Reminders.REMINDER_NAME, "Breakfast survey");
+        mContext.getContentResolver().update(Reminders.buildRemindersUri(), values,
+                Reminders._ID + "=?", new String[]{"a"});
+        assertTrue(SurveyNameCache.reloadIfStale(mContext));
+        assertEquals("Breakfast survey", SurveyNameCache.getName(mContext, "a"));
+        assertEquals(3, mProvider.queries);
+    }
+}
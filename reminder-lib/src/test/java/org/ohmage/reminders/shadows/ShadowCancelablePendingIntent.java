@@ -0,0 +1,20 @@
+package org.ohmage.reminders.shadows;
+
+import android.app.PendingIntent;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowPendingIntent;
+
+/*
+ * Lets the services cancel their pending intents. The PendingIntent
+ * shadow of Robolectric leaves cancel() to the platform, which fails
+ * without an activity manager.
+ */
+@Implements(PendingIntent.class)
+public class ShadowCancelablePendingIntent extends ShadowPendingIntent {
+
+    @Implementation
+    public void cancel() {
+    }
+}
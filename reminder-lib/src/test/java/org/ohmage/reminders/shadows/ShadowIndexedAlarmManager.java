@@ -0,0 +1,94 @@
+package org.ohmage.reminders.shadows;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Intent;
+
+import org.robolectric.Robolectric;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowPendingIntent;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * AlarmManager which keeps the alarms keyed by their pending intent.
+ * The AlarmManager shadow of Robolectric looks through all the alarms
+ * each time one is set or cancelled, which makes setting thousands of
+ * alarms take minutes.
+ *
+ * As with the platform, an alarm replaces the alarm of an equal pending
+ * intent, that is one for the same kind of component, request code and
+ * intent as compared by Intent.filterEquals().
+ */
+@Implements(AlarmManager.class)
+public class ShadowIndexedAlarmManager {
+
+    private final HashMap<Key, Long> mAlarms = new HashMap<Key, Long>();
+
+    @Implementation
+    public void set(int type, long triggerAtTime, PendingIntent operation) {
+        mAlarms.put(new Key(operation), triggerAtTime);
+    }
+
+    @Implementation
+    public void setRepeating(int type, long triggerAtTime, long interval,
+                             PendingIntent operation) {
+        mAlarms.put(new Key(operation), triggerAtTime);
+    }
+
+    @Implementation
+    public void setInexactRepeating(int type, long triggerAtTime, long interval,
+                                    PendingIntent operation) {
+        mAlarms.put(new Key(operation), triggerAtTime);
+    }
+
+    @Implementation
+    public void cancel(PendingIntent operation) {
+        mAlarms.remove(new Key(operation));
+    }
+
+    /*
+     * Get the number of alarms set and not cancelled
+     */
+    public int getScheduledAlarmCount() {
+        return mAlarms.size();
+    }
+
+    private static class Key {
+        private final Intent mIntent;
+        private final int mRequestCode;
+        private final boolean mBroadcast;
+        private final boolean mService;
+
+        Key(PendingIntent operation) {
+            ShadowPendingIntent pi = Robolectric.shadowOf(operation);
+            mIntent = pi.getSavedIntent();
+            mRequestCode = pi.getRequestCode();
+            mBroadcast = pi.isBroadcastIntent();
+            mService = pi.isServiceIntent();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return mRequestCode == other.mRequestCode
+                    && mBroadcast == other.mBroadcast
+                    && mService == other.mService
+                    && mIntent.filterEquals(other.mIntent);
+        }
+
+        @Override
+        public int hashCode() {
+            //Intent.filterHashCode() does not see the fields of the shadow
+            return Arrays.hashCode(new Object[]{mIntent.getAction(), mIntent.getData(),
+                    mIntent.getType(), mIntent.getPackage(), mIntent.getComponent(),
+                    mRequestCode});
+        }
+    }
+}